@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.FetchMetadata;
+import org.apache.kafka.common.requests.FetchRequest.PartitionData;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains the fetch session with a broker. Once the broker has created a session, a fetch request only lists the
+ * partitions which were added or changed since the previous fetch and the partitions which were removed, and the
+ * response only includes the partitions with new data, errors or changed offsets.
+ *
+ * The fetches of a session must be sent one at a time: the next request is built after the response to the
+ * previous request has been handled. This class is not thread-safe.
+ */
+public class FetchSessionHandler {
+    private static final Logger log = LoggerFactory.getLogger(FetchSessionHandler.class);
+
+    private final int node;
+
+    // the session ID and epoch of the next fetch
+    private FetchMetadata nextMetadata = FetchMetadata.INITIAL;
+
+    // the partitions of the session, as sent to the broker by the last fetch
+    private LinkedHashMap<TopicPartition, PartitionData> sessionPartitions = new LinkedHashMap<>();
+
+    public FetchSessionHandler(int node) {
+        this.node = node;
+    }
+
+    /**
+     * The data of a fetch request.
+     */
+    public static class FetchRequestData {
+        private final LinkedHashMap<TopicPartition, PartitionData> toSend;
+        private final List<TopicPartition> toForget;
+        private final Map<TopicPartition, PartitionData> sessionPartitions;
+        private final FetchMetadata metadata;
+
+        FetchRequestData(LinkedHashMap<TopicPartition, PartitionData> toSend,
+                         List<TopicPartition> toForget,
+                         Map<TopicPartition, PartitionData> sessionPartitions,
+                         FetchMetadata metadata) {
+            this.toSend = toSend;
+            this.toForget = toForget;
+            this.sessionPartitions = sessionPartitions;
+            this.metadata = metadata;
+        }
+
+        /**
+         * The partitions to list in the request, which are all the partitions to fetch if the fetch is full.
+         */
+        public LinkedHashMap<TopicPartition, PartitionData> toSend() {
+            return toSend;
+        }
+
+        /**
+         * The partitions to remove from the session.
+         */
+        public List<TopicPartition> toForget() {
+            return toForget;
+        }
+
+        /**
+         * All the partitions fetched by the request.
+         */
+        public Map<TopicPartition, PartitionData> sessionPartitions() {
+            return sessionPartitions;
+        }
+
+        public FetchMetadata metadata() {
+            return metadata;
+        }
+
+        public boolean isEmpty() {
+            return sessionPartitions.isEmpty() && toForget.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            if (metadata.isFull())
+                return "FullFetchRequest(" + toSend.keySet() + ", metadata=" + metadata + ")";
+            return "IncrementalFetchRequest(toSend=" + toSend.keySet() + ", toForget=" + toForget +
+                    ", metadata=" + metadata + ")";
+        }
+    }
+
+    /**
+     * Builds the next fetch request from the partitions to fetch.
+     */
+    public class Builder {
+        private final LinkedHashMap<TopicPartition, PartitionData> next = new LinkedHashMap<>();
+
+        /**
+         * Add a partition to fetch, in the order in which the partitions should be fetched.
+         */
+        public void add(TopicPartition topicPartition, PartitionData data) {
+            next.put(topicPartition, data);
+        }
+
+        /**
+         * Build the request. The partitions become the partitions of the session, so the request must be sent.
+         */
+        public FetchRequestData build() {
+            Map<TopicPartition, PartitionData> partitions = Collections.unmodifiableMap(next);
+            if (nextMetadata.isFull()) {
+                sessionPartitions = next;
+                return new FetchRequestData(next, Collections.<TopicPartition>emptyList(), partitions, nextMetadata);
+            }
+
+            LinkedHashMap<TopicPartition, PartitionData> toSend = new LinkedHashMap<>();
+            for (Map.Entry<TopicPartition, PartitionData> entry : next.entrySet()) {
+                if (!entry.getValue().equals(sessionPartitions.get(entry.getKey())))
+                    toSend.put(entry.getKey(), entry.getValue());
+            }
+            List<TopicPartition> toForget = new ArrayList<>();
+            for (TopicPartition topicPartition : sessionPartitions.keySet()) {
+                if (!next.containsKey(topicPartition))
+                    toForget.add(topicPartition);
+            }
+            sessionPartitions = next;
+            return new FetchRequestData(toSend, toForget, partitions, nextMetadata);
+        }
+    }
+
+    public Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * The ID of the current session, or 0 if there is none.
+     */
+    public int sessionId() {
+        return nextMetadata.sessionId();
+    }
+
+    /**
+     * Handle the response to the last fetch request.
+     *
+     * @param response The response
+     * @return true if the response is valid, false if its partitions should be ignored, in which case the next
+     *         fetch creates a new session
+     */
+    public boolean handleResponse(FetchResponse response) {
+        if (response.error() != Errors.NONE) {
+            log.info("Node {} was unable to process the fetch request with {}: {}.", node, nextMetadata,
+                    response.error());
+            if (response.error() == Errors.FETCH_SESSION_ID_NOT_FOUND)
+                nextMetadata = FetchMetadata.INITIAL;
+            else
+                nextMetadata = nextMetadata.nextCloseExisting();
+            return false;
+        }
+
+        if (nextMetadata.isFull()) {
+            if (!response.responseData().keySet().equals(sessionPartitions.keySet())) {
+                log.info("Ignoring the response of node {} to a full fetch, since its partitions {} do not match " +
+                        "the requested partitions {}", node, response.responseData().keySet(), sessionPartitions.keySet());
+                nextMetadata = new FetchMetadata(response.sessionId(), FetchMetadata.INITIAL_EPOCH);
+                return false;
+            }
+            if (response.sessionId() == FetchMetadata.INVALID_SESSION_ID) {
+                nextMetadata = FetchMetadata.INITIAL;
+            } else {
+                log.debug("Node {} created fetch session {} for {} partitions", node, response.sessionId(),
+                        sessionPartitions.size());
+                nextMetadata = FetchMetadata.newIncremental(response.sessionId());
+            }
+            return true;
+        }
+
+        if (response.sessionId() != nextMetadata.sessionId() ||
+                !sessionPartitions.keySet().containsAll(response.responseData().keySet())) {
+            log.info("Ignoring the response of node {} to an incremental fetch of session {}, since its session {} " +
+                    "or its partitions {} do not match the session", node, nextMetadata.sessionId(),
+                    response.sessionId(), response.responseData().keySet());
+            nextMetadata = nextMetadata.nextCloseExisting();
+            return false;
+        }
+        nextMetadata = nextMetadata.nextIncremental();
+        return true;
+    }
+
+    /**
+     * Handle the failure of the last fetch request, the next fetch creates a new session.
+     */
+    public void handleError(Throwable t) {
+        log.info("Error sending fetch request {} to node {}: {}.", nextMetadata, node, t.toString());
+        nextMetadata = nextMetadata.nextCloseExisting();
+    }
+}
@@ -100,6 +100,13 @@ public final class Metadata {
         this.needMetadataForAllTopics = false;
     }
 
+    /**
+     * The maximum amount of time that metadata can be retained without refresh
+     */
+    public long metadataExpireMs() {
+        return this.metadataExpireMs;
+    }
+
     /**
      * Get the current cluster info without blocking
      */
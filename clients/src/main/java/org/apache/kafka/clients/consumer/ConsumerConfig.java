@@ -101,6 +101,14 @@ public class ConsumerConfig extends AbstractConfig {
     public static final String AUTO_COMMIT_INTERVAL_MS_CONFIG = "auto.commit.interval.ms";
     private static final String AUTO_COMMIT_INTERVAL_MS_DOC = "The frequency in milliseconds that the consumer offsets are auto-committed to Kafka if <code>enable.auto.commit</code> is set to <code>true</code>.";
 
+    /**
+     * <code>auto.commit.interval.records</code>
+     */
+    public static final String AUTO_COMMIT_INTERVAL_RECORDS_CONFIG = "auto.commit.interval.records";
+    private static final String AUTO_COMMIT_INTERVAL_RECORDS_DOC = "The number of records returned by <code>poll()</code> after which the consumer offsets are auto-committed "
+                                                                  + "if <code>enable.auto.commit</code> is set to <code>true</code>, even if <code>" + AUTO_COMMIT_INTERVAL_MS_CONFIG
+                                                                  + "</code> has not elapsed since the last auto-commit. The offsets are only committed by time if it is 0.";
+
     /**
      * <code>partition.assignment.strategy</code>
      */
@@ -203,6 +211,47 @@ public class ConsumerConfig extends AbstractConfig {
     public static final String CHECK_CRCS_CONFIG = "check.crcs";
     private static final String CHECK_CRCS_DOC = "Automatically check the CRC32 of the records consumed. This ensures no on-the-wire or on-disk corruption to the messages occurred. This check adds some overhead, so it may be disabled in cases seeking extreme performance.";
 
+    /** <code>fetch.decode.threads</code> */
+    public static final String FETCH_DECODE_THREADS_CONFIG = "fetch.decode.threads";
+    private static final String FETCH_DECODE_THREADS_DOC = "The number of threads which validate and decompress fetched records "
+                                                           + "before they are returned by <code>poll()</code>, so that this work overlaps with the processing of the "
+                                                           + "previously returned records. With 0, it is done by the thread calling <code>poll()</code>. "
+                                                           + "The deserializers are always called by the thread calling <code>poll()</code>.";
+
+    /** <code>fetch.decode.max.bytes</code> */
+    public static final String FETCH_DECODE_MAX_BYTES_CONFIG = "fetch.decode.max.bytes";
+    private static final String FETCH_DECODE_MAX_BYTES_DOC = "The maximum amount of fetched data which is decoded before it is returned by "
+                                                             + "<code>poll()</code> if <code>" + FETCH_DECODE_THREADS_CONFIG + "</code> is positive. "
+                                                             + "The first fetched data is decoded even if it is larger than this.";
+
+    /** <code>fetch.buffer.memory</code> */
+    public static final String FETCH_BUFFER_MEMORY_CONFIG = "fetch.buffer.memory";
+    private static final String FETCH_BUFFER_MEMORY_DOC = "The total bytes of memory the consumer can use to buffer fetched data which has not been returned by "
+                                                          + "<code>poll()</code>, including the maximum size of the responses of the fetches in flight. No fetch is sent "
+                                                          + "to a broker while not enough of this memory is available. "
+                                                          + "<p>"
+                                                          + "This is not a hard bound, since the first record batch of a partition is returned even if it is larger "
+                                                          + "than the fetch size, and a fetch is always sent if no fetched data is buffered.";
+
+    /** <code>fetch.prioritizer.class</code> */
+    public static final String FETCH_PRIORITIZER_CLASS_CONFIG = "fetch.prioritizer.class";
+    private static final String FETCH_PRIORITIZER_CLASS_DOC = "The class implementing the <code>org.apache.kafka.clients.consumer.FetchPrioritizer</code> interface "
+                                                              + "which allocates the bytes fetched for each partition of a fetch request and orders the partitions of full fetch requests, "
+                                                              + "for example <code>org.apache.kafka.clients.consumer.LagWeightedFetchPrioritizer</code>. By default all "
+                                                              + "fetchable partitions are fetched in the order of the assignment with up to <code>"
+                                                              + MAX_PARTITION_FETCH_BYTES_CONFIG + "</code> bytes each.";
+
+    /** <code>client.rack</code> */
+    public static final String CLIENT_RACK_CONFIG = "client.rack";
+    private static final String CLIENT_RACK_DOC = "The rack of the consumer. When set, the consumer may fetch from an in-sync replica in the same rack "
+                                                  + "instead of the leader, if the brokers are configured with a <code>replica.selector.class</code>.";
+
+    /** <code>compression.zstd.dictionaries</code> */
+    public static final String COMPRESSION_ZSTD_DICTIONARIES_CONFIG = "compression.zstd.dictionaries";
+    private static final String COMPRESSION_ZSTD_DICTIONARIES_DOC = "A list of paths to zstd dictionaries (as created by <code>zstd --train</code>). "
+                                                                    + "Record batches that were compressed by the producer with a dictionary (see <code>compression.zstd.dictionary</code>) "
+                                                                    + "can only be read if the same dictionary is listed here.";
+
     /** <code>key.deserializer</code> */
     public static final String KEY_DESERIALIZER_CLASS_CONFIG = "key.deserializer";
     public static final String KEY_DESERIALIZER_CLASS_DOC = "Deserializer class for key that implements the <code>Deserializer</code> interface.";
@@ -292,6 +341,12 @@ public class ConsumerConfig extends AbstractConfig {
                                         atLeast(0),
                                         Importance.LOW,
                                         AUTO_COMMIT_INTERVAL_MS_DOC)
+                                .define(AUTO_COMMIT_INTERVAL_RECORDS_CONFIG,
+                                        Type.INT,
+                                        0,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        AUTO_COMMIT_INTERVAL_RECORDS_DOC)
                                 .define(CLIENT_ID_CONFIG,
                                         Type.STRING,
                                         "",
@@ -362,6 +417,39 @@ public class ConsumerConfig extends AbstractConfig {
                                         true,
                                         Importance.LOW,
                                         CHECK_CRCS_DOC)
+                                .define(FETCH_DECODE_THREADS_CONFIG,
+                                        Type.INT,
+                                        0,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        FETCH_DECODE_THREADS_DOC)
+                                .define(FETCH_DECODE_MAX_BYTES_CONFIG,
+                                        Type.INT,
+                                        DEFAULT_FETCH_MAX_BYTES,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        FETCH_DECODE_MAX_BYTES_DOC)
+                                .define(FETCH_BUFFER_MEMORY_CONFIG,
+                                        Type.LONG,
+                                        Long.MAX_VALUE,
+                                        atLeast(1L),
+                                        Importance.LOW,
+                                        FETCH_BUFFER_MEMORY_DOC)
+                                .define(FETCH_PRIORITIZER_CLASS_CONFIG,
+                                        Type.CLASS,
+                                        null,
+                                        Importance.LOW,
+                                        FETCH_PRIORITIZER_CLASS_DOC)
+                                .define(CLIENT_RACK_CONFIG,
+                                        Type.STRING,
+                                        "",
+                                        Importance.LOW,
+                                        CLIENT_RACK_DOC)
+                                .define(COMPRESSION_ZSTD_DICTIONARIES_CONFIG,
+                                        Type.LIST,
+                                        Collections.emptyList(),
+                                        Importance.LOW,
+                                        COMPRESSION_ZSTD_DICTIONARIES_DOC)
                                 .define(METRICS_SAMPLE_WINDOW_MS_CONFIG,
                                         Type.LONG,
                                         30000,
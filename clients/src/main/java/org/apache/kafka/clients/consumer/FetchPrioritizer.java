@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer;
+
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which partitions are included in a fetch request, in which order, and how many bytes may be fetched for
+ * each of them. The prioritizer is called once for each fetch request with the fetchable partitions led by the
+ * node the request is sent to. Paused partitions and partitions with fetched data which has not been returned by
+ * poll() yet are not fetchable.
+ *
+ * The broker fills the response in the order of the partitions in the request until <code>fetch.max.bytes</code>
+ * is reached, so the partitions which should be caught up first should come first. This order only applies to full
+ * fetch requests, that is the first request of an incremental fetch session and the requests sent without a session.
+ * Within a session the consumer only sends the partitions which changed, and the broker keeps the partitions in the
+ * order of the session, moving the partitions which returned data to its end. The bytes allocated to the partitions
+ * and the partitions which are left out apply to every request.
+ *
+ * The prioritizer is called by the thread calling poll(), but the implementation must not call the consumer.
+ */
+public interface FetchPrioritizer extends Configurable {
+
+    /**
+     * Order the fetchable partitions and allocate the bytes to fetch for each of them.
+     *
+     * @param partitions The fetchable partitions, in the order of the assignment
+     * @param maxBytes The maximum number of bytes of the fetch response (<code>fetch.max.bytes</code>)
+     * @param maxPartitionBytes The maximum number of bytes per partition (<code>max.partition.fetch.bytes</code>)
+     * @param bufferedBytes The number of bytes of fetched data buffered by the consumer, including the memory
+     *                      reserved for fetches in flight
+     * @return The maximum number of bytes to fetch for each partition, in the order in which the partitions should
+     *         be fetched by a full fetch request. The partitions which are left out are not fetched by this request. Allocations larger than
+     *         <code>max.partition.fetch.bytes</code> are reduced to it.
+     */
+    Map<TopicPartition, Integer> prioritize(List<PartitionState> partitions, int maxBytes, int maxPartitionBytes,
+                                            long bufferedBytes);
+
+    /**
+     * The fetch state of a partition.
+     */
+    final class PartitionState {
+        private final TopicPartition partition;
+        private final long position;
+        private final Long lag;
+
+        public PartitionState(TopicPartition partition, long position, Long lag) {
+            this.partition = partition;
+            this.position = position;
+            this.lag = lag;
+        }
+
+        public TopicPartition partition() {
+            return partition;
+        }
+
+        /**
+         * The offset of the next record to fetch
+         */
+        public long position() {
+            return position;
+        }
+
+        /**
+         * The number of records between the position and the high watermark (or the last stable offset when
+         * reading committed records), as of the last fetch. Null if the partition has not been fetched yet.
+         */
+        public Long lag() {
+            return lag;
+        }
+
+        @Override
+        public String toString() {
+            return "PartitionState(partition=" + partition +
+                    ", position=" + position +
+                    ", lag=" + lag +
+                    ")";
+        }
+    }
+}
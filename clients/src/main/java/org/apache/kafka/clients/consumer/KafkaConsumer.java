@@ -25,6 +25,8 @@ import org.apache.kafka.clients.consumer.internals.ConsumerInterceptors;
 import org.apache.kafka.clients.consumer.internals.ConsumerMetrics;
 import org.apache.kafka.clients.consumer.internals.ConsumerNetworkClient;
 import org.apache.kafka.clients.consumer.internals.ConsumerNetworkClient.PollCondition;
+import org.apache.kafka.clients.consumer.internals.FetchBufferPool;
+import org.apache.kafka.clients.consumer.internals.FetchDecoder;
 import org.apache.kafka.clients.consumer.internals.Fetcher;
 import org.apache.kafka.clients.consumer.internals.NoOpConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.internals.PartitionAssignor;
@@ -45,6 +47,7 @@ import org.apache.kafka.common.metrics.MetricsReporter;
 import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.network.ChannelBuilder;
 import org.apache.kafka.common.network.Selector;
+import org.apache.kafka.common.record.ZstdDictionaries;
 import org.apache.kafka.common.requests.IsolationLevel;
 import org.apache.kafka.common.requests.MetadataRequest;
 import org.apache.kafka.common.serialization.Deserializer;
@@ -733,9 +736,16 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                                                        retryBackoffMs,
                                                        config.getBoolean(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG),
                                                        config.getInt(ConsumerConfig.AUTO_COMMIT_INTERVAL_MS_CONFIG),
+                                                       config.getInt(ConsumerConfig.AUTO_COMMIT_INTERVAL_RECORDS_CONFIG),
                                                        this.interceptors,
                                                        config.getBoolean(ConsumerConfig.EXCLUDE_INTERNAL_TOPICS_CONFIG),
                                                        config.getBoolean(ConsumerConfig.LEAVE_GROUP_ON_CLOSE_CONFIG));
+            try {
+                ZstdDictionaries.registerAll(config.getList(ConsumerConfig.COMPRESSION_ZSTD_DICTIONARIES_CONFIG));
+            } catch (IllegalArgumentException e) {
+                throw new ConfigException(ConsumerConfig.COMPRESSION_ZSTD_DICTIONARIES_CONFIG,
+                        config.getList(ConsumerConfig.COMPRESSION_ZSTD_DICTIONARIES_CONFIG), e.getMessage());
+            }
             this.fetcher = new Fetcher<>(this.client,
                     config.getInt(ConsumerConfig.FETCH_MIN_BYTES_CONFIG),
                     config.getInt(ConsumerConfig.FETCH_MAX_BYTES_CONFIG),
@@ -751,7 +761,11 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                     metricsRegistry.fetcherMetrics,
                     this.time,
                     this.retryBackoffMs,
-                    isolationLevel);
+                    isolationLevel,
+                    createFetchDecoder(config, clientId),
+                    new FetchBufferPool(config.getLong(ConsumerConfig.FETCH_BUFFER_MEMORY_CONFIG)),
+                    config.getConfiguredInstance(ConsumerConfig.FETCH_PRIORITIZER_CLASS_CONFIG, FetchPrioritizer.class),
+                    config.getString(ConsumerConfig.CLIENT_RACK_CONFIG));
 
             config.logUnused();
             AppInfoParser.registerAppInfo(JMX_PREFIX, clientId);
@@ -1051,10 +1065,12 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                     if (fetcher.sendFetches() > 0 || client.hasPendingRequests())
                         client.pollNoWakeup();
 
+                    ConsumerRecords<K, V> consumerRecords = new ConsumerRecords<>(records);
+                    coordinator.recordsReturned(consumerRecords.count());
                     if (this.interceptors == null)
-                        return new ConsumerRecords<>(records);
+                        return consumerRecords;
                     else
-                        return this.interceptors.onConsume(new ConsumerRecords<>(records));
+                        return this.interceptors.onConsume(consumerRecords);
                 }
 
                 long elapsed = time.milliseconds() - start;
@@ -1587,6 +1603,13 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         this.client.wakeup();
     }
 
+    private static FetchDecoder createFetchDecoder(ConsumerConfig config, String clientId) {
+        int decodeThreads = config.getInt(ConsumerConfig.FETCH_DECODE_THREADS_CONFIG);
+        if (decodeThreads == 0)
+            return null;
+        return new FetchDecoder(clientId, decodeThreads, config.getInt(ConsumerConfig.FETCH_DECODE_MAX_BYTES_CONFIG));
+    }
+
     private ClusterResourceListeners configureClusterResourceListeners(Deserializer<K> keyDeserializer, Deserializer<V> valueDeserializer, List<?>... candidateLists) {
         ClusterResourceListeners clusterResourceListeners = new ClusterResourceListeners();
         for (List<?> candidateList: candidateLists)
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fetch prioritizer which catches up the partitions with the largest lag first. The lagging partitions are
+ * fetched first, in the order of decreasing lag, and <code>fetch.max.bytes</code> is divided between them in
+ * proportion to their lag, bounded by <code>max.partition.fetch.bytes</code>. Partitions which have not been fetched
+ * yet have an unknown lag, they come first and may fetch <code>max.partition.fetch.bytes</code>. Since the order only
+ * applies to full fetch requests, the bytes allocated to each partition do most of the prioritization.
+ *
+ * While other partitions lag, the partitions which are caught up with the head of the log are throttled to 1/8 of
+ * <code>max.partition.fetch.bytes</code>, and they are not fetched at all while the consumer buffers as much fetched
+ * data as a whole fetch response. When no partition lags, all partitions are fetched as if there was no prioritizer.
+ */
+public class LagWeightedFetchPrioritizer implements FetchPrioritizer {
+
+    static final int HEAD_PARTITION_BYTES_DIVISOR = 8;
+
+    private static final Comparator<PartitionState> BY_DECREASING_LAG = new Comparator<PartitionState>() {
+        @Override
+        public int compare(PartitionState state1, PartitionState state2) {
+            // the partitions with an unknown lag come first
+            long lag1 = state1.lag() == null ? Long.MAX_VALUE : state1.lag();
+            long lag2 = state2.lag() == null ? Long.MAX_VALUE : state2.lag();
+            return Long.compare(lag2, lag1);
+        }
+    };
+
+    @Override
+    public void configure(Map<String, ?> configs) {}
+
+    @Override
+    public Map<TopicPartition, Integer> prioritize(List<PartitionState> partitions, int maxBytes,
+                                                   int maxPartitionBytes, long bufferedBytes) {
+        List<PartitionState> lagging = new ArrayList<>();
+        List<PartitionState> atHead = new ArrayList<>();
+        long totalLag = 0;
+        for (PartitionState state : partitions) {
+            if (state.lag() == null || state.lag() > 0) {
+                lagging.add(state);
+                if (state.lag() != null)
+                    totalLag += state.lag();
+            } else {
+                atHead.add(state);
+            }
+        }
+
+        Map<TopicPartition, Integer> allocations = new LinkedHashMap<>();
+        if (lagging.isEmpty()) {
+            for (PartitionState state : atHead)
+                allocations.put(state.partition(), maxPartitionBytes);
+            return allocations;
+        }
+
+        int minPartitionBytes = Math.max(1, maxPartitionBytes / HEAD_PARTITION_BYTES_DIVISOR);
+        // the sort is stable, so partitions with the same lag keep the order of the assignment
+        Collections.sort(lagging, BY_DECREASING_LAG);
+        for (PartitionState state : lagging) {
+            int bytes = maxPartitionBytes;
+            if (state.lag() != null) {
+                double share = (double) state.lag() / totalLag * maxBytes;
+                bytes = (int) Math.max(minPartitionBytes, Math.min(maxPartitionBytes, share));
+            }
+            allocations.put(state.partition(), bytes);
+        }
+
+        if (bufferedBytes < maxBytes) {
+            for (PartitionState state : atHead)
+                allocations.put(state.partition(), minPartitionBytes);
+        }
+        return allocations;
+    }
+}
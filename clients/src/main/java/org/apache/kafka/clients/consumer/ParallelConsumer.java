@@ -0,0 +1,436 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer;
+
+import org.apache.kafka.clients.consumer.internals.NoOpConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.internals.OffsetWatermark;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
+import org.apache.kafka.common.utils.KafkaThread;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A consumer which processes the records of each partition in parallel. The records are dispatched to a pool of
+ * worker threads by key: the records with the same key are processed one at a time in offset order, the records
+ * with different keys are processed concurrently, even if they belong to the same partition. Records without a key
+ * are processed in the order of their partition. A consumer group can thus use more threads than it has partitions.
+ * <p>
+ * The offsets are committed as the records are processed. Since records complete out of order, only the offsets of
+ * the contiguous prefix of processed records of each partition are committed, which provides at-least-once
+ * processing: after a failure, the records following the committed offset are processed again, including records
+ * which had already been processed.
+ * <p>
+ * The underlying consumer must not commit offsets itself, <code>enable.auto.commit</code> must be false. It is owned by
+ * this consumer and must only be used through it. Like {@link KafkaConsumer}, this class is not thread-safe, except
+ * for the {@link RecordProcessor} which is called by the worker threads.
+ * <pre>
+ * {@code
+ * ParallelConsumer<String, String> consumer = new ParallelConsumer<>(new KafkaConsumer<String, String>(props),
+ *     processor, 32, 1000);
+ * consumer.subscribe(Arrays.asList("foo", "bar"));
+ * while (running)
+ *     consumer.poll(100);
+ * consumer.close();
+ * }
+ * </pre>
+ */
+public class ParallelConsumer<K, V> implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ParallelConsumer.class);
+    private static final long DEFAULT_CLOSE_TIMEOUT_MS = 30 * 1000L;
+
+    private final Consumer<K, V> consumer;
+    private final RecordProcessor<K, V> processor;
+    private final ExecutorService[] workers;
+    private final int maxPendingRecordsPerPartition;
+    // completions are added by the workers and applied to the watermarks by the polling thread
+    private final LinkedBlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+    private final Map<TopicPartition, OffsetWatermark> watermarks = new HashMap<>();
+    private final Map<TopicPartition, Long> committedOffsets = new HashMap<>();
+    // the partitions paused because too many of their records are pending
+    private final Set<TopicPartition> pausedPartitions = new HashSet<>();
+    private KafkaException failure = null;
+    private boolean closed = false;
+
+    /**
+     * Create a parallel consumer
+     *
+     * @param consumer The consumer to fetch the records with, which must not commit offsets
+     * @param processor The processor of the records
+     * @param numWorkers The number of threads processing records
+     * @param maxPendingRecordsPerPartition The number of records of a partition which may wait for or be in
+     *        processing. The partition is paused once this number is reached, and resumed once half of them completed.
+     */
+    public ParallelConsumer(Consumer<K, V> consumer,
+                            RecordProcessor<K, V> processor,
+                            int numWorkers,
+                            int maxPendingRecordsPerPartition) {
+        if (numWorkers <= 0)
+            throw new IllegalArgumentException("The number of workers must be positive");
+        if (maxPendingRecordsPerPartition <= 0)
+            throw new IllegalArgumentException("The maximum number of pending records per partition must be positive");
+        this.consumer = consumer;
+        this.processor = processor;
+        this.maxPendingRecordsPerPartition = maxPendingRecordsPerPartition;
+        this.workers = new ExecutorService[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            final String name = "kafka-parallel-consumer-worker-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new KafkaThread(name, runnable, true);
+                }
+            });
+        }
+    }
+
+    /**
+     * Subscribe to the given list of topics, see {@link KafkaConsumer#subscribe(Collection)}.
+     */
+    public void subscribe(Collection<String> topics) {
+        subscribe(topics, new NoOpConsumerRebalanceListener());
+    }
+
+    /**
+     * Subscribe to the given list of topics, see {@link KafkaConsumer#subscribe(Collection, ConsumerRebalanceListener)}.
+     * Before the listener is notified of revoked partitions, the pending records of these partitions are processed and
+     * their offsets are committed.
+     */
+    public void subscribe(Collection<String> topics, ConsumerRebalanceListener listener) {
+        ensureOpen();
+        consumer.subscribe(topics, new RebalanceListener(listener));
+    }
+
+    /**
+     * Commit the offsets of the processed records, fetch records and dispatch them to the workers.
+     *
+     * @param timeout The time, in milliseconds, spent waiting in poll if data is not available in the buffer
+     * @return The number of records which were dispatched
+     * @throws KafkaException If the processing of a record failed, or any exception thrown by {@link KafkaConsumer#poll(long)}
+     */
+    public int poll(long timeout) {
+        ensureOpen();
+        applyCompletions();
+        maybeThrowFailure();
+        commitAsync();
+        resumePartitions();
+
+        ConsumerRecords<K, V> records = consumer.poll(timeout);
+        for (TopicPartition partition : records.partitions()) {
+            OffsetWatermark watermark = watermarks.get(partition);
+            if (watermark == null) {
+                watermark = new OffsetWatermark();
+                watermarks.put(partition, watermark);
+            }
+            for (ConsumerRecord<K, V> record : records.records(partition)) {
+                if (record.offset() < watermark.nextOffset()) {
+                    // the position was reset, for instance by auto.offset.reset, so the committed offset may be ahead
+                    log.debug("Partition {} was rewound from offset {} to offset {}", partition, watermark.nextOffset(),
+                            record.offset());
+                    committedOffsets.remove(partition);
+                }
+                watermark.dispatched(record.offset());
+                workers[workerIndex(partition, record)].execute(new ProcessTask(partition, record));
+            }
+            if (watermark.pendingCount() >= maxPendingRecordsPerPartition && pausedPartitions.add(partition)) {
+                log.debug("Pausing partition {} with {} pending records", partition, watermark.pendingCount());
+                consumer.pause(Collections.singleton(partition));
+            }
+        }
+        return records.count();
+    }
+
+    /**
+     * Wait until the dispatched records are processed and commit their offsets. See {@link KafkaConsumer#commitSync()}.
+     *
+     * @throws KafkaException If the processing of a record failed, or any exception thrown by
+     *         {@link KafkaConsumer#commitSync(Map)}
+     */
+    public void commitSync() {
+        ensureOpen();
+        awaitCompletions(watermarks.keySet());
+        maybeThrowFailure();
+        Map<TopicPartition, OffsetAndMetadata> offsets = committableOffsets(watermarks.keySet());
+        if (!offsets.isEmpty()) {
+            consumer.commitSync(offsets);
+            updateCommittedOffsets(offsets);
+        }
+    }
+
+    /**
+     * Overrides the fetch offset of a partition, see {@link KafkaConsumer#seek(TopicPartition, long)}. The records of
+     * the partition which were dispatched before no longer hold back the offsets which are committed, and the next
+     * committed offset may be lower than the last one.
+     */
+    public void seek(TopicPartition partition, long offset) {
+        ensureOpen();
+        consumer.seek(partition, offset);
+        OffsetWatermark watermark = watermarks.get(partition);
+        if (watermark != null)
+            watermark.reset();
+        committedOffsets.remove(partition);
+    }
+
+    /**
+     * The partitions currently assigned to this consumer, see {@link KafkaConsumer#assignment()}.
+     */
+    public Set<TopicPartition> assignment() {
+        return consumer.assignment();
+    }
+
+    /**
+     * Close the consumer, waiting up to 30 seconds for the dispatched records to be processed.
+     */
+    @Override
+    public void close() {
+        close(DEFAULT_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Close the consumer. The dispatched records are processed for up to the timeout, after which the workers are
+     * interrupted. The offsets of the processed records are committed and the underlying consumer is closed.
+     */
+    public void close(long timeout, TimeUnit timeUnit) {
+        if (closed)
+            return;
+        closed = true;
+        long deadlineMs = System.currentTimeMillis() + timeUnit.toMillis(timeout);
+        for (ExecutorService worker : workers)
+            worker.shutdown();
+        try {
+            for (ExecutorService worker : workers) {
+                long remainingMs = Math.max(0, deadlineMs - System.currentTimeMillis());
+                if (!worker.awaitTermination(remainingMs, TimeUnit.MILLISECONDS))
+                    worker.shutdownNow();
+            }
+            applyCompletions();
+            Map<TopicPartition, OffsetAndMetadata> offsets = committableOffsets(watermarks.keySet());
+            if (!offsets.isEmpty())
+                consumer.commitSync(offsets);
+        } catch (InterruptedException e) {
+            for (ExecutorService worker : workers)
+                worker.shutdownNow();
+            throw new InterruptException(e);
+        } catch (Exception e) {
+            log.error("Failed to commit the offsets of the processed records on close", e);
+        } finally {
+            long remainingMs = Math.max(0, deadlineMs - System.currentTimeMillis());
+            consumer.close(remainingMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private int workerIndex(TopicPartition partition, ConsumerRecord<K, V> record) {
+        Object key = record.key();
+        int hash;
+        if (key == null)
+            hash = partition.hashCode();
+        else if (key instanceof byte[])
+            hash = Arrays.hashCode((byte[]) key);
+        else
+            hash = key.hashCode();
+        return Utils.toPositive(hash) % workers.length;
+    }
+
+    private void applyCompletions() {
+        Completion completion;
+        while ((completion = completions.poll()) != null)
+            apply(completion);
+    }
+
+    private void apply(Completion completion) {
+        OffsetWatermark watermark = watermarks.get(completion.partition);
+        // the partition may have been revoked after a failed record, in which case its state is gone
+        if (watermark == null || !watermark.isPending(completion.offset))
+            return;
+        if (completion.exception == null) {
+            watermark.completed(completion.offset);
+        } else if (failure == null) {
+            failure = new KafkaException("Failed to process the record at offset " + completion.offset +
+                    " of partition " + completion.partition, completion.exception);
+        }
+    }
+
+    /**
+     * Wait until the records of the partitions are processed, or until a record failed.
+     */
+    private void awaitCompletions(Collection<TopicPartition> partitions) {
+        applyCompletions();
+        try {
+            while (failure == null && hasPendingRecords(partitions))
+                apply(completions.take());
+        } catch (InterruptedException e) {
+            throw new InterruptException(e);
+        }
+    }
+
+    private boolean hasPendingRecords(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            OffsetWatermark watermark = watermarks.get(partition);
+            if (watermark != null && watermark.pendingCount() > 0)
+                return true;
+        }
+        return false;
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> committableOffsets(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            OffsetWatermark watermark = watermarks.get(partition);
+            if (watermark == null)
+                continue;
+            long offset = watermark.committableOffset();
+            Long committed = committedOffsets.get(partition);
+            if (offset >= 0 && (committed == null || offset > committed))
+                offsets.put(partition, new OffsetAndMetadata(offset));
+        }
+        return offsets;
+    }
+
+    private void commitAsync() {
+        final Map<TopicPartition, OffsetAndMetadata> offsets = committableOffsets(watermarks.keySet());
+        if (offsets.isEmpty())
+            return;
+        consumer.commitAsync(offsets, new OffsetCommitCallback() {
+            @Override
+            public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception exception) {
+                if (exception == null)
+                    updateCommittedOffsets(offsets);
+                else
+                    log.warn("Failed to commit offsets {}, they will be committed with the next offsets", offsets,
+                            exception);
+            }
+        });
+    }
+
+    private void updateCommittedOffsets(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+            TopicPartition partition = entry.getKey();
+            // the partition may have been revoked while the commit was in flight
+            if (!watermarks.containsKey(partition))
+                continue;
+            Long committed = committedOffsets.get(partition);
+            if (committed == null || entry.getValue().offset() > committed)
+                committedOffsets.put(partition, entry.getValue().offset());
+        }
+    }
+
+    private void resumePartitions() {
+        Iterator<TopicPartition> iter = pausedPartitions.iterator();
+        while (iter.hasNext()) {
+            TopicPartition partition = iter.next();
+            OffsetWatermark watermark = watermarks.get(partition);
+            if (watermark == null || watermark.pendingCount() <= maxPendingRecordsPerPartition / 2) {
+                iter.remove();
+                if (consumer.assignment().contains(partition)) {
+                    log.debug("Resuming partition {}", partition);
+                    consumer.resume(Collections.singleton(partition));
+                }
+            }
+        }
+    }
+
+    private void maybeThrowFailure() {
+        if (failure != null)
+            throw failure;
+    }
+
+    private void ensureOpen() {
+        if (closed)
+            throw new IllegalStateException("This consumer has already been closed.");
+    }
+
+    private static class Completion {
+        final TopicPartition partition;
+        final long offset;
+        final Exception exception;
+
+        Completion(TopicPartition partition, long offset, Exception exception) {
+            this.partition = partition;
+            this.offset = offset;
+            this.exception = exception;
+        }
+    }
+
+    private class ProcessTask implements Runnable {
+        private final TopicPartition partition;
+        private final ConsumerRecord<K, V> record;
+
+        ProcessTask(TopicPartition partition, ConsumerRecord<K, V> record) {
+            this.partition = partition;
+            this.record = record;
+        }
+
+        @Override
+        public void run() {
+            Exception exception = null;
+            try {
+                processor.process(record);
+            } catch (Exception e) {
+                log.error("Failed to process the record at offset {} of partition {}", record.offset(), partition, e);
+                exception = e;
+            }
+            completions.add(new Completion(partition, record.offset(), exception));
+        }
+    }
+
+    private class RebalanceListener implements ConsumerRebalanceListener {
+        private final ConsumerRebalanceListener listener;
+
+        RebalanceListener(ConsumerRebalanceListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            awaitCompletions(partitions);
+            Map<TopicPartition, OffsetAndMetadata> offsets = committableOffsets(partitions);
+            try {
+                if (!offsets.isEmpty())
+                    consumer.commitSync(offsets);
+            } finally {
+                for (TopicPartition partition : partitions) {
+                    watermarks.remove(partition);
+                    committedOffsets.remove(partition);
+                    pausedPartitions.remove(partition);
+                }
+            }
+            listener.onPartitionsRevoked(partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            listener.onPartitionsAssigned(partitions);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer;
+
+/**
+ * Processes the records consumed by a {@link ParallelConsumer}. The method is called by the worker threads of the
+ * consumer, concurrently for records with different keys, so implementations must be thread-safe.
+ */
+public interface RecordProcessor<K, V> {
+
+    /**
+     * Process a record. The records with the same key are processed one at a time, in offset order.
+     *
+     * @param record The record to process
+     * @throws Exception If the record could not be processed, which fails the consumer. The offset of the record
+     *         is not committed.
+     */
+    void process(ConsumerRecord<K, V> record) throws Exception;
+}
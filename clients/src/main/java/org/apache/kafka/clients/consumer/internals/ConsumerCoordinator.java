@@ -58,6 +58,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -76,6 +77,7 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
     private final OffsetCommitCallback defaultOffsetCommitCallback;
     private final boolean autoCommitEnabled;
     private final int autoCommitIntervalMs;
+    private final int autoCommitIntervalRecords;
     private final ConsumerInterceptors<?, ?> interceptors;
     private final boolean excludeInternalTopics;
     private final AtomicInteger pendingAsyncCommits;
@@ -89,6 +91,13 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
     private MetadataSnapshot metadataSnapshot;
     private MetadataSnapshot assignmentSnapshot;
     private long nextAutoCommitDeadline;
+    private long recordsReturnedSinceAutoCommit;
+
+    // the async commits issued while another async commit is in flight, which are coalesced into the next
+    // offset commit request. Only accessed by the thread calling the consumer
+    private AsyncCommitBatch nextAsyncCommit;
+    // completed when the last async offset commit request (or the coordinator lookup before it) completed
+    private RequestFuture<Void> inFlightAsyncCommit;
 
     /**
      * Initialize the coordination manager.
@@ -107,6 +116,7 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
                                long retryBackoffMs,
                                boolean autoCommitEnabled,
                                int autoCommitIntervalMs,
+                               int autoCommitIntervalRecords,
                                ConsumerInterceptors<?, ?> interceptors,
                                boolean excludeInternalTopics,
                                final boolean leaveGroupOnClose) {
@@ -126,6 +136,7 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         this.defaultOffsetCommitCallback = new DefaultOffsetCommitCallback();
         this.autoCommitEnabled = autoCommitEnabled;
         this.autoCommitIntervalMs = autoCommitIntervalMs;
+        this.autoCommitIntervalRecords = autoCommitIntervalRecords;
         this.assignors = assignors;
         this.completedOffsetCommits = new ConcurrentLinkedQueue<>();
         this.sensors = new ConsumerCoordinatorMetrics(metrics, metricGrpPrefix);
@@ -314,9 +325,19 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         }
 
         pollHeartbeat(now);
+        maybeSendNextAsyncCommit();
         maybeAutoCommitOffsetsAsync(now);
     }
 
+    /**
+     * Count the records returned to the user, which triggers an auto-commit once
+     * <code>auto.commit.interval.records</code> records were returned since the last auto-commit.
+     */
+    public void recordsReturned(int count) {
+        if (autoCommitEnabled)
+            recordsReturnedSinceAutoCommit += count;
+    }
+
     /**
      * Return the time to the next needed invocation of {@link #poll(long)}.
      * @param now current time in milliseconds
@@ -414,6 +435,9 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         // commit offsets prior to rebalance if auto-commit enabled
         maybeAutoCommitOffsetsSync(rebalanceTimeoutMs);
 
+        // the queued async commits must be sent in the current generation, their partitions may be revoked
+        maybeCommitQueuedAsyncOffsetsSync(rebalanceTimeoutMs);
+
         // execute the user's callback before rebalance
         ConsumerRebalanceListener listener = subscriptions.listener();
         log.info("Revoking previously assigned partitions {} for group {}", subscriptions.assignedPartitions(), groupId);
@@ -495,6 +519,12 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         try {
             maybeAutoCommitOffsetsSync(timeoutMs);
             now = time.milliseconds();
+            // send the async commits which are waiting for the commit in flight
+            if (nextAsyncCommit != null && inFlightAsyncCommit != null && endTimeMs > now) {
+                client.poll(inFlightAsyncCommit, endTimeMs - now);
+                now = time.milliseconds();
+            }
+            maybeSendNextAsyncCommit();
             if (pendingAsyncCommits.get() > 0 && endTimeMs > now) {
                 ensureCoordinatorReady(now, endTimeMs - now);
                 now = time.milliseconds();
@@ -514,52 +544,71 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         }
     }
 
+    /**
+     * Commit offsets asynchronously. Commits issued while another async commit is in flight are coalesced into
+     * a single request which is sent once it completed, so that committing after every batch of records does
+     * not flood the coordinator. The latest offset of each partition is committed, and each callback is invoked
+     * with the outcome of the request which carried its offsets.
+     */
     public void commitOffsetsAsync(final Map<TopicPartition, OffsetAndMetadata> offsets, final OffsetCommitCallback callback) {
         invokeCompletedOffsetCommitCallbacks();
 
+        if (nextAsyncCommit == null)
+            nextAsyncCommit = new AsyncCommitBatch();
+        nextAsyncCommit.add(offsets, callback == null ? defaultOffsetCommitCallback : callback);
+        maybeSendNextAsyncCommit();
+
+        // ensure the commit has a chance to be transmitted (without blocking on its completion).
+        // Note that commits are treated as heartbeats by the coordinator, so there is no need to
+        // explicitly allow heartbeats through delayed task execution.
+        client.pollNoWakeup();
+    }
+
+    private void maybeSendNextAsyncCommit() {
+        if (nextAsyncCommit == null || (inFlightAsyncCommit != null && !inFlightAsyncCommit.isDone()))
+            return;
+
+        final AsyncCommitBatch batch = nextAsyncCommit;
+        final RequestFuture<Void> future = new RequestFuture<>();
+        nextAsyncCommit = null;
+        inFlightAsyncCommit = future;
         if (!coordinatorUnknown()) {
-            doCommitOffsetsAsync(offsets, callback);
+            doCommitOffsetsAsync(batch, future);
         } else {
             // we don't know the current coordinator, so try to find it and then send the commit
             // or fail (we don't want recursive retries which can cause offset commits to arrive
-            // out of order). Note that there may be multiple offset commits chained to the same
-            // coordinator lookup request. This is fine because the listeners will be invoked in
-            // the same order that they were added. Note also that AbstractCoordinator prevents
-            // multiple concurrent coordinator lookup requests.
+            // out of order). The commits issued in the meantime are coalesced into the next request.
+            // Note also that AbstractCoordinator prevents multiple concurrent coordinator lookup requests.
             pendingAsyncCommits.incrementAndGet();
             lookupCoordinator().addListener(new RequestFutureListener<Void>() {
                 @Override
                 public void onSuccess(Void value) {
                     pendingAsyncCommits.decrementAndGet();
-                    doCommitOffsetsAsync(offsets, callback);
+                    doCommitOffsetsAsync(batch, future);
                 }
 
                 @Override
                 public void onFailure(RuntimeException e) {
                     pendingAsyncCommits.decrementAndGet();
-                    completedOffsetCommits.add(new OffsetCommitCompletion(callback, offsets,
-                            RetriableCommitFailedException.withUnderlyingMessage(e.getMessage())));
+                    batch.complete(RetriableCommitFailedException.withUnderlyingMessage(e.getMessage()),
+                            completedOffsetCommits);
+                    future.raise(e);
                 }
             });
         }
-
-        // ensure the commit has a chance to be transmitted (without blocking on its completion).
-        // Note that commits are treated as heartbeats by the coordinator, so there is no need to
-        // explicitly allow heartbeats through delayed task execution.
-        client.pollNoWakeup();
     }
 
-    private void doCommitOffsetsAsync(final Map<TopicPartition, OffsetAndMetadata> offsets, final OffsetCommitCallback callback) {
+    private void doCommitOffsetsAsync(final AsyncCommitBatch batch, final RequestFuture<Void> future) {
         this.subscriptions.needRefreshCommits();
-        RequestFuture<Void> future = sendOffsetCommitRequest(offsets);
-        final OffsetCommitCallback cb = callback == null ? defaultOffsetCommitCallback : callback;
-        future.addListener(new RequestFutureListener<Void>() {
+        final Map<TopicPartition, OffsetAndMetadata> offsets = batch.offsets;
+        sendOffsetCommitRequest(offsets).addListener(new RequestFutureListener<Void>() {
             @Override
             public void onSuccess(Void value) {
                 if (interceptors != null)
                     interceptors.onCommit(offsets);
 
-                completedOffsetCommits.add(new OffsetCommitCompletion(cb, offsets, null));
+                batch.complete(null, completedOffsetCommits);
+                future.complete(null);
             }
 
             @Override
@@ -569,7 +618,8 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
                 if (e instanceof RetriableException)
                     commitException = RetriableCommitFailedException.withUnderlyingMessage(e.getMessage());
 
-                completedOffsetCommits.add(new OffsetCommitCompletion(cb, offsets, commitException));
+                batch.complete(commitException, completedOffsetCommits);
+                future.raise(e);
             }
         });
     }
@@ -587,6 +637,30 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
     public boolean commitOffsetsSync(Map<TopicPartition, OffsetAndMetadata> offsets, long timeoutMs) {
         invokeCompletedOffsetCommitCallbacks();
 
+        AsyncCommitBatch coalesced = nextAsyncCommit;
+        if (coalesced == null)
+            return doCommitOffsetsSync(offsets, timeoutMs);
+
+        // the async commits which were not sent yet are sent with this commit, which supersedes their offsets
+        nextAsyncCommit = null;
+        Map<TopicPartition, OffsetAndMetadata> allOffsets = new HashMap<>(coalesced.offsets);
+        allOffsets.putAll(offsets);
+        try {
+            boolean committed = doCommitOffsetsSync(allOffsets, timeoutMs);
+            coalesced.complete(committed ? null : new RetriableCommitFailedException("Offset commit timed out"),
+                    completedOffsetCommits);
+            return committed;
+        } catch (WakeupException | InterruptException e) {
+            // the async commits are sent later
+            nextAsyncCommit = coalesced;
+            throw e;
+        } catch (RuntimeException e) {
+            coalesced.complete(e, completedOffsetCommits);
+            throw e;
+        }
+    }
+
+    private boolean doCommitOffsetsSync(Map<TopicPartition, OffsetAndMetadata> offsets, long timeoutMs) {
         if (offsets.isEmpty())
             return true;
 
@@ -626,7 +700,8 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         if (autoCommitEnabled) {
             if (coordinatorUnknown()) {
                 this.nextAutoCommitDeadline = now + retryBackoffMs;
-            } else if (now >= nextAutoCommitDeadline) {
+            } else if (now >= nextAutoCommitDeadline ||
+                    (autoCommitIntervalRecords > 0 && recordsReturnedSinceAutoCommit >= autoCommitIntervalRecords)) {
                 this.nextAutoCommitDeadline = now + autoCommitIntervalMs;
                 doAutoCommitOffsetsAsync();
             }
@@ -640,6 +715,7 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
 
     private void doAutoCommitOffsetsAsync() {
         Map<TopicPartition, OffsetAndMetadata> allConsumedOffsets = subscriptions.allConsumed();
+        recordsReturnedSinceAutoCommit = 0;
         log.debug("Sending asynchronous auto-commit of offsets {} for group {}", allConsumedOffsets, groupId);
 
         commitOffsetsAsync(allConsumedOffsets, new OffsetCommitCallback() {
@@ -678,6 +754,28 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         }
     }
 
+    private void maybeCommitQueuedAsyncOffsetsSync(long timeoutMs) {
+        if (nextAsyncCommit == null)
+            return;
+
+        Map<TopicPartition, OffsetAndMetadata> queuedOffsets = nextAsyncCommit.offsets;
+        try {
+            log.debug("Sending queued asynchronous commit of offsets {} for group {}", queuedOffsets, groupId);
+            if (!commitOffsetsSync(Collections.<TopicPartition, OffsetAndMetadata>emptyMap(), timeoutMs))
+                log.debug("Queued asynchronous commit of offsets {} for group {} timed out before completion",
+                        queuedOffsets, groupId);
+        } catch (WakeupException | InterruptException e) {
+            log.debug("Queued asynchronous commit of offsets {} for group {} was interrupted before completion",
+                    queuedOffsets, groupId);
+            // rethrow wakeups since they are triggered by the user
+            throw e;
+        } catch (Exception e) {
+            // the failure is passed to the callbacks of the queued commits
+            log.warn("Queued asynchronous commit of offsets {} failed for group {}: {}", queuedOffsets, groupId,
+                    e.getMessage());
+        }
+    }
+
     private class DefaultOffsetCommitCallback implements OffsetCommitCallback {
         @Override
         public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception exception) {
@@ -936,6 +1034,27 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         }
     }
 
+    /**
+     * Async offset commits coalesced into a single offset commit request.
+     */
+    private static class AsyncCommitBatch {
+        // the latest offset of each partition
+        private final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        private final List<OffsetCommitCallback> callbacks = new ArrayList<>();
+        private final List<Map<TopicPartition, OffsetAndMetadata>> callbackOffsets = new ArrayList<>();
+
+        private void add(Map<TopicPartition, OffsetAndMetadata> offsets, OffsetCommitCallback callback) {
+            this.offsets.putAll(offsets);
+            this.callbacks.add(callback);
+            this.callbackOffsets.add(offsets);
+        }
+
+        private void complete(Exception exception, Queue<OffsetCommitCompletion> completions) {
+            for (int i = 0; i < callbacks.size(); i++)
+                completions.add(new OffsetCommitCompletion(callbacks.get(i), callbackOffsets.get(i), exception));
+        }
+    }
+
     private static class OffsetCommitCompletion {
         private final OffsetCommitCallback callback;
         private final Map<TopicPartition, OffsetAndMetadata> offsets;
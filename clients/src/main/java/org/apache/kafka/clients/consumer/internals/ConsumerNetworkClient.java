@@ -145,6 +145,14 @@ public class ConsumerNetworkClient implements Closeable {
             awaitMetadataUpdate();
     }
 
+    /**
+     * Wakeup an active poll without raising a {@link WakeupException}, for example because another thread made
+     * the data available which the polling thread is waiting for.
+     */
+    public void wakeupPoll() {
+        this.client.wakeup();
+    }
+
     /**
      * Wakeup an active poll. This will cause the polling thread to throw an exception either
      * on the current poll if one is active, or the next poll.
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer.internals;
+
+/**
+ * Accounts for the memory of the fetched data buffered by the consumer. The maximum size of a fetch response is
+ * reserved before the fetch is sent, and the reservation is replaced by the size of the data actually fetched once
+ * the response is received. That memory is released when the data has been returned by poll() or discarded.
+ *
+ * This class is thread-safe, fetch responses may be handled by the heartbeat thread.
+ */
+public final class FetchBufferPool {
+
+    private final long totalMemory;
+    private long usedMemory = 0;
+
+    /**
+     * Create a new pool
+     *
+     * @param totalMemory The maximum amount of memory the fetched data may use
+     */
+    public FetchBufferPool(long totalMemory) {
+        if (totalMemory <= 0)
+            throw new IllegalArgumentException("The fetch buffer memory must be positive");
+        this.totalMemory = totalMemory;
+    }
+
+    /**
+     * Reserve memory for a fetch if enough of it is available. Some memory is always reserved when nothing is
+     * buffered, so the consumer makes progress even if the pool is smaller than a single fetch.
+     *
+     * @param maxBytes The maximum size of the fetch response
+     * @param minBytes The smallest reservation that is worth sending a fetch for
+     * @return The reserved number of bytes, at most maxBytes, or 0 if not enough memory is available
+     */
+    public synchronized int tryReserve(int maxBytes, int minBytes) {
+        long available = totalMemory - usedMemory;
+        if (usedMemory > 0 && available < Math.max(1, Math.min(maxBytes, minBytes)))
+            return 0;
+        int reserved = (int) Math.min(maxBytes, available);
+        usedMemory += reserved;
+        return reserved;
+    }
+
+    /**
+     * Account for fetched data without checking the available memory. Fetch responses can be larger than the
+     * reservation if the first batch of a partition is larger than the maximum fetch size.
+     */
+    public synchronized void allocate(int bytes) {
+        usedMemory += bytes;
+    }
+
+    /**
+     * Return memory to the pool.
+     */
+    public synchronized void release(int bytes) {
+        usedMemory -= bytes;
+    }
+
+    /**
+     * The maximum amount of memory the fetched data may use
+     */
+    public long totalMemory() {
+        return totalMemory;
+    }
+
+    /**
+     * The amount of memory which is reserved for fetches or used by fetched data
+     */
+    public synchronized long usedMemory() {
+        return usedMemory;
+    }
+
+    /**
+     * The amount of memory which is neither reserved for fetches nor used by fetched data
+     */
+    public synchronized long availableMemory() {
+        return Math.max(0, totalMemory - usedMemory);
+    }
+}
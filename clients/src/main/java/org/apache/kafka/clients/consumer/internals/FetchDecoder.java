@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer.internals;
+
+import org.apache.kafka.common.record.BufferSupplier;
+import org.apache.kafka.common.utils.KafkaThread;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads which validate and decompress completed fetches before they are returned by poll(). The records are
+ * deserialized by the thread calling poll(), since deserializers are not required to be thread safe.
+ * The fetched data that is being decoded or waits to be returned after it was decoded is limited to a number of
+ * bytes, but a single fetch is always decoded.
+ */
+public class FetchDecoder implements Closeable {
+
+    private final ExecutorService executor;
+    private final long maxBytes;
+    // the decompression buffers are cached per decoded fetch, and reused for the next fetch once it was returned
+    private final ConcurrentLinkedQueue<BufferSupplier> bufferSuppliers = new ConcurrentLinkedQueue<>();
+    private long scheduledBytes = 0;
+    private boolean closed = false;
+
+    public FetchDecoder(final String clientId, int numThreads, long maxBytes) {
+        if (numThreads <= 0)
+            throw new IllegalArgumentException("The number of decoder threads must be positive");
+        this.maxBytes = maxBytes;
+        this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new KafkaThread("kafka-fetch-decoder-" + threadNumber.getAndIncrement() + " | " + clientId,
+                        runnable, true);
+            }
+        });
+    }
+
+    /**
+     * Reserve the bytes of a fetch to decode, which is allowed if the decoder has not enough data to decode.
+     *
+     * @param sizeInBytes The size of the fetched data
+     * @return true if the fetch can be decoded
+     */
+    synchronized boolean tryReserve(int sizeInBytes) {
+        if (closed || (scheduledBytes > 0 && scheduledBytes + sizeInBytes > maxBytes))
+            return false;
+        scheduledBytes += sizeInBytes;
+        return true;
+    }
+
+    /**
+     * Release the bytes of a decoded fetch after it has been taken by poll().
+     */
+    synchronized void release(int sizeInBytes) {
+        scheduledBytes -= sizeInBytes;
+    }
+
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    synchronized long scheduledBytes() {
+        return scheduledBytes;
+    }
+
+    BufferSupplier takeBufferSupplier() {
+        BufferSupplier supplier = bufferSuppliers.poll();
+        return supplier == null ? BufferSupplier.create() : supplier;
+    }
+
+    void returnBufferSupplier(BufferSupplier supplier) {
+        bufferSuppliers.add(supplier);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        executor.shutdownNow();
+        BufferSupplier supplier;
+        while ((supplier = bufferSuppliers.poll()) != null)
+            supplier.close();
+    }
+}
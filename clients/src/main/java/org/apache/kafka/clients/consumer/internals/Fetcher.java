@@ -17,9 +17,11 @@
 package org.apache.kafka.clients.consumer.internals;
 
 import org.apache.kafka.clients.ClientResponse;
+import org.apache.kafka.clients.FetchSessionHandler;
 import org.apache.kafka.clients.Metadata;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.FetchPrioritizer;
 import org.apache.kafka.clients.consumer.NoOffsetForPartitionException;
 import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
 import org.apache.kafka.clients.consumer.OffsetOutOfRangeException;
@@ -38,6 +40,8 @@ import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.errors.TopicAuthorizationException;
 import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.metrics.stats.Avg;
@@ -51,6 +55,7 @@ import org.apache.kafka.common.record.ControlRecordType;
 import org.apache.kafka.common.record.InvalidRecordException;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.RecordCursor;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.requests.FetchRequest;
 import org.apache.kafka.common.requests.FetchResponse;
@@ -61,6 +66,7 @@ import org.apache.kafka.common.requests.MetadataRequest;
 import org.apache.kafka.common.requests.MetadataResponse;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.serialization.ExtendedDeserializer;
+import org.apache.kafka.common.serialization.ZeroCopyDeserializer;
 import org.apache.kafka.common.utils.CloseableIterator;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
@@ -111,7 +117,21 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
 
     private final ExtendedDeserializer<K> keyDeserializer;
     private final ExtendedDeserializer<V> valueDeserializer;
+    // read v2 batches with a RecordCursor if either deserializer can read the fetched data in place
+    private final boolean useRecordCursor;
     private final IsolationLevel isolationLevel;
+    // decodes completed fetches ahead of poll(), null if they are decoded by the thread calling poll()
+    private final FetchDecoder decoder;
+    // limits the memory of the fetched data which has not been returned yet
+    private final FetchBufferPool bufferPool;
+
+    private final FetchPrioritizer prioritizer;
+
+    private final String clientRackId;
+    // the fetch sessions with the brokers, keyed by node id
+    private final Map<Integer, FetchSessionHandler> sessionHandlers = new HashMap<>();
+    // the nodes whose fetch response has not been handled yet, the next fetch of a session must wait for it
+    private final Set<Integer> nodesWithPendingFetchRequests = new HashSet<>();
 
     private PartitionRecords nextInLineRecords = null;
 
@@ -131,6 +151,31 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                    Time time,
                    long retryBackoffMs,
                    IsolationLevel isolationLevel) {
+        this(client, minBytes, maxBytes, maxWaitMs, fetchSize, maxPollRecords, checkCrcs, keyDeserializer,
+                valueDeserializer, metadata, subscriptions, metrics, metricsRegistry, time, retryBackoffMs,
+                isolationLevel, null, new FetchBufferPool(Long.MAX_VALUE), null, "");
+    }
+
+    public Fetcher(ConsumerNetworkClient client,
+                   int minBytes,
+                   int maxBytes,
+                   int maxWaitMs,
+                   int fetchSize,
+                   int maxPollRecords,
+                   boolean checkCrcs,
+                   Deserializer<K> keyDeserializer,
+                   Deserializer<V> valueDeserializer,
+                   Metadata metadata,
+                   SubscriptionState subscriptions,
+                   Metrics metrics,
+                   FetcherMetricsRegistry metricsRegistry,
+                   Time time,
+                   long retryBackoffMs,
+                   IsolationLevel isolationLevel,
+                   FetchDecoder decoder,
+                   FetchBufferPool bufferPool,
+                   FetchPrioritizer prioritizer,
+                   String clientRackId) {
         this.time = time;
         this.client = client;
         this.metadata = metadata;
@@ -143,10 +188,16 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         this.checkCrcs = checkCrcs;
         this.keyDeserializer = ensureExtended(keyDeserializer);
         this.valueDeserializer = ensureExtended(valueDeserializer);
+        this.useRecordCursor = keyDeserializer instanceof ZeroCopyDeserializer ||
+                valueDeserializer instanceof ZeroCopyDeserializer;
         this.completedFetches = new ConcurrentLinkedQueue<>();
-        this.sensors = new FetchManagerMetrics(metrics, metricsRegistry);
+        this.sensors = new FetchManagerMetrics(metrics, metricsRegistry, bufferPool);
         this.retryBackoffMs = retryBackoffMs;
         this.isolationLevel = isolationLevel;
+        this.decoder = decoder;
+        this.bufferPool = bufferPool;
+        this.prioritizer = prioritizer;
+        this.clientRackId = clientRackId;
 
         subscriptions.addListener(this);
     }
@@ -175,16 +226,11 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
 
     /**
      * Return whether we have any completed fetches pending return to the user. This method is thread-safe.
-     * @return true if there are completed fetches, false otherwise
+     * @return true if there are completed fetches, false otherwise or if the next one is still being decoded
      */
     public boolean hasCompletedFetches() {
-        return !completedFetches.isEmpty();
-    }
-
-    private boolean matchesRequestedPartitions(FetchRequest.Builder request, FetchResponse response) {
-        Set<TopicPartition> requestedPartitions = request.fetchData().keySet();
-        Set<TopicPartition> fetchedPartitions = response.responseData().keySet();
-        return fetchedPartitions.equals(requestedPartitions);
+        CompletedFetch completedFetch = completedFetches.peek();
+        return completedFetch != null && !completedFetch.isDecoding();
     }
 
     /**
@@ -192,52 +238,92 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
      * an in-flight fetch or pending fetch data.
      * @return number of fetches sent
      */
-    public int sendFetches() {
-        Map<Node, FetchRequest.Builder> fetchRequestMap = createFetchRequests();
-        for (Map.Entry<Node, FetchRequest.Builder> fetchEntry : fetchRequestMap.entrySet()) {
-            final FetchRequest.Builder request = fetchEntry.getValue();
+    public synchronized int sendFetches() {
+        Map<Node, FetchSessionHandler.Builder> fetchRequestMap = prepareFetchRequests();
+        int fetchesSent = 0;
+        for (Map.Entry<Node, FetchSessionHandler.Builder> fetchEntry : fetchRequestMap.entrySet()) {
             final Node fetchTarget = fetchEntry.getKey();
+            // the maximum size of the response is reserved, a fetch is only sent if a partition can be fetched in full
+            final int reservedBytes = bufferPool.tryReserve(this.maxBytes, this.fetchSize);
+            if (reservedBytes == 0) {
+                log.debug("Skipping fetch to node {} because the fetch buffer memory is exhausted", fetchTarget);
+                sensors.fetchBufferExhausted.record();
+                continue;
+            }
+
+            final FetchSessionHandler.FetchRequestData data = fetchEntry.getValue().build();
+            final FetchRequest.Builder request = FetchRequest.Builder.forConsumer(this.maxWaitMs, this.minBytes,
+                    data.toSend(), isolationLevel)
+                    .metadata(data.metadata())
+                    .toForget(data.toForget())
+                    .rackId(clientRackId)
+                    .setMaxBytes(reservedBytes);
 
-            log.debug("Sending {} fetch for partitions {} to broker {}", isolationLevel, request.fetchData().keySet(),
-                    fetchTarget);
+            log.debug("Sending {} {} to broker {}", isolationLevel, data, fetchTarget);
             client.send(fetchTarget, request)
                     .addListener(new RequestFutureListener<ClientResponse>() {
                         @Override
                         public void onSuccess(ClientResponse resp) {
-                            FetchResponse response = (FetchResponse) resp.responseBody();
-                            if (!matchesRequestedPartitions(request, response)) {
-                                // obviously we expect the broker to always send us valid responses, so this check
-                                // is mainly for test cases where mock fetch responses must be manually crafted.
-                                log.warn("Ignoring fetch response containing partitions {} since it does not match " +
-                                        "the requested partitions {}", response.responseData().keySet(),
-                                        request.fetchData().keySet());
-                                return;
+                            synchronized (Fetcher.this) {
+                                try {
+                                    handleFetchResponse(fetchTarget, data, resp);
+                                } finally {
+                                    // the reserved memory is replaced by the size of the fetched data
+                                    bufferPool.release(reservedBytes);
+                                    nodesWithPendingFetchRequests.remove(fetchTarget.id());
+                                }
                             }
-
-                            Set<TopicPartition> partitions = new HashSet<>(response.responseData().keySet());
-                            FetchResponseMetricAggregator metricAggregator = new FetchResponseMetricAggregator(sensors, partitions);
-
-                            for (Map.Entry<TopicPartition, FetchResponse.PartitionData> entry : response.responseData().entrySet()) {
-                                TopicPartition partition = entry.getKey();
-                                long fetchOffset = request.fetchData().get(partition).fetchOffset;
-                                FetchResponse.PartitionData fetchData = entry.getValue();
-
-                                log.debug("Fetch {} at offset {} for partition {} returned fetch data {}",
-                                        isolationLevel, fetchOffset, partition, fetchData);
-                                completedFetches.add(new CompletedFetch(partition, fetchOffset, fetchData, metricAggregator,
-                                        resp.requestHeader().apiVersion()));
-                            }
-
-                            sensors.fetchLatency.record(resp.requestLatencyMs());
                         }
 
                         @Override
                         public void onFailure(RuntimeException e) {
-                            log.debug("Fetch request {} to {} failed", request.fetchData(), fetchTarget, e);
+                            synchronized (Fetcher.this) {
+                                log.debug("Fetch request {} to {} failed", data, fetchTarget, e);
+                                FetchSessionHandler handler = sessionHandlers.get(fetchTarget.id());
+                                if (handler != null)
+                                    handler.handleError(e);
+                                // fetch the partitions from their leader if the preferred read replica failed
+                                for (TopicPartition partition : data.sessionPartitions().keySet())
+                                    maybeClearPreferredReadReplica(partition, fetchTarget);
+                                bufferPool.release(reservedBytes);
+                                nodesWithPendingFetchRequests.remove(fetchTarget.id());
+                            }
                         }
                     });
+            nodesWithPendingFetchRequests.add(fetchTarget.id());
+            fetchesSent++;
+        }
+        return fetchesSent;
+    }
+
+    private void handleFetchResponse(Node fetchTarget, FetchSessionHandler.FetchRequestData data, ClientResponse resp) {
+        FetchResponse response = (FetchResponse) resp.responseBody();
+        FetchSessionHandler handler = sessionHandlers.get(fetchTarget.id());
+        if (handler == null) {
+            log.error("Unable to find the fetch session handler for node {}. Ignoring fetch response.", fetchTarget.id());
+            return;
+        }
+        // obviously we expect the broker to always send us valid responses, so the check of the
+        // partitions is mainly for test cases where mock fetch responses must be manually crafted.
+        if (!handler.handleResponse(response))
+            return;
+
+        Set<TopicPartition> partitions = new HashSet<>(response.responseData().keySet());
+        FetchResponseMetricAggregator metricAggregator = new FetchResponseMetricAggregator(sensors, partitions);
+
+        for (Map.Entry<TopicPartition, FetchResponse.PartitionData> entry : response.responseData().entrySet()) {
+            TopicPartition partition = entry.getKey();
+            long fetchOffset = data.sessionPartitions().get(partition).fetchOffset;
+            FetchResponse.PartitionData fetchData = entry.getValue();
+
+            log.debug("Fetch {} at offset {} for partition {} returned fetch data {}",
+                    isolationLevel, fetchOffset, partition, fetchData);
+            completedFetches.add(new CompletedFetch(partition, fetchOffset, fetchData, metricAggregator,
+                    resp.requestHeader().apiVersion()));
         }
-        return fetchRequestMap.size();
+        maybeScheduleDecoding();
+
+        sensors.fetchLatency.record(resp.requestLatencyMs());
     }
 
     /**
@@ -520,10 +606,16 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             while (recordsRemaining > 0) {
                 if (nextInLineRecords == null || nextInLineRecords.isFetched) {
                     CompletedFetch completedFetch = completedFetches.peek();
-                    if (completedFetch == null) break;
+                    if (completedFetch == null || !completedFetch.takeForParsing()) break;
 
                     nextInLineRecords = parseCompletedFetch(completedFetch);
                     completedFetches.poll();
+                    if (nextInLineRecords == null)
+                        completedFetch.releaseMemory();
+                    if (completedFetch.isDecoded()) {
+                        decoder.release(completedFetch.partitionData.records.sizeInBytes());
+                        maybeScheduleDecoding();
+                    }
                 } else {
                     List<ConsumerRecord<K, V>> records = fetchRecords(nextInLineRecords, recordsRemaining);
                     TopicPartition partition = nextInLineRecords.partition;
@@ -748,6 +840,22 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             future.complete(timestampOffsetMap);
     }
 
+    /**
+     * Schedule the decoding of the completed fetches, in the order they will be returned, until the decoder has
+     * enough data to decode. This may be called by the heartbeat thread.
+     */
+    private void maybeScheduleDecoding() {
+        if (decoder == null)
+            return;
+
+        synchronized (decoder) {
+            for (CompletedFetch completedFetch : completedFetches) {
+                if (!completedFetch.maybeScheduleDecoding())
+                    break;
+            }
+        }
+    }
+
     private List<TopicPartition> fetchablePartitions() {
         Set<TopicPartition> exclude = new HashSet<>();
         List<TopicPartition> fetchable = subscriptions.fetchablePartitions();
@@ -765,42 +873,113 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
      * Create fetch requests for all nodes for which we have assigned partitions
      * that have no existing requests in flight.
      */
-    private Map<Node, FetchRequest.Builder> createFetchRequests() {
-        // create the fetch info
+    private Map<Node, FetchSessionHandler.Builder> prepareFetchRequests() {
+        // group the fetchable partitions by leader
         Cluster cluster = metadata.fetch();
-        Map<Node, LinkedHashMap<TopicPartition, FetchRequest.PartitionData>> fetchable = new LinkedHashMap<>();
+        Map<Node, List<TopicPartition>> partitionsByNode = new LinkedHashMap<>();
+        long currentTimeMs = time.milliseconds();
         for (TopicPartition partition : fetchablePartitions()) {
-            Node node = cluster.leaderFor(partition);
+            Node node = selectReadReplica(partition, cluster.leaderFor(partition), currentTimeMs);
             if (node == null) {
                 metadata.requestUpdate();
-            } else if (!this.client.hasPendingRequests(node)) {
+            } else if (!this.client.hasPendingRequests(node) && !nodesWithPendingFetchRequests.contains(node.id())) {
                 // if there is a leader and no in-flight requests, issue a new fetch
-                LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetch = fetchable.get(node);
-                if (fetch == null) {
-                    fetch = new LinkedHashMap<>();
-                    fetchable.put(node, fetch);
+                List<TopicPartition> partitions = partitionsByNode.get(node);
+                if (partitions == null) {
+                    partitions = new ArrayList<>();
+                    partitionsByNode.put(node, partitions);
                 }
+                partitions.add(partition);
+            } else {
+                log.trace("Skipping fetch for partition {} because there is an in-flight request to {}", partition, node);
+            }
+        }
+
+        // create the fetch info
+        Map<Node, FetchSessionHandler.Builder> fetchable = new LinkedHashMap<>();
+        for (Map.Entry<Node, List<TopicPartition>> entry : partitionsByNode.entrySet()) {
+            Node node = entry.getKey();
+            Map<TopicPartition, Integer> fetchSizes = partitionFetchSizes(entry.getValue());
+            if (fetchSizes.isEmpty()) {
+                log.trace("Skipping fetch to node {} because the fetch prioritizer excluded all its partitions", node);
+                continue;
+            }
 
+            FetchSessionHandler handler = sessionHandlers.get(node.id());
+            if (handler == null) {
+                handler = new FetchSessionHandler(node.id());
+                sessionHandlers.put(node.id(), handler);
+            }
+            FetchSessionHandler.Builder builder = handler.newBuilder();
+            for (Map.Entry<TopicPartition, Integer> fetchSize : fetchSizes.entrySet()) {
+                TopicPartition partition = fetchSize.getKey();
                 long position = this.subscriptions.position(partition);
-                fetch.put(partition, new FetchRequest.PartitionData(position, FetchRequest.INVALID_LOG_START_OFFSET,
-                        this.fetchSize));
+                builder.add(partition, new FetchRequest.PartitionData(position, FetchRequest.INVALID_LOG_START_OFFSET,
+                        fetchSize.getValue()));
                 log.debug("Added {} fetch request for partition {} at offset {} to node {}", isolationLevel,
                         partition, position, node);
-            } else {
-                log.trace("Skipping fetch for partition {} because there is an in-flight request to {}", partition, node);
             }
+            fetchable.put(node, builder);
         }
+        return fetchable;
+    }
 
-        // create the fetches
-        Map<Node, FetchRequest.Builder> requests = new HashMap<>();
-        for (Map.Entry<Node, LinkedHashMap<TopicPartition, FetchRequest.PartitionData>> entry : fetchable.entrySet()) {
-            Node node = entry.getKey();
-            FetchRequest.Builder fetch = FetchRequest.Builder.forConsumer(this.maxWaitMs, this.minBytes,
-                    entry.getValue(), isolationLevel)
-                    .setMaxBytes(this.maxBytes);
-            requests.put(node, fetch);
+    /**
+     * The node to fetch a partition from, which is its leader unless the leader directed the consumer to a preferred
+     * read replica which has not expired yet.
+     */
+    private Node selectReadReplica(TopicPartition partition, Node leader, long currentTimeMs) {
+        if (leader == null)
+            return null;
+        Integer replicaId = subscriptions.preferredReadReplica(partition, currentTimeMs);
+        if (replicaId == null)
+            return leader;
+        Node replica = metadata.fetch().nodeById(replicaId);
+        if (replica == null || client.connectionFailed(replica)) {
+            log.debug("Fetching partition {} from the leader {} since the preferred read replica {} is not available",
+                    partition, leader, replicaId);
+            subscriptions.clearPreferredReadReplica(partition);
+            return leader;
+        }
+        return replica;
+    }
+
+    private void maybeClearPreferredReadReplica(TopicPartition partition, Node fetchTarget) {
+        if (subscriptions.isAssigned(partition) &&
+                Integer.valueOf(fetchTarget.id()).equals(subscriptions.preferredReadReplica(partition, time.milliseconds())))
+            subscriptions.clearPreferredReadReplica(partition);
+    }
+
+    /**
+     * The maximum number of bytes to fetch for each of the given partitions of a node, in the order in which they
+     * should be fetched.
+     */
+    private Map<TopicPartition, Integer> partitionFetchSizes(List<TopicPartition> partitions) {
+        Map<TopicPartition, Integer> fetchSizes = new LinkedHashMap<>();
+        if (prioritizer == null) {
+            for (TopicPartition partition : partitions)
+                fetchSizes.put(partition, this.fetchSize);
+            return fetchSizes;
+        }
+
+        List<FetchPrioritizer.PartitionState> states = new ArrayList<>(partitions.size());
+        for (TopicPartition partition : partitions)
+            states.add(new FetchPrioritizer.PartitionState(partition, subscriptions.position(partition),
+                    subscriptions.partitionLag(partition, isolationLevel)));
+        Map<TopicPartition, Integer> allocations = prioritizer.prioritize(states, this.maxBytes, this.fetchSize,
+                bufferPool.usedMemory());
+        Set<TopicPartition> fetchable = new HashSet<>(partitions);
+        for (Map.Entry<TopicPartition, Integer> allocation : allocations.entrySet()) {
+            TopicPartition partition = allocation.getKey();
+            if (!fetchable.contains(partition))
+                throw new IllegalStateException("The fetch prioritizer returned partition " + partition +
+                        " which is not fetchable from the node");
+            if (allocation.getValue() <= 0)
+                throw new IllegalStateException("The fetch prioritizer allocated " + allocation.getValue() +
+                        " bytes to partition " + partition);
+            fetchSizes.put(partition, Math.min(allocation.getValue(), this.fetchSize));
         }
-        return requests;
+        return fetchSizes;
     }
 
     /**
@@ -811,6 +990,7 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         FetchResponse.PartitionData partition = completedFetch.partitionData;
         long fetchOffset = completedFetch.fetchedOffset;
         PartitionRecords partitionRecords = null;
+        PartitionRecords decodedRecords = completedFetch.decodedRecords;
         Errors error = partition.error;
 
         try {
@@ -830,10 +1010,13 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
 
                 log.trace("Preparing to read {} bytes of data for partition {} with offset {}",
                         partition.records.sizeInBytes(), tp, position);
-                Iterator<? extends RecordBatch> batches = partition.records.batches().iterator();
-                partitionRecords = new PartitionRecords(tp, completedFetch, batches);
+                if (decodedRecords != null)
+                    partitionRecords = decodedRecords;
+                else
+                    partitionRecords = new PartitionRecords(tp, completedFetch, partition.records.batches().iterator(),
+                            false);
 
-                if (!batches.hasNext() && partition.records.sizeInBytes() > 0) {
+                if (!partitionRecords.hasBatches && partition.records.sizeInBytes() > 0) {
                     if (completedFetch.responseVersion < 3) {
                         // Implement the pre KIP-74 behavior of throwing a RecordTooLargeException.
                         Map<TopicPartition, Long> recordTooLargePartitions = Collections.singletonMap(tp, fetchOffset);
@@ -860,17 +1043,31 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                     log.trace("Updating last stable offset for partition {} to {}", tp, partition.lastStableOffset);
                     subscriptions.updateLastStableOffset(tp, partition.lastStableOffset);
                 }
-            } else if (error == Errors.NOT_LEADER_FOR_PARTITION) {
+
+                if (partition.preferredReadReplica != FetchResponse.INVALID_PREFERRED_REPLICA_ID) {
+                    log.debug("Fetching partition {} from the preferred read replica {}", tp, partition.preferredReadReplica);
+                    // the leader is asked again when the preferred read replica may be stale, like the metadata
+                    long currentTimeMs = time.milliseconds();
+                    long expireTimeMs = currentTimeMs + Math.min(metadata.metadataExpireMs(), Long.MAX_VALUE - currentTimeMs);
+                    subscriptions.updatePreferredReadReplica(tp, partition.preferredReadReplica, expireTimeMs);
+                }
+            } else if (error == Errors.NOT_LEADER_FOR_PARTITION || error == Errors.REPLICA_NOT_AVAILABLE) {
                 log.debug("Error in fetch for partition {}: {}", tp, error.exceptionName());
+                subscriptions.clearPreferredReadReplica(tp);
                 this.metadata.requestUpdate();
             } else if (error == Errors.UNKNOWN_TOPIC_OR_PARTITION) {
                 log.warn("Received unknown topic or partition error in fetch for partition {}. The topic/partition " +
                         "may not exist or the user may not have Describe access to it", tp);
+                subscriptions.clearPreferredReadReplica(tp);
                 this.metadata.requestUpdate();
             } else if (error == Errors.OFFSET_OUT_OF_RANGE) {
                 if (fetchOffset != subscriptions.position(tp)) {
                     log.debug("Discarding stale fetch response for partition {} since the fetched offset {}" +
                             "does not match the current offset {}", tp, fetchOffset, subscriptions.position(tp));
+                } else if (subscriptions.clearPreferredReadReplica(tp) != null) {
+                    // a follower may not have replicated the offset yet, the leader decides whether it is out of range
+                    log.debug("Fetch offset {} is out of range for partition {} on the preferred read replica, " +
+                            "fetching from the leader", fetchOffset, tp);
                 } else if (subscriptions.hasDefaultOffsetResetPolicy()) {
                     log.info("Fetch offset {} is out of range for partition {}, resetting offset", fetchOffset, tp);
                     subscriptions.needOffsetReset(tp);
@@ -886,8 +1083,11 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                 throw new IllegalStateException("Unexpected error code " + error.code() + " while fetching data");
             }
         } finally {
-            if (partitionRecords == null)
+            if (partitionRecords == null) {
                 completedFetch.metricAggregator.record(tp, 0, 0);
+                if (decodedRecords != null)
+                    decodedRecords.releaseBufferSupplier();
+            }
 
             if (error != Errors.NONE)
                 // we move the partition to the end if there was an error. This way, it's more likely that partitions for
@@ -911,22 +1111,26 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             TimestampType timestampType = batch.timestampType();
             Headers headers = new RecordHeaders(record.headers());
             ByteBuffer keyBytes = record.key();
-            byte[] keyByteArray = keyBytes == null ? null : Utils.toArray(keyBytes);
-            K key = keyBytes == null ? null : this.keyDeserializer.deserialize(partition.topic(), headers, keyByteArray);
+            int keySize = keyBytes == null ? ConsumerRecord.NULL_SIZE : keyBytes.remaining();
+            K key = keyBytes == null ? null : deserialize(this.keyDeserializer, partition.topic(), headers, keyBytes);
             ByteBuffer valueBytes = record.value();
-            byte[] valueByteArray = valueBytes == null ? null : Utils.toArray(valueBytes);
-            V value = valueBytes == null ? null : this.valueDeserializer.deserialize(partition.topic(), headers, valueByteArray);
+            int valueSize = valueBytes == null ? ConsumerRecord.NULL_SIZE : valueBytes.remaining();
+            V value = valueBytes == null ? null : deserialize(this.valueDeserializer, partition.topic(), headers, valueBytes);
             return new ConsumerRecord<>(partition.topic(), partition.partition(), offset,
                                         timestamp, timestampType, record.checksumOrNull(),
-                                        keyByteArray == null ? ConsumerRecord.NULL_SIZE : keyByteArray.length,
-                                        valueByteArray == null ? ConsumerRecord.NULL_SIZE : valueByteArray.length,
-                                        key, value, headers);
+                                        keySize, valueSize, key, value, headers);
         } catch (RuntimeException e) {
             throw new SerializationException("Error deserializing key/value for partition " + partition +
                     " at offset " + record.offset() + ". If needed, please seek past the record to continue consumption.", e);
         }
     }
 
+    private static <T> T deserialize(ExtendedDeserializer<T> deserializer, String topic, Headers headers, ByteBuffer data) {
+        if (deserializer instanceof ZeroCopyDeserializer)
+            return ((ZeroCopyDeserializer<T>) deserializer).deserialize(topic, headers, data);
+        return deserializer.deserialize(topic, headers, Utils.toArray(data));
+    }
+
     @Override
     public void onAssignment(Set<TopicPartition> assignment) {
         sensors.updatePartitionLagSensors(assignment);
@@ -945,36 +1149,61 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         private final TopicPartition partition;
         private final CompletedFetch completedFetch;
         private final Iterator<? extends RecordBatch> batches;
+        private final boolean hasBatches;
         private final Set<Long> abortedProducerIds;
         private final PriorityQueue<FetchResponse.AbortedTransaction> abortedTransactions;
+        // the decompression buffers of records decoded ahead of poll() are cached per fetch, since they are used
+        // by the decoder thread and then by the thread calling poll()
+        private final BufferSupplier bufferSupplier;
+        private final boolean ownsBufferSupplier;
+        private boolean bufferSupplierReleased = false;
 
         private int recordsRead;
         private int bytesRead;
         private RecordBatch currentBatch;
         private Record lastRecord;
         private CloseableIterator<Record> records;
+        private RecordCursor recordCursor;
         private long nextFetchOffset;
         private boolean isFetched = false;
         private Exception cachedRecordException = null;
         private boolean corruptLastRecord = false;
 
+        // the records decoded ahead of poll() and their batches, null if they are not decoded ahead or all of them
+        // have been returned. They are deserialized by poll(), since deserializers need not be thread safe.
+        private List<Record> decodedRecords;
+        private List<RecordBatch> decodedBatches;
+        private int decodedIndex;
+        // the next fetch offset after the decoded records and whether the decoder reached the end of the fetch
+        private long decodedNextFetchOffset;
+        private boolean decodedAll = false;
+        private boolean decoding = false;
+
         private PartitionRecords(TopicPartition partition,
                                  CompletedFetch completedFetch,
-                                 Iterator<? extends RecordBatch> batches) {
+                                 Iterator<? extends RecordBatch> batches,
+                                 boolean ownsBufferSupplier) {
             this.partition = partition;
             this.completedFetch = completedFetch;
             this.batches = batches;
+            this.hasBatches = batches.hasNext();
             this.nextFetchOffset = completedFetch.fetchedOffset;
             this.abortedProducerIds = new HashSet<>();
             this.abortedTransactions = abortedTransactions(completedFetch.partitionData);
+            this.ownsBufferSupplier = ownsBufferSupplier;
+            this.bufferSupplier = ownsBufferSupplier ? decoder.takeBufferSupplier() : decompressionBufferSupplier;
         }
 
         private void drain() {
             if (!isFetched) {
                 maybeCloseRecordStream();
                 cachedRecordException = null;
+                decodedRecords = null;
+                decodedBatches = null;
                 this.isFetched = true;
                 this.completedFetch.metricAggregator.record(partition, bytesRead, recordsRead);
+                this.completedFetch.releaseMemory();
+                releaseBufferSupplier();
 
                 // we move the partition to the end if we received some bytes. This way, it's more likely that partitions
                 // for the same topic can remain together (allowing for more efficient serialization).
@@ -983,6 +1212,63 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             }
         }
 
+        private void releaseBufferSupplier() {
+            if (ownsBufferSupplier && !bufferSupplierReleased) {
+                maybeCloseRecordStream();
+                bufferSupplierReleased = true;
+                decoder.returnBufferSupplier(bufferSupplier);
+            }
+        }
+
+        /**
+         * Validate and decompress the fetched records ahead of poll(). This is called by a decoder thread before the
+         * records are handed over to the thread calling poll(), which deserializes them. It stops at the first record
+         * which can not be read, poll() then continues from there as if the records were not decoded ahead.
+         */
+        private void decode() {
+            decoding = true;
+            decodedRecords = new ArrayList<>();
+            decodedBatches = new ArrayList<>();
+            try {
+                while (true) {
+                    corruptLastRecord = true;
+                    lastRecord = nextFetchedRecord();
+                    corruptLastRecord = false;
+                    if (lastRecord == null)
+                        break;
+                    decodedRecords.add(lastRecord);
+                    decodedBatches.add(currentBatch);
+                    nextFetchOffset = lastRecord.offset() + 1;
+                }
+            } catch (KafkaException e) {
+                cachedRecordException = e;
+            } finally {
+                decoding = false;
+            }
+            // the position is only advanced when the records are returned
+            decodedNextFetchOffset = nextFetchOffset;
+            nextFetchOffset = completedFetch.fetchedOffset;
+        }
+
+        private List<ConsumerRecord<K, V>> fetchDecodedRecords(int maxRecords) {
+            int end = decodedIndex + Math.min(decodedRecords.size() - decodedIndex, maxRecords);
+            List<ConsumerRecord<K, V>> records = new ArrayList<>(end - decodedIndex);
+            try {
+                for (; decodedIndex < end; decodedIndex++) {
+                    Record record = decodedRecords.get(decodedIndex);
+                    records.add(parseRecord(partition, decodedBatches.get(decodedIndex), record));
+                    recordsRead++;
+                    bytesRead += record.sizeInBytes();
+                    nextFetchOffset = record.offset() + 1;
+                }
+            } catch (SerializationException se) {
+                // the record which failed is deserialized again by the next call
+                if (records.isEmpty())
+                    throw se;
+            }
+            return records;
+        }
+
         private void maybeEnsureValid(RecordBatch batch) {
             if (checkCrcs && currentBatch.magic() >= RecordBatch.MAGIC_VALUE_V2) {
                 try {
@@ -1025,7 +1311,11 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                         // fetching the same batch repeatedly).
                         if (currentBatch != null)
                             nextFetchOffset = currentBatch.nextOffset();
-                        drain();
+                        // the decoder thread must not update the consumer's state
+                        if (decoding)
+                            decodedAll = true;
+                        else
+                            drain();
                         return null;
                     }
 
@@ -1050,7 +1340,14 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                         }
                     }
 
-                    records = currentBatch.streamingIterator(decompressionBufferSupplier);
+                    // the records decoded ahead are kept until poll(), so they can not share a cursor
+                    if (useRecordCursor && !decoding && RecordCursor.canRead(currentBatch)) {
+                        if (recordCursor == null)
+                            recordCursor = new RecordCursor(bufferSupplier);
+                        records = recordCursor.reset(currentBatch);
+                    } else {
+                        records = currentBatch.streamingIterator(bufferSupplier);
+                    }
                 } else {
                     Record record = records.next();
                     // skip any records out of range
@@ -1071,6 +1368,20 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         }
 
         private List<ConsumerRecord<K, V>> fetchRecords(int maxRecords) {
+            if (decodedRecords != null && !isFetched) {
+                if (decodedIndex < decodedRecords.size())
+                    return fetchDecodedRecords(maxRecords);
+
+                // all the decoded records have been returned, continue where the decoder stopped
+                decodedRecords = null;
+                decodedBatches = null;
+                nextFetchOffset = decodedNextFetchOffset;
+                if (decodedAll) {
+                    drain();
+                    return Collections.emptyList();
+                }
+            }
+
             // Error when fetching the next record before deserialization.
             if (corruptLastRecord)
                 throw new KafkaException("Received exception when fetching the next record from " + partition
@@ -1159,12 +1470,21 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         }
     }
 
-    private static class CompletedFetch {
+    private class CompletedFetch {
+        private static final int NOT_DECODED = 0;
+        private static final int DECODING = 1;
+        private static final int DECODED = 2;
+        private static final int DECODED_BY_POLL = 3;
+
         private final TopicPartition partition;
         private final long fetchedOffset;
         private final FetchResponse.PartitionData partitionData;
         private final FetchResponseMetricAggregator metricAggregator;
         private final short responseVersion;
+        private final AtomicInteger decodeState = new AtomicInteger(NOT_DECODED);
+        // set by the decoder thread before the state changes to DECODED, null if the decoding failed
+        private PartitionRecords decodedRecords;
+        private boolean memoryReleased = false;
 
         private CompletedFetch(TopicPartition partition,
                                long fetchedOffset,
@@ -1176,6 +1496,76 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             this.partitionData = partitionData;
             this.metricAggregator = metricAggregator;
             this.responseVersion = responseVersion;
+            bufferPool.allocate(partitionData.records.sizeInBytes());
+        }
+
+        /**
+         * Return the fetch buffer memory of the fetched data once it has been returned or discarded by poll().
+         */
+        private void releaseMemory() {
+            if (!memoryReleased) {
+                memoryReleased = true;
+                bufferPool.release(partitionData.records.sizeInBytes());
+            }
+        }
+
+        /**
+         * Schedule the decoding of the fetched records if this was not done yet.
+         * @return false if the decoder has too much data to decode
+         */
+        private boolean maybeScheduleDecoding() {
+            if (decodeState.get() != NOT_DECODED || partitionData.error != Errors.NONE)
+                return true;
+
+            int sizeInBytes = partitionData.records.sizeInBytes();
+            if (sizeInBytes == 0)
+                return true;
+            if (!decoder.tryReserve(sizeInBytes))
+                return false;
+            if (!decodeState.compareAndSet(NOT_DECODED, DECODING)) {
+                // poll() got there first
+                decoder.release(sizeInBytes);
+                return true;
+            }
+            decoder.execute(new Runnable() {
+                @Override
+                public void run() {
+                    decode();
+                }
+            });
+            return true;
+        }
+
+        private void decode() {
+            PartitionRecords records = null;
+            try {
+                records = new PartitionRecords(partition, this, partitionData.records.batches().iterator(), true);
+                records.decode();
+                decodedRecords = records;
+            } catch (RuntimeException e) {
+                // poll() fails in the same way when it decodes the records again
+                log.debug("Failed to decode fetched records of partition {} ahead of poll()", partition, e);
+                if (records != null)
+                    records.releaseBufferSupplier();
+            } finally {
+                decodeState.set(DECODED);
+                client.wakeupPoll();
+            }
+        }
+
+        private boolean isDecoding() {
+            return decodeState.get() == DECODING;
+        }
+
+        private boolean isDecoded() {
+            return decodeState.get() == DECODED;
+        }
+
+        /**
+         * Whether the completed fetch can be parsed by poll(), which is not the case while it is being decoded.
+         */
+        private boolean takeForParsing() {
+            return decodeState.compareAndSet(NOT_DECODED, DECODED_BY_POLL) || decodeState.get() != DECODING;
         }
     }
 
@@ -1245,10 +1635,12 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         private final Sensor recordsFetched;
         private final Sensor fetchLatency;
         private final Sensor recordsFetchLag;
+        private final Sensor fetchBufferExhausted;
 
         private Set<TopicPartition> assignedPartitions;
 
-        private FetchManagerMetrics(Metrics metrics, FetcherMetricsRegistry metricsRegistry) {
+        private FetchManagerMetrics(Metrics metrics, FetcherMetricsRegistry metricsRegistry,
+                                    final FetchBufferPool bufferPool) {
             this.metrics = metrics;
             this.metricsRegistry = metricsRegistry;
 
@@ -1268,6 +1660,19 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
 
             this.recordsFetchLag = metrics.sensor("records-lag");
             this.recordsFetchLag.add(metrics.metricInstance(metricsRegistry.recordsLagMax), new Max());
+
+            metrics.addMetric(metrics.metricInstance(metricsRegistry.fetchBufferTotalBytes), new Measurable() {
+                public double measure(MetricConfig config, long now) {
+                    return bufferPool.totalMemory();
+                }
+            });
+            metrics.addMetric(metrics.metricInstance(metricsRegistry.fetchBufferAvailableBytes), new Measurable() {
+                public double measure(MetricConfig config, long now) {
+                    return bufferPool.availableMemory();
+                }
+            });
+            this.fetchBufferExhausted = metrics.sensor("fetch-buffer-exhausted");
+            this.fetchBufferExhausted.add(metrics.metricInstance(metricsRegistry.fetchBufferExhaustedRate), new Rate());
         }
 
         private void recordTopicFetchMetrics(String topic, int bytes, int records) {
@@ -1343,6 +1748,8 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         if (nextInLineRecords != null)
             nextInLineRecords.drain();
         decompressionBufferSupplier.close();
+        if (decoder != null)
+            decoder.close();
     }
 
 }
@@ -36,6 +36,9 @@ public class FetcherMetricsRegistry {
     public MetricNameTemplate recordsLagMax;
     public MetricNameTemplate fetchThrottleTimeAvg;
     public MetricNameTemplate fetchThrottleTimeMax;
+    public MetricNameTemplate fetchBufferTotalBytes;
+    public MetricNameTemplate fetchBufferAvailableBytes;
+    public MetricNameTemplate fetchBufferExhaustedRate;
     public MetricNameTemplate topicFetchSizeAvg;
     public MetricNameTemplate topicFetchSizeMax;
     public MetricNameTemplate topicBytesConsumedRate;
@@ -86,6 +89,13 @@ public class FetcherMetricsRegistry {
         this.fetchThrottleTimeMax = new MetricNameTemplate("fetch-throttle-time-max", groupName, 
                 "The maximum throttle time in ms", tags);
 
+        this.fetchBufferTotalBytes = new MetricNameTemplate("fetch-buffer-total-bytes", groupName,
+                "The maximum amount of memory the fetched data can use (whether or not it is currently used).", tags);
+        this.fetchBufferAvailableBytes = new MetricNameTemplate("fetch-buffer-available-bytes", groupName,
+                "The amount of fetch buffer memory that is neither used by fetched data nor reserved for fetches in flight.", tags);
+        this.fetchBufferExhaustedRate = new MetricNameTemplate("fetch-buffer-exhausted-rate", groupName,
+                "The number of fetches per second which were not sent because the fetch buffer memory was exhausted.", tags);
+
         /***** Topic level *****/
         Set<String> topicTags = new HashSet<>(tags);
         topicTags.add("topic");
@@ -126,6 +136,9 @@ public class FetcherMetricsRegistry {
             recordsLagMax,
             fetchThrottleTimeAvg,
             fetchThrottleTimeMax,
+            fetchBufferTotalBytes,
+            fetchBufferAvailableBytes,
+            fetchBufferExhaustedRate,
             topicFetchSizeAvg,
             topicFetchSizeMax,
             topicBytesConsumedRate,
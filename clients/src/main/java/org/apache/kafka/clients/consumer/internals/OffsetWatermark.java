@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer.internals;
+
+import java.util.BitSet;
+
+/**
+ * Tracks the records of a partition which were dispatched for processing, but whose processing has not completed
+ * yet. Records may complete in any order, the committable offset is the offset of the first pending record, so that
+ * only the contiguous prefix of completed records is committed. Offsets which were never dispatched, such as the
+ * offsets removed by compaction or used by transaction markers, do not hold back the committable offset.
+ *
+ * The pending offsets are kept in a bitset relative to a base offset, which is moved forward as the records at the
+ * start of the bitset complete.
+ *
+ * This class is not thread-safe.
+ */
+public class OffsetWatermark {
+    // the number of completed offsets at the start of the bitset before it is shifted
+    private static final int COMPACTION_THRESHOLD = 1024;
+
+    private BitSet pending = new BitSet();
+    // the offset of the first bit
+    private long baseOffset = -1L;
+    // the offset after the last dispatched record
+    private long nextOffset = -1L;
+    private int pendingCount = 0;
+
+    /**
+     * Record that a record was dispatched. Records are dispatched in offset order, unless the position of the consumer
+     * was moved back by a seek or an offset reset, in which case the watermark is {@link #reset()} first.
+     */
+    public void dispatched(long offset) {
+        if (offset < nextOffset)
+            reset();
+        if (pendingCount == 0) {
+            pending.clear();
+            baseOffset = offset;
+        } else if (offset - baseOffset > Integer.MAX_VALUE) {
+            compact();
+            if (offset - baseOffset > Integer.MAX_VALUE)
+                throw new IllegalStateException("Offset " + offset + " is too far from the first pending offset " +
+                        baseOffset);
+        }
+        pending.set((int) (offset - baseOffset));
+        pendingCount++;
+        nextOffset = offset + 1;
+    }
+
+    /**
+     * Record that the processing of a dispatched record completed.
+     */
+    public void completed(long offset) {
+        if (!isPending(offset))
+            throw new IllegalArgumentException("Offset " + offset + " is not pending");
+        int index = (int) (offset - baseOffset);
+        pending.clear(index);
+        pendingCount--;
+        if (pendingCount == 0) {
+            pending.clear();
+            baseOffset = nextOffset;
+        } else if (index == 0 && pending.nextSetBit(0) >= COMPACTION_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Forget the dispatched records, for instance after a seek. The records dispatched before are no longer pending,
+     * and the committable offset is -1 until the next record is dispatched.
+     */
+    public void reset() {
+        pending.clear();
+        baseOffset = -1L;
+        nextOffset = -1L;
+        pendingCount = 0;
+    }
+
+    /**
+     * The offset after the last dispatched record, or -1 if no record was dispatched.
+     */
+    public long nextOffset() {
+        return nextOffset;
+    }
+
+    public boolean isPending(long offset) {
+        return offset >= baseOffset && offset < nextOffset && pending.get((int) (offset - baseOffset));
+    }
+
+    /**
+     * The offset to commit, which is the offset of the first pending record or the offset after the last dispatched
+     * record if no record is pending. Returns -1 if no record was dispatched.
+     */
+    public long committableOffset() {
+        if (pendingCount == 0)
+            return nextOffset;
+        return baseOffset + pending.nextSetBit(0);
+    }
+
+    public int pendingCount() {
+        return pendingCount;
+    }
+
+    private void compact() {
+        int first = pending.nextSetBit(0);
+        if (first > 0) {
+            pending = pending.get(first, pending.length());
+            baseOffset += first;
+        }
+    }
+}
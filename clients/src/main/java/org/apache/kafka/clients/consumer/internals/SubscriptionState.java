@@ -335,6 +335,33 @@ public class SubscriptionState {
         assignedState(tp).lastStableOffset = lastStableOffset;
     }
 
+    /**
+     * The id of the replica to fetch the partition from instead of the leader, or null if there is none or it expired.
+     */
+    public Integer preferredReadReplica(TopicPartition tp, long timeMs) {
+        return assignedState(tp).preferredReadReplica(timeMs);
+    }
+
+    public void updatePreferredReadReplica(TopicPartition tp, int preferredReadReplicaId, long expireTimeMs) {
+        TopicPartitionState state = assignedState(tp);
+        state.preferredReadReplica = preferredReadReplicaId;
+        state.preferredReadReplicaExpireTimeMs = expireTimeMs;
+    }
+
+    /**
+     * Fetch the partition from the leader again, if it is still assigned.
+     *
+     * @return The id of the preferred read replica which was cleared, or null if there was none
+     */
+    public Integer clearPreferredReadReplica(TopicPartition tp) {
+        if (!isAssigned(tp))
+            return null;
+        TopicPartitionState state = assignedState(tp);
+        Integer preferredReadReplica = state.preferredReadReplica;
+        state.preferredReadReplica = null;
+        return preferredReadReplica;
+    }
+
     public Map<TopicPartition, OffsetAndMetadata> allConsumed() {
         Map<TopicPartition, OffsetAndMetadata> allConsumed = new HashMap<>();
         for (PartitionStates.PartitionState<TopicPartitionState> state : assignment.partitionStates()) {
@@ -439,6 +466,8 @@ public class SubscriptionState {
         private OffsetAndMetadata committed;  // last committed position
         private boolean paused;  // whether this partition has been paused by the user
         private OffsetResetStrategy resetStrategy;  // the strategy to use if the offset needs resetting
+        private Integer preferredReadReplica; // the replica to fetch from instead of the leader
+        private long preferredReadReplicaExpireTimeMs;
 
         public TopicPartitionState() {
             this.paused = false;
@@ -489,6 +518,12 @@ public class SubscriptionState {
             return !paused && hasValidPosition();
         }
 
+        private Integer preferredReadReplica(long timeMs) {
+            if (preferredReadReplica != null && timeMs >= preferredReadReplicaExpireTimeMs)
+                preferredReadReplica = null;
+            return preferredReadReplica;
+        }
+
     }
 
     public interface Listener {
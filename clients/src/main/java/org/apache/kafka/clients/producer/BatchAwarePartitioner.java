@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer;
+
+import org.apache.kafka.common.Cluster;
+
+/**
+ * A partitioner that is told when the batch of the partition it chose can not take more records.
+ * <p>
+ * When a record would start a new batch, because the current batch of the partition is full or has been sent, the
+ * producer calls {@link #onNewBatch(String, Cluster, int)} and then asks the partitioner for the partition of the
+ * record again. This allows the partitioner to keep sending records to the same partition until its batch is complete.
+ */
+public interface BatchAwarePartitioner extends Partitioner {
+
+    /**
+     * Notifies the partitioner that a new batch is about to be created for the given partition.
+     *
+     * @param topic The topic name
+     * @param cluster The current cluster metadata
+     * @param prevPartition The partition that the record was going to be sent to
+     */
+    public void onNewBatch(String topic, Cluster cluster, int prevPartition);
+
+}
@@ -21,6 +21,8 @@ import org.apache.kafka.clients.ClientUtils;
 import org.apache.kafka.clients.Metadata;
 import org.apache.kafka.clients.NetworkClient;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.internals.AdaptiveBatching;
+import org.apache.kafka.clients.producer.internals.PendingRecords;
 import org.apache.kafka.clients.producer.internals.ProducerInterceptors;
 import org.apache.kafka.clients.producer.internals.RecordAccumulator;
 import org.apache.kafka.clients.producer.internals.Sender;
@@ -28,6 +30,7 @@ import org.apache.kafka.clients.producer.internals.TransactionManager;
 import org.apache.kafka.clients.producer.internals.TransactionalRequestResult;
 import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.Metric;
 import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.PartitionInfo;
@@ -44,6 +47,7 @@ import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.apache.kafka.common.internals.ClusterResourceListeners;
+import org.apache.kafka.common.internals.KafkaFutureImpl;
 import org.apache.kafka.common.metrics.JmxReporter;
 import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.metrics.Metrics;
@@ -52,8 +56,10 @@ import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.network.ChannelBuilder;
 import org.apache.kafka.common.network.Selector;
 import org.apache.kafka.common.record.AbstractRecords;
+import org.apache.kafka.common.record.CompressionOptions;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.ZstdDictionaries;
 import org.apache.kafka.common.serialization.ExtendedSerializer;
 import org.apache.kafka.common.serialization.Serializer;
 import org.apache.kafka.common.utils.AppInfoParser;
@@ -147,9 +153,10 @@ import static org.apache.kafka.common.serialization.ExtendedSerializer.Wrapper.e
  * </p>
  * <p>
  * To enable idempotence, the <code>enable.idempotence</code> configuration must be set to true. If set, the
- * <code>retries</code> config will be defaulted to <code>Integer.MAX_VALUE</code>, the
- * <code>max.in.flight.requests.per.connection</code> config will be defaulted to <code>1</code>,
- * and <code>acks</code> config will be defaulted to <code>all</code>. There are no API changes for the idempotent
+ * <code>retries</code> config will be defaulted to <code>Integer.MAX_VALUE</code>
+ * and <code>acks</code> config will be defaulted to <code>all</code>. Only one batch per partition is sent at a time,
+ * while up to <code>max.in.flight.requests.per.connection</code> requests with the batches of other partitions may be
+ * in flight to the same broker. There are no API changes for the idempotent
  * producer, so existing applications will not need to be modified to take advantage of this feature.
  * </p>
  * <p>
@@ -250,6 +257,7 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     private final ProducerInterceptors<K, V> interceptors;
     private final ApiVersions apiVersions;
     private final TransactionManager transactionManager;
+    private final PendingRecords pendingRecords;
 
     /**
      * A producer is instantiated by providing a set of key-value pairs as configuration. Valid configuration strings
@@ -364,12 +372,16 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             this.accumulator = new RecordAccumulator(config.getInt(ProducerConfig.BATCH_SIZE_CONFIG),
                     this.totalMemorySize,
                     this.compressionType,
+                    configureCompressionOptions(config),
                     config.getLong(ProducerConfig.LINGER_MS_CONFIG),
                     retryBackoffMs,
+                    config.getInt(ProducerConfig.MAX_OPEN_BATCHES_PER_PARTITION_CONFIG),
+                    configureAdaptiveBatching(config, maxRequestSize),
                     metrics,
                     time,
                     apiVersions,
                     transactionManager);
+            this.pendingRecords = new PendingRecords(config.getInt(ProducerConfig.MAX_PENDING_RECORDS_CONFIG), time);
             List<InetSocketAddress> addresses = ClientUtils.parseAndValidateAddresses(config.getList(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG));
             this.metadata.update(Cluster.bootstrap(addresses), Collections.<String>emptySet(), time.milliseconds());
             ChannelBuilder channelBuilder = ClientUtils.createChannelBuilder(config);
@@ -392,7 +404,7 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             this.sender = new Sender(client,
                     this.metadata,
                     this.accumulator,
-                    maxInflightRequests == 1,
+                    maxInflightRequests == 1 || transactionManager != null,
                     config.getInt(ProducerConfig.MAX_REQUEST_SIZE_CONFIG),
                     acks,
                     retries,
@@ -401,7 +413,8 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                     this.requestTimeoutMs,
                     config.getLong(ProducerConfig.RETRY_BACKOFF_MS_CONFIG),
                     this.transactionManager,
-                    apiVersions);
+                    apiVersions,
+                    this.pendingRecords);
             String ioThreadName = "kafka-producer-network-thread" + (clientId.length() > 0 ? " | " + clientId : "");
             this.ioThread = new KafkaThread(ioThreadName, this.sender, true);
             this.ioThread.start();
@@ -417,6 +430,32 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
         }
     }
 
+    private static CompressionOptions configureCompressionOptions(ProducerConfig config) {
+        String dictionaryPath = config.getString(ProducerConfig.COMPRESSION_ZSTD_DICTIONARY_CONFIG);
+        byte[] dictionary = dictionaryPath == null || dictionaryPath.isEmpty() ? null : ZstdDictionaries.load(dictionaryPath);
+        try {
+            return CompressionOptions.zstd(config.getInt(ProducerConfig.COMPRESSION_ZSTD_LEVEL_CONFIG), dictionary);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigException(ProducerConfig.COMPRESSION_ZSTD_DICTIONARY_CONFIG, dictionaryPath, e.getMessage());
+        }
+    }
+
+    private static AdaptiveBatching configureAdaptiveBatching(ProducerConfig config, int maxRequestSize) {
+        if (!config.getBoolean(ProducerConfig.ENABLE_ADAPTIVE_BATCHING_CONFIG))
+            return null;
+        long lingerMs = config.getLong(ProducerConfig.LINGER_MS_CONFIG);
+        long maxLingerMs = config.getLong(ProducerConfig.ADAPTIVE_LINGER_MAX_MS_CONFIG);
+        if (maxLingerMs < lingerMs)
+            throw new ConfigException("Must set " + ProducerConfig.ADAPTIVE_LINGER_MAX_MS_CONFIG + " to a value not smaller than " +
+                    ProducerConfig.LINGER_MS_CONFIG + " in order to use adaptive batching.");
+        int batchSize = config.getInt(ProducerConfig.BATCH_SIZE_CONFIG);
+        int maxBatchSize = config.getInt(ProducerConfig.ADAPTIVE_BATCH_SIZE_MAX_CONFIG);
+        if (maxBatchSize < batchSize)
+            throw new ConfigException("Must set " + ProducerConfig.ADAPTIVE_BATCH_SIZE_MAX_CONFIG + " to a value not smaller than " +
+                    ProducerConfig.BATCH_SIZE_CONFIG + " in order to use adaptive batching.");
+        return new AdaptiveBatching(lingerMs, maxLingerMs, batchSize, Math.max(batchSize, Math.min(maxBatchSize, maxRequestSize)));
+    }
+
     private static TransactionManager configureTransactionState(ProducerConfig config) {
 
         TransactionManager transactionManager = null;
@@ -470,19 +509,11 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     }
 
     private static int configureInflightRequests(ProducerConfig config, boolean idempotenceEnabled) {
-        boolean userConfiguredInflights = false;
-        if (config.originals().containsKey(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION)) {
-            userConfiguredInflights = true;
-        }
-        if (idempotenceEnabled && !userConfiguredInflights) {
-            log.info("Overriding the default {} to 1 since idempontence is enabled.", ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION);
-            return 1;
-        }
-        if (idempotenceEnabled && config.getInt(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION) != 1) {
-            throw new ConfigException("Must set " + ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION + " to 1 in order" +
-                    "to use the idempotent producer. Otherwise we cannot guarantee idempotence.");
-        }
-        return config.getInt(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION);
+        int maxInflightRequests = config.getInt(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION);
+        if (idempotenceEnabled && maxInflightRequests > 1)
+            log.debug("Sending at most one batch per partition at a time since idempotence is enabled, with up to {} " +
+                    "requests in flight per connection.", maxInflightRequests);
+        return maxInflightRequests;
     }
 
     private static short configureAcks(ProducerConfig config, boolean idempotenceEnabled) {
@@ -755,22 +786,8 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             ClusterAndWaitTime clusterAndWaitTime = waitOnMetadata(record.topic(), record.partition(), maxBlockTimeMs);
             long remainingWaitMs = Math.max(0, maxBlockTimeMs - clusterAndWaitTime.waitedOnMetadataMs);
             Cluster cluster = clusterAndWaitTime.cluster;
-            byte[] serializedKey;
-            try {
-                serializedKey = keySerializer.serialize(record.topic(), record.headers(), record.key());
-            } catch (ClassCastException cce) {
-                throw new SerializationException("Can't convert key of class " + record.key().getClass().getName() +
-                        " to class " + producerConfig.getClass(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG).getName() +
-                        " specified in key.serializer");
-            }
-            byte[] serializedValue;
-            try {
-                serializedValue = valueSerializer.serialize(record.topic(), record.headers(), record.value());
-            } catch (ClassCastException cce) {
-                throw new SerializationException("Can't convert value of class " + record.value().getClass().getName() +
-                        " to class " + producerConfig.getClass(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG).getName() +
-                        " specified in value.serializer");
-            }
+            byte[] serializedKey = serializeKey(record);
+            byte[] serializedValue = serializeValue(record);
             int partition = partition(record, serializedKey, serializedValue, cluster);
             tp = new TopicPartition(record.topic(), partition);
 
@@ -788,8 +805,25 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             if (transactionManager != null && transactionManager.isTransactional())
                 transactionManager.maybeAddPartitionToTransaction(tp);
 
+            // a batch aware partitioner may choose another partition rather than starting a new batch
+            boolean abortOnNewBatch = record.partition() == null && partitioner instanceof BatchAwarePartitioner;
             RecordAccumulator.RecordAppendResult result = accumulator.append(tp, timestamp, serializedKey,
-                    serializedValue, headers, interceptCallback, remainingWaitMs);
+                    serializedValue, headers, interceptCallback, remainingWaitMs, abortOnNewBatch);
+            if (result.abortForNewBatch) {
+                int prevPartition = partition;
+                ((BatchAwarePartitioner) partitioner).onNewBatch(record.topic(), cluster, prevPartition);
+                partition = partition(record, serializedKey, serializedValue, cluster);
+                tp = new TopicPartition(record.topic(), partition);
+                log.trace("Retrying append of record {} to topic {} partition {} since partition {} needs a new batch",
+                        record, record.topic(), partition, prevPartition);
+                interceptCallback = this.interceptors == null ? callback : new InterceptorCallback<>(callback, this.interceptors, tp);
+
+                if (transactionManager != null && transactionManager.isTransactional())
+                    transactionManager.maybeAddPartitionToTransaction(tp);
+
+                result = accumulator.append(tp, timestamp, serializedKey, serializedValue, headers, interceptCallback,
+                        remainingWaitMs);
+            }
             if (result.batchIsFull || result.newBatchCreated) {
                 log.trace("Waking up the sender since topic {} partition {} is either full or getting a new batch", record.topic(), partition);
                 this.sender.wakeup();
@@ -830,6 +864,140 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
         }
     }
 
+    /**
+     * Send a record without ever blocking the calling thread, for instance when it runs an event loop.
+     * <p>
+     * Unlike {@link #send(ProducerRecord, Callback)}, this method does not wait for the metadata of the topic or for
+     * buffer memory:
+     * <ul>
+     * <li>If the metadata of the topic is not available yet, the record is put in a queue of at most
+     * <code>max.pending.records</code> records, and the I/O thread appends it to the buffer once the metadata arrives.
+     * Later records of the topic are queued behind it to keep their order. A queued record fails with a
+     * {@link TimeoutException} if it could not be appended within <code>max.block.ms</code>.
+     * <li>If there is not enough buffer memory for the record, or the queue is full, the record is rejected and null is
+     * returned. The callback is not invoked in that case, and the caller may try again later, e.g. after another
+     * record has completed.
+     * </ul>
+     * Errors found while sending the record, e.g. if it is too large, complete the returned future and invoke the
+     * callback rather than being thrown. {@link #flush()} and {@link #close()} also wait for the queued records.
+     * <p>
+     * Records of a transactional producer are never queued, since they could otherwise be appended after the
+     * transaction they were sent in has been committed or aborted. If the metadata of the topic is not available, the
+     * record is rejected, a metadata update is requested and null is returned.
+     *
+     * @param record The record to send
+     * @param callback A user-supplied callback to execute when the record has been acknowledged by the server (null
+     *        indicates no callback)
+     * @return A future which completes with the metadata of the record when it has been acknowledged, or null if the
+     *         record was rejected
+     * @throws IllegalStateException if the producer has been closed, or if a transactional.id has been configured and
+     *         no transaction has been started
+     * @throws KafkaException If a Kafka related error occurs that does not belong to the public API exceptions.
+     */
+    public KafkaFuture<RecordMetadata> trySend(ProducerRecord<K, V> record, Callback callback) {
+        // intercept the record, which can be potentially modified; this method does not throw exceptions
+        ProducerRecord<K, V> interceptedRecord = this.interceptors == null ? record : this.interceptors.onSend(record);
+        return doTrySend(interceptedRecord, callback);
+    }
+
+    private KafkaFuture<RecordMetadata> doTrySend(ProducerRecord<K, V> record, Callback callback) {
+        KafkaFutureImpl<RecordMetadata> future = new KafkaFutureImpl<>();
+        try {
+            byte[] serializedKey = serializeKey(record);
+            byte[] serializedValue = serializeValue(record);
+
+            setReadOnly(record.headers());
+            Header[] headers = record.headers().toArray();
+
+            int serializedSize = AbstractRecords.estimateSizeInBytesUpperBound(apiVersions.maxUsableProduceMagic(),
+                    compressionType, serializedKey, serializedValue, headers);
+            ensureValidRecordSize(serializedSize);
+            long nowMs = time.milliseconds();
+            long timestamp = record.timestamp() == null ? nowMs : record.timestamp();
+            PendingSend send = new PendingSend(record, serializedKey, serializedValue, headers, timestamp,
+                    new FutureCallback(future, callback), nowMs + maxBlockTimeMs);
+
+            boolean isTransactional = transactionManager != null && transactionManager.isTransactional();
+            if (isTransactional)
+                transactionManager.failIfNotReadyForSend();
+
+            // records of a topic which already has queued records must wait for them
+            metadata.add(record.topic());
+            if (!pendingRecords.contains(record.topic())) {
+                if (send.append(metadata.fetch()))
+                    return future;
+                if (send.hasMetadata) {
+                    log.trace("Rejecting record {} since there is not enough buffer memory", record);
+                    this.metrics.sensor("buffer-exhausted-records").record();
+                    if (this.interceptors != null)
+                        this.interceptors.onSendError(record, null, new BufferExhaustedException("Not enough buffer memory to send the record without blocking."));
+                    return null;
+                }
+            }
+            if (isTransactional) {
+                log.trace("Rejecting record {} since the metadata of topic {} is not available", record, record.topic());
+                if (this.interceptors != null)
+                    this.interceptors.onSendError(record, null, new KafkaException("Records of transactional producers cannot wait for metadata."));
+                metadata.requestUpdate();
+                this.sender.wakeup();
+                return null;
+            }
+            if (!pendingRecords.offer(send)) {
+                log.trace("Rejecting record {} since there are too many records waiting for metadata", record);
+                if (this.interceptors != null)
+                    this.interceptors.onSendError(record, null, new BufferExhaustedException("Too many records are waiting for metadata."));
+                return null;
+            }
+            log.trace("Queued record {} until the metadata of topic {} is available", record, record.topic());
+            if (!send.hasMetadata)
+                metadata.requestUpdate();
+            this.sender.wakeup();
+            return future;
+            // handling exceptions and record the errors;
+            // for API exceptions return them in the future,
+            // for other exceptions throw directly
+        } catch (ApiException e) {
+            log.debug("Exception occurred during message send:", e);
+            if (callback != null)
+                callback.onCompletion(null, e);
+            this.errors.record();
+            if (this.interceptors != null)
+                this.interceptors.onSendError(record, null, e);
+            future.completeExceptionally(e);
+            return future;
+        } catch (KafkaException e) {
+            this.errors.record();
+            if (this.interceptors != null)
+                this.interceptors.onSendError(record, null, e);
+            throw e;
+        } catch (RuntimeException e) {
+            // we notify interceptor about all exceptions, since onSend is called before anything else in this method
+            if (this.interceptors != null)
+                this.interceptors.onSendError(record, null, e);
+            throw e;
+        }
+    }
+
+    private byte[] serializeKey(ProducerRecord<K, V> record) {
+        try {
+            return keySerializer.serialize(record.topic(), record.headers(), record.key());
+        } catch (ClassCastException cce) {
+            throw new SerializationException("Can't convert key of class " + record.key().getClass().getName() +
+                    " to class " + producerConfig.getClass(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG).getName() +
+                    " specified in key.serializer");
+        }
+    }
+
+    private byte[] serializeValue(ProducerRecord<K, V> record) {
+        try {
+            return valueSerializer.serialize(record.topic(), record.headers(), record.value());
+        } catch (ClassCastException cce) {
+            throw new SerializationException("Can't convert value of class " + record.value().getClass().getName() +
+                    " to class " + producerConfig.getClass(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG).getName() +
+                    " specified in value.serializer");
+        }
+    }
+
     private void setReadOnly(Headers headers) {
         if (headers instanceof RecordHeaders) {
             ((RecordHeaders) headers).setReadOnly();
@@ -945,9 +1113,12 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     @Override
     public void flush() {
         log.trace("Flushing accumulated records in producer.");
-        this.accumulator.beginFlush();
         this.sender.wakeup();
         try {
+            // the records that wait for metadata are appended or fail within max.block.ms
+            this.pendingRecords.awaitEmpty(Long.MAX_VALUE);
+            this.accumulator.beginFlush();
+            this.sender.wakeup();
             this.accumulator.awaitFlushCompletion();
         } catch (InterruptedException e) {
             throw new InterruptException("Flush interrupted.", e);
@@ -1026,12 +1197,24 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                 log.warn("Overriding close timeout {} ms to 0 ms in order to prevent useless blocking due to self-join. " +
                         "This means you have incorrectly invoked close with a non-zero timeout from the producer call-back.", timeout);
             } else {
-                // Try to close gracefully.
+                // Try to close gracefully, the records that wait for metadata must be appended before the
+                // accumulator is closed.
+                long timeoutMs = timeUnit.toMillis(timeout);
+                long startMs = time.milliseconds();
+                if (this.pendingRecords != null) {
+                    this.pendingRecords.close();
+                    try {
+                        this.pendingRecords.awaitEmpty(timeoutMs);
+                    } catch (InterruptedException t) {
+                        firstException.compareAndSet(null, t);
+                        log.error("Interrupted while waiting for pending records", t);
+                    }
+                }
                 if (this.sender != null)
                     this.sender.initiateClose();
                 if (this.ioThread != null) {
                     try {
-                        this.ioThread.join(timeUnit.toMillis(timeout));
+                        this.ioThread.join(Math.max(1, timeoutMs - (time.milliseconds() - startMs)));
                     } catch (InterruptedException t) {
                         firstException.compareAndSet(null, t);
                         log.error("Interrupted while joining ioThread", t);
@@ -1138,6 +1321,98 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
 
     }
 
+    /**
+     * A record sent with {@link #trySend(ProducerRecord, Callback)}, which is appended right away or once its metadata
+     * and buffer memory are available.
+     */
+    private final class PendingSend extends PendingRecords.Entry {
+        private final ProducerRecord<K, V> record;
+        private final byte[] serializedKey;
+        private final byte[] serializedValue;
+        private final Header[] headers;
+        private final long timestamp;
+        private final Callback callback;
+        // whether the metadata of the partition was available at the last attempt to append the record
+        private boolean hasMetadata = false;
+
+        private PendingSend(ProducerRecord<K, V> record, byte[] serializedKey, byte[] serializedValue, Header[] headers,
+                            long timestamp, Callback callback, long deadlineMs) {
+            super(record.topic(), deadlineMs);
+            this.record = record;
+            this.serializedKey = serializedKey;
+            this.serializedValue = serializedValue;
+            this.headers = headers;
+            this.timestamp = timestamp;
+            this.callback = callback;
+        }
+
+        @Override
+        protected boolean append(Cluster cluster) {
+            Integer partitionsCount = cluster.partitionCountForTopic(record.topic());
+            hasMetadata = partitionsCount != null && (record.partition() == null || record.partition() < partitionsCount);
+            if (!hasMetadata)
+                return false;
+
+            int partition = partition(record, serializedKey, serializedValue, cluster);
+            boolean abortOnNewBatch = record.partition() == null && partitioner instanceof BatchAwarePartitioner;
+            RecordAccumulator.RecordAppendResult result = tryAppend(partition, abortOnNewBatch);
+            if (result != null && result.abortForNewBatch) {
+                ((BatchAwarePartitioner) partitioner).onNewBatch(record.topic(), cluster, partition);
+                partition = partition(record, serializedKey, serializedValue, cluster);
+                result = tryAppend(partition, false);
+            }
+            if (result == null)
+                return false;
+            if (result.batchIsFull || result.newBatchCreated)
+                sender.wakeup();
+            return true;
+        }
+
+        private RecordAccumulator.RecordAppendResult tryAppend(int partition, boolean abortOnNewBatch) {
+            TopicPartition tp = new TopicPartition(record.topic(), partition);
+            log.trace("Sending record {} with callback {} to topic {} partition {}", record, callback, record.topic(), partition);
+            // producer callback will make sure to call both 'callback' and interceptor callback
+            Callback interceptCallback = interceptors == null ? callback : new InterceptorCallback<>(callback, interceptors, tp);
+
+            if (transactionManager != null && transactionManager.isTransactional())
+                transactionManager.maybeAddPartitionToTransaction(tp);
+
+            return accumulator.tryAppend(tp, timestamp, serializedKey, serializedValue, headers, interceptCallback,
+                    abortOnNewBatch);
+        }
+
+        @Override
+        protected void fail(RuntimeException exception) {
+            log.debug("Exception occurred during message send:", exception);
+            errors.record();
+            if (interceptors != null)
+                interceptors.onSendError(record, null, exception);
+            callback.onCompletion(null, exception);
+        }
+    }
+
+    /**
+     * Completes the future returned by {@link #trySend(ProducerRecord, Callback)} before invoking the user callback.
+     */
+    private static class FutureCallback implements Callback {
+        private final KafkaFutureImpl<RecordMetadata> future;
+        private final Callback userCallback;
+
+        private FutureCallback(KafkaFutureImpl<RecordMetadata> future, Callback userCallback) {
+            this.future = future;
+            this.userCallback = userCallback;
+        }
+
+        public void onCompletion(RecordMetadata metadata, Exception exception) {
+            if (exception == null)
+                this.future.complete(metadata);
+            else
+                this.future.completeExceptionally(exception);
+            if (this.userCallback != null)
+                this.userCallback.onCompletion(metadata, exception);
+        }
+    }
+
     /**
      * A callback called when producer request is complete. It in turn calls user-supplied callback (if given) and
      * notifies producer interceptors about the request completion.
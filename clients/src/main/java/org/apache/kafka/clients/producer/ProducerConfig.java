@@ -23,6 +23,7 @@ import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.common.config.ConfigDef.Importance;
 import org.apache.kafka.common.config.ConfigDef.Type;
 import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.record.CompressionOptions;
 import org.apache.kafka.common.serialization.Serializer;
 
 import java.util.HashMap;
@@ -98,6 +99,34 @@ public class ProducerConfig extends AbstractConfig {
                                                 + "specified time waiting for more records to show up. This setting defaults to 0 (i.e. no delay). Setting <code>" + LINGER_MS_CONFIG + "=5</code>, "
                                                 + "for example, would have the effect of reducing the number of requests sent but would add up to 5ms of latency to records sent in the absense of load.";
 
+    /** <code>enable.adaptive.batching</code> */
+    public static final String ENABLE_ADAPTIVE_BATCHING_CONFIG = "enable.adaptive.batching";
+    private static final String ENABLE_ADAPTIVE_BATCHING_DOC = "When set to 'true', the producer chooses the linger time and the batch size of each partition at runtime "
+                                                + "based on the rate at which records are sent to the partition, the number of requests in flight for it and the produce latency. "
+                                                + "The linger time is then chosen between <code>" + LINGER_MS_CONFIG + "</code> and <code>adaptive.linger.max.ms</code>, "
+                                                + "and the batch size between <code>" + BATCH_SIZE_CONFIG + "</code> and <code>adaptive.batch.size.max</code>. "
+                                                + "Batches larger than <code>" + BATCH_SIZE_CONFIG + "</code> are not pooled by the producer.";
+
+    /** <code>adaptive.linger.max.ms</code> */
+    public static final String ADAPTIVE_LINGER_MAX_MS_CONFIG = "adaptive.linger.max.ms";
+    private static final String ADAPTIVE_LINGER_MAX_MS_DOC = "The largest linger time that adaptive batching may choose for a partition. Only used if <code>"
+                                                + ENABLE_ADAPTIVE_BATCHING_CONFIG + "</code> is true, and must not be smaller than <code>" + LINGER_MS_CONFIG + "</code>.";
+
+    /** <code>adaptive.batch.size.max</code> */
+    public static final String ADAPTIVE_BATCH_SIZE_MAX_CONFIG = "adaptive.batch.size.max";
+    private static final String ADAPTIVE_BATCH_SIZE_MAX_DOC = "The largest batch size in bytes that adaptive batching may choose for a partition. Only used if <code>"
+                                                + ENABLE_ADAPTIVE_BATCHING_CONFIG + "</code> is true, and must not be smaller than <code>" + BATCH_SIZE_CONFIG + "</code>. "
+                                                + "The batch size is also limited by <code>max.request.size</code>.";
+
+    /** <code>max.open.batches.per.partition</code> */
+    public static final String MAX_OPEN_BATCHES_PER_PARTITION_CONFIG = "max.open.batches.per.partition";
+    private static final String MAX_OPEN_BATCHES_PER_PARTITION_DOC = "The maximum number of batches per partition that records can be appended to concurrently. "
+                                                + "Each thread that calls <code>send</code> always appends to the same one of these batches, so the records that a thread "
+                                                + "sends to a partition stay in order, and threads only contend with the other threads that share their batch. Setting "
+                                                + "this higher than 1 helps when many threads send to the same partitions, at the cost of smaller batches and more "
+                                                + "buffer memory in use. Note that records sent by different threads to the same partition may then be written in a "
+                                                + "different order than they were sent, even if the sends were otherwise ordered.";
+
     /** <code>client.id</code> */
     public static final String CLIENT_ID_CONFIG = CommonClientConfigs.CLIENT_ID_CONFIG;
 
@@ -141,8 +170,21 @@ public class ProducerConfig extends AbstractConfig {
     /** <code>compression.type</code> */
     public static final String COMPRESSION_TYPE_CONFIG = "compression.type";
     private static final String COMPRESSION_TYPE_DOC = "The compression type for all data generated by the producer. The default is none (i.e. no compression). Valid "
-                                                       + " values are <code>none</code>, <code>gzip</code>, <code>snappy</code>, or <code>lz4</code>. "
-                                                       + "Compression is of full batches of data, so the efficacy of batching will also impact the compression ratio (more batching means better compression).";
+                                                       + " values are <code>none</code>, <code>gzip</code>, <code>snappy</code>, <code>lz4</code>, or <code>zstd</code>. "
+                                                       + "Compression is of full batches of data, so the efficacy of batching will also impact the compression ratio (more batching means better compression). "
+                                                       + "<code>zstd</code> requires brokers with message format version 0.11.0 or later.";
+
+    /** <code>compression.zstd.level</code> */
+    public static final String COMPRESSION_ZSTD_LEVEL_CONFIG = "compression.zstd.level";
+    private static final String COMPRESSION_ZSTD_LEVEL_DOC = "The compression level to use when <code>compression.type</code> is <code>zstd</code>. "
+                                                             + "Higher levels give better compression ratios at the cost of more CPU in the producer.";
+
+    /** <code>compression.zstd.dictionary</code> */
+    public static final String COMPRESSION_ZSTD_DICTIONARY_CONFIG = "compression.zstd.dictionary";
+    private static final String COMPRESSION_ZSTD_DICTIONARY_DOC = "The path of a zstd dictionary (as created by <code>zstd --train</code>) used when "
+                                                                  + "<code>compression.type</code> is <code>zstd</code>. Dictionaries improve the compression ratio of small, similar "
+                                                                  + "records such as JSON documents. Every broker and consumer reading the data must have the same dictionary "
+                                                                  + "configured in <code>compression.zstd.dictionaries</code>.";
 
     /** <code>metrics.sample.window.ms</code> */
     public static final String METRICS_SAMPLE_WINDOW_MS_CONFIG = CommonClientConfigs.METRICS_SAMPLE_WINDOW_MS_CONFIG;
@@ -162,7 +204,9 @@ public class ProducerConfig extends AbstractConfig {
     public static final String MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION = "max.in.flight.requests.per.connection";
     private static final String MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION_DOC = "The maximum number of unacknowledged requests the client will send on a single connection before blocking."
                                                                             + " Note that if this setting is set to be greater than 1 and there are failed sends, there is a risk of"
-                                                                            + " message re-ordering due to retries (i.e., if retries are enabled).";
+                                                                            + " message re-ordering due to retries (i.e., if retries are enabled), unless idempotence is enabled."
+                                                                            + " If it is set to 1 or idempotence is enabled, the producer only sends one batch per partition at a time,"
+                                                                            + " and the requests in flight to a broker contain the batches of different partitions.";
 
     /** <code>retries</code> */
     public static final String RETRIES_CONFIG = "retries";
@@ -187,6 +231,21 @@ public class ProducerConfig extends AbstractConfig {
     public static final String PARTITIONER_CLASS_CONFIG = "partitioner.class";
     private static final String PARTITIONER_CLASS_DOC = "Partitioner class that implements the <code>Partitioner</code> interface.";
 
+    /** <code>max.pending.records</code> */
+    public static final String MAX_PENDING_RECORDS_CONFIG = "max.pending.records";
+    private static final String MAX_PENDING_RECORDS_DOC = "The maximum number of records sent with <code>KafkaProducer.trySend</code> that can wait for the "
+                                                        + "metadata of their topic. Records of a topic that arrive while others are waiting are queued behind them "
+                                                        + "to keep their order, and count towards this limit as well. When the limit is reached, <code>trySend</code> "
+                                                        + "rejects records instead of blocking. Waiting records fail after <code>" + MAX_BLOCK_MS_CONFIG + "</code>. "
+                                                        + "Records of transactional producers never wait, and are rejected until the metadata is available.";
+
+    /** <code>partitioner.sticky.enable</code> */
+    public static final String PARTITIONER_STICKY_ENABLE_CONFIG = "partitioner.sticky.enable";
+    private static final String PARTITIONER_STICKY_ENABLE_DOC = "When set to 'true', the default partitioner sends the records without a key of a topic to the same "
+                                                        + "partition until the batch of that partition is full or sent, and then switches to another partition. "
+                                                        + "This fills batches faster than choosing a partition for each record in a round-robin fashion. "
+                                                        + "Only used by partitioners that implement the <code>BatchAwarePartitioner</code> interface.";
+
     /** <code>request.timeout.ms</code> */
     public static final String REQUEST_TIMEOUT_MS_CONFIG = CommonClientConfigs.REQUEST_TIMEOUT_MS_CONFIG;
     private static final String REQUEST_TIMEOUT_MS_DOC = CommonClientConfigs.REQUEST_TIMEOUT_MS_DOC
@@ -203,8 +262,8 @@ public class ProducerConfig extends AbstractConfig {
     public static final String ENABLE_IDEMPOTENCE_CONFIG = "enable.idempotence";
     public static final String ENABLE_IDEMPOTENCE_DOC = "When set to 'true', the producer will ensure that exactly one copy of each message is written in the stream. If 'false', producer "
                                                         + "retries due to broker failures, etc., may write duplicates of the retried message in the stream. This is set to 'false' by default. "
-                                                        + "Note that enabling idempotence requires <code>" + MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION + "</code> to be set to 1 and "
-                                                        + "<code>" + RETRIES_CONFIG + "</code> cannot be zero. Additionally " + ACKS_CONFIG + " must be set to 'all'. If these values "
+                                                        + "Note that enabling idempotence requires that "
+                                                        + "<code>" + RETRIES_CONFIG + "</code> is not zero. Additionally " + ACKS_CONFIG + " must be set to 'all'. If these values "
                                                         + "are left at their defaults, we will override the default to be suitable. "
                                                         + "If the values are set to something incompatible with the idempotent producer, a ConfigException will be thrown.";
 
@@ -231,8 +290,24 @@ public class ProducerConfig extends AbstractConfig {
                                         Importance.HIGH,
                                         ACKS_DOC)
                                 .define(COMPRESSION_TYPE_CONFIG, Type.STRING, "none", Importance.HIGH, COMPRESSION_TYPE_DOC)
+                                .define(COMPRESSION_ZSTD_LEVEL_CONFIG,
+                                        Type.INT,
+                                        CompressionOptions.DEFAULT_ZSTD_LEVEL,
+                                        between(CompressionOptions.MIN_ZSTD_LEVEL, CompressionOptions.MAX_ZSTD_LEVEL),
+                                        Importance.LOW,
+                                        COMPRESSION_ZSTD_LEVEL_DOC)
+                                .define(COMPRESSION_ZSTD_DICTIONARY_CONFIG, Type.STRING, null, Importance.LOW, COMPRESSION_ZSTD_DICTIONARY_DOC)
                                 .define(BATCH_SIZE_CONFIG, Type.INT, 16384, atLeast(0), Importance.MEDIUM, BATCH_SIZE_DOC)
                                 .define(LINGER_MS_CONFIG, Type.LONG, 0, atLeast(0L), Importance.MEDIUM, LINGER_MS_DOC)
+                                .define(ENABLE_ADAPTIVE_BATCHING_CONFIG, Type.BOOLEAN, false, Importance.LOW, ENABLE_ADAPTIVE_BATCHING_DOC)
+                                .define(ADAPTIVE_LINGER_MAX_MS_CONFIG, Type.LONG, 100L, atLeast(0L), Importance.LOW, ADAPTIVE_LINGER_MAX_MS_DOC)
+                                .define(ADAPTIVE_BATCH_SIZE_MAX_CONFIG, Type.INT, 256 * 1024, atLeast(0), Importance.LOW, ADAPTIVE_BATCH_SIZE_MAX_DOC)
+                                .define(MAX_OPEN_BATCHES_PER_PARTITION_CONFIG,
+                                        Type.INT,
+                                        1,
+                                        atLeast(1),
+                                        Importance.LOW,
+                                        MAX_OPEN_BATCHES_PER_PARTITION_DOC)
                                 .define(CLIENT_ID_CONFIG, Type.STRING, "", Importance.MEDIUM, CommonClientConfigs.CLIENT_ID_DOC)
                                 .define(SEND_BUFFER_CONFIG, Type.INT, 128 * 1024, atLeast(-1), Importance.MEDIUM, CommonClientConfigs.SEND_BUFFER_DOC)
                                 .define(RECEIVE_BUFFER_CONFIG, Type.INT, 32 * 1024, atLeast(-1), Importance.MEDIUM, CommonClientConfigs.RECEIVE_BUFFER_DOC)
@@ -300,6 +375,8 @@ public class ProducerConfig extends AbstractConfig {
                                         Type.CLASS,
                                         DefaultPartitioner.class,
                                         Importance.MEDIUM, PARTITIONER_CLASS_DOC)
+                                .define(MAX_PENDING_RECORDS_CONFIG, Type.INT, 1000, atLeast(0), Importance.LOW, MAX_PENDING_RECORDS_DOC)
+                                .define(PARTITIONER_STICKY_ENABLE_CONFIG, Type.BOOLEAN, false, Importance.LOW, PARTITIONER_STICKY_ENABLE_DOC)
                                 .define(INTERCEPTOR_CLASSES_CONFIG,
                                         Type.LIST,
                                         null,
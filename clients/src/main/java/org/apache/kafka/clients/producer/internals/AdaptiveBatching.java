@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Chooses the linger time and the batch size of each partition at runtime, within the given bounds.
+ * <p>
+ * For every partition, the rate at which data arrives is estimated from the batches that are drained, and the produce
+ * latency from the responses to the requests they are sent with. The batch size is chosen to hold the data that arrives
+ * during one produce round trip. If there is no request in flight for the partition, batches are sent after the
+ * minimum linger time, so latency is low when the load is low. Otherwise a batch waits until it is expected to be full,
+ * but not longer than the produce latency, since the request in flight would delay it anyway.
+ * <p>
+ * The state is only updated by the sender thread. The chosen values are read by the appending threads and the metrics.
+ */
+public final class AdaptiveBatching {
+
+    // the weight of a new sample in the moving averages
+    private static final double ALPHA = 0.2;
+
+    private final long minLingerMs;
+    private final long maxLingerMs;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final ConcurrentMap<TopicPartition, PartitionState> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * @param minLingerMs The linger time when there is no request in flight, and the smallest linger time chosen
+     * @param maxLingerMs The largest linger time chosen
+     * @param minBatchSize The smallest batch size chosen, this is also the batch size of new partitions
+     * @param maxBatchSize The largest batch size chosen
+     */
+    public AdaptiveBatching(long minLingerMs, long maxLingerMs, int minBatchSize, int maxBatchSize) {
+        if (maxLingerMs < minLingerMs)
+            throw new IllegalArgumentException("The maximum linger time " + maxLingerMs +
+                    " is smaller than the minimum linger time " + minLingerMs);
+        if (maxBatchSize < minBatchSize)
+            throw new IllegalArgumentException("The maximum batch size " + maxBatchSize +
+                    " is smaller than the minimum batch size " + minBatchSize);
+        this.minLingerMs = minLingerMs;
+        this.maxLingerMs = maxLingerMs;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * The size to allocate for new batches of the partition
+     */
+    public int batchSize(TopicPartition tp) {
+        PartitionState state = partitions.get(tp);
+        return state == null ? minBatchSize : state.batchSize;
+    }
+
+    /**
+     * The time a batch of the partition that is not full should wait for more records before it is sent
+     */
+    public long lingerMs(TopicPartition tp) {
+        PartitionState state = partitions.get(tp);
+        if (state == null || state.inFlight == 0)
+            return minLingerMs;
+        return state.lingerMs;
+    }
+
+    /**
+     * Record that a batch of the partition has been drained to be sent.
+     */
+    void onDrained(TopicPartition tp, int sizeInBytes, long nowMs) {
+        PartitionState state = partitions.get(tp);
+        if (state == null) {
+            state = new PartitionState(nowMs);
+            partitions.put(tp, state);
+        }
+        state.inFlight++;
+        state.bytesSinceLastSample += sizeInBytes;
+        long elapsedMs = nowMs - state.lastSampleMs;
+        if (elapsedMs > 0) {
+            double bytesPerMs = state.bytesSinceLastSample / (double) elapsedMs;
+            state.bytesPerMs = state.bytesPerMs < 0 ? bytesPerMs : ewma(state.bytesPerMs, bytesPerMs);
+            state.bytesSinceLastSample = 0;
+            state.lastSampleMs = nowMs;
+        }
+        update(state);
+    }
+
+    /**
+     * Record that the produce request which contained a batch of the partition has completed.
+     *
+     * @param latencyMs The latency of the request or -1 if there was no response (e.g. the connection was closed or
+     *                  the request did not expect a response)
+     */
+    void onCompleted(TopicPartition tp, long latencyMs) {
+        PartitionState state = partitions.get(tp);
+        if (state == null)
+            return;
+        state.inFlight = Math.max(0, state.inFlight - 1);
+        if (latencyMs >= 0)
+            state.latencyMs = state.latencyMs < 0 ? latencyMs : ewma(state.latencyMs, latencyMs);
+        update(state);
+    }
+
+    private void update(PartitionState state) {
+        if (state.bytesPerMs <= 0 || state.latencyMs < 0) {
+            state.batchSize = minBatchSize;
+            state.lingerMs = minLingerMs;
+            return;
+        }
+        double latencyMs = Math.max(state.latencyMs, 1.0);
+        int batchSize = (int) Math.min(Math.max(state.bytesPerMs * latencyMs, minBatchSize), maxBatchSize);
+        double timeToFillMs = batchSize / state.bytesPerMs;
+        state.batchSize = batchSize;
+        state.lingerMs = (long) Math.min(Math.max(Math.min(timeToFillMs, latencyMs), minLingerMs), maxLingerMs);
+    }
+
+    private static double ewma(double average, double sample) {
+        return ALPHA * sample + (1 - ALPHA) * average;
+    }
+
+    /**
+     * The average of the linger times currently chosen for the partitions
+     */
+    double averageLingerMs() {
+        if (partitions.isEmpty())
+            return minLingerMs;
+        double total = 0;
+        for (TopicPartition tp : partitions.keySet())
+            total += lingerMs(tp);
+        return total / partitions.size();
+    }
+
+    /**
+     * The largest of the linger times currently chosen for the partitions
+     */
+    double maxLingerMs() {
+        long max = minLingerMs;
+        for (TopicPartition tp : partitions.keySet())
+            max = Math.max(max, lingerMs(tp));
+        return max;
+    }
+
+    /**
+     * The average of the batch sizes currently chosen for the partitions
+     */
+    double averageBatchSize() {
+        if (partitions.isEmpty())
+            return minBatchSize;
+        double total = 0;
+        for (PartitionState state : partitions.values())
+            total += state.batchSize;
+        return total / partitions.size();
+    }
+
+    /**
+     * The largest of the batch sizes currently chosen for the partitions
+     */
+    double maxBatchSize() {
+        int max = minBatchSize;
+        for (PartitionState state : partitions.values())
+            max = Math.max(max, state.batchSize);
+        return max;
+    }
+
+    private final class PartitionState {
+        // only accessed by the sender thread
+        long lastSampleMs;
+        long bytesSinceLastSample = 0;
+        double bytesPerMs = -1;
+        double latencyMs = -1;
+        // also read by appending threads and metrics
+        volatile int inFlight = 0;
+        volatile int batchSize = minBatchSize;
+        volatile long lingerMs = minLingerMs;
+
+        PartitionState(long nowMs) {
+            this.lastSampleMs = nowMs;
+        }
+    }
+}
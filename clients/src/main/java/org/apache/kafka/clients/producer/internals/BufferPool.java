@@ -19,14 +19,21 @@ package org.apache.kafka.clients.producer.internals;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
 import org.apache.kafka.common.metrics.stats.Rate;
 import org.apache.kafka.common.utils.Time;
 
@@ -40,21 +47,32 @@ import org.apache.kafka.common.utils.Time;
  * prevents starvation or deadlock when a thread asks for a large chunk of memory and needs to block until multiple
  * buffers are deallocated.
  * </ol>
+ *
+ * As long as no thread is blocked waiting for memory, allocations and deallocations do not take any lock: the free list
+ * is striped over several lock-free queues and the unallocated memory is reserved with compare-and-set. Once a thread
+ * has to block, every allocation goes through the lock and the queue of waiters until the queue is empty again, so
+ * waiting threads are served in FIFO order.
  */
 public class BufferPool {
 
     static final String WAIT_TIME_SENSOR_NAME = "bufferpool-wait-time";
+    static final String BLOCKED_ALLOCATION_SENSOR_NAME = "bufferpool-blocked-allocation-time";
+
+    private static final int MAX_STRIPES = 64;
 
     private final long totalMemory;
     private final int poolableSize;
     private final ReentrantLock lock;
-    private final Deque<ByteBuffer> free;
+    private final FreeList[] free;
     private final Deque<Condition> waiters;
+    /** The number of waiters, readable without holding the lock. Only updated while holding the lock. */
+    private volatile int queued;
     /** This memory is accounted for separately from the poolable buffers in free. */
-    private long availableMemory;
+    private final AtomicLong availableMemory;
     private final Metrics metrics;
     private final Time time;
     private final Sensor waitTime;
+    private final Sensor blockedAllocationTime;
 
     /**
      * Create a new buffer pool
@@ -68,10 +86,12 @@ public class BufferPool {
     public BufferPool(long memory, int poolableSize, Metrics metrics, Time time, String metricGrpName) {
         this.poolableSize = poolableSize;
         this.lock = new ReentrantLock();
-        this.free = new ArrayDeque<>();
+        this.free = new FreeList[stripes(Runtime.getRuntime().availableProcessors())];
+        for (int i = 0; i < free.length; i++)
+            this.free[i] = new FreeList();
         this.waiters = new ArrayDeque<>();
         this.totalMemory = memory;
-        this.availableMemory = memory;
+        this.availableMemory = new AtomicLong(memory);
         this.metrics = metrics;
         this.time = time;
         this.waitTime = this.metrics.sensor(WAIT_TIME_SENSOR_NAME);
@@ -79,6 +99,36 @@ public class BufferPool {
                                                    metricGrpName,
                                                    "The fraction of time an appender waits for space allocation.");
         this.waitTime.add(metricName, new Rate(TimeUnit.NANOSECONDS));
+
+        this.blockedAllocationTime = this.metrics.sensor(BLOCKED_ALLOCATION_SENSOR_NAME);
+        metricName = metrics.metricName("bufferpool-wait-time-avg",
+                                        metricGrpName,
+                                        "The average time in ms an appender that had to wait for space allocation was blocked.");
+        this.blockedAllocationTime.add(metricName, new Avg());
+        metricName = metrics.metricName("bufferpool-wait-time-max",
+                                        metricGrpName,
+                                        "The maximum time in ms an appender that had to wait for space allocation was blocked.");
+        this.blockedAllocationTime.add(metricName, new Max());
+
+        metricName = metrics.metricName("bufferpool-cache-hit-ratio",
+                                        metricGrpName,
+                                        "The fraction of allocations of the poolable size that were served from the free list.");
+        Measurable cacheHitRatio = new Measurable() {
+            public double measure(MetricConfig config, long now) {
+                return cacheHitRatio();
+            }
+        };
+        this.metrics.addMetric(metricName, cacheHitRatio);
+    }
+
+    /**
+     * The number of free list stripes: the smallest power of two that is not less than the number of processors.
+     */
+    static int stripes(int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < MAX_STRIPES)
+            stripes <<= 1;
+        return stripes;
     }
 
     /**
@@ -99,84 +149,145 @@ public class BufferPool {
                                                + this.totalMemory
                                                + " on memory allocations.");
 
-        this.lock.lock();
-        try {
+        FreeList stripe = this.free[(int) Thread.currentThread().getId() & (this.free.length - 1)];
+        // threads that are already waiting take precedence, so only take the fast path if there are none
+        if (this.queued == 0) {
             // check if we have a free buffer of the right size pooled
-            if (size == poolableSize && !this.free.isEmpty())
-                return this.free.pollFirst();
-
-            // now check if the request is immediately satisfiable with the
-            // memory on hand or if we need to block
-            int freeListSize = freeSize() * this.poolableSize;
-            if (this.availableMemory + freeListSize >= size) {
-                // we have enough unallocated or pooled memory to immediately
-                // satisfy the request
+            if (size == this.poolableSize) {
+                ByteBuffer buffer = pollFree(stripe);
+                if (buffer != null) {
+                    stripe.hits.incrementAndGet();
+                    return buffer;
+                }
+            }
+            // now check if the request is immediately satisfiable with the unallocated memory
+            if (tryReserve(size))
+                return safeAllocateByteBuffer(size, stripe);
+        }
+
+        ByteBuffer buffer = allocateBlocking(size, maxTimeToBlockMs, stripe);
+        if (buffer != null) {
+            stripe.hits.incrementAndGet();
+            return buffer;
+        }
+        return safeAllocateByteBuffer(size, stripe);
+    }
+
+    /**
+     * Allocate a buffer of the given size if the memory is available right away. Threads that are blocked in
+     * {@link #allocate(int, long)} take precedence, so this fails while there are any.
+     *
+     * @param size The buffer size to allocate in bytes
+     * @return The buffer, or null if the memory is not available
+     * @throws IllegalArgumentException if size is larger than the total memory controlled by the pool
+     */
+    public ByteBuffer tryAllocate(int size) {
+        if (size > this.totalMemory)
+            throw new IllegalArgumentException("Attempt to allocate " + size
+                                               + " bytes, but there is a hard limit of "
+                                               + this.totalMemory
+                                               + " on memory allocations.");
+        if (this.queued > 0)
+            return null;
+
+        FreeList stripe = this.free[(int) Thread.currentThread().getId() & (this.free.length - 1)];
+        if (size == this.poolableSize) {
+            ByteBuffer buffer = pollFree(stripe);
+            if (buffer != null) {
+                stripe.hits.incrementAndGet();
+                return buffer;
+            }
+        }
+        if (!tryReserve(size)) {
+            // the memory may be held by pooled buffers of another size, which must only be freed up by the thread at
+            // the head of the queue, if there is one
+            if (!this.lock.tryLock())
+                return null;
+            try {
+                if (!this.waiters.isEmpty())
+                    return null;
                 freeUp(size);
-                ByteBuffer allocatedBuffer = allocateByteBuffer(size);
-                this.availableMemory -= size;
-                return allocatedBuffer;
-            } else {
-                // we are out of memory and will have to block
-                int accumulated = 0;
-                ByteBuffer buffer = null;
-                boolean hasError = true;
-                Condition moreMemory = this.lock.newCondition();
-                try {
-                    long remainingTimeToBlockNs = TimeUnit.MILLISECONDS.toNanos(maxTimeToBlockMs);
-                    this.waiters.addLast(moreMemory);
-                    // loop over and over until we have a buffer or have reserved
-                    // enough memory to allocate one
-                    while (accumulated < size) {
-                        long startWaitNs = time.nanoseconds();
-                        long timeNs;
-                        boolean waitingTimeElapsed;
-                        try {
-                            waitingTimeElapsed = !moreMemory.await(remainingTimeToBlockNs, TimeUnit.NANOSECONDS);
-                        } finally {
-                            long endWaitNs = time.nanoseconds();
-                            timeNs = Math.max(0L, endWaitNs - startWaitNs);
-                            this.waitTime.record(timeNs, time.milliseconds());
-                        }
-
-                        if (waitingTimeElapsed) {
-                            throw new TimeoutException("Failed to allocate memory within the configured max blocking time " + maxTimeToBlockMs + " ms.");
-                        }
-
-                        remainingTimeToBlockNs -= timeNs;
+                if (!tryReserve(size))
+                    return null;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        return safeAllocateByteBuffer(size, stripe);
+    }
 
+    /**
+     * Wait in line until the requested memory is available and either return a pooled buffer or reserve the memory
+     * for a new one.
+     *
+     * @return a pooled buffer or null if the memory has been reserved and the buffer still needs to be allocated
+     */
+    private ByteBuffer allocateBlocking(int size, long maxTimeToBlockMs, FreeList stripe) throws InterruptedException {
+        this.lock.lock();
+        try {
+            int accumulated = 0;
+            ByteBuffer buffer = null;
+            boolean hasError = true;
+            long blockedTimeNs = 0L;
+            Condition moreMemory = this.lock.newCondition();
+            try {
+                long remainingTimeToBlockNs = TimeUnit.MILLISECONDS.toNanos(maxTimeToBlockMs);
+                this.waiters.addLast(moreMemory);
+                this.queued = this.waiters.size();
+                // loop over and over until we have a buffer or have reserved
+                // enough memory to allocate one
+                while (true) {
+                    // only the longest waiting thread gets memory
+                    if (this.waiters.peekFirst() == moreMemory) {
                         // check if we can satisfy this request from the free list,
-                        // otherwise allocate memory
-                        if (accumulated == 0 && size == this.poolableSize && !this.free.isEmpty()) {
-                            // just grab a buffer from the free list
-                            buffer = this.free.pollFirst();
-                            accumulated = size;
-                        } else {
-                            // we'll need to allocate memory, but we may only get
-                            // part of what we need on this iteration
-                            freeUp(size - accumulated);
-                            int got = (int) Math.min(size - accumulated, this.availableMemory);
-                            this.availableMemory -= got;
-                            accumulated += got;
-                        }
+                        // otherwise reserve memory
+                        if (accumulated == 0 && size == this.poolableSize)
+                            buffer = pollFree(stripe);
+                        if (buffer != null)
+                            break;
+                        // we may only get part of what we need on this iteration
+                        freeUp(size - accumulated);
+                        accumulated += reserveAtMost(size - accumulated);
+                        if (accumulated == size)
+                            break;
                     }
 
-                    if (buffer == null)
-                        buffer = allocateByteBuffer(size);
-                    hasError = false;
-                    //unlock happens in top-level, enclosing finally
-                    return buffer;
-                } finally {
-                    // When this loop was not able to successfully terminate don't loose available memory
-                    if (hasError)
-                        this.availableMemory += accumulated;
-                    this.waiters.remove(moreMemory);
+                    long startWaitNs = time.nanoseconds();
+                    long timeNs;
+                    boolean waitingTimeElapsed;
+                    try {
+                        waitingTimeElapsed = !moreMemory.await(remainingTimeToBlockNs, TimeUnit.NANOSECONDS);
+                    } finally {
+                        long endWaitNs = time.nanoseconds();
+                        timeNs = Math.max(0L, endWaitNs - startWaitNs);
+                        blockedTimeNs += timeNs;
+                        this.waitTime.record(timeNs, time.milliseconds());
+                    }
+
+                    if (waitingTimeElapsed) {
+                        throw new TimeoutException("Failed to allocate memory within the configured max blocking time " + maxTimeToBlockMs + " ms.");
+                    }
+
+                    remainingTimeToBlockNs -= timeNs;
                 }
+
+                hasError = false;
+                //unlock happens in top-level, enclosing finally
+                return buffer;
+            } finally {
+                // When this loop was not able to successfully terminate don't loose available memory
+                if (hasError)
+                    this.availableMemory.addAndGet(accumulated);
+                this.waiters.remove(moreMemory);
+                this.queued = this.waiters.size();
+                if (blockedTimeNs > 0)
+                    this.blockedAllocationTime.record(blockedTimeNs / (double) TimeUnit.MILLISECONDS.toNanos(1), time.milliseconds());
             }
         } finally {
             // signal any additional waiters if there is more memory left
             // over for them
             try {
-                if (!(this.availableMemory == 0 && this.free.isEmpty()) && !this.waiters.isEmpty())
+                if (!this.waiters.isEmpty() && (this.availableMemory.get() > 0 || freeListNonEmpty()))
                     this.waiters.peekFirst().signal();
             } finally {
                 // Another finally... otherwise find bugs complains
@@ -185,18 +296,95 @@ public class BufferPool {
         }
     }
 
+    /**
+     * Allocate a buffer for memory that has already been reserved, giving the memory back if the allocation fails.
+     */
+    private ByteBuffer safeAllocateByteBuffer(int size, FreeList stripe) {
+        if (size == this.poolableSize)
+            stripe.misses.incrementAndGet();
+        boolean error = true;
+        try {
+            ByteBuffer buffer = allocateByteBuffer(size);
+            error = false;
+            return buffer;
+        } finally {
+            if (error) {
+                this.availableMemory.addAndGet(size);
+                signalWaiter();
+            }
+        }
+    }
+
     // Protected for testing.
     protected ByteBuffer allocateByteBuffer(int size) {
         return ByteBuffer.allocate(size);
     }
 
+    /**
+     * Reserve the given amount of unallocated memory if it is available.
+     */
+    private boolean tryReserve(int size) {
+        while (true) {
+            long available = this.availableMemory.get();
+            if (available < size)
+                return false;
+            if (this.availableMemory.compareAndSet(available, available - size))
+                return true;
+        }
+    }
+
+    /**
+     * Reserve as much of the given amount of unallocated memory as is available.
+     *
+     * @return the amount of memory reserved
+     */
+    private int reserveAtMost(int size) {
+        while (true) {
+            long available = this.availableMemory.get();
+            int got = (int) Math.min(size, available);
+            if (got <= 0 || this.availableMemory.compareAndSet(available, available - got))
+                return Math.max(got, 0);
+        }
+    }
+
+    /**
+     * Take a buffer from the free list, starting with the given stripe.
+     */
+    private ByteBuffer pollFree(FreeList stripe) {
+        ByteBuffer buffer = stripe.buffers.poll();
+        if (buffer != null)
+            return buffer;
+        for (FreeList other : this.free) {
+            if (other != stripe) {
+                buffer = other.buffers.poll();
+                if (buffer != null)
+                    return buffer;
+            }
+        }
+        return null;
+    }
+
+    private boolean freeListNonEmpty() {
+        for (FreeList stripe : this.free) {
+            if (!stripe.buffers.isEmpty())
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Attempt to ensure we have at least the requested number of bytes of memory for allocation by deallocating pooled
      * buffers (if needed)
      */
     private void freeUp(int size) {
-        while (!this.free.isEmpty() && this.availableMemory < size)
-            this.availableMemory += this.free.pollLast().capacity();
+        for (FreeList stripe : this.free) {
+            while (this.availableMemory.get() < size) {
+                ByteBuffer buffer = stripe.buffers.poll();
+                if (buffer == null)
+                    break;
+                this.availableMemory.addAndGet(buffer.capacity());
+            }
+        }
     }
 
     /**
@@ -208,20 +396,13 @@ public class BufferPool {
      *             since the buffer may re-allocate itself during in-place compression
      */
     public void deallocate(ByteBuffer buffer, int size) {
-        lock.lock();
-        try {
-            if (size == this.poolableSize && size == buffer.capacity()) {
-                buffer.clear();
-                this.free.add(buffer);
-            } else {
-                this.availableMemory += size;
-            }
-            Condition moreMem = this.waiters.peekFirst();
-            if (moreMem != null)
-                moreMem.signal();
-        } finally {
-            lock.unlock();
+        if (size == this.poolableSize && size == buffer.capacity()) {
+            buffer.clear();
+            this.free[ThreadLocalRandom.current().nextInt(this.free.length)].buffers.add(buffer);
+        } else {
+            this.availableMemory.addAndGet(size);
         }
+        signalWaiter();
     }
 
     public void deallocate(ByteBuffer buffer) {
@@ -229,32 +410,42 @@ public class BufferPool {
     }
 
     /**
-     * the total free memory both unallocated and in the free list
+     * Wake up the longest waiting thread, if any, after memory has been returned to the pool. A thread that registers
+     * as a waiter checks the available memory after doing so, so the memory returned before this call is not missed.
      */
-    public long availableMemory() {
+    private void signalWaiter() {
+        if (this.queued == 0)
+            return;
         lock.lock();
         try {
-            return this.availableMemory + freeSize() * (long) this.poolableSize;
+            Condition moreMem = this.waiters.peekFirst();
+            if (moreMem != null)
+                moreMem.signal();
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * the total free memory both unallocated and in the free list
+     */
+    public long availableMemory() {
+        return this.availableMemory.get() + freeSize() * (long) this.poolableSize;
+    }
+
     // Protected for testing.
     protected int freeSize() {
-        return this.free.size();
+        int size = 0;
+        for (FreeList stripe : this.free)
+            size += stripe.buffers.size();
+        return size;
     }
 
     /**
      * Get the unallocated memory (not in the free list or in use)
      */
     public long unallocatedMemory() {
-        lock.lock();
-        try {
-            return this.availableMemory;
-        } finally {
-            lock.unlock();
-        }
+        return this.availableMemory.get();
     }
 
     /**
@@ -269,6 +460,19 @@ public class BufferPool {
         }
     }
 
+    /**
+     * The fraction of allocations of the poolable size that were served from the free list
+     */
+    double cacheHitRatio() {
+        long hits = 0;
+        long misses = 0;
+        for (FreeList stripe : this.free) {
+            hits += stripe.hits.get();
+            misses += stripe.misses.get();
+        }
+        return hits + misses == 0 ? 0.0 : hits / (double) (hits + misses);
+    }
+
     /**
      * The buffer size that will be retained in the free list after use
      */
@@ -287,4 +491,13 @@ public class BufferPool {
     Deque<Condition> waiters() {
         return this.waiters;
     }
+
+    /**
+     * One stripe of the free list along with the cache statistics of the threads that allocate from it.
+     */
+    private static final class FreeList {
+        final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+    }
 }
@@ -23,7 +23,8 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.BatchAwarePartitioner;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.utils.Utils;
@@ -33,13 +34,20 @@ import org.apache.kafka.common.utils.Utils;
  * <ul>
  * <li>If a partition is specified in the record, use it
  * <li>If no partition is specified but a key is present choose a partition based on a hash of the key
- * <li>If no partition or key is present choose a partition in a round-robin fashion
+ * <li>If no partition or key is present choose a partition in a round-robin fashion, or if
+ * <code>partitioner.sticky.enable</code> is set, keep choosing the same partition until its batch is full or sent
+ * </ul>
  */
-public class DefaultPartitioner implements Partitioner {
+public class DefaultPartitioner implements BatchAwarePartitioner {
 
     private final ConcurrentMap<String, AtomicInteger> topicCounterMap = new ConcurrentHashMap<>();
+    private StickyPartitionCache stickyPartitionCache = null;
 
-    public void configure(Map<String, ?> configs) {}
+    public void configure(Map<String, ?> configs) {
+        Object sticky = configs.get(ProducerConfig.PARTITIONER_STICKY_ENABLE_CONFIG);
+        if (sticky != null && Boolean.parseBoolean(sticky.toString().trim()))
+            stickyPartitionCache = new StickyPartitionCache();
+    }
 
     /**
      * Compute the partition for the given record.
@@ -55,6 +63,8 @@ public class DefaultPartitioner implements Partitioner {
         List<PartitionInfo> partitions = cluster.partitionsForTopic(topic);
         int numPartitions = partitions.size();
         if (keyBytes == null) {
+            if (stickyPartitionCache != null)
+                return stickyPartitionCache.partition(topic, cluster);
             int nextValue = nextValue(topic);
             List<PartitionInfo> availablePartitions = cluster.availablePartitionsForTopic(topic);
             if (availablePartitions.size() > 0) {
@@ -82,6 +92,18 @@ public class DefaultPartitioner implements Partitioner {
         return counter.getAndIncrement();
     }
 
+    /**
+     * Switch the partition of the records without a key if sticky partitioning is enabled.
+     *
+     * @param topic The topic name
+     * @param cluster The current cluster metadata
+     * @param prevPartition The partition that the record was going to be sent to
+     */
+    public void onNewBatch(String topic, Cluster cluster, int prevPartition) {
+        if (stickyPartitionCache != null)
+            stickyPartitionCache.nextPartition(topic, cluster, prevPartition);
+    }
+
     public void close() {}
 
 }
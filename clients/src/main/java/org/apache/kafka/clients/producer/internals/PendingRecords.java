@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.utils.Time;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded queue of records which were sent without blocking before the metadata of their topic was available, or
+ * which are queued behind such records. The sender thread appends them to the accumulator once the metadata is
+ * available and there is enough buffer memory, keeping the order of the records of each topic.
+ * <p>
+ * Records are only removed from the queue by the sender thread, which appends them without holding the lock of the
+ * queue, so that the partitioner is not called while the threads sending records wait for the lock.
+ */
+public final class PendingRecords {
+
+    /**
+     * A record waiting in the queue.
+     */
+    public static abstract class Entry {
+        private final String topic;
+        private final long deadlineMs;
+
+        protected Entry(String topic, long deadlineMs) {
+            this.topic = topic;
+            this.deadlineMs = deadlineMs;
+        }
+
+        public String topic() {
+            return topic;
+        }
+
+        /**
+         * Append the record to the accumulator. This is called without holding the lock of the queue.
+         *
+         * @param cluster The current cluster metadata
+         * @return false if the record can not be appended yet, because the metadata of its partition or enough buffer
+         *         memory is not available
+         * @throws RuntimeException if the record can not be sent, the record is then failed with it
+         */
+        protected abstract boolean append(Cluster cluster);
+
+        /**
+         * Complete the record with the given exception. This is called without holding the lock of the queue, so the
+         * callbacks of the record may send more records.
+         */
+        protected abstract void fail(RuntimeException exception);
+    }
+
+    private final int capacity;
+    private final Time time;
+    // the number of entries of each topic, the records of these topics must be queued to keep their order
+    private final Map<String, Integer> topics = new HashMap<>();
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private boolean closed = false;
+
+    public PendingRecords(int capacity, Time time) {
+        this.capacity = capacity;
+        this.time = time;
+    }
+
+    /**
+     * Add a record to the queue.
+     *
+     * @return false if the queue is full
+     * @throws IllegalStateException if the queue has been closed
+     */
+    public synchronized boolean offer(Entry entry) {
+        if (closed)
+            throw new IllegalStateException("Cannot send after the producer is closed.");
+        if (entries.size() >= capacity)
+            return false;
+        entries.addLast(entry);
+        Integer count = topics.get(entry.topic);
+        topics.put(entry.topic, count == null ? 1 : count + 1);
+        return true;
+    }
+
+    /**
+     * Whether records of the given topic are waiting in the queue, in which case new records of the topic must be
+     * queued behind them.
+     */
+    public synchronized boolean contains(String topic) {
+        return topics.containsKey(topic);
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Stop accepting records.
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * Wait until all the records in the queue have been appended or failed.
+     *
+     * @param timeoutMs The maximum time to wait in ms
+     * @return true if the queue is empty
+     */
+    public synchronized boolean awaitEmpty(long timeoutMs) throws InterruptedException {
+        long deadlineMs = time.milliseconds() + Math.min(timeoutMs, Long.MAX_VALUE / 2);
+        long remainingMs = timeoutMs;
+        while (!entries.isEmpty() && remainingMs > 0) {
+            wait(remainingMs);
+            remainingMs = deadlineMs - time.milliseconds();
+        }
+        return entries.isEmpty();
+    }
+
+    /**
+     * Append the records whose topic has metadata to the accumulator, and fail the records which waited too long.
+     * This is called by the sender thread.
+     *
+     * @param cluster The current cluster metadata
+     * @param nowMs The current time in ms
+     * @return The time in ms until the next record expires, 0 if records were queued during the call, or
+     *         Long.MAX_VALUE if the queue is empty
+     */
+    public long appendReady(Cluster cluster, long nowMs) {
+        List<Entry> queued;
+        synchronized (this) {
+            queued = new ArrayList<>(entries);
+        }
+
+        // the records stay in the queue while they are appended, so that the records of their topics which are sent
+        // meanwhile are queued behind them
+        long nextExpiryMs = Long.MAX_VALUE;
+        Set<Entry> done = new HashSet<>();
+        Map<Entry, RuntimeException> failed = new LinkedHashMap<>();
+        // topics with a record which could not be appended, the following records of the topic must wait for it
+        Set<String> blocked = new HashSet<>();
+        for (Entry entry : queued) {
+            if (blocked.contains(entry.topic)) {
+                nextExpiryMs = Math.min(nextExpiryMs, entry.deadlineMs);
+                continue;
+            }
+            if (nowMs >= entry.deadlineMs) {
+                done.add(entry);
+                failed.put(entry, new TimeoutException("Failed to update metadata or allocate memory within the " +
+                        "configured max blocking time."));
+                continue;
+            }
+            try {
+                if (entry.append(cluster)) {
+                    done.add(entry);
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                done.add(entry);
+                failed.put(entry, e);
+                continue;
+            }
+            blocked.add(entry.topic);
+            nextExpiryMs = Math.min(nextExpiryMs, entry.deadlineMs);
+        }
+
+        synchronized (this) {
+            Iterator<Entry> iter = entries.iterator();
+            while (iter.hasNext()) {
+                Entry entry = iter.next();
+                if (done.contains(entry))
+                    remove(iter, entry);
+            }
+            // the records queued meanwhile are appended right away by the next call
+            if (entries.size() > queued.size() - done.size())
+                nextExpiryMs = nowMs;
+            if (entries.isEmpty())
+                notifyAll();
+        }
+        for (Map.Entry<Entry, RuntimeException> entry : failed.entrySet())
+            entry.getKey().fail(entry.getValue());
+        return nextExpiryMs == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0L, nextExpiryMs - nowMs);
+    }
+
+    /**
+     * Fail all the records in the queue. This is called by the sender thread.
+     */
+    public void failAll(RuntimeException exception) {
+        List<Entry> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(entries);
+            entries.clear();
+            topics.clear();
+            notifyAll();
+        }
+        for (Entry entry : failed)
+            entry.fail(exception);
+    }
+
+    private void remove(Iterator<Entry> iter, Entry entry) {
+        iter.remove();
+        int count = topics.get(entry.topic);
+        if (count == 1)
+            topics.remove(entry.topic);
+        else
+            topics.put(entry.topic, count - 1);
+    }
+}
@@ -32,6 +32,7 @@ import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.metrics.stats.Rate;
 import org.apache.kafka.common.record.AbstractRecords;
 import org.apache.kafka.common.record.CompressionRatioEstimator;
+import org.apache.kafka.common.record.CompressionOptions;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.RecordBatch;
@@ -47,6 +48,7 @@ import org.slf4j.LoggerFactory;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
@@ -57,6 +59,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class acts as a queue that accumulates records into {@link MemoryRecords}
@@ -64,6 +67,11 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>
  * The accumulator uses a bounded amount of memory and append calls will block when that memory is exhausted, unless
  * this behavior is explicitly disabled.
+ * <p>
+ * Each partition has a deque of batches, and up to {@code maxOpenBatchesPerPartition} of them are open for appends.
+ * An appending thread always uses the same open batch of a partition, so the records it sends to the partition stay in
+ * order. Appending to an open batch only locks the batch, the deque is locked when batches are added or removed. Locks
+ * are always taken in that order: the deque first, then the batch.
  */
 public final class RecordAccumulator {
 
@@ -74,12 +82,18 @@ public final class RecordAccumulator {
     private final AtomicInteger appendsInProgress;
     private final int batchSize;
     private final CompressionType compression;
+    private final CompressionOptions compressionOptions;
     private final long lingerMs;
     private final long retryBackoffMs;
+    private final int maxOpenBatchesPerPartition;
+    private final AdaptiveBatching adaptiveBatching;
     private final BufferPool free;
     private final Time time;
     private final ApiVersions apiVersions;
     private final ConcurrentMap<TopicPartition, Deque<ProducerBatch>> batches;
+    // The batches that are open for appends, indexed by the lane of the appending thread. Only updated while holding
+    // the lock of the partition's deque.
+    private final ConcurrentMap<TopicPartition, AtomicReferenceArray<ProducerBatch>> openBatches;
     private final IncompleteBatches incomplete;
     // The following variables are only accessed by the sender thread, so we don't need to protect them.
     private final Set<TopicPartition> muted;
@@ -112,15 +126,57 @@ public final class RecordAccumulator {
                              Time time,
                              ApiVersions apiVersions,
                              TransactionManager transactionManager) {
+        this(batchSize, totalSize, compression, CompressionOptions.DEFAULT, lingerMs, retryBackoffMs, 1, null, metrics,
+                time, apiVersions, transactionManager);
+    }
+
+    /**
+     * Create a new record accumulator
+     *
+     * @param batchSize The size to use when allocating {@link MemoryRecords} instances
+     * @param totalSize The maximum memory the record accumulator can use.
+     * @param compression The compression codec for the records
+     * @param compressionOptions The codec specific options (e.g. level and dictionary) for the records
+     * @param lingerMs An artificial delay time to add before declaring a records instance that isn't full ready for
+     *        sending. This allows time for more records to arrive. Setting a non-zero lingerMs will trade off some
+     *        latency for potentially better throughput due to more batching (and hence fewer, larger requests).
+     * @param retryBackoffMs An artificial delay time to retry the produce request upon receiving an error. This avoids
+     *        exhausting all retries in a short period of time.
+     * @param maxOpenBatchesPerPartition The maximum number of batches of a partition that records can be appended to
+     *        concurrently. Threads that append to different batches of the same partition do not contend with each other.
+     * @param adaptiveBatching If not null, chooses the linger time and the batch size of each partition instead of
+     *        {@code lingerMs} and {@code batchSize}
+     * @param metrics The metrics
+     * @param time The time instance to use
+     * @param apiVersions Request API versions for current connected brokers
+     * @param transactionManager The shared transaction state object which tracks producer IDs, epochs, and sequence
+     *                           numbers per partition.
+     */
+    public RecordAccumulator(int batchSize,
+                             long totalSize,
+                             CompressionType compression,
+                             CompressionOptions compressionOptions,
+                             long lingerMs,
+                             long retryBackoffMs,
+                             int maxOpenBatchesPerPartition,
+                             AdaptiveBatching adaptiveBatching,
+                             Metrics metrics,
+                             Time time,
+                             ApiVersions apiVersions,
+                             TransactionManager transactionManager) {
         this.drainIndex = 0;
         this.closed = false;
         this.flushesInProgress = new AtomicInteger(0);
         this.appendsInProgress = new AtomicInteger(0);
         this.batchSize = batchSize;
         this.compression = compression;
+        this.compressionOptions = compressionOptions;
         this.lingerMs = lingerMs;
         this.retryBackoffMs = retryBackoffMs;
+        this.maxOpenBatchesPerPartition = maxOpenBatchesPerPartition;
+        this.adaptiveBatching = adaptiveBatching;
         this.batches = new CopyOnWriteMap<>();
+        this.openBatches = new CopyOnWriteMap<>();
         String metricGrpName = "producer-metrics";
         this.free = new BufferPool(totalSize, batchSize, metrics, time, metricGrpName);
         this.incomplete = new IncompleteBatches();
@@ -159,6 +215,40 @@ public final class RecordAccumulator {
         Sensor bufferExhaustedRecordSensor = metrics.sensor("buffer-exhausted-records");
         metricName = metrics.metricName("buffer-exhausted-rate", metricGrpName, "The average per-second number of record sends that are dropped due to buffer exhaustion");
         bufferExhaustedRecordSensor.add(metricName, new Rate());
+
+        if (adaptiveBatching != null) {
+            metricName = metrics.metricName("adaptive-linger-ms-avg", metricGrpName, "The average of the linger times in ms currently chosen for the partitions by adaptive batching.");
+            Measurable averageLinger = new Measurable() {
+                public double measure(MetricConfig config, long now) {
+                    return adaptiveBatching.averageLingerMs();
+                }
+            };
+            metrics.addMetric(metricName, averageLinger);
+
+            metricName = metrics.metricName("adaptive-linger-ms-max", metricGrpName, "The largest of the linger times in ms currently chosen for the partitions by adaptive batching.");
+            Measurable maxLinger = new Measurable() {
+                public double measure(MetricConfig config, long now) {
+                    return adaptiveBatching.maxLingerMs();
+                }
+            };
+            metrics.addMetric(metricName, maxLinger);
+
+            metricName = metrics.metricName("adaptive-batch-size-avg", metricGrpName, "The average of the batch sizes in bytes currently chosen for the partitions by adaptive batching.");
+            Measurable averageBatchSize = new Measurable() {
+                public double measure(MetricConfig config, long now) {
+                    return adaptiveBatching.averageBatchSize();
+                }
+            };
+            metrics.addMetric(metricName, averageBatchSize);
+
+            metricName = metrics.metricName("adaptive-batch-size-max", metricGrpName, "The largest of the batch sizes in bytes currently chosen for the partitions by adaptive batching.");
+            Measurable maxBatchSize = new Measurable() {
+                public double measure(MetricConfig config, long now) {
+                    return adaptiveBatching.maxBatchSize();
+                }
+            };
+            metrics.addMetric(metricName, maxBatchSize);
+        }
     }
 
     /**
@@ -182,36 +272,118 @@ public final class RecordAccumulator {
                                      Header[] headers,
                                      Callback callback,
                                      long maxTimeToBlock) throws InterruptedException {
+        return append(tp, timestamp, key, value, headers, callback, maxTimeToBlock, false);
+    }
+
+    /**
+     * Add a record to the accumulator, return the append result
+     * <p>
+     * The append result will contain the future metadata, and flag for whether the appended batch is full or a new batch is created
+     * <p>
+     *
+     * @param tp The topic/partition to which this record is being sent
+     * @param timestamp The timestamp of the record
+     * @param key The key for the record
+     * @param value The value for the record
+     * @param headers the Headers for the record
+     * @param callback The user-supplied callback to execute when the request is complete
+     * @param maxTimeToBlock The maximum time in milliseconds to block for buffer memory to be available
+     * @param abortOnNewBatch If true, the record is not appended if it needs a new batch, and the result has
+     *                        {@link RecordAppendResult#abortForNewBatch} set instead. This gives the partitioner a
+     *                        chance to choose another partition before the record is appended again.
+     */
+    public RecordAppendResult append(TopicPartition tp,
+                                     long timestamp,
+                                     byte[] key,
+                                     byte[] value,
+                                     Header[] headers,
+                                     Callback callback,
+                                     long maxTimeToBlock,
+                                     boolean abortOnNewBatch) throws InterruptedException {
+        return append(tp, timestamp, key, value, headers, callback, maxTimeToBlock, abortOnNewBatch, true);
+    }
+
+    /**
+     * Add a record to the accumulator if there is an in-progress batch for it or the memory for a new batch is
+     * available right away. This never blocks.
+     *
+     * @param tp The topic/partition to which this record is being sent
+     * @param timestamp The timestamp of the record
+     * @param key The key for the record
+     * @param value The value for the record
+     * @param headers the Headers for the record
+     * @param callback The user-supplied callback to execute when the request is complete
+     * @param abortOnNewBatch If true, the record is not appended if it needs a new batch, see
+     *                        {@link #append(TopicPartition, long, byte[], byte[], Header[], Callback, long, boolean)}
+     * @return The append result, or null if the record was not appended because there is not enough buffer memory
+     */
+    public RecordAppendResult tryAppend(TopicPartition tp,
+                                        long timestamp,
+                                        byte[] key,
+                                        byte[] value,
+                                        Header[] headers,
+                                        Callback callback,
+                                        boolean abortOnNewBatch) {
+        try {
+            return append(tp, timestamp, key, value, headers, callback, 0L, abortOnNewBatch, false);
+        } catch (InterruptedException e) {
+            // the thread is not blocked without buffer memory, so it can not be interrupted
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private RecordAppendResult append(TopicPartition tp,
+                                      long timestamp,
+                                      byte[] key,
+                                      byte[] value,
+                                      Header[] headers,
+                                      Callback callback,
+                                      long maxTimeToBlock,
+                                      boolean abortOnNewBatch,
+                                      boolean blockOnBufferFull) throws InterruptedException {
         // We keep track of the number of appending thread to make sure we do not miss batches in
         // abortIncompleteBatches().
         appendsInProgress.incrementAndGet();
         ByteBuffer buffer = null;
         if (headers == null) headers = Record.EMPTY_HEADERS;
         try {
-            // check if we have an in-progress batch
+            // check if we have an in-progress batch, appending to it only takes the lock of the batch
             Deque<ProducerBatch> dq = getOrCreateDeque(tp);
-            synchronized (dq) {
-                if (closed)
-                    throw new IllegalStateException("Cannot send after the producer is closed.");
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq);
+            AtomicReferenceArray<ProducerBatch> open = getOrCreateOpenBatches(tp);
+            int lane = lane();
+            ProducerBatch last = open.get(lane);
+            if (last != null) {
+                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, last);
                 if (appendResult != null)
                     return appendResult;
             }
 
+            if (abortOnNewBatch)
+                return new RecordAppendResult(null, false, false, true);
+
             // we don't have an in-progress record batch try to allocate a new batch
             byte maxUsableMagic = apiVersions.maxUsableProduceMagic();
-            int size = Math.max(this.batchSize, AbstractRecords.estimateSizeInBytesUpperBound(maxUsableMagic, compression, key, value, headers));
+            int size = Math.max(batchSize(tp), AbstractRecords.estimateSizeInBytesUpperBound(maxUsableMagic, compression, key, value, headers));
             log.trace("Allocating a new {} byte message buffer for topic {} partition {}", size, tp.topic(), tp.partition());
-            buffer = free.allocate(size, maxTimeToBlock);
+            if (blockOnBufferFull) {
+                buffer = free.allocate(size, maxTimeToBlock);
+            } else {
+                buffer = free.tryAllocate(size);
+                if (buffer == null)
+                    return null;
+            }
             synchronized (dq) {
                 // Need to check if producer is closed again after grabbing the dequeue lock.
                 if (closed)
                     throw new IllegalStateException("Cannot send after the producer is closed.");
 
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq);
-                if (appendResult != null) {
-                    // Somebody else found us a batch, return the one we waited for! Hopefully this doesn't happen often...
-                    return appendResult;
+                last = open.get(lane);
+                if (last != null) {
+                    RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, last);
+                    if (appendResult != null) {
+                        // Somebody else found us a batch, return the one we waited for! Hopefully this doesn't happen often...
+                        return appendResult;
+                    }
                 }
 
                 MemoryRecordsBuilder recordsBuilder = recordsBuilder(buffer, maxUsableMagic);
@@ -219,6 +391,7 @@ public final class RecordAccumulator {
                 FutureRecordMetadata future = Utils.notNull(batch.tryAppend(timestamp, key, value, headers, callback, time.milliseconds()));
 
                 dq.addLast(batch);
+                open.set(lane, batch);
                 incomplete.add(batch);
 
                 // Don't deallocate this buffer in the finally block as it's being used in the record batch
@@ -233,12 +406,36 @@ public final class RecordAccumulator {
         }
     }
 
+    private int batchSize(TopicPartition tp) {
+        return adaptiveBatching == null ? batchSize : adaptiveBatching.batchSize(tp);
+    }
+
+    private long lingerMs(TopicPartition tp) {
+        return adaptiveBatching == null ? lingerMs : adaptiveBatching.lingerMs(tp);
+    }
+
+    /**
+     * The index of the open batch that the current thread appends to. It must not change for a thread, otherwise the
+     * records it sends to a partition may be reordered.
+     */
+    private int lane() {
+        if (maxOpenBatchesPerPartition == 1)
+            return 0;
+        return (int) (Thread.currentThread().getId() % maxOpenBatchesPerPartition);
+    }
+
     private MemoryRecordsBuilder recordsBuilder(ByteBuffer buffer, byte maxUsableMagic) {
         if (transactionManager != null && maxUsableMagic < RecordBatch.MAGIC_VALUE_V2) {
             throw new UnsupportedVersionException("Attempting to use idempotence with a broker which does not " +
                     "support the required message format (v2). The broker must be version 0.11 or later.");
         }
-        return MemoryRecords.builder(buffer, maxUsableMagic, compression, TimestampType.CREATE_TIME, 0L);
+        if (compression == CompressionType.ZSTD && maxUsableMagic < RecordBatch.MAGIC_VALUE_V2) {
+            throw new UnsupportedVersionException("Attempting to use zstd compression with a broker which does not " +
+                    "support the required message format (v2). The broker must be version 0.11 or later.");
+        }
+        return MemoryRecords.builder(buffer, maxUsableMagic, compression, compressionOptions, TimestampType.CREATE_TIME,
+                0L, RecordBatch.NO_TIMESTAMP, RecordBatch.NO_PRODUCER_ID, RecordBatch.NO_PRODUCER_EPOCH,
+                RecordBatch.NO_SEQUENCE, false, false, RecordBatch.NO_PARTITION_LEADER_EPOCH);
     }
 
     /**
@@ -248,18 +445,52 @@ public final class RecordAccumulator {
      *  resources like compression buffers. The batch will be fully closed (ie. the record batch headers will be written
      *  and memory records built) in one of the following cases (whichever comes first): right before send,
      *  if it is expired, or when the producer is closed.
+     *
+     *  The batch may have been drained or aborted since it was looked up, in which case it is already closed for
+     *  record appends and we return null.
      */
-    private RecordAppendResult tryAppend(long timestamp, byte[] key, byte[] value, Header[] headers, Callback callback, Deque<ProducerBatch> deque) {
-        ProducerBatch last = deque.peekLast();
-        if (last != null) {
-            FutureRecordMetadata future = last.tryAppend(timestamp, key, value, headers, callback, time.milliseconds());
-            if (future == null)
-                last.closeForRecordAppends();
-            else
-                return new RecordAppendResult(future, deque.size() > 1 || last.isFull(), false);
+    private RecordAppendResult tryAppend(long timestamp, byte[] key, byte[] value, Header[] headers, Callback callback, ProducerBatch batch) {
+        synchronized (batch) {
+            if (closed)
+                throw new IllegalStateException("Cannot send after the producer is closed.");
+            FutureRecordMetadata future = batch.tryAppend(timestamp, key, value, headers, callback, time.milliseconds());
+            if (future == null) {
+                batch.closeForRecordAppends();
+                return null;
+            }
+            // a new batch has been created after this one if it is full, and the sender has been woken up then
+            return new RecordAppendResult(future, batch.isFull(), false);
+        }
+    }
 
+    /**
+     * Remove the given batch from the open batches of its partition. Must be called while holding the deque lock.
+     */
+    private void removeOpenBatch(ProducerBatch batch) {
+        AtomicReferenceArray<ProducerBatch> open = openBatches.get(batch.topicPartition);
+        if (open == null)
+            return;
+        for (int i = 0; i < open.length(); i++) {
+            if (open.get(i) == batch) {
+                open.set(i, null);
+                return;
+            }
         }
-        return null;
+    }
+
+    /**
+     * The number of batches of the partition that are open for appends. Must be called while holding the deque lock.
+     */
+    private int numOpenBatches(TopicPartition tp) {
+        AtomicReferenceArray<ProducerBatch> open = openBatches.get(tp);
+        if (open == null)
+            return 0;
+        int count = 0;
+        for (int i = 0; i < open.length(); i++) {
+            if (open.get(i) != null)
+                count++;
+        }
+        return count;
     }
 
     /**
@@ -281,14 +512,19 @@ public final class RecordAccumulator {
                     Iterator<ProducerBatch> batchIterator = dq.iterator();
                     while (batchIterator.hasNext()) {
                         ProducerBatch batch = batchIterator.next();
-                        boolean isFull = batch != lastBatch || batch.isFull();
-                        // Check if the batch has expired. Expired batches are closed by maybeExpire, but callbacks
-                        // are invoked after completing the iterations, since sends invoked from callbacks
-                        // may append more batches to the deque being iterated. The batch is deallocated after
-                        // callbacks are invoked.
-                        if (batch.maybeExpire(requestTimeout, retryBackoffMs, now, this.lingerMs, isFull)) {
+                        boolean expired;
+                        synchronized (batch) {
+                            boolean isFull = batch != lastBatch || batch.isFull();
+                            // Check if the batch has expired. Expired batches are closed by maybeExpire, but callbacks
+                            // are invoked after completing the iterations, since sends invoked from callbacks
+                            // may append more batches to the deque being iterated. The batch is deallocated after
+                            // callbacks are invoked.
+                            expired = batch.maybeExpire(requestTimeout, retryBackoffMs, now, lingerMs(tp), isFull);
+                        }
+                        if (expired) {
                             expiredBatches.add(batch);
                             batchIterator.remove();
+                            removeOpenBatch(batch);
                         } else {
                             // Stop at the first batch that has not expired.
                             break;
@@ -377,8 +613,12 @@ public final class RecordAccumulator {
                     if (batch != null) {
                         long waitedTimeMs = batch.waitedTimeMs(nowMs);
                         boolean backingOff = batch.attempts() > 0 && waitedTimeMs < retryBackoffMs;
-                        long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs;
-                        boolean full = deque.size() > 1 || batch.isFull();
+                        long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs(part);
+                        boolean full;
+                        synchronized (batch) {
+                            // if there are more batches than open ones, at least one of them is full
+                            full = deque.size() > Math.max(1, numOpenBatches(part)) || batch.isFull();
+                        }
                         boolean expired = waitedTimeMs >= timeToWaitMs;
                         boolean sendable = full || expired || exhausted || closed || flushInProgress();
                         if (sendable && !backingOff) {
@@ -414,7 +654,11 @@ public final class RecordAccumulator {
 
     /**
      * Drain all the data for the given nodes and collate them into a list of batches that will fit within the specified
-     * size on a per-node basis. This method attempts to avoid choosing the same topic-node over and over.
+     * size on a per-node basis.
+     * <p>
+     * If the first batches of all the partitions of a node fit in one request, they are all drained. Otherwise the
+     * oldest batches, which are the closest to expiring, are drained first, and the remaining space of the request is
+     * filled with the batches that still fit in it, so that a large batch does not leave the rest of the request empty.
      *
      * @param cluster The current cluster metadata
      * @param nodes The list of node to drain
@@ -431,74 +675,135 @@ public final class RecordAccumulator {
 
         Map<Integer, List<ProducerBatch>> batches = new HashMap<>();
         for (Node node : nodes) {
+            List<DrainCandidate> candidates = drainCandidates(cluster, node, now);
+            int totalSize = 0;
+            for (DrainCandidate candidate : candidates)
+                totalSize += candidate.sizeInBytes;
+            // the sort is stable, so batches of the same age keep the rotating order
+            if (totalSize > maxSize)
+                Collections.sort(candidates);
+
             int size = 0;
-            List<PartitionInfo> parts = cluster.partitionsForNode(node.id());
             List<ProducerBatch> ready = new ArrayList<>();
-            /* to make starvation less likely this loop doesn't start at 0 */
-            int start = drainIndex = drainIndex % parts.size();
-            do {
-                PartitionInfo part = parts.get(drainIndex);
-                TopicPartition tp = new TopicPartition(part.topic(), part.partition());
-                // Only proceed if the partition has no in-flight batches.
-                if (!muted.contains(tp)) {
-                    Deque<ProducerBatch> deque = getDeque(tp);
-                    if (deque != null) {
-                        synchronized (deque) {
-                            ProducerBatch first = deque.peekFirst();
-                            if (first != null) {
-                                boolean backoff = first.attempts() > 0 && first.waitedTimeMs(now) < retryBackoffMs;
-                                // Only drain the batch if it is not during backoff period.
-                                if (!backoff) {
-                                    if (size + first.sizeInBytes() > maxSize && !ready.isEmpty()) {
-                                        // there is a rare case that a single batch size is larger than the request size due
-                                        // to compression; in this case we will still eventually send this batch in a single
-                                        // request
-                                        break;
-                                    } else {
-                                        ProducerIdAndEpoch producerIdAndEpoch = null;
-                                        boolean isTransactional = false;
-                                        if (transactionManager != null) {
-                                            if (!transactionManager.isSendToPartitionAllowed(tp))
-                                                break;
-
-                                            producerIdAndEpoch = transactionManager.producerIdAndEpoch();
-                                            if (!producerIdAndEpoch.isValid())
-                                                // we cannot send the batch until we have refreshed the producer id
-                                                break;
-
-                                            isTransactional = transactionManager.isTransactional();
-                                        }
-
-                                        ProducerBatch batch = deque.pollFirst();
-                                        if (producerIdAndEpoch != null && !batch.inRetry()) {
-                                            // If the batch is in retry, then we should not change the producer id and
-                                            // sequence number, since this may introduce duplicates. In particular,
-                                            // the previous attempt may actually have been accepted, and if we change
-                                            // the producer id and sequence here, this attempt will also be accepted,
-                                            // causing a duplicate.
-                                            int sequenceNumber = transactionManager.sequenceNumber(batch.topicPartition);
-                                            log.debug("Assigning sequence number {} from producer {} to dequeued " +
-                                                            "batch from partition {} bound for {}.",
-                                                    sequenceNumber, producerIdAndEpoch, batch.topicPartition, node);
-                                            batch.setProducerState(producerIdAndEpoch, sequenceNumber, isTransactional);
-                                        }
-                                        batch.close();
-                                        size += batch.sizeInBytes();
-                                        ready.add(batch);
-                                        batch.drained(now);
-                                    }
-                                }
-                            }
-                        }
-                    }
+            for (DrainCandidate candidate : candidates) {
+                // batches only grow, so there is no need to look at a batch which did not fit already
+                if (size + candidate.sizeInBytes > maxSize && !ready.isEmpty())
+                    continue;
+
+                ProducerIdAndEpoch producerIdAndEpoch = null;
+                boolean isTransactional = false;
+                if (transactionManager != null) {
+                    if (!transactionManager.isSendToPartitionAllowed(candidate.tp))
+                        break;
+
+                    producerIdAndEpoch = transactionManager.producerIdAndEpoch();
+                    if (!producerIdAndEpoch.isValid())
+                        // we cannot send the batch until we have refreshed the producer id
+                        break;
+
+                    isTransactional = transactionManager.isTransactional();
                 }
-                this.drainIndex = (this.drainIndex + 1) % parts.size();
-            } while (start != drainIndex);
+
+                ProducerBatch batch = drainFirst(candidate, node, maxSize - size, !ready.isEmpty(), producerIdAndEpoch,
+                        isTransactional, now);
+                if (batch != null) {
+                    size += batch.sizeInBytes();
+                    ready.add(batch);
+                }
+            }
             batches.put(node.id(), ready);
         }
         return batches;
     }
 
+    /**
+     * The partitions of the node which have a batch that can be sent, starting at a different partition each time to
+     * make starvation less likely.
+     */
+    private List<DrainCandidate> drainCandidates(Cluster cluster, Node node, long now) {
+        List<PartitionInfo> parts = cluster.partitionsForNode(node.id());
+        List<DrainCandidate> candidates = new ArrayList<>();
+        if (parts.isEmpty())
+            return candidates;
+        int start = drainIndex % parts.size();
+        // the next drain of the node starts at the following partition
+        this.drainIndex = start + 1;
+        for (int i = 0; i < parts.size(); i++) {
+            PartitionInfo part = parts.get((start + i) % parts.size());
+            TopicPartition tp = new TopicPartition(part.topic(), part.partition());
+            // Only proceed if the partition has no in-flight batches.
+            if (!muted.contains(tp)) {
+                Deque<ProducerBatch> deque = getDeque(tp);
+                if (deque != null) {
+                    synchronized (deque) {
+                        ProducerBatch first = deque.peekFirst();
+                        // Only drain the batch if it is not during backoff period.
+                        if (first != null && !(first.attempts() > 0 && first.waitedTimeMs(now) < retryBackoffMs))
+                            candidates.add(new DrainCandidate(tp, deque, first.createdMs, first.sizeInBytes()));
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Remove the first batch of the partition and close it.
+     *
+     * @return The batch, or null if it does not fit in the remaining space of the request
+     */
+    private ProducerBatch drainFirst(DrainCandidate candidate, Node node, int remainingSize, boolean hasBatches,
+                                     ProducerIdAndEpoch producerIdAndEpoch, boolean isTransactional, long now) {
+        Deque<ProducerBatch> deque = candidate.deque;
+        synchronized (deque) {
+            ProducerBatch first = deque.peekFirst();
+            if (first == null)
+                return null;
+            if (first.sizeInBytes() > remainingSize && hasBatches) {
+                // there is a rare case that a single batch size is larger than the request size due
+                // to compression; in this case we will still eventually send this batch in a single
+                // request
+                return null;
+            }
+
+            ProducerBatch batch = deque.pollFirst();
+            removeOpenBatch(batch);
+            // appending threads only hold the lock of the batch
+            synchronized (batch) {
+                if (producerIdAndEpoch != null && !batch.inRetry()) {
+                    // If the batch is in retry, then we should not change the producer id and
+                    // sequence number, since this may introduce duplicates. In particular,
+                    // the previous attempt may actually have been accepted, and if we change
+                    // the producer id and sequence here, this attempt will also be accepted,
+                    // causing a duplicate.
+                    int sequenceNumber = transactionManager.sequenceNumber(batch.topicPartition);
+                    log.debug("Assigning sequence number {} from producer {} to dequeued " +
+                                    "batch from partition {} bound for {}.",
+                            sequenceNumber, producerIdAndEpoch, batch.topicPartition, node);
+                    batch.setProducerState(producerIdAndEpoch, sequenceNumber, isTransactional);
+                }
+                batch.close();
+            }
+            batch.drained(now);
+            if (adaptiveBatching != null)
+                adaptiveBatching.onDrained(candidate.tp, batch.sizeInBytes(), now);
+            return batch;
+        }
+    }
+
+    /**
+     * Record the completion of a produce request which contained batches of the given partitions.
+     *
+     * @param partitions The partitions of the batches in the request
+     * @param latencyMs The latency of the request or -1 if there was no response
+     */
+    public void produceRequestCompleted(Collection<TopicPartition> partitions, long latencyMs) {
+        if (adaptiveBatching != null) {
+            for (TopicPartition tp : partitions)
+                adaptiveBatching.onCompleted(tp, latencyMs);
+        }
+    }
+
     private Deque<ProducerBatch> getDeque(TopicPartition tp) {
         return batches.get(tp);
     }
@@ -518,6 +823,21 @@ public final class RecordAccumulator {
             return previous;
     }
 
+    /**
+     * Get the open batches for the given topic-partition, creating them if necessary.
+     */
+    private AtomicReferenceArray<ProducerBatch> getOrCreateOpenBatches(TopicPartition tp) {
+        AtomicReferenceArray<ProducerBatch> open = this.openBatches.get(tp);
+        if (open != null)
+            return open;
+        open = new AtomicReferenceArray<>(maxOpenBatchesPerPartition);
+        AtomicReferenceArray<ProducerBatch> previous = this.openBatches.putIfAbsent(tp, open);
+        if (previous == null)
+            return open;
+        else
+            return previous;
+    }
+
     /**
      * Deallocate the record batch
      */
@@ -600,6 +920,7 @@ public final class RecordAccumulator {
         // batch appended by the last appending thread.
         abortBatches();
         this.batches.clear();
+        this.openBatches.clear();
     }
 
     /**
@@ -616,8 +937,11 @@ public final class RecordAccumulator {
         for (ProducerBatch batch : incomplete.copyAll()) {
             Deque<ProducerBatch> dq = getDeque(batch.topicPartition);
             synchronized (dq) {
-                batch.abortRecordAppends();
+                synchronized (batch) {
+                    batch.abortRecordAppends();
+                }
                 dq.remove(batch);
+                removeOpenBatch(batch);
             }
             batch.abort(reason);
             deallocate(batch);
@@ -632,10 +956,15 @@ public final class RecordAccumulator {
             Deque<ProducerBatch> dq = getDeque(batch.topicPartition);
             boolean aborted = false;
             synchronized (dq) {
-                if (!batch.isClosed()) {
-                    aborted = true;
-                    batch.abortRecordAppends();
+                synchronized (batch) {
+                    if (!batch.isClosed()) {
+                        aborted = true;
+                        batch.abortRecordAppends();
+                    }
+                }
+                if (aborted) {
                     dq.remove(batch);
+                    removeOpenBatch(batch);
                 }
             }
             if (aborted) {
@@ -667,11 +996,39 @@ public final class RecordAccumulator {
         public final FutureRecordMetadata future;
         public final boolean batchIsFull;
         public final boolean newBatchCreated;
+        public final boolean abortForNewBatch;
 
         public RecordAppendResult(FutureRecordMetadata future, boolean batchIsFull, boolean newBatchCreated) {
+            this(future, batchIsFull, newBatchCreated, false);
+        }
+
+        public RecordAppendResult(FutureRecordMetadata future, boolean batchIsFull, boolean newBatchCreated, boolean abortForNewBatch) {
             this.future = future;
             this.batchIsFull = batchIsFull;
             this.newBatchCreated = newBatchCreated;
+            this.abortForNewBatch = abortForNewBatch;
+        }
+    }
+
+    /*
+     * The first batch of a partition that may be drained
+     */
+    private final static class DrainCandidate implements Comparable<DrainCandidate> {
+        final TopicPartition tp;
+        final Deque<ProducerBatch> deque;
+        final long createdMs;
+        final int sizeInBytes;
+
+        DrainCandidate(TopicPartition tp, Deque<ProducerBatch> deque, long createdMs, int sizeInBytes) {
+            this.tp = tp;
+            this.deque = deque;
+            this.createdMs = createdMs;
+            this.sizeInBytes = sizeInBytes;
+        }
+
+        @Override
+        public int compareTo(DrainCandidate other) {
+            return Long.compare(createdMs, other.createdMs);
         }
     }
 
@@ -121,6 +121,9 @@ public class Sender implements Runnable {
     /* all the state related to transactions, in particular the producer id, producer epoch, and sequence numbers */
     private final TransactionManager transactionManager;
 
+    /* the records sent without blocking that wait for metadata or buffer memory, null if there are none */
+    private final PendingRecords pendingRecords;
+
     public Sender(KafkaClient client,
                   Metadata metadata,
                   RecordAccumulator accumulator,
@@ -134,6 +137,24 @@ public class Sender implements Runnable {
                   long retryBackoffMs,
                   TransactionManager transactionManager,
                   ApiVersions apiVersions) {
+        this(client, metadata, accumulator, guaranteeMessageOrder, maxRequestSize, acks, retries, metrics, time,
+                requestTimeout, retryBackoffMs, transactionManager, apiVersions, null);
+    }
+
+    public Sender(KafkaClient client,
+                  Metadata metadata,
+                  RecordAccumulator accumulator,
+                  boolean guaranteeMessageOrder,
+                  int maxRequestSize,
+                  short acks,
+                  int retries,
+                  Metrics metrics,
+                  Time time,
+                  int requestTimeout,
+                  long retryBackoffMs,
+                  TransactionManager transactionManager,
+                  ApiVersions apiVersions,
+                  PendingRecords pendingRecords) {
         this.client = client;
         this.accumulator = accumulator;
         this.metadata = metadata;
@@ -148,6 +169,7 @@ public class Sender implements Runnable {
         this.retryBackoffMs = retryBackoffMs;
         this.apiVersions = apiVersions;
         this.transactionManager = transactionManager;
+        this.pendingRecords = pendingRecords;
     }
 
     /**
@@ -170,7 +192,7 @@ public class Sender implements Runnable {
         // okay we stopped accepting requests but there may still be
         // requests in the accumulator or waiting for acknowledgment,
         // wait until these are completed.
-        while (!forceClose && (this.accumulator.hasUndrained() || this.client.inFlightRequestCount() > 0)) {
+        while (!forceClose && (hasPendingRecords() || this.accumulator.hasUndrained() || this.client.inFlightRequestCount() > 0)) {
             try {
                 run(time.milliseconds());
             } catch (Exception e) {
@@ -182,6 +204,10 @@ public class Sender implements Runnable {
             // the futures.
             this.accumulator.abortIncompleteBatches();
         }
+        if (this.pendingRecords != null) {
+            this.pendingRecords.close();
+            this.pendingRecords.failAll(new IllegalStateException("Producer is closed forcefully."));
+        }
         try {
             this.client.close();
         } catch (Exception e) {
@@ -224,8 +250,15 @@ public class Sender implements Runnable {
         client.poll(pollTimeout, now);
     }
 
+    private boolean hasPendingRecords() {
+        return this.pendingRecords != null && !this.pendingRecords.isEmpty();
+    }
+
     private long sendProducerData(long now) {
         Cluster cluster = metadata.fetch();
+        // append the records that were sent without blocking, if their metadata and enough memory are available now
+        long pendingTimeout = hasPendingRecords() ? this.pendingRecords.appendReady(cluster, now) : Long.MAX_VALUE;
+
         // get the list of partitions with data ready to send
         RecordAccumulator.ReadyCheckResult result = this.accumulator.ready(cluster, now);
 
@@ -287,7 +320,7 @@ public class Sender implements Runnable {
         // loop and try sending more data. Otherwise, the timeout is determined by nodes that have partitions with data
         // that isn't yet sendable (e.g. lingering, backing off). Note that this specifically does not include nodes
         // with sendable data that aren't ready to send since they would cause busy looping.
-        long pollTimeout = Math.min(result.nextReadyCheckDelayMs, notReadyTimeout);
+        long pollTimeout = Math.min(Math.min(result.nextReadyCheckDelayMs, notReadyTimeout), pendingTimeout);
         if (!result.readyNodes.isEmpty()) {
             log.trace("Nodes with data ready to send: {}", result.readyNodes);
             // if some partitions are already ready to be sent, the select time would be 0;
@@ -452,6 +485,8 @@ public class Sender implements Runnable {
     private void handleProduceResponse(ClientResponse response, Map<TopicPartition, ProducerBatch> batches, long now) {
         RequestHeader requestHeader = response.requestHeader();
         int correlationId = requestHeader.correlationId();
+        boolean hasLatency = !response.wasDisconnected() && response.versionMismatch() == null && response.hasResponse();
+        accumulator.produceRequestCompleted(batches.keySet(), hasLatency ? response.requestLatencyMs() : -1L);
         if (response.wasDisconnected()) {
             ApiKeys api = ApiKeys.forId(requestHeader.apiKey());
             log.trace("Cancelled {} request {} with correlation id {}  due to node {} being disconnected", api, requestHeader, correlationId, response.destination());
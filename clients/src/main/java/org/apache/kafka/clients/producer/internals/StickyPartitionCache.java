@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.Utils;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The partition that records without a key are currently sent to, for each topic. The partition only changes when
+ * a new batch is created for it, which is when its previous batch is full or has been sent.
+ */
+final class StickyPartitionCache {
+
+    private final ConcurrentMap<String, Integer> indexCache = new ConcurrentHashMap<>();
+
+    int partition(String topic, Cluster cluster) {
+        Integer part = indexCache.get(topic);
+        if (part == null)
+            return nextPartition(topic, cluster, -1);
+        return part;
+    }
+
+    int nextPartition(String topic, Cluster cluster, int prevPartition) {
+        Integer oldPart = indexCache.get(topic);
+        // Only change the partition if it is the one that the new batch is created for. Other threads may also have
+        // been about to create a new batch for it, and they must not switch again.
+        if (oldPart != null && oldPart != prevPartition)
+            return oldPart;
+
+        List<PartitionInfo> availablePartitions = cluster.availablePartitionsForTopic(topic);
+        int newPart;
+        if (availablePartitions.isEmpty()) {
+            // no partitions are available, give a non-available partition
+            newPart = Utils.toPositive(ThreadLocalRandom.current().nextInt()) % cluster.partitionsForTopic(topic).size();
+        } else if (availablePartitions.size() == 1) {
+            newPart = availablePartitions.get(0).partition();
+        } else {
+            do {
+                int index = Utils.toPositive(ThreadLocalRandom.current().nextInt()) % availablePartitions.size();
+                newPart = availablePartitions.get(index).partition();
+            } while (oldPart != null && newPart == oldPart);
+        }
+
+        if (oldPart == null)
+            indexCache.putIfAbsent(topic, newPart);
+        else
+            indexCache.replace(topic, oldPart, newPart);
+        return indexCache.get(topic);
+    }
+}
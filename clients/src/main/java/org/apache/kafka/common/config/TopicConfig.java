@@ -73,6 +73,25 @@ public class TopicConfig {
         "\"delete\" retention policy. This represents an SLA on how soon consumers must read " +
         "their data.";
 
+    public static final String REMOTE_STORAGE_ENABLE_CONFIG = "remote.storage.enable";
+    public static final String REMOTE_STORAGE_ENABLE_DOC = "True if the segments of the log should be copied to the " +
+        "remote tier once they are rolled, which requires <code>remote.log.storage.manager.class.name</code> to be " +
+        "set on the brokers. The segments which have been copied are retained locally according to " +
+        "<code>local.retention.ms</code> and <code>local.retention.bytes</code> and remotely according to " +
+        "<code>retention.ms</code> and <code>retention.bytes</code>. Only applies to topics with the \"delete\" " +
+        "retention policy and without the \"compact\" one.";
+
+    public static final String LOCAL_RETENTION_MS_CONFIG = "local.retention.ms";
+    public static final String LOCAL_RETENTION_MS_DOC = "The maximum time we will retain a segment on local disk " +
+        "once it has been copied to the remote tier, if <code>remote.storage.enable</code> is true. -2 means that " +
+        "the value of <code>retention.ms</code> is used and -1 means no time limit.";
+
+    public static final String LOCAL_RETENTION_BYTES_CONFIG = "local.retention.bytes";
+    public static final String LOCAL_RETENTION_BYTES_DOC = "The maximum size the log can grow to on local disk " +
+        "before we will discard old segments which have been copied to the remote tier, if " +
+        "<code>remote.storage.enable</code> is true. -2 means that the value of <code>retention.bytes</code> is " +
+        "used and -1 means no size limit.";
+
     public static final String MAX_MESSAGE_BYTES_CONFIG = "max.message.bytes";
     public static final String MAX_MESSAGE_BYTES_DOC = "<p>The largest record batch size allowed by Kafka. If this " +
         "is increased and there are consumers older than 0.10.2, the consumers' fetch size must also be increased so that " +
@@ -138,9 +157,14 @@ public class TopicConfig {
 
     public static final String COMPRESSION_TYPE_CONFIG = "compression.type";
     public static final String COMPRESSION_TYPE_DOC = "Specify the final compression type for a given topic. " +
-        "This configuration accepts the standard compression codecs ('gzip', 'snappy', lz4). It additionally " +
+        "This configuration accepts the standard compression codecs ('gzip', 'snappy', 'lz4', 'zstd'). It additionally " +
         "accepts 'uncompressed' which is equivalent to no compression; and 'producer' which means retain the " +
-        "original compression codec set by the producer.";
+        "original compression codec set by the producer. 'zstd' requires message format version 0.11.0 or later.";
+
+    public static final String COMPRESSION_ZSTD_LEVEL_CONFIG = "compression.zstd.level";
+    public static final String COMPRESSION_ZSTD_LEVEL_DOC = "The compression level used when the broker " +
+        "(re)compresses record batches with zstd, i.e. when <code>compression.type</code> is 'zstd' and the " +
+        "producer used a different codec or the batches need to be rewritten.";
 
     public static final String PREALLOCATE_CONFIG = "preallocate";
     public static final String PREALLOCATE_DOC = "True if we should preallocate the file on disk when " +
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.memory;
+
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.utils.Time;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A memory pool which keeps released buffers for reuse, grouped in size classes of powers of two from
+ * {@link #MIN_BUFFER_SIZE} up to a maximum pooled buffer size. A request is served by a buffer of the smallest
+ * size class that fits it, so that the buffers released by requests of similar sizes can be reused instead of
+ * allocating a new buffer for every request. Requests larger than the largest size class are allocated with their
+ * exact size and are not kept after they are released.
+ * <p>
+ * The total size of the buffers in use is bounded by the size of the pool. An allocation succeeds as long as the
+ * pool is not out of memory, so the pool may go over its size by at most one buffer, which guarantees that a
+ * request larger than the whole pool can still be served once the other buffers have been released. Released
+ * buffers are only kept while the buffers in use and the kept buffers fit in the pool.
+ * <p>
+ * This class is thread safe.
+ */
+public class SlabMemoryPool implements MemoryPool {
+
+    public static final int MIN_BUFFER_SIZE = 512;
+
+    private final long sizeBytes;
+    private final int maxPooledBufferSize;
+    private final int minSizeClassShift;
+    private final List<ArrayDeque<ByteBuffer>> freeBuffers;
+    private final Time time;
+    private final Sensor depletedTimeSensor;
+
+    // the total capacity of the buffers which have been allocated and not released yet
+    private long allocatedBytes = 0;
+    // the total capacity of the released buffers which are kept for reuse
+    private long freeBytes = 0;
+    private long depletedSinceMs = -1;
+
+    /**
+     * Create a new pool
+     * @param sizeBytes The total size of the buffers which may be in use at the same time
+     * @param maxPooledBufferSize The size of the largest buffers kept for reuse, which is rounded up to a power of two
+     * @param time The time implementation
+     * @param depletedTimeSensor A sensor recording the time in milliseconds for which the pool was out of memory, or
+     *                           null to not record it
+     */
+    public SlabMemoryPool(long sizeBytes, int maxPooledBufferSize, Time time, Sensor depletedTimeSensor) {
+        if (sizeBytes <= 0)
+            throw new IllegalArgumentException("Pool size must be positive, not " + sizeBytes);
+        if (maxPooledBufferSize < MIN_BUFFER_SIZE || maxPooledBufferSize > (1 << 30))
+            throw new IllegalArgumentException("Max pooled buffer size must be between " + MIN_BUFFER_SIZE + " and "
+                    + (1 << 30) + ", not " + maxPooledBufferSize);
+        this.sizeBytes = sizeBytes;
+        this.minSizeClassShift = shift(MIN_BUFFER_SIZE);
+        int maxSizeClassShift = shift(maxPooledBufferSize);
+        this.maxPooledBufferSize = 1 << maxSizeClassShift;
+        this.freeBuffers = new ArrayList<>(maxSizeClassShift - minSizeClassShift + 1);
+        for (int i = minSizeClassShift; i <= maxSizeClassShift; i++)
+            freeBuffers.add(new ArrayDeque<ByteBuffer>());
+        this.time = time;
+        this.depletedTimeSensor = depletedTimeSensor;
+    }
+
+    @Override
+    public ByteBuffer tryAllocate(int sizeBytes) {
+        if (sizeBytes < 0)
+            throw new IllegalArgumentException("requested size " + sizeBytes + " < 0");
+        int capacity = capacityFor(sizeBytes);
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            if (allocatedBytes >= this.sizeBytes) {
+                if (depletedSinceMs < 0)
+                    depletedSinceMs = time.milliseconds();
+                return null;
+            }
+            allocatedBytes += capacity;
+            if (capacity <= maxPooledBufferSize)
+                buffer = freeBuffers.get(sizeClass(capacity)).pollFirst();
+            if (buffer != null)
+                freeBytes -= capacity;
+            else
+                evictFreeBuffers();
+        }
+        if (buffer == null)
+            buffer = ByteBuffer.allocate(capacity);
+        buffer.limit(sizeBytes);
+        return buffer;
+    }
+
+    @Override
+    public void release(ByteBuffer previouslyAllocated) {
+        if (previouslyAllocated == null)
+            throw new IllegalArgumentException("provided null buffer");
+        int capacity = previouslyAllocated.capacity();
+        long depletedMs = -1;
+        synchronized (this) {
+            allocatedBytes -= capacity;
+            if (depletedSinceMs >= 0 && allocatedBytes < sizeBytes) {
+                depletedMs = time.milliseconds() - depletedSinceMs;
+                depletedSinceMs = -1;
+            }
+            if (isSizeClass(capacity) && allocatedBytes + freeBytes + capacity <= sizeBytes) {
+                previouslyAllocated.clear();
+                freeBuffers.get(sizeClass(capacity)).addFirst(previouslyAllocated);
+                freeBytes += capacity;
+            }
+        }
+        if (depletedMs >= 0 && depletedTimeSensor != null)
+            depletedTimeSensor.record(depletedMs);
+    }
+
+    @Override
+    public long size() {
+        return sizeBytes;
+    }
+
+    @Override
+    public synchronized long availableMemory() {
+        return sizeBytes - allocatedBytes;
+    }
+
+    @Override
+    public synchronized boolean isOutOfMemory() {
+        return allocatedBytes >= sizeBytes;
+    }
+
+    /**
+     * The total size of the released buffers which are kept for reuse
+     */
+    synchronized long freeBytes() {
+        return freeBytes;
+    }
+
+    @Override
+    public String toString() {
+        long allocated;
+        long free;
+        synchronized (this) {
+            allocated = allocatedBytes;
+            free = freeBytes;
+        }
+        return "SlabMemoryPool{" + allocated + "/" + sizeBytes + " used, " + free + " kept for reuse}";
+    }
+
+    /**
+     * Drop kept buffers, largest first, until the buffers in use and the kept buffers fit in the pool again.
+     */
+    private void evictFreeBuffers() {
+        for (int i = freeBuffers.size() - 1; i >= 0 && allocatedBytes + freeBytes > sizeBytes; i--) {
+            ArrayDeque<ByteBuffer> buffers = freeBuffers.get(i);
+            while (!buffers.isEmpty() && allocatedBytes + freeBytes > sizeBytes)
+                freeBytes -= buffers.pollLast().capacity();
+        }
+    }
+
+    private int capacityFor(int sizeBytes) {
+        if (sizeBytes > maxPooledBufferSize)
+            return sizeBytes;
+        return 1 << Math.max(shift(sizeBytes), minSizeClassShift);
+    }
+
+    private boolean isSizeClass(int capacity) {
+        return capacity >= MIN_BUFFER_SIZE && capacity <= maxPooledBufferSize && Integer.bitCount(capacity) == 1;
+    }
+
+    private int sizeClass(int capacity) {
+        return shift(capacity) - minSizeClassShift;
+    }
+
+    // the exponent of the smallest power of two which is greater than or equal to the given size
+    private static int shift(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
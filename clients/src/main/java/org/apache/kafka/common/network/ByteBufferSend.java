@@ -24,7 +24,7 @@ import java.nio.channels.GatheringByteChannel;
 /**
  * A send backed by an array of byte buffers
  */
-public class ByteBufferSend implements Send {
+public class ByteBufferSend implements GatheringSend {
 
     private final String destination;
     private final int size;
@@ -64,4 +64,17 @@ public class ByteBufferSend implements Send {
         pending = TransportLayers.hasPendingWrites(channel);
         return written;
     }
+
+    @Override
+    public ByteBuffer[] remainingBuffers() {
+        return buffers;
+    }
+
+    @Override
+    public long buffersWritten(GatheringByteChannel channel, long written) throws IOException {
+        int sendWritten = (int) Math.min(remaining, written);
+        remaining -= sendWritten;
+        pending = TransportLayers.hasPendingWrites(channel);
+        return sendWritten;
+    }
 }
@@ -20,6 +20,7 @@ import java.util.Map;
 import java.nio.channels.SelectionKey;
 
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.memory.MemoryPool;
 
 /**
  * A ChannelBuilder interface to build Channel based on configs
@@ -37,9 +38,10 @@ public interface ChannelBuilder extends AutoCloseable {
      * @param  id  channel id
      * @param  key SelectionKey
      * @param  maxReceiveSize
+     * @param  memoryPool memory pool from which to allocate buffers, or {@link MemoryPool#NONE} if none
      * @return KafkaChannel
      */
-    KafkaChannel buildChannel(String id, SelectionKey key, int maxReceiveSize) throws KafkaException;
+    KafkaChannel buildChannel(String id, SelectionKey key, int maxReceiveSize, MemoryPool memoryPool) throws KafkaException;
 
 
     /**
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * A send whose remaining bytes are held in byte buffers. {@link MultiSend} writes the buffers of consecutive
+ * gathering sends with a single gathering write instead of a write per send.
+ */
+public interface GatheringSend extends Send {
+
+    /**
+     * The buffers holding the bytes which remain to be written, or null if the send cannot be written by a gathering
+     * write. Writing the buffers must advance their positions.
+     */
+    ByteBuffer[] remainingBuffers();
+
+    /**
+     * Update the progress of the send after the buffers returned by {@link #remainingBuffers()} were written to the
+     * channel by a gathering write, along with the buffers of other sends.
+     * @param channel The channel the buffers were written to
+     * @param written The number of bytes written by the gathering write, starting with the buffers of this send
+     * @return The number of bytes of this send which were written
+     * @throws IOException If the channel fails
+     */
+    long buffersWritten(GatheringByteChannel channel, long written) throws IOException;
+
+}
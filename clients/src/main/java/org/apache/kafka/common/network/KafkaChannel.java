@@ -25,6 +25,7 @@ import java.nio.channels.SelectionKey;
 
 import java.security.Principal;
 
+import org.apache.kafka.common.memory.MemoryPool;
 import org.apache.kafka.common.utils.Utils;
 
 public class KafkaChannel {
@@ -35,28 +36,45 @@ public class KafkaChannel {
     // The values are read and reset after each response is sent.
     private long networkThreadTimeNanos;
     private final int maxReceiveSize;
+    private final MemoryPool memoryPool;
     private NetworkReceive receive;
     private Send send;
     // Track connection and mute state of channels to enable outstanding requests on channels to be
     // processed after the channel is disconnected.
     private boolean disconnected;
     private boolean muted;
+    // Reads are also suspended while the memory pool cannot allocate the buffer of the current receive
+    private boolean mutedForMemory;
     private ChannelState state;
 
     public KafkaChannel(String id, TransportLayer transportLayer, Authenticator authenticator, int maxReceiveSize) throws IOException {
+        this(id, transportLayer, authenticator, maxReceiveSize, MemoryPool.NONE);
+    }
+
+    public KafkaChannel(String id, TransportLayer transportLayer, Authenticator authenticator, int maxReceiveSize,
+                        MemoryPool memoryPool) throws IOException {
         this.id = id;
         this.transportLayer = transportLayer;
         this.authenticator = authenticator;
         this.networkThreadTimeNanos = 0L;
         this.maxReceiveSize = maxReceiveSize;
+        this.memoryPool = memoryPool;
         this.disconnected = false;
         this.muted = false;
+        this.mutedForMemory = false;
         this.state = ChannelState.NOT_CONNECTED;
     }
 
     public void close() throws IOException {
         this.disconnected = true;
-        Utils.closeAll(transportLayer, authenticator);
+        try {
+            Utils.closeAll(transportLayer, authenticator);
+        } finally {
+            if (receive != null) {
+                receive.close();
+                receive = null;
+            }
+        }
     }
 
     /**
@@ -113,11 +131,31 @@ public class KafkaChannel {
     }
 
     public void unmute() {
-        if (!disconnected)
+        if (!disconnected && !mutedForMemory)
             transportLayer.addInterestOps(SelectionKey.OP_READ);
         muted = false;
     }
 
+    void muteForMemory() {
+        if (!disconnected)
+            transportLayer.removeInterestOps(SelectionKey.OP_READ);
+        mutedForMemory = true;
+    }
+
+    void unmuteForMemory() {
+        if (!disconnected && !muted)
+            transportLayer.addInterestOps(SelectionKey.OP_READ);
+        mutedForMemory = false;
+    }
+
+    /**
+     * Returns true if the size of the current receive has been read, but the memory pool could not allocate a buffer
+     * for its content yet.
+     */
+    public boolean isWaitingForMemory() {
+        return receive != null && receive.waitingForMemory();
+    }
+
     /**
      * Returns true if this channel has been explicitly muted using {@link KafkaChannel#mute()}
      */
@@ -161,7 +199,7 @@ public class KafkaChannel {
         NetworkReceive result = null;
 
         if (receive == null) {
-            receive = new NetworkReceive(maxReceiveSize, id);
+            receive = new NetworkReceive(maxReceiveSize, id, memoryPool);
         }
 
         receive(receive);
@@ -20,29 +20,39 @@ import org.apache.kafka.common.KafkaException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.GatheringByteChannel;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
- * A set of composite sends, sent one after another
+ * A set of composite sends, sent one after another. The buffers of consecutive {@link GatheringSend}s are written
+ * with a single gathering write, up to {@link #MAX_GATHERED_BYTES} bytes.
  */
 
 public class MultiSend implements Send {
 
     private static final Logger log = LoggerFactory.getLogger(MultiSend.class);
 
+    // bounds the heap buffers copied to temporary direct buffers by a gathering write, which may write much less
+    static final int MAX_GATHERED_BYTES = 256 * 1024;
+    // well below the IOV_MAX limit of the number of buffers written by a single writev call
+    static final int MAX_GATHERED_BUFFERS = 128;
+
     private final String dest;
-    private final Iterator<Send> sendsIterator;
+    private final List<Send> sends;
     private final long size;
+    private final List<ByteBuffer> gatheredBuffers = new ArrayList<>();
 
     private long totalWritten = 0;
+    private int currentIndex = -1;
     private Send current;
 
     public MultiSend(String dest, List<Send> sends) {
         this.dest = dest;
-        this.sendsIterator = sends.iterator();
+        this.sends = sends;
         nextSendOrDone();
         long size = 0;
         for (Send send : sends)
@@ -73,10 +83,15 @@ public class MultiSend implements Send {
         int totalWrittenPerCall = 0;
         boolean sendComplete;
         do {
-            long written = current.writeTo(channel);
-            totalWrittenPerCall += written;
-            sendComplete = current.completed();
-            if (sendComplete)
+            int gatheredSends = gatherBuffers();
+            if (gatheredSends > 1) {
+                totalWrittenPerCall += writeGathered(channel, gatheredSends);
+                sendComplete = sends.get(currentIndex + gatheredSends - 1).completed();
+            } else {
+                totalWrittenPerCall += current.writeTo(channel);
+                sendComplete = current.completed();
+            }
+            while (current != null && current.completed())
                 nextSendOrDone();
         } while (!completed() && sendComplete);
 
@@ -91,9 +106,44 @@ public class MultiSend implements Send {
         return totalWrittenPerCall;
     }
 
+    /**
+     * Collect the remaining buffers of the consecutive gathering sends starting with the current send.
+     * @return The number of sends whose buffers were collected
+     */
+    private int gatherBuffers() {
+        gatheredBuffers.clear();
+        long gatheredBytes = 0;
+        int gatheredSends = 0;
+        for (int i = currentIndex; i < sends.size() && gatheredBytes < MAX_GATHERED_BYTES; i++) {
+            Send send = sends.get(i);
+            if (!(send instanceof GatheringSend))
+                break;
+            ByteBuffer[] buffers = ((GatheringSend) send).remainingBuffers();
+            if (buffers == null || gatheredBuffers.size() + buffers.length > MAX_GATHERED_BUFFERS)
+                break;
+            for (ByteBuffer buffer : buffers) {
+                gatheredBuffers.add(buffer);
+                gatheredBytes += buffer.remaining();
+            }
+            gatheredSends++;
+        }
+        return gatheredSends;
+    }
+
+    private long writeGathered(GatheringByteChannel channel, int gatheredSends) throws IOException {
+        long written = channel.write(gatheredBuffers.toArray(new ByteBuffer[gatheredBuffers.size()]));
+        if (written < 0)
+            throw new EOFException("Wrote negative bytes to channel. This shouldn't happen.");
+        long unassigned = written;
+        for (int i = currentIndex; i < currentIndex + gatheredSends; i++)
+            unassigned -= ((GatheringSend) sends.get(i)).buffersWritten(channel, unassigned);
+        return written;
+    }
+
     private void nextSendOrDone() {
-        if (sendsIterator.hasNext())
-            current = sendsIterator.next();
+        currentIndex++;
+        if (currentIndex < sends.size())
+            current = sends.get(currentIndex);
         else
             current = null;
     }
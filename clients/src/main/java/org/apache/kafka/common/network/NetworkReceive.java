@@ -16,6 +16,8 @@
  */
 package org.apache.kafka.common.network;
 
+import org.apache.kafka.common.memory.MemoryPool;
+
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -33,6 +35,8 @@ public class NetworkReceive implements Receive {
     private final String source;
     private final ByteBuffer size;
     private final int maxSize;
+    private final MemoryPool memoryPool;
+    private int requestedBufferSize = -1;
     private ByteBuffer buffer;
 
 
@@ -41,20 +45,23 @@ public class NetworkReceive implements Receive {
         this.buffer = buffer;
         this.size = null;
         this.maxSize = UNLIMITED;
+        this.memoryPool = MemoryPool.NONE;
     }
 
     public NetworkReceive(String source) {
-        this.source = source;
-        this.size = ByteBuffer.allocate(4);
-        this.buffer = null;
-        this.maxSize = UNLIMITED;
+        this(UNLIMITED, source);
     }
 
     public NetworkReceive(int maxSize, String source) {
+        this(maxSize, source, MemoryPool.NONE);
+    }
+
+    public NetworkReceive(int maxSize, String source, MemoryPool memoryPool) {
         this.source = source;
         this.size = ByteBuffer.allocate(4);
         this.buffer = null;
         this.maxSize = maxSize;
+        this.memoryPool = memoryPool;
     }
 
     public NetworkReceive() {
@@ -68,7 +75,7 @@ public class NetworkReceive implements Receive {
 
     @Override
     public boolean complete() {
-        return !size.hasRemaining() && !buffer.hasRemaining();
+        return !size.hasRemaining() && buffer != null && !buffer.hasRemaining();
     }
 
     public long readFrom(ScatteringByteChannel channel) throws IOException {
@@ -93,10 +100,12 @@ public class NetworkReceive implements Receive {
                     throw new InvalidReceiveException("Invalid receive (size = " + receiveSize + ")");
                 if (maxSize != UNLIMITED && receiveSize > maxSize)
                     throw new InvalidReceiveException("Invalid receive (size = " + receiveSize + " larger than " + maxSize + ")");
-
-                this.buffer = ByteBuffer.allocate(receiveSize);
+                requestedBufferSize = receiveSize;
             }
         }
+        // the allocation is retried by the next read if the pool is out of memory
+        if (buffer == null && requestedBufferSize != -1)
+            buffer = memoryPool.tryAllocate(requestedBufferSize);
         if (buffer != null) {
             int bytesRead = channel.read(buffer);
             if (bytesRead < 0)
@@ -107,8 +116,33 @@ public class NetworkReceive implements Receive {
         return read;
     }
 
+    /**
+     * Returns true if the size of this receive has been read, but no buffer could be allocated for the content
+     * because the memory pool is out of memory.
+     */
+    public boolean waitingForMemory() {
+        return requestedBufferSize != -1 && buffer == null;
+    }
+
+    /**
+     * Returns the buffer of a receive which will not be completed to the memory pool it was allocated from.
+     */
+    public void close() {
+        if (buffer != null && requestedBufferSize != -1) {
+            memoryPool.release(buffer);
+            buffer = null;
+        }
+    }
+
     public ByteBuffer payload() {
         return this.buffer;
     }
 
+    /**
+     * Returns the pool the payload was allocated from, to which it must be released once it is no longer used.
+     */
+    public MemoryPool memoryPool() {
+        return memoryPool;
+    }
+
 }
@@ -32,12 +32,14 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.memory.MemoryPool;
 import org.apache.kafka.common.metrics.Measurable;
 import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.MetricName;
@@ -78,6 +80,10 @@ import org.slf4j.LoggerFactory;
  * The nioSelector maintains several lists that are reset by each call to <code>poll()</code> which are available via
  * various getters. These are reset by each call to <code>poll()</code>.
  *
+ * The buffers of receives are allocated from a {@link MemoryPool}. While the pool is out of memory, connections which
+ * need a buffer for their next receive are muted, and they are read again once memory is available. The payloads
+ * of completed receives must be released to the pool by the user of the nioSelector.
+ *
  * This class is not thread safe!
  */
 public class Selector implements Selectable, AutoCloseable {
@@ -101,6 +107,8 @@ public class Selector implements Selectable, AutoCloseable {
     private final int maxReceiveSize;
     private final boolean recordTimePerConnection;
     private final IdleExpiryManager idleExpiryManager;
+    private final MemoryPool memoryPool;
+    private final Set<KafkaChannel> memoryMutedChannels;
 
     /**
      * Create a new nioSelector
@@ -112,7 +120,9 @@ public class Selector implements Selectable, AutoCloseable {
      * @param metricGrpPrefix Prefix for the group of metrics registered by Selector
      * @param metricTags Additional tags to add to metrics registered by Selector
      * @param metricsPerConnection Whether or not to enable per-connection metrics
+     * @param recordTimePerConnection Whether or not to record the network thread time of every connection
      * @param channelBuilder Channel builder for every new connection
+     * @param memoryPool Memory pool the buffers of receives are allocated from
      */
     public Selector(int maxReceiveSize,
                     long connectionMaxIdleMs,
@@ -122,7 +132,8 @@ public class Selector implements Selectable, AutoCloseable {
                     Map<String, String> metricTags,
                     boolean metricsPerConnection,
                     boolean recordTimePerConnection,
-                    ChannelBuilder channelBuilder) {
+                    ChannelBuilder channelBuilder,
+                    MemoryPool memoryPool) {
         try {
             this.nioSelector = java.nio.channels.Selector.open();
         } catch (IOException e) {
@@ -143,6 +154,21 @@ public class Selector implements Selectable, AutoCloseable {
         this.channelBuilder = channelBuilder;
         this.recordTimePerConnection = recordTimePerConnection;
         this.idleExpiryManager = connectionMaxIdleMs < 0 ? null : new IdleExpiryManager(time, connectionMaxIdleMs);
+        this.memoryPool = memoryPool;
+        this.memoryMutedChannels = new LinkedHashSet<>();
+    }
+
+    public Selector(int maxReceiveSize,
+                    long connectionMaxIdleMs,
+                    Metrics metrics,
+                    Time time,
+                    String metricGrpPrefix,
+                    Map<String, String> metricTags,
+                    boolean metricsPerConnection,
+                    boolean recordTimePerConnection,
+                    ChannelBuilder channelBuilder) {
+        this(maxReceiveSize, connectionMaxIdleMs, metrics, time, metricGrpPrefix, metricTags, metricsPerConnection,
+                recordTimePerConnection, channelBuilder, MemoryPool.NONE);
     }
 
     public Selector(int maxReceiveSize,
@@ -200,7 +226,7 @@ public class Selector implements Selectable, AutoCloseable {
         SelectionKey key = socketChannel.register(nioSelector, SelectionKey.OP_CONNECT);
         KafkaChannel channel;
         try {
-            channel = channelBuilder.buildChannel(id, key, maxReceiveSize);
+            channel = channelBuilder.buildChannel(id, key, maxReceiveSize, memoryPool);
         } catch (Exception e) {
             try {
                 socketChannel.close();
@@ -227,7 +253,7 @@ public class Selector implements Selectable, AutoCloseable {
      */
     public void register(String id, SocketChannel socketChannel) throws ClosedChannelException {
         SelectionKey key = socketChannel.register(nioSelector, SelectionKey.OP_READ);
-        KafkaChannel channel = channelBuilder.buildChannel(id, key, maxReceiveSize);
+        KafkaChannel channel = channelBuilder.buildChannel(id, key, maxReceiveSize, memoryPool);
         key.attach(channel);
         this.channels.put(id, channel);
     }
@@ -321,7 +347,7 @@ public class Selector implements Selectable, AutoCloseable {
 
         clear();
 
-        if (hasStagedReceives() || !immediatelyConnectedKeys.isEmpty())
+        if (hasStagedReceives() || !immediatelyConnectedKeys.isEmpty() || canReadMemoryMutedChannels())
             timeout = 0;
 
         /* check ready keys */
@@ -334,6 +360,8 @@ public class Selector implements Selectable, AutoCloseable {
             pollSelectionKeys(this.nioSelector.selectedKeys(), false, endSelect);
             pollSelectionKeys(immediatelyConnectedKeys, true, endSelect);
         }
+        if (canReadMemoryMutedChannels())
+            readMemoryMutedChannels(endSelect);
 
         long endIo = time.nanoseconds();
         this.sensors.ioTime.record(endIo - endSelect, time.milliseconds());
@@ -385,11 +413,8 @@ public class Selector implements Selectable, AutoCloseable {
                     channel.prepare();
 
                 /* if channel is ready read from any connections that have readable data */
-                if (channel.ready() && key.isReadable() && !hasStagedReceive(channel)) {
-                    NetworkReceive networkReceive;
-                    while ((networkReceive = channel.read()) != null)
-                        addToStagedReceives(channel, networkReceive);
-                }
+                if (channel.ready() && key.isReadable() && !hasStagedReceive(channel))
+                    attemptRead(channel);
 
                 /* if channel is ready write to any sockets that have space in their buffer and for which we have data */
                 if (channel.ready() && key.isWritable()) {
@@ -423,6 +448,57 @@ public class Selector implements Selectable, AutoCloseable {
         }
     }
 
+    private void attemptRead(KafkaChannel channel) throws IOException {
+        NetworkReceive networkReceive;
+        while ((networkReceive = channel.read()) != null)
+            addToStagedReceives(channel, networkReceive);
+        if (channel.isWaitingForMemory()) {
+            log.trace("Muting connection {} until memory is available for its next receive", channel.id());
+            channel.muteForMemory();
+            memoryMutedChannels.add(channel);
+        }
+    }
+
+    private boolean canReadMemoryMutedChannels() {
+        return !memoryMutedChannels.isEmpty() && !memoryPool.isOutOfMemory();
+    }
+
+    /**
+     * Read the connections which were muted because the memory pool was out of memory, in the order in which they
+     * were muted, until the pool runs out of memory again. They are read directly rather than after the next select
+     * since the transport layer may have buffered the rest of their receives. A connection is unmuted once the buffer
+     * of its receive has been allocated.
+     */
+    private void readMemoryMutedChannels(long currentTimeNanos) {
+        Iterator<KafkaChannel> iterator = memoryMutedChannels.iterator();
+        while (iterator.hasNext() && !memoryPool.isOutOfMemory()) {
+            KafkaChannel channel = iterator.next();
+            if (hasStagedReceive(channel))
+                continue;
+            if (idleExpiryManager != null)
+                idleExpiryManager.update(channel.id(), currentTimeNanos);
+            try {
+                NetworkReceive networkReceive;
+                while ((networkReceive = channel.read()) != null)
+                    addToStagedReceives(channel, networkReceive);
+            } catch (Exception e) {
+                iterator.remove();
+                String desc = channel.socketDescription();
+                if (e instanceof IOException)
+                    log.debug("Connection with {} disconnected", desc, e);
+                else
+                    log.warn("Unexpected error from {}; closing connection", desc, e);
+                close(channel, true, true);
+                continue;
+            }
+            // a channel which is still waiting keeps its place in the queue
+            if (!channel.isWaitingForMemory()) {
+                iterator.remove();
+                channel.unmuteForMemory();
+            }
+        }
+    }
+
     // Record time spent in pollSelectionKeys for channel (moved into a method to keep checkstyle happy)
     private void maybeRecordTimePerConnection(KafkaChannel channel, long startTimeNanos) {
         if (recordTimePerConnection)
@@ -599,6 +675,8 @@ public class Selector implements Selectable, AutoCloseable {
             doClose(channel, notifyDisconnect);
         this.channels.remove(channel.id());
 
+        memoryMutedChannels.remove(channel);
+
         if (idleExpiryManager != null)
             idleExpiryManager.remove(channel.id());
     }
@@ -610,7 +688,12 @@ public class Selector implements Selectable, AutoCloseable {
             log.error("Exception closing connection to node {}:", channel.id(), e);
         }
         this.sensors.connectionClosed.record();
-        this.stagedReceives.remove(channel);
+        Deque<NetworkReceive> deque = this.stagedReceives.remove(channel);
+        // release the buffers of the receives which will never be completed
+        if (deque != null) {
+            for (NetworkReceive receive : deque)
+                receive.close();
+        }
         if (notifyDisconnect)
             this.disconnected.put(channel.id(), channel.state());
     }
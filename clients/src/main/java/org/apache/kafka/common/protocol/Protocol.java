@@ -238,8 +238,17 @@ public class Protocol {
                                                                 newThrottleTimeField());
     public static final Schema PRODUCE_RESPONSE_V3 = PRODUCE_RESPONSE_V2;
 
-    public static final Schema[] PRODUCE_REQUEST = {PRODUCE_REQUEST_V0, PRODUCE_REQUEST_V1, PRODUCE_REQUEST_V2, PRODUCE_REQUEST_V3};
-    public static final Schema[] PRODUCE_RESPONSE = {PRODUCE_RESPONSE_V0, PRODUCE_RESPONSE_V1, PRODUCE_RESPONSE_V2, PRODUCE_RESPONSE_V3};
+    /**
+     * The body of PRODUCE_REQUEST_V4 is the same as PRODUCE_REQUEST_V3.
+     * The version number is bumped up to indicate that the client supports zstd compression. Older versions may not
+     * contain zstd compressed batches.
+     */
+    public static final Schema PRODUCE_REQUEST_V4 = PRODUCE_REQUEST_V3;
+
+    public static final Schema PRODUCE_RESPONSE_V4 = PRODUCE_RESPONSE_V3;
+
+    public static final Schema[] PRODUCE_REQUEST = {PRODUCE_REQUEST_V0, PRODUCE_REQUEST_V1, PRODUCE_REQUEST_V2, PRODUCE_REQUEST_V3, PRODUCE_REQUEST_V4};
+    public static final Schema[] PRODUCE_RESPONSE = {PRODUCE_RESPONSE_V0, PRODUCE_RESPONSE_V1, PRODUCE_RESPONSE_V2, PRODUCE_RESPONSE_V3, PRODUCE_RESPONSE_V4};
 
     /* Offset commit api */
     public static final Schema OFFSET_COMMIT_REQUEST_PARTITION_V0 = new Schema(new Field("partition",
@@ -666,6 +675,93 @@ public class Protocol {
                     new ArrayOf(FETCH_REQUEST_TOPIC_V5),
                     "Topics to fetch in the order provided."));
 
+    public static final Schema FETCH_REQUEST_FORGOTTEN_TOPIC_V6 = new Schema(
+            new Field("topic", STRING, "Topic to remove from the fetch session."),
+            new Field("partitions", new ArrayOf(INT32), "Partitions to remove from the fetch session."));
+
+    // FETCH_REQUEST_V6 added incremental fetch sessions. A fetch of an existing session only lists the partitions
+    // which were added to the session or whose fetch offset, log start offset or maximum bytes changed.
+    public static final Schema FETCH_REQUEST_V6 = new Schema(
+            new Field("replica_id",
+                    INT32,
+                    "Broker id of the follower. For normal consumers, use -1."),
+            new Field("max_wait_time",
+                    INT32,
+                    "Maximum time in ms to wait for the response."),
+            new Field("min_bytes",
+                    INT32,
+                    "Minimum bytes to accumulate in the response."),
+            new Field("max_bytes",
+                    INT32,
+                    "Maximum bytes to accumulate in the response. Note that this is not an absolute maximum, " +
+                    "if the first message in the first non-empty partition of the fetch is larger than this " +
+                    "value, the message will still be returned to ensure that progress can be made."),
+            new Field("isolation_level",
+                    INT8,
+                    "This setting controls the visibility of transactional records. Using READ_UNCOMMITTED " +
+                    "(isolation_level = 0) makes all records visible. With READ_COMMITTED (isolation_level = 1), " +
+                     "non-transactional and COMMITTED transactional records are visible. To be more concrete, " +
+                     "READ_COMMITTED returns all data from offsets smaller than the current LSO (last stable offset), " +
+                     "and enables the inclusion of the list of aborted transactions in the result, which allows " +
+                     "consumers to discard ABORTED transactional records"),
+            new Field("session_id",
+                    INT32,
+                    "The fetch session ID, 0 if the fetch is not part of a session."),
+            new Field("epoch",
+                    INT32,
+                    "The epoch of the fetch in its session. 0 creates a new session (closing the given one, if " +
+                    "any) and -1 closes the given session without creating a new one. Both fetch all the listed " +
+                    "partitions, while the fetches with a positive epoch are incremental."),
+            new Field("topics",
+                    new ArrayOf(FETCH_REQUEST_TOPIC_V5),
+                    "Topics to fetch in the order provided."),
+            new Field("forgotten_topics_data",
+                    new ArrayOf(FETCH_REQUEST_FORGOTTEN_TOPIC_V6),
+                    "Topics to remove from the fetch session."));
+
+    // FETCH_REQUEST_V7 added the rack of the consumer. Consumers using it may be directed by the leader to fetch from
+    // an in-sync follower, which serves the records up to its high watermark.
+    public static final Schema FETCH_REQUEST_V7 = new Schema(
+            new Field("replica_id",
+                    INT32,
+                    "Broker id of the follower. For normal consumers, use -1."),
+            new Field("max_wait_time",
+                    INT32,
+                    "Maximum time in ms to wait for the response."),
+            new Field("min_bytes",
+                    INT32,
+                    "Minimum bytes to accumulate in the response."),
+            new Field("max_bytes",
+                    INT32,
+                    "Maximum bytes to accumulate in the response. Note that this is not an absolute maximum, " +
+                    "if the first message in the first non-empty partition of the fetch is larger than this " +
+                    "value, the message will still be returned to ensure that progress can be made."),
+            new Field("isolation_level",
+                    INT8,
+                    "This setting controls the visibility of transactional records. Using READ_UNCOMMITTED " +
+                    "(isolation_level = 0) makes all records visible. With READ_COMMITTED (isolation_level = 1), " +
+                     "non-transactional and COMMITTED transactional records are visible. To be more concrete, " +
+                     "READ_COMMITTED returns all data from offsets smaller than the current LSO (last stable offset), " +
+                     "and enables the inclusion of the list of aborted transactions in the result, which allows " +
+                     "consumers to discard ABORTED transactional records"),
+            new Field("session_id",
+                    INT32,
+                    "The fetch session ID, 0 if the fetch is not part of a session."),
+            new Field("epoch",
+                    INT32,
+                    "The epoch of the fetch in its session. 0 creates a new session (closing the given one, if " +
+                    "any) and -1 closes the given session without creating a new one. Both fetch all the listed " +
+                    "partitions, while the fetches with a positive epoch are incremental."),
+            new Field("topics",
+                    new ArrayOf(FETCH_REQUEST_TOPIC_V5),
+                    "Topics to fetch in the order provided."),
+            new Field("forgotten_topics_data",
+                    new ArrayOf(FETCH_REQUEST_FORGOTTEN_TOPIC_V6),
+                    "Topics to remove from the fetch session."),
+            new Field("rack_id",
+                    STRING,
+                    "The rack of the consumer, or an empty string if it is unknown. Ignored for followers."));
+
     public static final Schema FETCH_RESPONSE_PARTITION_HEADER_V0 = new Schema(new Field("partition",
                                                                                          INT32,
                                                                                          "Topic partition id."),
@@ -735,6 +831,29 @@ public class Protocol {
             new Field("aborted_transactions",
                     ArrayOf.nullable(FETCH_RESPONSE_ABORTED_TRANSACTION_V5)));
 
+    // FETCH_RESPONSE_PARTITION_HEADER_V7 added the preferred read replica of the consumer
+    public static final Schema FETCH_RESPONSE_PARTITION_HEADER_V7 = new Schema(
+            new Field("partition",
+                    INT32,
+                    "Topic partition id."),
+            new Field("error_code", INT16),
+            new Field("high_watermark",
+                    INT64,
+                    "Last committed offset."),
+            new Field("last_stable_offset",
+                    INT64,
+                    "The last stable offset (or LSO) of the partition. This is the last offset such that the state " +
+                    "of all transactional records prior to this offset have been decided (ABORTED or COMMITTED)"),
+            new Field("log_start_offset",
+                    INT64,
+                    "Earliest available offset."),
+            new Field("aborted_transactions",
+                    ArrayOf.nullable(FETCH_RESPONSE_ABORTED_TRANSACTION_V5)),
+            new Field("preferred_read_replica",
+                    INT32,
+                    "The broker id of the replica the consumer should fetch the partition from, or -1 to keep " +
+                    "fetching from this broker. No records are returned if it is set."));
+
     public static final Schema FETCH_RESPONSE_PARTITION_V4 = new Schema(
             new Field("partition_header", FETCH_RESPONSE_PARTITION_HEADER_V4),
             new Field("record_set", RECORDS));
@@ -743,6 +862,10 @@ public class Protocol {
             new Field("partition_header", FETCH_RESPONSE_PARTITION_HEADER_V5),
             new Field("record_set", RECORDS));
 
+    public static final Schema FETCH_RESPONSE_PARTITION_V7 = new Schema(
+            new Field("partition_header", FETCH_RESPONSE_PARTITION_HEADER_V7),
+            new Field("record_set", RECORDS));
+
     public static final Schema FETCH_RESPONSE_TOPIC_V4 = new Schema(
             new Field("topic", STRING),
             new Field("partition_responses", new ArrayOf(FETCH_RESPONSE_PARTITION_V4)));
@@ -751,6 +874,10 @@ public class Protocol {
             new Field("topic", STRING),
             new Field("partition_responses", new ArrayOf(FETCH_RESPONSE_PARTITION_V5)));
 
+    public static final Schema FETCH_RESPONSE_TOPIC_V7 = new Schema(
+            new Field("topic", STRING),
+            new Field("partition_responses", new ArrayOf(FETCH_RESPONSE_PARTITION_V7)));
+
     public static final Schema FETCH_RESPONSE_V4 = new Schema(
             newThrottleTimeField(),
             new Field("responses", new ArrayOf(FETCH_RESPONSE_TOPIC_V4)));
@@ -759,8 +886,28 @@ public class Protocol {
             newThrottleTimeField(),
             new Field("responses", new ArrayOf(FETCH_RESPONSE_TOPIC_V5)));
 
-    public static final Schema[] FETCH_REQUEST = {FETCH_REQUEST_V0, FETCH_REQUEST_V1, FETCH_REQUEST_V2, FETCH_REQUEST_V3, FETCH_REQUEST_V4, FETCH_REQUEST_V5};
-    public static final Schema[] FETCH_RESPONSE = {FETCH_RESPONSE_V0, FETCH_RESPONSE_V1, FETCH_RESPONSE_V2, FETCH_RESPONSE_V3, FETCH_RESPONSE_V4, FETCH_RESPONSE_V5};
+    // The v6 Fetch Response adds the top level error code and the fetch session ID. The response to an incremental
+    // fetch only includes the partitions with records, an error or a changed offset.
+    public static final Schema FETCH_RESPONSE_V6 = new Schema(
+            newThrottleTimeField(),
+            new Field("error_code", INT16),
+            new Field("session_id", INT32, "The fetch session ID, or 0 if this is not part of a fetch session."),
+            new Field("responses", new ArrayOf(FETCH_RESPONSE_TOPIC_V5)));
+
+    // The v7 Fetch Response adds the preferred read replica of each partition.
+    public static final Schema FETCH_RESPONSE_V7 = new Schema(
+            newThrottleTimeField(),
+            new Field("error_code", INT16),
+            new Field("session_id", INT32, "The fetch session ID, or 0 if this is not part of a fetch session."),
+            new Field("responses", new ArrayOf(FETCH_RESPONSE_TOPIC_V7)));
+
+    // FETCH_REQUEST_V8 is the same as FETCH_REQUEST_V7. The version number is bumped up to indicate that the client
+    // supports zstd compression, zstd compressed batches are not returned to fetchers using v4 to v7.
+    public static final Schema FETCH_REQUEST_V8 = FETCH_REQUEST_V7;
+    public static final Schema FETCH_RESPONSE_V8 = FETCH_RESPONSE_V7;
+
+    public static final Schema[] FETCH_REQUEST = {FETCH_REQUEST_V0, FETCH_REQUEST_V1, FETCH_REQUEST_V2, FETCH_REQUEST_V3, FETCH_REQUEST_V4, FETCH_REQUEST_V5, FETCH_REQUEST_V6, FETCH_REQUEST_V7, FETCH_REQUEST_V8};
+    public static final Schema[] FETCH_RESPONSE = {FETCH_RESPONSE_V0, FETCH_RESPONSE_V1, FETCH_RESPONSE_V2, FETCH_RESPONSE_V3, FETCH_RESPONSE_V4, FETCH_RESPONSE_V5, FETCH_RESPONSE_V6, FETCH_RESPONSE_V7, FETCH_RESPONSE_V8};
 
     /* List groups api */
     public static final Schema LIST_GROUPS_REQUEST_V0 = new Schema();
@@ -75,7 +75,8 @@ public abstract class AbstractRecords implements Records {
                 List<Record> records = new ArrayList<>();
                 for (Record record : batch) {
                     // See the method javadoc for an explanation
-                    if (toMagic > RecordBatch.MAGIC_VALUE_V1 || batch.isCompressed() || record.offset() >= firstOffset)
+                    if (toMagic > RecordBatch.MAGIC_VALUE_V1 || downConvertedCompressionType(batch, toMagic) != CompressionType.NONE
+                            || record.offset() >= firstOffset)
                         records.add(record);
                 }
                 if (records.isEmpty())
@@ -85,7 +86,7 @@ public abstract class AbstractRecords implements Records {
                     baseOffset = batch.baseOffset();
                 else
                     baseOffset = records.get(0).offset();
-                totalSizeEstimate += estimateSizeInBytes(toMagic, baseOffset, batch.compressionType(), records);
+                totalSizeEstimate += estimateSizeInBytes(toMagic, baseOffset, downConvertedCompressionType(batch, toMagic), records);
                 recordBatchAndRecordsList.add(new RecordBatchAndRecords(batch, records, baseOffset));
             }
         }
@@ -102,6 +103,16 @@ public abstract class AbstractRecords implements Records {
         return MemoryRecords.readableRecords(buffer);
     }
 
+    /**
+     * zstd is only supported from magic v2 onwards, so clients which can only read older formats receive such batches
+     * uncompressed. All other codecs are preserved.
+     */
+    private static CompressionType downConvertedCompressionType(RecordBatch batch, byte toMagic) {
+        if (batch.compressionType() == CompressionType.ZSTD && toMagic < RecordBatch.MAGIC_VALUE_V2)
+            return CompressionType.NONE;
+        return batch.compressionType();
+    }
+
     /**
      * Return a buffer containing the converted record batches. The returned buffer may not be the same as the received
      * one (e.g. it may require expansion).
@@ -111,7 +122,7 @@ public abstract class AbstractRecords implements Records {
         final TimestampType timestampType = batch.timestampType();
         long logAppendTime = timestampType == TimestampType.LOG_APPEND_TIME ? batch.maxTimestamp() : RecordBatch.NO_TIMESTAMP;
 
-        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, magic, batch.compressionType(),
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, magic, downConvertedCompressionType(batch, magic),
                 timestampType, recordBatchAndRecords.baseOffset, logAppendTime);
         for (Record record : recordBatchAndRecords.records)
             builder.append(record);
@@ -22,12 +22,17 @@ import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.Inflater;
 
 /**
  * Simple non-threadsafe interface for caching byte buffers. This is suitable for simple cases like ensuring that
  * a given KafkaConsumer reuses the same decompression buffer when iterating over fetched records. For small record
  * batches, allocating a potentially large buffer (64 KB for LZ4) will dominate the cost of decompressing and
  * iterating over the records in the batch.
+ *
+ * Besides buffers, the supplier also provides the {@link Inflater} used to decompress GZIP data. Creating an inflater
+ * allocates native memory that is only freed by `end` or by its finalizer, so reusing it avoids both the allocation and
+ * the finalization work for every compressed batch.
  */
 public abstract class BufferSupplier implements AutoCloseable {
 
@@ -58,6 +63,21 @@ public abstract class BufferSupplier implements AutoCloseable {
      */
     public abstract void release(ByteBuffer buffer);
 
+    /**
+     * Supply an {@link Inflater} for raw deflate data (i.e. created with `nowrap`). This may return a cached inflater
+     * or create a new instance.
+     */
+    public Inflater getInflater() {
+        return new Inflater(true);
+    }
+
+    /**
+     * Return the provided inflater to be reused by a subsequent call to `getInflater`.
+     */
+    public void releaseInflater(Inflater inflater) {
+        inflater.end();
+    }
+
     /**
      * Release all resources associated with this supplier.
      */
@@ -66,6 +86,7 @@ public abstract class BufferSupplier implements AutoCloseable {
     private static class DefaultSupplier extends BufferSupplier {
         // We currently use a single block size, so optimise for that case
         private final Map<Integer, Deque<ByteBuffer>> bufferMap = new HashMap<>(1);
+        private final Deque<Inflater> inflaters = new ArrayDeque<>(1);
 
         @Override
         public ByteBuffer get(int size) {
@@ -88,9 +109,24 @@ public abstract class BufferSupplier implements AutoCloseable {
             bufferQueue.addLast(buffer);
         }
 
+        @Override
+        public Inflater getInflater() {
+            Inflater inflater = inflaters.pollFirst();
+            return inflater == null ? super.getInflater() : inflater;
+        }
+
+        @Override
+        public void releaseInflater(Inflater inflater) {
+            inflater.reset();
+            inflaters.addLast(inflater);
+        }
+
         @Override
         public void close() {
             bufferMap.clear();
+            for (Inflater inflater : inflaters)
+                inflater.end();
+            inflaters.clear();
         }
     }
 }
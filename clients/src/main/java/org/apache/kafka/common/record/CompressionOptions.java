@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import java.util.Arrays;
+
+/**
+ * Codec specific settings used when compressing record batches. Codecs that have no tunables (or for which the
+ * tunables are not exposed) ignore these options, so {@link #DEFAULT} is always a valid choice.
+ *
+ * Currently only {@link CompressionType#ZSTD} honours the level and dictionary.
+ */
+public final class CompressionOptions {
+
+    public static final int DEFAULT_ZSTD_LEVEL = 3;
+    public static final int MIN_ZSTD_LEVEL = 1;
+    public static final int MAX_ZSTD_LEVEL = 22;
+
+    public static final CompressionOptions DEFAULT = new CompressionOptions(DEFAULT_ZSTD_LEVEL, null);
+
+    private final int level;
+    private final byte[] dictionary;
+
+    private CompressionOptions(int level, byte[] dictionary) {
+        this.level = level;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Create compression options for zstd.
+     *
+     * @param level The compression level, between {@link #MIN_ZSTD_LEVEL} and {@link #MAX_ZSTD_LEVEL}
+     * @param dictionary An optional dictionary in the zstd dictionary format (as produced by `zstd --train`). The
+     *                   dictionary is registered with {@link ZstdDictionaries} so that it can be resolved when
+     *                   the batches are decompressed within the same process.
+     */
+    public static CompressionOptions zstd(int level, byte[] dictionary) {
+        if (level < MIN_ZSTD_LEVEL || level > MAX_ZSTD_LEVEL)
+            throw new IllegalArgumentException("Invalid zstd compression level " + level + ", the level must be between "
+                    + MIN_ZSTD_LEVEL + " and " + MAX_ZSTD_LEVEL);
+        if (dictionary != null)
+            ZstdDictionaries.register(dictionary);
+        return new CompressionOptions(level, dictionary);
+    }
+
+    public int level() {
+        return level;
+    }
+
+    /**
+     * The dictionary to compress with or null if no dictionary should be used.
+     */
+    public byte[] dictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        CompressionOptions that = (CompressionOptions) o;
+        return level == that.level && Arrays.equals(dictionary, that.dictionary);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = level;
+        result = 31 * result + Arrays.hashCode(dictionary);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionOptions(level=" + level +
+                ", dictionaryId=" + (dictionary == null ? "none" : ZstdDictionaries.dictionaryId(dictionary)) +
+                ')';
+    }
+}
@@ -102,7 +102,11 @@ public class CompressionRatioEstimator {
     }
 
     private static float[] initialCompressionRatio() {
-        float[] compressionRatio = new float[CompressionType.values().length];
+        // index by id rather than ordinal so that the estimation stays correct if codec ids are not contiguous
+        int maxId = 0;
+        for (CompressionType type : CompressionType.values())
+            maxId = Math.max(maxId, type.id);
+        float[] compressionRatio = new float[maxId + 1];
         for (CompressionType type : CompressionType.values()) {
             compressionRatio[type.id] = type.rate;
         }
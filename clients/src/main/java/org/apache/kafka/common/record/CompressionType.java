@@ -26,7 +26,6 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -59,7 +58,7 @@ public enum CompressionType {
         @Override
         public InputStream wrapForInput(ByteBuffer buffer, byte messageVersion, BufferSupplier decompressionBufferSupplier) {
             try {
-                return new GZIPInputStream(new ByteBufferInputStream(buffer));
+                return new KafkaGZIPInputStream(buffer, decompressionBufferSupplier);
             } catch (Exception e) {
                 throw new KafkaException(e);
             }
@@ -79,7 +78,7 @@ public enum CompressionType {
         @Override
         public InputStream wrapForInput(ByteBuffer buffer, byte messageVersion, BufferSupplier decompressionBufferSupplier) {
             try {
-                return (InputStream) SnappyConstructors.INPUT.invoke(new ByteBufferInputStream(buffer));
+                return new KafkaSnappyInputStream(buffer, decompressionBufferSupplier);
             } catch (Throwable e) {
                 throw new KafkaException(e);
             }
@@ -105,6 +104,23 @@ public enum CompressionType {
                 throw new KafkaException(e);
             }
         }
+    },
+
+    ZSTD(4, "zstd", 1.0f) {
+        @Override
+        public OutputStream wrapForOutput(ByteBufferOutputStream buffer, byte messageVersion) {
+            return wrapForOutput(buffer, messageVersion, CompressionOptions.DEFAULT);
+        }
+
+        @Override
+        public OutputStream wrapForOutput(ByteBufferOutputStream buffer, byte messageVersion, CompressionOptions options) {
+            return ZstdFactory.wrapForOutput(buffer, options);
+        }
+
+        @Override
+        public InputStream wrapForInput(ByteBuffer buffer, byte messageVersion, BufferSupplier decompressionBufferSupplier) {
+            return ZstdFactory.wrapForInput(buffer);
+        }
     };
 
     public final int id;
@@ -127,6 +143,14 @@ public enum CompressionType {
      */
     public abstract OutputStream wrapForOutput(ByteBufferOutputStream bufferStream, byte messageVersion);
 
+    /**
+     * Wrap bufferStream with an OutputStream that will compress data with this CompressionType using the
+     * given codec specific options. Codecs without tunables ignore the options.
+     */
+    public OutputStream wrapForOutput(ByteBufferOutputStream bufferStream, byte messageVersion, CompressionOptions options) {
+        return wrapForOutput(bufferStream, messageVersion);
+    }
+
     /**
      * Wrap buffer with an InputStream that will decompress data with this CompressionType.
      *
@@ -134,7 +158,8 @@ public enum CompressionType {
      *                                    For small record batches, allocating a potentially large buffer (64 KB for LZ4)
      *                                    will dominate the cost of decompressing and iterating over the records in the
      *                                    batch. As such, a supplier that reuses buffers will have a significant
-     *                                    performance impact.
+     *                                    performance impact. GZIP also takes its {@link java.util.zip.Inflater} from
+     *                                    the supplier.
      */
     public abstract InputStream wrapForInput(ByteBuffer buffer, byte messageVersion, BufferSupplier decompressionBufferSupplier);
 
@@ -148,6 +173,8 @@ public enum CompressionType {
                 return SNAPPY;
             case 3:
                 return LZ4;
+            case 4:
+                return ZSTD;
             default:
                 throw new IllegalArgumentException("Unknown compression type id: " + id);
         }
@@ -162,6 +189,8 @@ public enum CompressionType {
             return SNAPPY;
         else if (LZ4.name.equals(name))
             return LZ4;
+        else if (ZSTD.name.equals(name))
+            return ZSTD;
         else
             throw new IllegalArgumentException("Unknown compression name: " + name);
     }
@@ -169,15 +198,16 @@ public enum CompressionType {
     // We should only have a runtime dependency on compression algorithms in case the native libraries don't support
     // some platforms.
     //
-    // For Snappy, we dynamically load the classes and rely on the initialization-on-demand holder idiom to ensure
-    // they're only loaded if used.
+    // For Snappy output, we dynamically load the classes and rely on the initialization-on-demand holder idiom to
+    // ensure they're only loaded if used.
+    //
+    // For LZ4 and Snappy input we are using org.apache.kafka classes, which should always be in the classpath, and
+    // would not trigger an error until KafkaLZ4BlockInputStream or KafkaSnappyInputStream is initialized, which only
+    // happens if LZ4 or Snappy is actually used.
     //
-    // For LZ4 we are using org.apache.kafka classes, which should always be in the classpath, and would not trigger
-    // an error until KafkaLZ4BlockInputStream is initialized, which only happens if LZ4 is actually used.
+    // For ZStandard, all references to zstd-jni are kept in ZstdFactory, which is only loaded if ZSTD is actually used.
 
     private static class SnappyConstructors {
-        static final MethodHandle INPUT = findConstructor("org.xerial.snappy.SnappyInputStream",
-                MethodType.methodType(void.class, InputStream.class));
         static final MethodHandle OUTPUT = findConstructor("org.xerial.snappy.SnappyOutputStream",
                 MethodType.methodType(void.class, OutputStream.class));
     }
@@ -217,7 +217,7 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         return LOG_OVERHEAD + buffer.getInt(LENGTH_OFFSET);
     }
 
-    private int count() {
+    int count() {
         return buffer.getInt(RECORDS_COUNT_OFFSET);
     }
 
@@ -251,9 +251,17 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         return buffer.getInt(PARTITION_LEADER_EPOCH_OFFSET);
     }
 
-    private CloseableIterator<Record> compressedIterator(BufferSupplier bufferSupplier) {
-        final ByteBuffer buffer = this.buffer.duplicate();
+    /**
+     * A view of the (possibly compressed) records of this batch, starting after the batch header.
+     */
+    ByteBuffer recordsBuffer() {
+        ByteBuffer buffer = this.buffer.duplicate();
         buffer.position(RECORDS_OFFSET);
+        return buffer;
+    }
+
+    private CloseableIterator<Record> compressedIterator(BufferSupplier bufferSupplier) {
+        final ByteBuffer buffer = recordsBuffer();
         final DataInputStream inputStream = new DataInputStream(compressionType().wrapForInput(buffer, magic(),
                 bufferSupplier));
 
@@ -290,8 +298,7 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
     }
 
     private CloseableIterator<Record> uncompressedIterator() {
-        final ByteBuffer buffer = this.buffer.duplicate();
-        buffer.position(RECORDS_OFFSET);
+        final ByteBuffer buffer = recordsBuffer();
         return new RecordIterator() {
             @Override
             protected Record readNext(long baseOffset, long firstTimestamp, int baseSequence, Long logAppendTime) {
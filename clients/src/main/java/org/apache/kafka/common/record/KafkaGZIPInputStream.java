@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A GZIP (RFC 1952) input stream that reads directly from a {@link ByteBuffer}. Unlike {@link java.util.zip.GZIPInputStream},
+ * the {@link Inflater} and the decompression buffer are obtained from a {@link BufferSupplier}, so iterating over many
+ * small batches does not allocate a native inflater (and the finalizer that comes with it) per batch. Array backed
+ * input is handed to the inflater without copying.
+ *
+ * As with {@link java.util.zip.GZIPInputStream}, concatenated members are decompressed as a single stream.
+ *
+ * This class is not thread-safe.
+ */
+public final class KafkaGZIPInputStream extends InputStream {
+
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final int MAGIC = 0x8b1f;
+    private static final int DEFLATE = 8;
+    private static final int HEADER_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final ByteBuffer in;
+    private final BufferSupplier bufferSupplier;
+    private final Inflater inflater;
+    private final ByteBuffer decompressionBuffer;
+    private final CRC32 crc = new CRC32();
+    // only used if `in` is not backed by an accessible array
+    private ByteBuffer inputBuffer;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * Create a new {@link InputStream} that will decompress the GZIP data in the given buffer.
+     *
+     * @param in The byte buffer to decompress, its position is not modified
+     * @param bufferSupplier The supplier of the inflater and of the decompression buffer
+     * @throws IOException if the buffer does not start with a valid GZIP header
+     */
+    public KafkaGZIPInputStream(ByteBuffer in, BufferSupplier bufferSupplier) throws IOException {
+        this.in = in.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.bufferSupplier = bufferSupplier;
+        readHeader();
+        this.inflater = bufferSupplier.getInflater();
+        this.decompressionBuffer = bufferSupplier.get(BUFFER_SIZE);
+        if (!decompressionBuffer.hasArray())
+            throw new IllegalArgumentException("Decompression buffer must be array backed");
+        this.decompressionBuffer.limit(0);
+    }
+
+    private void readHeader() throws IOException {
+        if (in.remaining() < HEADER_SIZE)
+            throw new EOFException("Stream ended prematurely while reading GZIP header");
+        int start = in.position();
+        if ((in.getShort() & 0xffff) != MAGIC)
+            throw new ZipException("Not in GZIP format");
+        if ((in.get() & 0xff) != DEFLATE)
+            throw new ZipException("Unsupported compression method");
+        int flags = in.get() & 0xff;
+        // skip modification time, extra flags and operating system
+        skipInput(6);
+
+        if ((flags & FEXTRA) == FEXTRA) {
+            ensureInput(2);
+            skipInput(in.getShort() & 0xffff);
+        }
+        if ((flags & FNAME) == FNAME)
+            skipZeroTerminated();
+        if ((flags & FCOMMENT) == FCOMMENT)
+            skipZeroTerminated();
+        if ((flags & FHCRC) == FHCRC) {
+            crc.reset();
+            for (int i = start; i < in.position(); i++)
+                crc.update(in.get(i));
+            ensureInput(2);
+            if ((in.getShort() & 0xffff) != ((int) crc.getValue() & 0xffff))
+                throw new ZipException("Corrupt GZIP header");
+        }
+        crc.reset();
+    }
+
+    private void readTrailer() throws IOException {
+        ensureInput(TRAILER_SIZE);
+        if ((in.getInt() & 0xffffffffL) != crc.getValue())
+            throw new ZipException("Corrupt GZIP trailer");
+        // the size is stored modulo 2^32
+        if ((in.getInt() & 0xffffffffL) != (inflater.getBytesWritten() & 0xffffffffL))
+            throw new ZipException("Corrupt GZIP trailer");
+    }
+
+    private boolean hasNextMember() {
+        return in.remaining() >= HEADER_SIZE && (in.getShort(in.position()) & 0xffff) == MAGIC;
+    }
+
+    private void ensureInput(int length) throws EOFException {
+        if (in.remaining() < length)
+            throw new EOFException("Unexpected end of GZIP input stream");
+    }
+
+    private void skipInput(int length) throws EOFException {
+        ensureInput(length);
+        in.position(in.position() + length);
+    }
+
+    private void skipZeroTerminated() throws EOFException {
+        do {
+            ensureInput(1);
+        } while (in.get() != 0);
+    }
+
+    private void setInflaterInput() throws EOFException {
+        ensureInput(1);
+        if (in.hasArray()) {
+            inflater.setInput(in.array(), in.arrayOffset() + in.position(), in.remaining());
+            in.position(in.limit());
+        } else {
+            if (inputBuffer == null)
+                inputBuffer = bufferSupplier.get(BUFFER_SIZE);
+            int length = Math.min(in.remaining(), inputBuffer.capacity());
+            in.get(inputBuffer.array(), inputBuffer.arrayOffset(), length);
+            inflater.setInput(inputBuffer.array(), inputBuffer.arrayOffset(), length);
+        }
+    }
+
+    /**
+     * Decompresses the next chunk of data into the decompression buffer.
+     */
+    private void inflate() throws IOException {
+        byte[] buffer = decompressionBuffer.array();
+        int offset = decompressionBuffer.arrayOffset();
+        while (true) {
+            int inflated;
+            try {
+                inflated = inflater.inflate(buffer, offset, decompressionBuffer.capacity());
+            } catch (DataFormatException e) {
+                String message = e.getMessage();
+                throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+            }
+
+            if (inflated > 0) {
+                crc.update(buffer, offset, inflated);
+                decompressionBuffer.position(0);
+                decompressionBuffer.limit(inflated);
+                return;
+            }
+
+            if (inflater.finished()) {
+                // give back the input that was passed to the inflater, but belongs to the trailer
+                in.position(in.position() - inflater.getRemaining());
+                readTrailer();
+                if (!hasNextMember()) {
+                    finished = true;
+                    return;
+                }
+                inflater.reset();
+                readHeader();
+            } else if (inflater.needsDictionary()) {
+                throw new ZipException("Inflater requires a preset dictionary");
+            } else if (inflater.needsInput()) {
+                setInflaterInput();
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (available() == 0) {
+            if (finished)
+                return -1;
+            inflate();
+            if (finished)
+                return -1;
+        }
+        return decompressionBuffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (available() == 0) {
+            if (finished)
+                return -1;
+            inflate();
+            if (finished)
+                return -1;
+        }
+        len = Math.min(len, available());
+        decompressionBuffer.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0)
+            return 0;
+        if (available() == 0) {
+            if (finished)
+                return 0;
+            inflate();
+            if (finished)
+                return 0;
+        }
+        int skipped = (int) Math.min(n, available());
+        decompressionBuffer.position(decompressionBuffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return decompressionBuffer.remaining();
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        bufferSupplier.releaseInflater(inflater);
+        bufferSupplier.release(decompressionBuffer);
+        if (inputBuffer != null)
+            bufferSupplier.release(inputBuffer);
+    }
+
+    @Override
+    public void mark(int readlimit) {
+        throw new RuntimeException("mark not supported");
+    }
+
+    @Override
+    public void reset() {
+        throw new RuntimeException("reset not supported");
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
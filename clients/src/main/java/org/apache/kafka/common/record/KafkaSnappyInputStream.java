@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the block stream written by snappy-java's {@code SnappyOutputStream} directly from a {@link ByteBuffer}. The
+ * buffers for the decompressed blocks are obtained from a {@link BufferSupplier} and array backed input is
+ * decompressed in place, whereas {@code SnappyInputStream} allocates both the compressed and decompressed block
+ * buffers for every stream.
+ *
+ * The stream format is a 16 byte header (magic and version) followed by blocks, each prefixed by its compressed
+ * length. As with {@code SnappyInputStream}, input without the header is decompressed as a single raw block.
+ *
+ * This class is not thread-safe.
+ */
+public final class KafkaSnappyInputStream extends InputStream {
+
+    // the default block size of SnappyOutputStream
+    static final int MIN_BUFFER_SIZE = 32 * 1024;
+
+    private static final byte[] MAGIC = new byte[] {(byte) 0x82, 'S', 'N', 'A', 'P', 'P', 'Y', 0};
+    // magic followed by the version and the minimum compatible version
+    private static final int HEADER_SIZE = MAGIC.length + 8;
+
+    private final ByteBuffer in;
+    private final BufferSupplier bufferSupplier;
+    private ByteBuffer decompressionBuffer;
+    // only used if `in` is not backed by an accessible array
+    private ByteBuffer inputBuffer;
+    private boolean closed;
+
+    /**
+     * Create a new {@link InputStream} that will decompress the Snappy data in the given buffer.
+     *
+     * @param in The byte buffer to decompress, its position is not modified
+     * @param bufferSupplier The supplier of the decompression buffers
+     * @throws IOException if the raw data (if the header is missing) cannot be decompressed
+     */
+    public KafkaSnappyInputStream(ByteBuffer in, BufferSupplier bufferSupplier) throws IOException {
+        this.in = in.duplicate();
+        this.bufferSupplier = bufferSupplier;
+        if (hasHeader())
+            this.in.position(this.in.position() + HEADER_SIZE);
+        else if (this.in.hasRemaining())
+            decompress(this.in.remaining());
+    }
+
+    private boolean hasHeader() {
+        if (in.remaining() < HEADER_SIZE)
+            return false;
+        int position = in.position();
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (in.get(position + i) != MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decompresses the next block into the decompression buffer.
+     *
+     * @return false if the end of the stream has been reached
+     */
+    private boolean readBlock() throws IOException {
+        while (in.hasRemaining()) {
+            // streams written by separate output streams may have been concatenated
+            if (hasHeader()) {
+                in.position(in.position() + HEADER_SIZE);
+                continue;
+            }
+            if (in.remaining() < 4)
+                throw new EOFException("Stream ended prematurely while reading Snappy block length");
+            int blockSize = in.getInt();
+            if (blockSize < 0)
+                throw new IOException("Invalid Snappy block length " + blockSize);
+            if (blockSize > in.remaining())
+                throw new EOFException("Stream ended prematurely while reading Snappy block");
+            decompress(blockSize);
+            if (available() > 0)
+                return true;
+        }
+        return false;
+    }
+
+    private void decompress(int length) throws IOException {
+        byte[] input;
+        int inputOffset;
+        if (in.hasArray()) {
+            input = in.array();
+            inputOffset = in.arrayOffset() + in.position();
+            in.position(in.position() + length);
+        } else {
+            inputBuffer = ensureCapacity(inputBuffer, length);
+            input = inputBuffer.array();
+            inputOffset = inputBuffer.arrayOffset();
+            in.get(input, inputOffset, length);
+        }
+
+        int uncompressedLength = Snappy.uncompressedLength(input, inputOffset, length);
+        decompressionBuffer = ensureCapacity(decompressionBuffer, uncompressedLength);
+        int uncompressed = Snappy.uncompress(input, inputOffset, length, decompressionBuffer.array(),
+                decompressionBuffer.arrayOffset());
+        decompressionBuffer.position(0);
+        decompressionBuffer.limit(uncompressed);
+    }
+
+    private ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (buffer != null) {
+            if (buffer.capacity() >= capacity) {
+                buffer.clear();
+                return buffer;
+            }
+            bufferSupplier.release(buffer);
+        }
+        ByteBuffer newBuffer = bufferSupplier.get(Math.max(capacity, MIN_BUFFER_SIZE));
+        if (!newBuffer.hasArray())
+            throw new IllegalArgumentException("Decompression buffer must be array backed");
+        return newBuffer;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (available() == 0 && !readBlock())
+            return -1;
+        return decompressionBuffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (available() == 0 && !readBlock())
+            return -1;
+        len = Math.min(len, available());
+        decompressionBuffer.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || (available() == 0 && !readBlock()))
+            return 0;
+        int skipped = (int) Math.min(n, available());
+        decompressionBuffer.position(decompressionBuffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return decompressionBuffer == null ? 0 : decompressionBuffer.remaining();
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (decompressionBuffer != null)
+            bufferSupplier.release(decompressionBuffer);
+        if (inputBuffer != null)
+            bufferSupplier.release(inputBuffer);
+    }
+
+    @Override
+    public void mark(int readlimit) {
+        throw new RuntimeException("mark not supported");
+    }
+
+    @Override
+    public void reset() {
+        throw new RuntimeException("reset not supported");
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
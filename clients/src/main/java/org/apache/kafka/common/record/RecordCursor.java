@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.utils.ByteUtils;
+import org.apache.kafka.common.utils.CloseableIterator;
+import org.apache.kafka.common.utils.Utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * A flyweight cursor over the records of a {@link DefaultRecordBatch} (magic v2 and above). Unlike the batch
+ * iterators, which create a {@link DefaultRecord} and slices of the key, value and headers for every record, the
+ * cursor parses each record in place and is itself the {@link Record} returned by {@link #next()}:
+ *
+ * <pre>
+ * RecordCursor cursor = new RecordCursor(bufferSupplier);
+ * for (RecordBatch batch : records.batches()) {
+ *     cursor.reset(batch);
+ *     while (cursor.hasNext()) {
+ *         Record record = cursor.next(); // the cursor itself
+ *         ...
+ *     }
+ * }
+ * cursor.close();
+ * </pre>
+ *
+ * The buffers returned by {@link #key()} and {@link #value()} are views that are reused and only remain valid until
+ * the cursor is advanced. They must be copied if they are needed afterwards. Compressed batches are decompressed as a
+ * whole into a buffer obtained from the {@link BufferSupplier} that is reused for the next batch, so header values
+ * (which are materialized on demand) are copied for compressed batches.
+ *
+ * This class is not thread-safe.
+ */
+public final class RecordCursor implements Record, CloseableIterator<Record> {
+
+    private static final int MIN_DECOMPRESSION_BUFFER_SIZE = 64 * 1024;
+
+    private final BufferSupplier bufferSupplier;
+    private ByteBuffer decompressionBuffer;
+
+    // state of the current batch
+    private ByteBuffer buffer;
+    private ByteBuffer keyView;
+    private ByteBuffer valueView;
+    private boolean compressed;
+    private long baseOffset;
+    private long firstTimestamp;
+    private int baseSequence;
+    private boolean logAppendTime;
+    private long maxTimestamp;
+    private int numRecords;
+    private int readRecords;
+
+    // state of the current record
+    private int sizeInBytes;
+    private long timestampDelta;
+    private int offsetDelta;
+    private int keySize;
+    private int keyPosition;
+    private int valueSize;
+    private int valuePosition;
+    private int numHeaders;
+    private int headersPosition;
+
+    public RecordCursor(BufferSupplier bufferSupplier) {
+        this.bufferSupplier = bufferSupplier;
+    }
+
+    /**
+     * Check whether the cursor can read the records of the given batch.
+     */
+    public static boolean canRead(RecordBatch batch) {
+        return batch instanceof DefaultRecordBatch;
+    }
+
+    /**
+     * Position the cursor before the first record of the given batch. Compressed batches are decompressed by this
+     * call.
+     *
+     * @return this cursor
+     * @throws IllegalArgumentException if the batch cannot be read by a cursor (see {@link #canRead(RecordBatch)})
+     */
+    public RecordCursor reset(RecordBatch batch) {
+        if (!canRead(batch))
+            throw new IllegalArgumentException("Record cursors only support in memory batches with magic v2 or " +
+                    "above, but got " + batch.getClass().getSimpleName() + " with magic " + batch.magic());
+
+        DefaultRecordBatch defaultBatch = (DefaultRecordBatch) batch;
+        int numRecords = defaultBatch.count();
+        if (numRecords < 0)
+            throw new InvalidRecordException("Found invalid record count " + numRecords + " in magic v" +
+                    defaultBatch.magic() + " batch");
+
+        this.compressed = defaultBatch.isCompressed();
+        ByteBuffer records = compressed ? decompress(defaultBatch) : defaultBatch.recordsBuffer();
+        if (records != this.buffer) {
+            this.buffer = records;
+            this.keyView = records.duplicate();
+            this.valueView = records.duplicate();
+        }
+        this.baseOffset = defaultBatch.baseOffset();
+        this.firstTimestamp = defaultBatch.firstTimestamp();
+        this.baseSequence = defaultBatch.baseSequence();
+        this.logAppendTime = defaultBatch.timestampType() == TimestampType.LOG_APPEND_TIME;
+        this.maxTimestamp = defaultBatch.maxTimestamp();
+        this.numRecords = numRecords;
+        this.readRecords = 0;
+        return this;
+    }
+
+    private ByteBuffer decompress(DefaultRecordBatch batch) {
+        if (decompressionBuffer == null)
+            decompressionBuffer = bufferSupplier.get(MIN_DECOMPRESSION_BUFFER_SIZE);
+        decompressionBuffer.clear();
+
+        try (InputStream in = batch.compressionType().wrapForInput(batch.recordsBuffer(), batch.magic(), bufferSupplier)) {
+            while (true) {
+                if (!decompressionBuffer.hasRemaining())
+                    growDecompressionBuffer();
+                int read = in.read(decompressionBuffer.array(),
+                        decompressionBuffer.arrayOffset() + decompressionBuffer.position(), decompressionBuffer.remaining());
+                if (read < 0)
+                    break;
+                decompressionBuffer.position(decompressionBuffer.position() + read);
+            }
+        } catch (IOException e) {
+            throw new KafkaException("Failed to decompress record stream", e);
+        }
+
+        decompressionBuffer.flip();
+        return decompressionBuffer;
+    }
+
+    private void growDecompressionBuffer() {
+        ByteBuffer newBuffer = bufferSupplier.get(decompressionBuffer.capacity() * 2);
+        decompressionBuffer.flip();
+        newBuffer.put(decompressionBuffer);
+        bufferSupplier.release(decompressionBuffer);
+        decompressionBuffer = newBuffer;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return buffer != null && readRecords < numRecords;
+    }
+
+    /**
+     * Advance the cursor to the next record.
+     *
+     * @return this cursor, positioned on the next record
+     */
+    @Override
+    public Record next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        readRecords++;
+        readRecord();
+        // Validate that the actual size of the batch is equal to declared size by checking that after reading
+        // declared number of items, there no items left
+        if (readRecords == numRecords && buffer.hasRemaining())
+            throw new InvalidRecordException("Incorrect declared batch size, records still remaining in file");
+        return this;
+    }
+
+    private void readRecord() {
+        try {
+            int sizeOfBodyInBytes = ByteUtils.readVarint(buffer);
+            if (buffer.remaining() < sizeOfBodyInBytes)
+                throw new InvalidRecordException("Incorrect declared batch size, premature EOF reached");
+
+            int recordStart = buffer.position();
+            sizeInBytes = ByteUtils.sizeOfVarint(sizeOfBodyInBytes) + sizeOfBodyInBytes;
+            // attributes are currently unused
+            buffer.get();
+            timestampDelta = ByteUtils.readVarlong(buffer);
+            offsetDelta = ByteUtils.readVarint(buffer);
+
+            keySize = ByteUtils.readVarint(buffer);
+            keyPosition = buffer.position();
+            if (keySize > 0)
+                buffer.position(keyPosition + keySize);
+
+            valueSize = ByteUtils.readVarint(buffer);
+            valuePosition = buffer.position();
+            if (valueSize > 0)
+                buffer.position(valuePosition + valueSize);
+
+            numHeaders = ByteUtils.readVarint(buffer);
+            if (numHeaders < 0)
+                throw new InvalidRecordException("Found invalid number of record headers " + numHeaders);
+            headersPosition = buffer.position();
+            for (int i = 0; i < numHeaders; i++) {
+                int headerKeySize = ByteUtils.readVarint(buffer);
+                if (headerKeySize < 0)
+                    throw new InvalidRecordException("Invalid negative header key size " + headerKeySize);
+                buffer.position(buffer.position() + headerKeySize);
+                int headerValueSize = ByteUtils.readVarint(buffer);
+                if (headerValueSize > 0)
+                    buffer.position(buffer.position() + headerValueSize);
+            }
+
+            // validate whether we have read all header bytes in the current record
+            if (buffer.position() - recordStart != sizeOfBodyInBytes)
+                throw new InvalidRecordException("Invalid record size: expected to read " + sizeOfBodyInBytes +
+                        " bytes in record payload, but instead read " + (buffer.position() - recordStart));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new InvalidRecordException("Found invalid record structure", e);
+        }
+    }
+
+    private static ByteBuffer view(ByteBuffer view, int position, int size) {
+        view.clear();
+        view.position(position);
+        view.limit(position + size);
+        return view;
+    }
+
+    /**
+     * The offset delta of the current record relative to the base offset of the batch.
+     */
+    public int offsetDelta() {
+        return offsetDelta;
+    }
+
+    /**
+     * The timestamp delta of the current record relative to the first timestamp of the batch.
+     */
+    public long timestampDelta() {
+        return timestampDelta;
+    }
+
+    @Override
+    public long offset() {
+        return baseOffset + offsetDelta;
+    }
+
+    @Override
+    public int sequence() {
+        return baseSequence >= 0 ? DefaultRecordBatch.incrementSequence(baseSequence, offsetDelta) : RecordBatch.NO_SEQUENCE;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    @Override
+    public long timestamp() {
+        return logAppendTime ? maxTimestamp : firstTimestamp + timestampDelta;
+    }
+
+    @Override
+    public Long checksumOrNull() {
+        return null;
+    }
+
+    @Override
+    public boolean isValid() {
+        // new versions of the message format (2 and above) do not contain an individual record checksum;
+        // instead they are validated with the checksum at the log entry level
+        return true;
+    }
+
+    @Override
+    public void ensureValid() {}
+
+    @Override
+    public int keySize() {
+        return keySize;
+    }
+
+    @Override
+    public boolean hasKey() {
+        return keySize >= 0;
+    }
+
+    /**
+     * A view of the key of the current record, which is only valid until the cursor is advanced.
+     */
+    @Override
+    public ByteBuffer key() {
+        return keySize < 0 ? null : view(keyView, keyPosition, keySize);
+    }
+
+    @Override
+    public int valueSize() {
+        return valueSize;
+    }
+
+    @Override
+    public boolean hasValue() {
+        return valueSize >= 0;
+    }
+
+    /**
+     * A view of the value of the current record, which is only valid until the cursor is advanced.
+     */
+    @Override
+    public ByteBuffer value() {
+        return valueSize < 0 ? null : view(valueView, valuePosition, valueSize);
+    }
+
+    @Override
+    public boolean hasMagic(byte magic) {
+        return magic >= RecordBatch.MAGIC_VALUE_V2;
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return false;
+    }
+
+    @Override
+    public boolean hasTimestampType(TimestampType timestampType) {
+        return false;
+    }
+
+    /**
+     * The number of headers of the current record, which does not require the headers to be materialized.
+     */
+    public int headerCount() {
+        return numHeaders;
+    }
+
+    /**
+     * Materialize the headers of the current record. Unlike the key and value, the returned headers remain valid
+     * after the cursor is advanced.
+     */
+    @Override
+    public Header[] headers() {
+        if (numHeaders == 0)
+            return Record.EMPTY_HEADERS;
+
+        ByteBuffer headersBuffer = buffer.duplicate();
+        headersBuffer.position(headersPosition);
+        Header[] headers = new Header[numHeaders];
+        for (int i = 0; i < numHeaders; i++) {
+            int headerKeySize = ByteUtils.readVarint(headersBuffer);
+            String headerKey = Utils.utf8(headersBuffer, headerKeySize);
+            headersBuffer.position(headersBuffer.position() + headerKeySize);
+
+            ByteBuffer headerValue = null;
+            int headerValueSize = ByteUtils.readVarint(headersBuffer);
+            if (headerValueSize >= 0) {
+                headerValue = headersBuffer.slice();
+                headerValue.limit(headerValueSize);
+                // the decompression buffer is reused for the next batch
+                if (compressed)
+                    headerValue = ByteBuffer.wrap(Utils.toArray(headerValue));
+                headersBuffer.position(headersBuffer.position() + headerValueSize);
+            }
+            headers[i] = new RecordHeader(headerKey, headerValue);
+        }
+        return headers;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Release the decompression buffer. The cursor may be reset and used again after it was closed.
+     */
+    @Override
+    public void close() {
+        buffer = null;
+        keyView = null;
+        valueView = null;
+        if (decompressionBuffer != null) {
+            bufferSupplier.release(decompressionBuffer);
+            decompressionBuffer = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RecordCursor(offset=%d, timestamp=%d, key=%d bytes, value=%d bytes)",
+                offset(), timestamp(), keySize, valueSize);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.KafkaException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A process wide registry of zstd dictionaries keyed by dictionary id.
+ *
+ * zstd frames record the id of the dictionary they were compressed with, but not the dictionary itself. Every
+ * process that decompresses such a frame (producers splitting batches, brokers validating or down-converting and
+ * consumers) must therefore have the dictionary registered before the first batch using it is read.
+ */
+public final class ZstdDictionaries {
+
+    private static final int DICTIONARY_MAGIC = 0xEC30A437;
+    private static final int FRAME_MAGIC = 0xFD2FB528;
+
+    private static final ConcurrentMap<Long, byte[]> DICTIONARIES = new ConcurrentHashMap<>();
+
+    private ZstdDictionaries() {}
+
+    /**
+     * Register a dictionary so that it can be resolved by id when decompressing.
+     *
+     * @return the id of the registered dictionary
+     * @throws IllegalArgumentException if the dictionary is not in the zstd dictionary format or if a different
+     *         dictionary has already been registered with the same id
+     */
+    public static long register(byte[] dictionary) {
+        long id = dictionaryId(dictionary);
+        byte[] existing = DICTIONARIES.putIfAbsent(id, dictionary);
+        if (existing != null && existing != dictionary && !ByteBuffer.wrap(existing).equals(ByteBuffer.wrap(dictionary)))
+            throw new IllegalArgumentException("A different zstd dictionary with id " + id + " has already been registered");
+        return id;
+    }
+
+    /**
+     * Read the dictionaries at the given paths and register them.
+     */
+    public static void registerAll(List<String> paths) {
+        for (String path : paths)
+            register(load(path));
+    }
+
+    /**
+     * Read a dictionary from the file system.
+     */
+    public static byte[] load(String path) {
+        try {
+            return Files.readAllBytes(Paths.get(path));
+        } catch (IOException e) {
+            throw new KafkaException("Failed to read zstd dictionary from " + path, e);
+        }
+    }
+
+    /**
+     * Get a previously registered dictionary or null if there is no dictionary with the given id.
+     */
+    public static byte[] get(long id) {
+        return DICTIONARIES.get(id);
+    }
+
+    /**
+     * Remove a dictionary from the registry. This method is for unit test purpose.
+     */
+    public static void unregister(long id) {
+        DICTIONARIES.remove(id);
+    }
+
+    /**
+     * Get the id stored in the header of a dictionary.
+     */
+    public static long dictionaryId(byte[] dictionary) {
+        ByteBuffer buffer = ByteBuffer.wrap(dictionary).order(ByteOrder.LITTLE_ENDIAN);
+        if (dictionary.length < 8 || buffer.getInt(0) != DICTIONARY_MAGIC)
+            throw new IllegalArgumentException("Invalid zstd dictionary, only dictionaries with a zstd dictionary header " +
+                    "(such as those created by `zstd --train`) are supported");
+        return buffer.getInt(4) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Get the dictionary id from the header of the zstd frame starting at the current position of the buffer. This
+     * method does not change the position of the buffer.
+     *
+     * @return the dictionary id or 0 if the frame was compressed without a dictionary (or did not record its id)
+     */
+    static long frameDictionaryId(ByteBuffer buffer) {
+        ByteBuffer frame = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int position = frame.position();
+        if (frame.remaining() < 5 || frame.getInt(position) != FRAME_MAGIC)
+            return 0;
+
+        byte descriptor = frame.get(position + 4);
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        int idFieldOffset = position + 5 + (singleSegment ? 0 : 1);
+        switch (descriptor & 0x03) {
+            case 1:
+                return frame.remaining() < idFieldOffset - position + 1 ? 0 : frame.get(idFieldOffset) & 0xFFL;
+            case 2:
+                return frame.remaining() < idFieldOffset - position + 2 ? 0 : frame.getShort(idFieldOffset) & 0xFFFFL;
+            case 3:
+                return frame.remaining() < idFieldOffset - position + 4 ? 0 : frame.getInt(idFieldOffset) & 0xFFFFFFFFL;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.utils.ByteBufferInputStream;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The only class referencing zstd-jni, so that the native library is only loaded if zstd is actually used.
+ */
+final class ZstdFactory {
+
+    // zstd-jni crosses the JNI boundary on every call, so we buffer the small writes and reads done by the record
+    // builders and iterators. 16 KB matches the block size used by zstd for small inputs.
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private ZstdFactory() {}
+
+    static OutputStream wrapForOutput(ByteBufferOutputStream buffer, CompressionOptions options) {
+        try {
+            ZstdOutputStream out = new ZstdOutputStream(buffer, options.level());
+            if (options.dictionary() != null)
+                out.setDict(options.dictionary());
+            return new BufferedOutputStream(out, BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new KafkaException(e);
+        }
+    }
+
+    static InputStream wrapForInput(ByteBuffer buffer) {
+        long dictionaryId = ZstdDictionaries.frameDictionaryId(buffer);
+        try {
+            ZstdInputStream in = new ZstdInputStream(new ByteBufferInputStream(buffer));
+            if (dictionaryId != 0) {
+                byte[] dictionary = ZstdDictionaries.get(dictionaryId);
+                if (dictionary == null)
+                    throw new KafkaException("Record batch was compressed with zstd dictionary " + dictionaryId +
+                            ", but no dictionary with this id has been registered");
+                in.setDict(dictionary);
+            }
+            return new BufferedInputStream(in, BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new KafkaException(e);
+        }
+    }
+}
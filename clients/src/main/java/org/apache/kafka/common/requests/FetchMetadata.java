@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.requests;
+
+/**
+ * The fetch session ID and epoch of a fetch request, see {@link FetchRequest}.
+ */
+public final class FetchMetadata {
+    /**
+     * The session ID of fetches which are not part of a session.
+     */
+    public static final int INVALID_SESSION_ID = 0;
+
+    /**
+     * The epoch of a fetch which creates a new session, closing the given session if there is one.
+     */
+    public static final int INITIAL_EPOCH = 0;
+
+    /**
+     * The epoch of a fetch which closes the given session, if there is one, and does not create a new session.
+     */
+    public static final int FINAL_EPOCH = -1;
+
+    /**
+     * The metadata of a full fetch request which creates a new session.
+     */
+    public static final FetchMetadata INITIAL = new FetchMetadata(INVALID_SESSION_ID, INITIAL_EPOCH);
+
+    /**
+     * The metadata of fetch requests which do not use sessions, which is also used for requests before version 6.
+     */
+    public static final FetchMetadata LEGACY = new FetchMetadata(INVALID_SESSION_ID, FINAL_EPOCH);
+
+    private final int sessionId;
+    private final int epoch;
+
+    public FetchMetadata(int sessionId, int epoch) {
+        this.sessionId = sessionId;
+        this.epoch = epoch;
+    }
+
+    public int sessionId() {
+        return sessionId;
+    }
+
+    public int epoch() {
+        return epoch;
+    }
+
+    /**
+     * Whether the fetch lists all the partitions to fetch, rather than the changes to its session.
+     */
+    public boolean isFull() {
+        return epoch == INITIAL_EPOCH || epoch == FINAL_EPOCH;
+    }
+
+    /**
+     * The metadata of the first incremental fetch of a newly created session.
+     */
+    public static FetchMetadata newIncremental(int sessionId) {
+        return new FetchMetadata(sessionId, nextEpoch(INITIAL_EPOCH));
+    }
+
+    /**
+     * The metadata of the next incremental fetch of this session.
+     */
+    public FetchMetadata nextIncremental() {
+        return new FetchMetadata(sessionId, nextEpoch(epoch));
+    }
+
+    /**
+     * The metadata of a full fetch which replaces this session with a new one.
+     */
+    public FetchMetadata nextCloseExisting() {
+        return new FetchMetadata(sessionId, INITIAL_EPOCH);
+    }
+
+    /**
+     * The epoch which follows the given epoch, skipping the epochs of full fetches when it wraps around.
+     */
+    public static int nextEpoch(int epoch) {
+        if (epoch < 0)
+            return FINAL_EPOCH;
+        return epoch == Integer.MAX_VALUE ? 1 : epoch + 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        FetchMetadata that = (FetchMetadata) o;
+        return sessionId == that.sessionId && epoch == that.epoch;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * sessionId + epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "(sessionId=" + sessionId + ", epoch=" + epoch + ")";
+    }
+}
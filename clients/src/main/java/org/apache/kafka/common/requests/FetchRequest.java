@@ -17,6 +17,7 @@
 package org.apache.kafka.common.requests;
 
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.UnsupportedVersionException;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.protocol.types.Struct;
@@ -24,6 +25,7 @@ import org.apache.kafka.common.record.MemoryRecords;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +37,10 @@ public class FetchRequest extends AbstractRequest {
     private static final String MIN_BYTES_KEY_NAME = "min_bytes";
     private static final String ISOLATION_LEVEL_KEY_NAME = "isolation_level";
     private static final String TOPICS_KEY_NAME = "topics";
+    private static final String SESSION_ID_KEY_NAME = "session_id";
+    private static final String EPOCH_KEY_NAME = "epoch";
+    private static final String FORGOTTEN_TOPICS_DATA_KEY_NAME = "forgotten_topics_data";
+    private static final String RACK_ID_KEY_NAME = "rack_id";
 
     // request and partition level name
     private static final String MAX_BYTES_KEY_NAME = "max_bytes";
@@ -58,6 +64,9 @@ public class FetchRequest extends AbstractRequest {
     private final int maxBytes;
     private final IsolationLevel isolationLevel;
     private final LinkedHashMap<TopicPartition, PartitionData> fetchData;
+    private final FetchMetadata metadata;
+    private final List<TopicPartition> toForget;
+    private final String rackId;
 
     public static final class PartitionData {
         public final long fetchOffset;
@@ -70,6 +79,23 @@ public class FetchRequest extends AbstractRequest {
             this.maxBytes = maxBytes;
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            PartitionData that = (PartitionData) o;
+            return fetchOffset == that.fetchOffset && logStartOffset == that.logStartOffset && maxBytes == that.maxBytes;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (fetchOffset ^ (fetchOffset >>> 32));
+            result = 31 * result + (int) (logStartOffset ^ (logStartOffset >>> 32));
+            return 31 * result + maxBytes;
+        }
+
         @Override
         public String toString() {
             return "(offset=" + fetchOffset + ", logStartOffset=" + logStartOffset + ", maxBytes=" + maxBytes + ")";
@@ -106,6 +132,9 @@ public class FetchRequest extends AbstractRequest {
         private final LinkedHashMap<TopicPartition, PartitionData> fetchData;
         private final IsolationLevel isolationLevel;
         private int maxBytes = DEFAULT_RESPONSE_MAX_BYTES;
+        private FetchMetadata metadata = FetchMetadata.LEGACY;
+        private List<TopicPartition> toForget = Collections.emptyList();
+        private String rackId = "";
 
         public static Builder forConsumer(int maxWait, int minBytes, LinkedHashMap<TopicPartition, PartitionData> fetchData) {
             return new Builder(null, CONSUMER_REPLICA_ID, maxWait, minBytes, fetchData, IsolationLevel.READ_UNCOMMITTED);
@@ -134,18 +163,66 @@ public class FetchRequest extends AbstractRequest {
             return this.fetchData;
         }
 
+        public int maxBytes() {
+            return maxBytes;
+        }
+
         public Builder setMaxBytes(int maxBytes) {
             this.maxBytes = maxBytes;
             return this;
         }
 
+        public FetchMetadata metadata() {
+            return metadata;
+        }
+
+        /**
+         * Set the fetch session of the request. If the fetch is incremental, the fetch data only contains the
+         * partitions which were added to the session or changed.
+         */
+        public Builder metadata(FetchMetadata metadata) {
+            this.metadata = metadata;
+            return this;
+        }
+
+        public List<TopicPartition> toForget() {
+            return toForget;
+        }
+
+        /**
+         * Set the partitions to remove from the fetch session.
+         */
+        public Builder toForget(List<TopicPartition> toForget) {
+            this.toForget = toForget;
+            return this;
+        }
+
+        public String rackId() {
+            return rackId;
+        }
+
+        /**
+         * Set the rack of the consumer, which lets the leader direct it to a replica in the same rack.
+         */
+        public Builder rackId(String rackId) {
+            this.rackId = rackId;
+            return this;
+        }
+
         @Override
         public FetchRequest build(short version) {
             if (version < 3) {
                 maxBytes = DEFAULT_RESPONSE_MAX_BYTES;
             }
-
-            return new FetchRequest(version, replicaId, maxWait, minBytes, maxBytes, fetchData, isolationLevel);
+            if (version < 6 && !metadata.isFull())
+                throw new UnsupportedVersionException("Incremental fetch requests require version 6, but the " +
+                        "broker only supports version " + version);
+            if (version < 6)
+                return new FetchRequest(version, replicaId, maxWait, minBytes, maxBytes, fetchData, isolationLevel,
+                        FetchMetadata.LEGACY, Collections.<TopicPartition>emptyList(), "");
+
+            return new FetchRequest(version, replicaId, maxWait, minBytes, maxBytes, fetchData, isolationLevel,
+                    metadata, toForget, version < 7 ? "" : rackId);
         }
 
         @Override
@@ -157,13 +234,17 @@ public class FetchRequest extends AbstractRequest {
                     append(", minBytes=").append(minBytes).
                     append(", maxBytes=").append(maxBytes).
                     append(", fetchData=").append(fetchData).
+                    append(", metadata=").append(metadata).
+                    append(", toForget=").append(toForget).
+                    append(", rackId=").append(rackId).
                     append(")");
             return bld.toString();
         }
     }
 
     private FetchRequest(short version, int replicaId, int maxWait, int minBytes, int maxBytes,
-                         LinkedHashMap<TopicPartition, PartitionData> fetchData, IsolationLevel isolationLevel) {
+                         LinkedHashMap<TopicPartition, PartitionData> fetchData, IsolationLevel isolationLevel,
+                         FetchMetadata metadata, List<TopicPartition> toForget, String rackId) {
         super(version);
         this.replicaId = replicaId;
         this.maxWait = maxWait;
@@ -171,6 +252,9 @@ public class FetchRequest extends AbstractRequest {
         this.maxBytes = maxBytes;
         this.fetchData = fetchData;
         this.isolationLevel = isolationLevel;
+        this.metadata = metadata;
+        this.toForget = toForget;
+        this.rackId = rackId;
     }
 
     public FetchRequest(Struct struct, short version) {
@@ -203,6 +287,20 @@ public class FetchRequest extends AbstractRequest {
                 fetchData.put(new TopicPartition(topic, partition), partitionData);
             }
         }
+
+        toForget = new ArrayList<>();
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            metadata = new FetchMetadata(struct.getInt(SESSION_ID_KEY_NAME), struct.getInt(EPOCH_KEY_NAME));
+            for (Object forgottenTopicObj : struct.getArray(FORGOTTEN_TOPICS_DATA_KEY_NAME)) {
+                Struct forgottenTopic = (Struct) forgottenTopicObj;
+                String topic = forgottenTopic.getString(TOPIC_KEY_NAME);
+                for (Object partition : forgottenTopic.getArray(PARTITIONS_KEY_NAME))
+                    toForget.add(new TopicPartition(topic, (Integer) partition));
+            }
+        } else {
+            metadata = FetchMetadata.LEGACY;
+        }
+        rackId = struct.hasField(RACK_ID_KEY_NAME) ? struct.getString(RACK_ID_KEY_NAME) : "";
     }
 
     @Override
@@ -215,7 +313,7 @@ public class FetchRequest extends AbstractRequest {
                 null, MemoryRecords.EMPTY);
             responseData.put(entry.getKey(), partitionResponse);
         }
-        return new FetchResponse(responseData, throttleTimeMs);
+        return new FetchResponse(Errors.forException(e), responseData, throttleTimeMs, FetchMetadata.INVALID_SESSION_ID);
     }
 
     public int replicaId() {
@@ -246,6 +344,24 @@ public class FetchRequest extends AbstractRequest {
         return isolationLevel;
     }
 
+    public FetchMetadata metadata() {
+        return metadata;
+    }
+
+    /**
+     * The partitions to remove from the fetch session.
+     */
+    public List<TopicPartition> toForget() {
+        return toForget;
+    }
+
+    /**
+     * The rack of the consumer, or an empty string if it is unknown.
+     */
+    public String rackId() {
+        return rackId;
+    }
+
     public static FetchRequest parse(ByteBuffer buffer, short version) {
         return new FetchRequest(ApiKeys.FETCH.parseRequest(version, buffer), version);
     }
@@ -282,6 +398,30 @@ public class FetchRequest extends AbstractRequest {
             topicArray.add(topicData);
         }
         struct.set(TOPICS_KEY_NAME, topicArray.toArray());
+
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            struct.set(SESSION_ID_KEY_NAME, metadata.sessionId());
+            struct.set(EPOCH_KEY_NAME, metadata.epoch());
+            Map<String, List<Integer>> forgottenTopics = new LinkedHashMap<>();
+            for (TopicPartition tp : toForget) {
+                List<Integer> partitions = forgottenTopics.get(tp.topic());
+                if (partitions == null) {
+                    partitions = new ArrayList<>();
+                    forgottenTopics.put(tp.topic(), partitions);
+                }
+                partitions.add(tp.partition());
+            }
+            List<Struct> forgottenTopicArray = new ArrayList<>();
+            for (Map.Entry<String, List<Integer>> forgottenTopicEntry : forgottenTopics.entrySet()) {
+                Struct forgottenTopic = struct.instance(FORGOTTEN_TOPICS_DATA_KEY_NAME);
+                forgottenTopic.set(TOPIC_KEY_NAME, forgottenTopicEntry.getKey());
+                forgottenTopic.set(PARTITIONS_KEY_NAME, forgottenTopicEntry.getValue().toArray());
+                forgottenTopicArray.add(forgottenTopic);
+            }
+            struct.set(FORGOTTEN_TOPICS_DATA_KEY_NAME, forgottenTopicArray.toArray());
+        }
+        if (struct.hasField(RACK_ID_KEY_NAME))
+            struct.set(RACK_ID_KEY_NAME, rackId);
         return struct;
     }
 }
@@ -39,6 +39,8 @@ import java.util.Map;
 public class FetchResponse extends AbstractResponse {
 
     private static final String RESPONSES_KEY_NAME = "responses";
+    private static final String ERROR_CODE_KEY_NAME = "error_code";
+    private static final String SESSION_ID_KEY_NAME = "session_id";
 
     // topic level field names
     private static final String TOPIC_KEY_NAME = "topic";
@@ -47,11 +49,11 @@ public class FetchResponse extends AbstractResponse {
     // partition level field names
     private static final String PARTITION_HEADER_KEY_NAME = "partition_header";
     private static final String PARTITION_KEY_NAME = "partition";
-    private static final String ERROR_CODE_KEY_NAME = "error_code";
     private static final String HIGH_WATERMARK_KEY_NAME = "high_watermark";
     private static final String LAST_STABLE_OFFSET_KEY_NAME = "last_stable_offset";
     private static final String LOG_START_OFFSET_KEY_NAME = "log_start_offset";
     private static final String ABORTED_TRANSACTIONS_KEY_NAME = "aborted_transactions";
+    private static final String PREFERRED_READ_REPLICA_KEY_NAME = "preferred_read_replica";
     private static final String RECORD_SET_KEY_NAME = "record_set";
 
     // aborted transaction field names
@@ -62,6 +64,7 @@ public class FetchResponse extends AbstractResponse {
     public static final long INVALID_HIGHWATERMARK = -1L;
     public static final long INVALID_LAST_STABLE_OFFSET = -1L;
     public static final long INVALID_LOG_START_OFFSET = -1L;
+    public static final int INVALID_PREFERRED_REPLICA_ID = -1;
 
     /**
      * Possible error codes:
@@ -73,8 +76,10 @@ public class FetchResponse extends AbstractResponse {
      *  UNKNOWN (-1)
      */
 
+    private final Errors error;
     private final LinkedHashMap<TopicPartition, PartitionData> responseData;
     private final int throttleTimeMs;
+    private final int sessionId;
 
     public static final class AbortedTransaction {
         public final long producerId;
@@ -116,6 +121,7 @@ public class FetchResponse extends AbstractResponse {
         public final long lastStableOffset;
         public final long logStartOffset;
         public final List<AbortedTransaction> abortedTransactions;
+        public final int preferredReadReplica;
         public final Records records;
 
         public PartitionData(Errors error,
@@ -124,11 +130,23 @@ public class FetchResponse extends AbstractResponse {
                              long logStartOffset,
                              List<AbortedTransaction> abortedTransactions,
                              Records records) {
+            this(error, highWatermark, lastStableOffset, logStartOffset, abortedTransactions,
+                    INVALID_PREFERRED_REPLICA_ID, records);
+        }
+
+        public PartitionData(Errors error,
+                             long highWatermark,
+                             long lastStableOffset,
+                             long logStartOffset,
+                             List<AbortedTransaction> abortedTransactions,
+                             int preferredReadReplica,
+                             Records records) {
             this.error = error;
             this.highWatermark = highWatermark;
             this.lastStableOffset = lastStableOffset;
             this.logStartOffset = logStartOffset;
             this.abortedTransactions = abortedTransactions;
+            this.preferredReadReplica = preferredReadReplica;
             this.records = records;
         }
 
@@ -145,6 +163,7 @@ public class FetchResponse extends AbstractResponse {
                     highWatermark == that.highWatermark &&
                     lastStableOffset == that.lastStableOffset &&
                     logStartOffset == that.logStartOffset &&
+                    preferredReadReplica == that.preferredReadReplica &&
                     (abortedTransactions == null ? that.abortedTransactions == null : abortedTransactions.equals(that.abortedTransactions)) &&
                     (records == null ? that.records == null : records.equals(that.records));
         }
@@ -156,6 +175,7 @@ public class FetchResponse extends AbstractResponse {
             result = 31 * result + (int) (lastStableOffset ^ (lastStableOffset >>> 32));
             result = 31 * result + (int) (logStartOffset ^ (logStartOffset >>> 32));
             result = 31 * result + (abortedTransactions != null ? abortedTransactions.hashCode() : 0);
+            result = 31 * result + preferredReadReplica;
             result = 31 * result + (records != null ? records.hashCode() : 0);
             return result;
         }
@@ -167,6 +187,7 @@ public class FetchResponse extends AbstractResponse {
                     ", lastStableOffset = " + lastStableOffset +
                     ", logStartOffset = " + logStartOffset +
                     ", abortedTransactions = " + abortedTransactions +
+                    ", preferredReadReplica = " + preferredReadReplica +
                     ", recordsSizeInBytes=" + records.sizeInBytes() + ")";
         }
 
@@ -182,8 +203,24 @@ public class FetchResponse extends AbstractResponse {
      * @param throttleTimeMs Time in milliseconds the response was throttled
      */
     public FetchResponse(LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTimeMs) {
+        this(Errors.NONE, responseData, throttleTimeMs, FetchMetadata.INVALID_SESSION_ID);
+    }
+
+    /**
+     * Constructor for version 6 and above.
+     *
+     * @param error The top level error, which is set if the fetch session could not be used
+     * @param responseData fetched data grouped by topic-partition, which are only the partitions with changes if
+     *                     this is the response to an incremental fetch
+     * @param throttleTimeMs Time in milliseconds the response was throttled
+     * @param sessionId The fetch session ID, or 0 if the fetch is not part of a session
+     */
+    public FetchResponse(Errors error, LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTimeMs,
+                         int sessionId) {
+        this.error = error;
         this.responseData = responseData;
         this.throttleTimeMs = throttleTimeMs;
+        this.sessionId = sessionId;
     }
 
     public FetchResponse(Struct struct) {
@@ -203,7 +240,10 @@ public class FetchResponse extends AbstractResponse {
                 long logStartOffset = INVALID_LOG_START_OFFSET;
                 if (partitionResponseHeader.hasField(LOG_START_OFFSET_KEY_NAME))
                     logStartOffset = partitionResponseHeader.getLong(LOG_START_OFFSET_KEY_NAME);
-                
+                int preferredReadReplica = INVALID_PREFERRED_REPLICA_ID;
+                if (partitionResponseHeader.hasField(PREFERRED_READ_REPLICA_KEY_NAME))
+                    preferredReadReplica = partitionResponseHeader.getInt(PREFERRED_READ_REPLICA_KEY_NAME);
+
                 Records records = partitionResponse.getRecords(RECORD_SET_KEY_NAME);
 
                 List<AbortedTransaction> abortedTransactions = null;
@@ -221,17 +261,19 @@ public class FetchResponse extends AbstractResponse {
                 }
 
                 PartitionData partitionData = new PartitionData(error, highWatermark, lastStableOffset, logStartOffset,
-                        abortedTransactions, records);
+                        abortedTransactions, preferredReadReplica, records);
                 responseData.put(new TopicPartition(topic, partition), partitionData);
             }
         }
         this.responseData = responseData;
         this.throttleTimeMs = struct.hasField(THROTTLE_TIME_KEY_NAME) ? struct.getInt(THROTTLE_TIME_KEY_NAME) : DEFAULT_THROTTLE_TIME;
+        this.error = struct.hasField(ERROR_CODE_KEY_NAME) ? Errors.forCode(struct.getShort(ERROR_CODE_KEY_NAME)) : Errors.NONE;
+        this.sessionId = struct.hasField(SESSION_ID_KEY_NAME) ? struct.getInt(SESSION_ID_KEY_NAME) : FetchMetadata.INVALID_SESSION_ID;
     }
 
     @Override
     public Struct toStruct(short version) {
-        return toStruct(version, responseData, throttleTimeMs);
+        return toStruct(version, error, responseData, throttleTimeMs, sessionId);
     }
 
     @Override
@@ -262,6 +304,14 @@ public class FetchResponse extends AbstractResponse {
         return this.throttleTimeMs;
     }
 
+    public Errors error() {
+        return error;
+    }
+
+    public int sessionId() {
+        return sessionId;
+    }
+
     public static FetchResponse parse(ByteBuffer buffer, short version) {
         return new FetchResponse(ApiKeys.FETCH.responseSchema(version).read(buffer));
     }
@@ -269,7 +319,15 @@ public class FetchResponse extends AbstractResponse {
     private static void addResponseData(Struct struct, int throttleTimeMs, String dest, List<Send> sends) {
         Object[] allTopicData = struct.getArray(RESPONSES_KEY_NAME);
 
-        if (struct.hasField(THROTTLE_TIME_KEY_NAME)) {
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            ByteBuffer buffer = ByteBuffer.allocate(14);
+            buffer.putInt(throttleTimeMs);
+            buffer.putShort(struct.getShort(ERROR_CODE_KEY_NAME));
+            buffer.putInt(struct.getInt(SESSION_ID_KEY_NAME));
+            buffer.putInt(allTopicData.length);
+            buffer.rewind();
+            sends.add(new ByteBufferSend(dest, buffer));
+        } else if (struct.hasField(THROTTLE_TIME_KEY_NAME)) {
             ByteBuffer buffer = ByteBuffer.allocate(8);
             buffer.putInt(throttleTimeMs);
             buffer.putInt(allTopicData.length);
@@ -316,7 +374,8 @@ public class FetchResponse extends AbstractResponse {
         sends.add(new RecordsSend(dest, records));
     }
 
-    private static Struct toStruct(short version, LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTime) {
+    private static Struct toStruct(short version, Errors error, LinkedHashMap<TopicPartition, PartitionData> responseData,
+                                   int throttleTime, int sessionId) {
         Struct struct = new Struct(ApiKeys.FETCH.responseSchema(version));
         List<FetchRequest.TopicAndPartitionData<PartitionData>> topicsData = FetchRequest.TopicAndPartitionData.batchByTopic(responseData);
         List<Struct> topicArray = new ArrayList<>();
@@ -350,6 +409,8 @@ public class FetchResponse extends AbstractResponse {
                 }
                 if (partitionDataHeader.hasField(LOG_START_OFFSET_KEY_NAME))
                     partitionDataHeader.set(LOG_START_OFFSET_KEY_NAME, fetchPartitionData.logStartOffset);
+                if (partitionDataHeader.hasField(PREFERRED_READ_REPLICA_KEY_NAME))
+                    partitionDataHeader.set(PREFERRED_READ_REPLICA_KEY_NAME, fetchPartitionData.preferredReadReplica);
 
                 partitionData.set(PARTITION_HEADER_KEY_NAME, partitionDataHeader);
                 partitionData.set(RECORD_SET_KEY_NAME, fetchPartitionData.records);
@@ -362,12 +423,16 @@ public class FetchResponse extends AbstractResponse {
 
         if (struct.hasField(THROTTLE_TIME_KEY_NAME))
             struct.set(THROTTLE_TIME_KEY_NAME, throttleTime);
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            struct.set(ERROR_CODE_KEY_NAME, error.code());
+            struct.set(SESSION_ID_KEY_NAME, sessionId);
+        }
 
         return struct;
     }
 
     public static int sizeOf(short version, LinkedHashMap<TopicPartition, PartitionData> responseData) {
-        return 4 + toStruct(version, responseData, 0).sizeOf();
+        return 4 + toStruct(version, Errors.NONE, responseData, 0, FetchMetadata.INVALID_SESSION_ID).sizeOf();
     }
 
 }
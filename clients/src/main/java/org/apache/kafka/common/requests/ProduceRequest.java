@@ -21,6 +21,7 @@ import org.apache.kafka.common.errors.UnsupportedVersionException;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.protocol.types.Struct;
+import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.InvalidRecordException;
 import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.RecordBatch;
@@ -62,7 +63,7 @@ public class ProduceRequest extends AbstractRequest {
                        int timeout,
                        Map<TopicPartition, MemoryRecords> partitionRecords,
                        String transactionalId) {
-            super(ApiKeys.PRODUCE, (short) (magic == RecordBatch.MAGIC_VALUE_V2 ? 3 : 2));
+            super(ApiKeys.PRODUCE, desiredVersion(magic, partitionRecords));
             this.magic = magic;
             this.acks = acks;
             this.timeout = timeout;
@@ -77,6 +78,19 @@ public class ProduceRequest extends AbstractRequest {
             this(magic, acks, timeout, partitionRecords, null);
         }
 
+        private static short desiredVersion(byte magic, Map<TopicPartition, MemoryRecords> partitionRecords) {
+            if (magic != RecordBatch.MAGIC_VALUE_V2)
+                return 2;
+            // zstd compressed batches may only be sent to brokers supporting version 4
+            for (MemoryRecords records : partitionRecords.values()) {
+                for (RecordBatch batch : records.batches()) {
+                    if (batch.compressionType() == CompressionType.ZSTD)
+                        return 4;
+                }
+            }
+            return 3;
+        }
+
         @Override
         public ProduceRequest build(short version) {
             if (version < 2)
@@ -246,6 +260,7 @@ public class ProduceRequest extends AbstractRequest {
             case 1:
             case 2:
             case 3:
+            case 4:
                 return new ProduceResponse(responseMap, throttleTimeMs);
             default:
                 throw new IllegalArgumentException(String.format("Version %d is not valid. Valid versions for %s are 0 to %d",
@@ -307,6 +322,7 @@ public class ProduceRequest extends AbstractRequest {
                 return RecordBatch.MAGIC_VALUE_V1;
 
             case 3:
+            case 4:
                 return RecordBatch.MAGIC_VALUE_V2;
 
             default:
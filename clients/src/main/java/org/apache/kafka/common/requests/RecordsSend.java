@@ -16,8 +16,9 @@
  */
 package org.apache.kafka.common.requests;
 
-import org.apache.kafka.common.network.Send;
+import org.apache.kafka.common.network.GatheringSend;
 import org.apache.kafka.common.network.TransportLayers;
+import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.Records;
 
 import java.io.EOFException;
@@ -25,7 +26,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.GatheringByteChannel;
 
-public class RecordsSend implements Send {
+public class RecordsSend implements GatheringSend {
     private static final ByteBuffer EMPTY_BYTE_BUFFER = ByteBuffer.allocate(0);
 
     private final String destination;
@@ -67,6 +68,27 @@ public class RecordsSend implements Send {
         return written;
     }
 
+    /**
+     * Records in memory can be written along with the adjacent sends, records in a file are transferred to the
+     * channel directly.
+     */
+    @Override
+    public ByteBuffer[] remainingBuffers() {
+        if (!(records instanceof MemoryRecords))
+            return null;
+        ByteBuffer buffer = ((MemoryRecords) records).buffer();
+        buffer.position(buffer.position() + records.sizeInBytes() - remaining);
+        return new ByteBuffer[] {buffer};
+    }
+
+    @Override
+    public long buffersWritten(GatheringByteChannel channel, long written) throws IOException {
+        int sendWritten = (int) Math.min(remaining, written);
+        remaining -= sendWritten;
+        pending = TransportLayers.hasPendingWrites(channel);
+        return sendWritten;
+    }
+
     @Override
     public long size() {
         return records.sizeInBytes();
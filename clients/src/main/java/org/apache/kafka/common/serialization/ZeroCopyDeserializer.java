@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.serialization;
+
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Deserializer that reads the serialized key or value directly from the fetched data instead of from a copy.
+ *
+ * If the key or the value deserializer of a {@link org.apache.kafka.clients.consumer.KafkaConsumer} implements this
+ * interface, the consumer reads message format v2 batches with a {@link org.apache.kafka.common.record.RecordCursor},
+ * which does not allocate any objects per record besides the {@link org.apache.kafka.clients.consumer.ConsumerRecord}
+ * itself, and passes the data to {@link #deserialize(String, Headers, ByteBuffer)} without copying it to a byte array.
+ *
+ * The buffer is a view that is reused for the next record and may be backed by a decompression buffer that is reused
+ * for the next batch. Implementations must not modify its content, retain it or return an object that shares its
+ * content after the call returns. They may change its position and limit.
+ *
+ * A class that implements this interface is expected to have a constructor with no parameters.
+ * @param <T>
+ */
+public interface ZeroCopyDeserializer<T> extends ExtendedDeserializer<T> {
+
+    /**
+     * Deserialize a record value from a buffer into a value or object.
+     * @param topic topic associated with the data
+     * @param headers headers associated with the record; may be empty.
+     * @param data serialized bytes between the position and the limit of the buffer; never null, null keys and values
+     *             are not passed to the deserializer
+     * @return deserialized typed data; may be null
+     */
+    T deserialize(String topic, Headers headers, ByteBuffer data);
+}
@@ -16,6 +16,9 @@
  */
 package org.apache.kafka.common.utils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
 import java.util.zip.Checksum;
 
@@ -30,6 +33,25 @@ import java.util.zip.Checksum;
  */
 public final class Checksums {
 
+    // the size of the chunks that are copied from a direct buffer for checksums without a byte buffer method
+    private static final int COPY_CHUNK_SIZE = 4096;
+
+    // Checksum.update(ByteBuffer) is available since Java 9, java.util.zip.CRC32C implements it without copying
+    private static final MethodHandle BYTE_BUFFER_UPDATE;
+
+    static {
+        MethodHandle byteBufferUpdate = null;
+        if (Java.IS_JAVA9_COMPATIBLE) {
+            try {
+                byteBufferUpdate = MethodHandles.publicLookup().findVirtual(Checksum.class, "update",
+                        MethodType.methodType(void.class, ByteBuffer.class));
+            } catch (ReflectiveOperationException e) {
+                // Should never happen, the fallback is used then
+            }
+        }
+        BYTE_BUFFER_UPDATE = byteBufferUpdate;
+    }
+
     private Checksums() {
     }
 
@@ -40,10 +62,31 @@ public final class Checksums {
     public static void update(Checksum checksum, ByteBuffer buffer, int offset, int length) {
         if (buffer.hasArray()) {
             checksum.update(buffer.array(), buffer.position() + buffer.arrayOffset() + offset, length);
+        } else if (checksum instanceof SlicingBy16Crc32C) {
+            ((SlicingBy16Crc32C) checksum).update(buffer, buffer.position() + offset, length);
+        } else if (BYTE_BUFFER_UPDATE != null) {
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(buffer.position() + offset);
+            slice.limit(buffer.position() + offset + length);
+            try {
+                BYTE_BUFFER_UPDATE.invoke(checksum, slice);
+            } catch (Throwable throwable) {
+                // Should never happen
+                throw new RuntimeException(throwable);
+            }
         } else {
+            // updating byte by byte is much slower than copying the bytes to an array
             int start = buffer.position() + offset;
-            for (int i = start; i < start + length; i++)
-                checksum.update(buffer.get(i));
+            byte[] chunk = new byte[Math.min(length, COPY_CHUNK_SIZE)];
+            ByteBuffer source = buffer.duplicate();
+            source.position(start);
+            int remaining = length;
+            while (remaining > 0) {
+                int size = Math.min(remaining, chunk.length);
+                source.get(chunk, 0, size);
+                checksum.update(chunk, 0, size);
+                remaining -= size;
+            }
         }
     }
     
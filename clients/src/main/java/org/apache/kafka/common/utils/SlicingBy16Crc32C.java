@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * A pure-java implementation of CRC32C (Castagnoli) that processes 16 bytes per step ("slicing-by-16"), using 16
+ * lookup tables instead of the 8 of {@link PureJavaCrc32C}. The lookups of a step do not depend on each other, which
+ * lets the CPU execute more of them in parallel. Byte buffers are read 8 bytes at a time, which avoids reading direct
+ * buffers byte by byte.
+ *
+ * This is the fallback of {@link Crc32C} when java.util.zip.CRC32C (Java 9) is not available.
+ *
+ * NOTE: This class is intended for INTERNAL usage only within Kafka.
+ */
+public final class SlicingBy16Crc32C implements Checksum {
+
+    // the reversed CRC32C polynomial
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    // 16 tables of 256 entries, table k gives the CRC of a byte followed by k zero bytes
+    private static final int[] T = new int[16 * 256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++)
+                crc = (crc >>> 1) ^ (-(crc & 1) & POLYNOMIAL);
+            T[i] = crc;
+        }
+        for (int k = 1; k < 16; k++) {
+            for (int i = 0; i < 256; i++) {
+                int prev = T[(k - 1) * 256 + i];
+                T[k * 256 + i] = (prev >>> 8) ^ T[prev & 0xff];
+            }
+        }
+    }
+
+    /** the current CRC value, bit-flipped */
+    private int crc;
+
+    public SlicingBy16Crc32C() {
+        reset();
+    }
+
+    @Override
+    public long getValue() {
+        return (~crc) & 0xffffffffL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xffffffff;
+    }
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ T[(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int localCrc = crc;
+        while (len >= 16) {
+            localCrc = T[15 * 256 + ((b[off] ^ localCrc) & 0xff)]
+                    ^ T[14 * 256 + ((b[off + 1] ^ (localCrc >>> 8)) & 0xff)]
+                    ^ T[13 * 256 + ((b[off + 2] ^ (localCrc >>> 16)) & 0xff)]
+                    ^ T[12 * 256 + ((b[off + 3] ^ (localCrc >>> 24)) & 0xff)]
+                    ^ T[11 * 256 + (b[off + 4] & 0xff)] ^ T[10 * 256 + (b[off + 5] & 0xff)]
+                    ^ T[9 * 256 + (b[off + 6] & 0xff)] ^ T[8 * 256 + (b[off + 7] & 0xff)]
+                    ^ T[7 * 256 + (b[off + 8] & 0xff)] ^ T[6 * 256 + (b[off + 9] & 0xff)]
+                    ^ T[5 * 256 + (b[off + 10] & 0xff)] ^ T[4 * 256 + (b[off + 11] & 0xff)]
+                    ^ T[3 * 256 + (b[off + 12] & 0xff)] ^ T[2 * 256 + (b[off + 13] & 0xff)]
+                    ^ T[1 * 256 + (b[off + 14] & 0xff)] ^ T[b[off + 15] & 0xff];
+            off += 16;
+            len -= 16;
+        }
+        for (int end = off + len; off < end; off++)
+            localCrc = (localCrc >>> 8) ^ T[(localCrc ^ b[off]) & 0xff];
+        crc = localCrc;
+    }
+
+    /**
+     * Update the checksum with the bytes of a buffer. The position of the buffer is not changed.
+     *
+     * @param buffer The buffer with the bytes
+     * @param index The absolute index of the first byte in the buffer
+     * @param len The number of bytes
+     */
+    public void update(ByteBuffer buffer, int index, int len) {
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        int localCrc = crc;
+        while (len >= 16) {
+            long first = buffer.getLong(index);
+            long second = buffer.getLong(index + 8);
+            if (bigEndian) {
+                first = Long.reverseBytes(first);
+                second = Long.reverseBytes(second);
+            }
+            localCrc = step(localCrc ^ (int) first, (int) (first >>> 32), (int) second, (int) (second >>> 32));
+            index += 16;
+            len -= 16;
+        }
+        for (int end = index + len; index < end; index++)
+            localCrc = (localCrc >>> 8) ^ T[(localCrc ^ buffer.get(index)) & 0xff];
+        crc = localCrc;
+    }
+
+    // the CRC of 16 bytes given as little endian ints, the first already combined with the current CRC
+    private static int step(int a, int b, int c, int d) {
+        return T[15 * 256 + (a & 0xff)] ^ T[14 * 256 + ((a >>> 8) & 0xff)]
+                ^ T[13 * 256 + ((a >>> 16) & 0xff)] ^ T[12 * 256 + (a >>> 24)]
+                ^ T[11 * 256 + (b & 0xff)] ^ T[10 * 256 + ((b >>> 8) & 0xff)]
+                ^ T[9 * 256 + ((b >>> 16) & 0xff)] ^ T[8 * 256 + (b >>> 24)]
+                ^ T[7 * 256 + (c & 0xff)] ^ T[6 * 256 + ((c >>> 8) & 0xff)]
+                ^ T[5 * 256 + ((c >>> 16) & 0xff)] ^ T[4 * 256 + (c >>> 24)]
+                ^ T[3 * 256 + (d & 0xff)] ^ T[2 * 256 + ((d >>> 8) & 0xff)]
+                ^ T[1 * 256 + ((d >>> 16) & 0xff)] ^ T[d >>> 24];
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.server.log.remote;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.utils.Utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link RemoteStorageManager} which stores the segments in a directory, which may be a mount of a shared or
+ * network file system. It is meant for testing the remote tier.
+ * <p>
+ * Each segment is stored in a directory named after its base offset, in a directory per partition. The files of a
+ * segment are copied to a temporary directory first, which is then renamed, so that a segment is only listed once it
+ * has been copied completely.
+ */
+public class FileSystemRemoteStorageManager implements RemoteStorageManager {
+
+    public static final String STORAGE_DIR_CONFIG = "remote.log.storage.fs.dir";
+
+    private static final Pattern SEGMENT_DIR_PATTERN = Pattern.compile("\\d{20}");
+    private static final String LOG_FILE = "segment.log";
+    private static final String METADATA_FILE = "segment.metadata";
+    private static final String END_OFFSET = "end.offset";
+    private static final String MAX_TIMESTAMP = "max.timestamp";
+    private static final String SIZE = "size";
+
+    private File storageDir;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Object dir = configs.get(STORAGE_DIR_CONFIG);
+        if (dir == null || dir.toString().isEmpty())
+            throw new ConfigException(STORAGE_DIR_CONFIG + " must be set to use " + getClass().getSimpleName());
+        storageDir = new File(dir.toString());
+        if (!storageDir.isDirectory() && !storageDir.mkdirs())
+            throw new ConfigException(STORAGE_DIR_CONFIG, dir, "The directory could not be created");
+    }
+
+    @Override
+    public void copyLogSegment(RemoteLogSegmentMetadata metadata, LogSegmentData data) throws IOException {
+        File partitionDir = partitionDir(metadata.topicPartition());
+        Files.createDirectories(partitionDir.toPath());
+        File segmentDir = segmentDir(metadata);
+        File tmpDir = Files.createTempDirectory(partitionDir.toPath(), segmentDir.getName() + ".tmp").toFile();
+        try {
+            copy(data.logSegment(), tmpDir, LOG_FILE);
+            copy(data.offsetIndex(), tmpDir, fileName(IndexType.OFFSET));
+            copy(data.timeIndex(), tmpDir, fileName(IndexType.TIMESTAMP));
+            copy(data.txnIndex(), tmpDir, fileName(IndexType.TRANSACTION));
+            copy(data.producerSnapshot(), tmpDir, fileName(IndexType.PRODUCER_SNAPSHOT));
+
+            Properties props = new Properties();
+            props.setProperty(END_OFFSET, String.valueOf(metadata.endOffset()));
+            props.setProperty(MAX_TIMESTAMP, String.valueOf(metadata.maxTimestamp()));
+            props.setProperty(SIZE, String.valueOf(metadata.sizeInBytes()));
+            try (OutputStream out = new FileOutputStream(new File(tmpDir, METADATA_FILE))) {
+                props.store(out, null);
+            }
+
+            if (segmentDir.exists()) {
+                File replacedDir = Files.createTempDirectory(partitionDir.toPath(), segmentDir.getName() + ".deleted").toFile();
+                Files.move(segmentDir.toPath(), replacedDir.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Utils.delete(replacedDir);
+            }
+            Utils.atomicMoveWithFallback(tmpDir.toPath(), segmentDir.toPath());
+        } finally {
+            Utils.delete(tmpDir);
+        }
+    }
+
+    @Override
+    public List<RemoteLogSegmentMetadata> listRemoteLogSegments(TopicPartition topicPartition) throws IOException {
+        File[] segmentDirs = partitionDir(topicPartition).listFiles();
+        if (segmentDirs == null)
+            return Collections.emptyList();
+        List<RemoteLogSegmentMetadata> segments = new ArrayList<>(segmentDirs.length);
+        for (File segmentDir : segmentDirs) {
+            if (!SEGMENT_DIR_PATTERN.matcher(segmentDir.getName()).matches())
+                continue;
+            Properties props = new Properties();
+            try (InputStream in = new FileInputStream(new File(segmentDir, METADATA_FILE))) {
+                props.load(in);
+            } catch (FileNotFoundException e) {
+                // deleted concurrently
+                continue;
+            }
+            segments.add(new RemoteLogSegmentMetadata(topicPartition,
+                    Long.parseLong(segmentDir.getName()),
+                    Long.parseLong(props.getProperty(END_OFFSET)),
+                    Long.parseLong(props.getProperty(MAX_TIMESTAMP)),
+                    Integer.parseInt(props.getProperty(SIZE))));
+        }
+        Collections.sort(segments, new Comparator<RemoteLogSegmentMetadata>() {
+            @Override
+            public int compare(RemoteLogSegmentMetadata s1, RemoteLogSegmentMetadata s2) {
+                return Long.compare(s1.baseOffset(), s2.baseOffset());
+            }
+        });
+        return segments;
+    }
+
+    @Override
+    public ByteBuffer fetchLogSegmentData(RemoteLogSegmentMetadata metadata, int position, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(segmentDir(metadata), LOG_FILE).toPath(), StandardOpenOption.READ)) {
+            int length = (int) Math.max(0, Math.min(size, channel.size() - position));
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            Utils.readFully(channel, buffer, position);
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    @Override
+    public ByteBuffer fetchIndex(RemoteLogSegmentMetadata metadata, IndexType type) throws IOException {
+        File segmentDir = segmentDir(metadata);
+        if (!segmentDir.isDirectory())
+            throw new FileNotFoundException("Remote segment " + segmentDir + " does not exist");
+        File file = new File(segmentDir, fileName(type));
+        if (!file.exists())
+            return null;
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    }
+
+    @Override
+    public void deleteLogSegment(RemoteLogSegmentMetadata metadata) throws IOException {
+        Utils.delete(segmentDir(metadata));
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private File partitionDir(TopicPartition topicPartition) {
+        return new File(storageDir, topicPartition.topic() + "-" + topicPartition.partition());
+    }
+
+    private File segmentDir(RemoteLogSegmentMetadata metadata) {
+        return new File(partitionDir(metadata.topicPartition()), String.format("%020d", metadata.baseOffset()));
+    }
+
+    private static void copy(File source, File dir, String name) throws IOException {
+        if (source != null && source.exists())
+            Files.copy(source.toPath(), new File(dir, name).toPath());
+    }
+
+    private static String fileName(IndexType type) {
+        switch (type) {
+            case OFFSET:
+                return "segment.index";
+            case TIMESTAMP:
+                return "segment.timeindex";
+            case TRANSACTION:
+                return "segment.txnindex";
+            case PRODUCER_SNAPSHOT:
+                return "segment.snapshot";
+            default:
+                throw new IllegalArgumentException("Unknown index type " + type);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.server.log.remote;
+
+import java.io.File;
+
+/**
+ * The local files of a log segment to copy to the remote tier.
+ */
+public final class LogSegmentData {
+    private final File logSegment;
+    private final File offsetIndex;
+    private final File timeIndex;
+    private final File txnIndex;
+    private final File producerSnapshot;
+
+    /**
+     * @param logSegment The data of the segment
+     * @param offsetIndex The offset index of the segment
+     * @param timeIndex The time index of the segment
+     * @param txnIndex The transaction index of the segment, which may not exist if the segment has no aborted
+     *                 transactions
+     * @param producerSnapshot The snapshot of the producer state at the end of the segment, or null if there is none
+     */
+    public LogSegmentData(File logSegment, File offsetIndex, File timeIndex, File txnIndex, File producerSnapshot) {
+        this.logSegment = logSegment;
+        this.offsetIndex = offsetIndex;
+        this.timeIndex = timeIndex;
+        this.txnIndex = txnIndex;
+        this.producerSnapshot = producerSnapshot;
+    }
+
+    public File logSegment() {
+        return logSegment;
+    }
+
+    public File offsetIndex() {
+        return offsetIndex;
+    }
+
+    public File timeIndex() {
+        return timeIndex;
+    }
+
+    public File txnIndex() {
+        return txnIndex;
+    }
+
+    public File producerSnapshot() {
+        return producerSnapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "LogSegmentData(logSegment=" + logSegment +
+                ", offsetIndex=" + offsetIndex +
+                ", timeIndex=" + timeIndex +
+                ", txnIndex=" + txnIndex +
+                ", producerSnapshot=" + producerSnapshot +
+                ")";
+    }
+}
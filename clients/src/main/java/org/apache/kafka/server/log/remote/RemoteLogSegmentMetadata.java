@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.server.log.remote;
+
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * The metadata of a log segment which has been copied to the remote tier.
+ */
+public final class RemoteLogSegmentMetadata {
+    private final TopicPartition topicPartition;
+    private final long baseOffset;
+    private final long endOffset;
+    private final long maxTimestamp;
+    private final int sizeInBytes;
+
+    /**
+     * @param topicPartition The partition of the segment
+     * @param baseOffset The first offset of the segment
+     * @param endOffset The last offset of the segment, inclusive
+     * @param maxTimestamp The largest timestamp of the records of the segment
+     * @param sizeInBytes The size of the data of the segment
+     */
+    public RemoteLogSegmentMetadata(TopicPartition topicPartition, long baseOffset, long endOffset, long maxTimestamp,
+                                    int sizeInBytes) {
+        this.topicPartition = topicPartition;
+        this.baseOffset = baseOffset;
+        this.endOffset = endOffset;
+        this.maxTimestamp = maxTimestamp;
+        this.sizeInBytes = sizeInBytes;
+    }
+
+    public TopicPartition topicPartition() {
+        return topicPartition;
+    }
+
+    public long baseOffset() {
+        return baseOffset;
+    }
+
+    public long endOffset() {
+        return endOffset;
+    }
+
+    public long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    public int sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        RemoteLogSegmentMetadata that = (RemoteLogSegmentMetadata) o;
+        return baseOffset == that.baseOffset &&
+                endOffset == that.endOffset &&
+                maxTimestamp == that.maxTimestamp &&
+                sizeInBytes == that.sizeInBytes &&
+                topicPartition.equals(that.topicPartition);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = topicPartition.hashCode();
+        result = 31 * result + (int) (baseOffset ^ (baseOffset >>> 32));
+        result = 31 * result + (int) (endOffset ^ (endOffset >>> 32));
+        result = 31 * result + (int) (maxTimestamp ^ (maxTimestamp >>> 32));
+        result = 31 * result + sizeInBytes;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteLogSegmentMetadata(topicPartition=" + topicPartition +
+                ", baseOffset=" + baseOffset +
+                ", endOffset=" + endOffset +
+                ", maxTimestamp=" + maxTimestamp +
+                ", sizeInBytes=" + sizeInBytes +
+                ")";
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.server.log.remote;
+
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * An interface for storing the rolled log segments of partitions in a remote tier, such as an object store or a
+ * distributed file system.
+ *
+ * If <code>remote.log.storage.manager.class.name</code> is defined, the leader of a partition of a topic with
+ * <code>remote.storage.enable</code> copies every segment which is no longer active and is below the high watermark,
+ * along with its indexes and producer snapshot. The segments which have been copied are then deleted locally
+ * according to <code>local.retention.ms</code> and <code>local.retention.bytes</code>, and remotely according to
+ * <code>retention.ms</code> and <code>retention.bytes</code>. Consumers fetching below the local log start offset are
+ * served from the remote tier.
+ *
+ * Kafka will create an instance of the specified class using the default constructor and will then pass the broker
+ * configs to its <code>configure()</code> method. During broker shutdown, the <code>close()</code> method will be
+ * invoked so that resources can be released (if necessary). Implementations must be thread safe.
+ */
+public interface RemoteStorageManager extends Configurable, AutoCloseable {
+
+    /**
+     * The files of a segment which may be fetched back from the remote tier.
+     */
+    enum IndexType {
+        OFFSET, TIMESTAMP, TRANSACTION, PRODUCER_SNAPSHOT
+    }
+
+    /**
+     * Copy a segment to the remote tier. The segment must only be listed by {@link #listRemoteLogSegments(TopicPartition)}
+     * once all of its files have been copied. A segment with the same base offset which has been copied before, for
+     * instance by a previous leader, is replaced.
+     *
+     * @param metadata The metadata of the segment
+     * @param data The files of the segment
+     * @throws IOException If the segment could not be copied, in which case it is copied again later
+     */
+    void copyLogSegment(RemoteLogSegmentMetadata metadata, LogSegmentData data) throws IOException;
+
+    /**
+     * List the segments of a partition which have been copied to the remote tier.
+     *
+     * @param topicPartition The partition
+     * @return The segments of the partition, in the order of their base offsets
+     */
+    List<RemoteLogSegmentMetadata> listRemoteLogSegments(TopicPartition topicPartition) throws IOException;
+
+    /**
+     * Read a range of the data of a remote segment.
+     *
+     * @param metadata The segment to read
+     * @param position The position of the first byte to read
+     * @param size The maximum number of bytes to read
+     * @return The bytes read, which are fewer than the given size only if the end of the segment is reached
+     */
+    ByteBuffer fetchLogSegmentData(RemoteLogSegmentMetadata metadata, int position, int size) throws IOException;
+
+    /**
+     * Read one of the indexes or the producer snapshot of a remote segment.
+     *
+     * @param metadata The segment
+     * @param type The file to read
+     * @return The whole file, or null if the segment was copied without a file of this type
+     */
+    ByteBuffer fetchIndex(RemoteLogSegmentMetadata metadata, IndexType type) throws IOException;
+
+    /**
+     * Delete a segment from the remote tier. Deleting a segment which does not exist has no effect.
+     *
+     * @param metadata The segment to delete
+     */
+    void deleteLogSegment(RemoteLogSegmentMetadata metadata) throws IOException;
+
+    /**
+     * Release the resources of the storage manager. Called during broker shutdown.
+     */
+    @Override
+    void close();
+}
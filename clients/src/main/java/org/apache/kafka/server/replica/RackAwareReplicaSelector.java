@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.server.replica;
+
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A replica selector which directs consumers to a replica in their rack, to avoid transferring data between racks.
+ * The leader is preferred if it is in the rack of the consumer. Consumers without a rack, or in a rack without an
+ * in-sync replica, fetch from the leader.
+ */
+public class RackAwareReplicaSelector implements ReplicaSelector {
+
+    @Override
+    public void configure(Map<String, ?> configs) {}
+
+    @Override
+    public Node select(TopicPartition partition, String clientId, String clientRack, Node leader,
+                       List<Node> inSyncReplicas) {
+        if (clientRack == null || clientRack.isEmpty() || clientRack.equals(leader.rack()))
+            return leader;
+        for (Node replica : inSyncReplicas) {
+            if (clientRack.equals(replica.rack()))
+                return replica;
+        }
+        return leader;
+    }
+
+    @Override
+    public void close() {}
+}
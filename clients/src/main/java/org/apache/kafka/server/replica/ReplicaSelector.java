@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.server.replica;
+
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.List;
+
+/**
+ * An interface for selecting the replica a consumer fetches a partition from.
+ *
+ * If <code>replica.selector.class</code> is defined, the leader of a partition asks the selector for the preferred
+ * read replica of each consumer which fetches the partition with a fetch request of version 7 or later. If an in-sync
+ * follower is selected, the leader returns its id instead of records and the consumer fetches from that follower
+ * until its metadata expires or the follower fails to serve it. Followers serve consumers up to their high watermark.
+ *
+ * Kafka will create an instance of the specified class using the default constructor and will then pass the broker
+ * configs to its <code>configure()</code> method. During broker shutdown, the <code>close()</code> method will be
+ * invoked so that resources can be released (if necessary).
+ */
+public interface ReplicaSelector extends Configurable, AutoCloseable {
+
+    /**
+     * Select the replica to fetch from.
+     *
+     * @param partition The partition to fetch
+     * @param clientId The client id of the consumer
+     * @param clientRack The rack of the consumer (<code>client.rack</code>), or an empty string if it is not set
+     * @param leader The leader of the partition, which is the broker calling this method
+     * @param inSyncReplicas The alive in-sync replicas of the partition, including the leader, with their racks
+     * @return The replica to fetch from, which must be one of the in-sync replicas. Null or the leader keeps the
+     *         consumer on the leader.
+     */
+    Node select(TopicPartition partition, String clientId, String clientRack, Node leader, List<Node> inSyncReplicas);
+
+    /**
+     * Release the resources of the selector. Called during broker shutdown.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.requests.FetchMetadata;
+import org.apache.kafka.common.requests.FetchRequest;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FetchSessionHandlerTest {
+
+    private final TopicPartition foo0 = new TopicPartition("foo", 0);
+    private final TopicPartition foo1 = new TopicPartition("foo", 1);
+    private final TopicPartition bar0 = new TopicPartition("bar", 0);
+
+    @Test
+    public void testSessionlessFetches() {
+        FetchSessionHandler handler = new FetchSessionHandler(1);
+        FetchSessionHandler.Builder builder = handler.newBuilder();
+        builder.add(foo0, new FetchRequest.PartitionData(0, 0, 100));
+        FetchSessionHandler.FetchRequestData data = builder.build();
+        assertEquals(FetchMetadata.INITIAL, data.metadata());
+        assertEquals(Collections.singleton(foo0), data.toSend().keySet());
+
+        assertTrue(handler.handleResponse(response(FetchMetadata.INVALID_SESSION_ID, foo0)));
+
+        // the broker did not create a session, so the next fetch is full as well
+        builder = handler.newBuilder();
+        builder.add(foo0, new FetchRequest.PartitionData(10, 0, 100));
+        data = builder.build();
+        assertEquals(FetchMetadata.INITIAL, data.metadata());
+        assertEquals(Collections.singleton(foo0), data.toSend().keySet());
+    }
+
+    @Test
+    public void testIncrementalFetches() {
+        FetchSessionHandler handler = new FetchSessionHandler(1);
+        FetchSessionHandler.Builder builder = handler.newBuilder();
+        builder.add(foo0, new FetchRequest.PartitionData(0, 0, 100));
+        builder.add(foo1, new FetchRequest.PartitionData(0, 0, 100));
+        builder.build();
+        assertTrue(handler.handleResponse(response(123, foo0, foo1)));
+        assertEquals(123, handler.sessionId());
+
+        // only the changed and the added partitions are sent
+        builder = handler.newBuilder();
+        builder.add(foo0, new FetchRequest.PartitionData(0, 0, 100));
+        builder.add(foo1, new FetchRequest.PartitionData(5, 0, 100));
+        builder.add(bar0, new FetchRequest.PartitionData(0, 0, 100));
+        FetchSessionHandler.FetchRequestData data = builder.build();
+        assertEquals(new FetchMetadata(123, 1), data.metadata());
+        assertEquals(Arrays.asList(foo1, bar0), Arrays.asList(data.toSend().keySet().toArray()));
+        assertTrue(data.toForget().isEmpty());
+        assertEquals(3, data.sessionPartitions().size());
+
+        // the response only includes the partitions with changes
+        assertTrue(handler.handleResponse(response(123, foo1)));
+
+        builder = handler.newBuilder();
+        builder.add(foo1, new FetchRequest.PartitionData(5, 0, 100));
+        builder.add(bar0, new FetchRequest.PartitionData(0, 0, 100));
+        data = builder.build();
+        assertEquals(new FetchMetadata(123, 2), data.metadata());
+        assertTrue(data.toSend().isEmpty());
+        assertEquals(Collections.singletonList(foo0), data.toForget());
+        assertFalse(data.isEmpty());
+
+        // partitions which are not in the session are not accepted
+        assertFalse(handler.handleResponse(response(123, foo0)));
+        builder = handler.newBuilder();
+        builder.add(foo1, new FetchRequest.PartitionData(5, 0, 100));
+        data = builder.build();
+        assertEquals(new FetchMetadata(123, FetchMetadata.INITIAL_EPOCH), data.metadata());
+        assertEquals(Collections.singleton(foo1), data.toSend().keySet());
+    }
+
+    @Test
+    public void testSessionErrors() {
+        FetchSessionHandler handler = new FetchSessionHandler(1);
+        FetchSessionHandler.Builder builder = handler.newBuilder();
+        builder.add(foo0, new FetchRequest.PartitionData(0, 0, 100));
+        builder.build();
+        assertTrue(handler.handleResponse(response(123, foo0)));
+
+        builder = handler.newBuilder();
+        builder.add(foo0, new FetchRequest.PartitionData(0, 0, 100));
+        builder.build();
+        assertFalse(handler.handleResponse(new FetchResponse(Errors.INVALID_FETCH_SESSION_EPOCH,
+                new LinkedHashMap<TopicPartition, FetchResponse.PartitionData>(), 0, 123)));
+        // the session is replaced by a new one
+        builder = handler.newBuilder();
+        builder.add(foo0, new FetchRequest.PartitionData(0, 0, 100));
+        assertEquals(new FetchMetadata(123, FetchMetadata.INITIAL_EPOCH), builder.build().metadata());
+        assertTrue(handler.handleResponse(response(456, foo0)));
+
+        builder = handler.newBuilder();
+        builder.add(foo0, new FetchRequest.PartitionData(0, 0, 100));
+        builder.build();
+        assertFalse(handler.handleResponse(new FetchResponse(Errors.FETCH_SESSION_ID_NOT_FOUND,
+                new LinkedHashMap<TopicPartition, FetchResponse.PartitionData>(), 0, FetchMetadata.INVALID_SESSION_ID)));
+        builder = handler.newBuilder();
+        builder.add(foo0, new FetchRequest.PartitionData(0, 0, 100));
+        assertEquals(FetchMetadata.INITIAL, builder.build().metadata());
+        assertTrue(handler.handleResponse(response(789, foo0)));
+
+        handler.handleError(new RuntimeException());
+        builder = handler.newBuilder();
+        builder.add(foo0, new FetchRequest.PartitionData(0, 0, 100));
+        assertEquals(new FetchMetadata(789, FetchMetadata.INITIAL_EPOCH), builder.build().metadata());
+    }
+
+    private static FetchResponse response(int sessionId, TopicPartition... partitions) {
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+        for (TopicPartition partition : partitions)
+            responseData.put(partition, new FetchResponse.PartitionData(Errors.NONE, 10, 10, 0, null,
+                    MemoryRecords.EMPTY));
+        return new FetchResponse(Errors.NONE, responseData, 0, sessionId);
+    }
+}
@@ -1643,6 +1643,7 @@ public class KafkaConsumerTest {
                 retryBackoffMs,
                 autoCommitEnabled,
                 autoCommitIntervalMs,
+                0,
                 interceptors,
                 excludeInternalTopics,
                 true);
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer;
+
+import org.apache.kafka.clients.consumer.FetchPrioritizer.PartitionState;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class LagWeightedFetchPrioritizerTest {
+
+    private static final int MAX_BYTES = 1000;
+    private static final int MAX_PARTITION_BYTES = 400;
+
+    private final LagWeightedFetchPrioritizer prioritizer = new LagWeightedFetchPrioritizer();
+    private final TopicPartition tp0 = new TopicPartition("topic", 0);
+    private final TopicPartition tp1 = new TopicPartition("topic", 1);
+    private final TopicPartition tp2 = new TopicPartition("topic", 2);
+    private final TopicPartition tp3 = new TopicPartition("topic", 3);
+
+    @Test
+    public void testNoLaggingPartitions() {
+        Map<TopicPartition, Integer> allocations = prioritizer.prioritize(Arrays.asList(
+                new PartitionState(tp0, 10, 0L),
+                new PartitionState(tp1, 10, 0L)), MAX_BYTES, MAX_PARTITION_BYTES, 0);
+        assertEquals(Arrays.asList(tp0, tp1), new ArrayList<>(allocations.keySet()));
+        assertEquals(MAX_PARTITION_BYTES, allocations.get(tp0).intValue());
+        assertEquals(MAX_PARTITION_BYTES, allocations.get(tp1).intValue());
+    }
+
+    @Test
+    public void testLaggingPartitionsFirst() {
+        Map<TopicPartition, Integer> allocations = prioritizer.prioritize(Arrays.asList(
+                new PartitionState(tp0, 10, 0L),
+                new PartitionState(tp1, 10, 100L),
+                new PartitionState(tp2, 10, null),
+                new PartitionState(tp3, 10, 900L)), MAX_BYTES, MAX_PARTITION_BYTES, 0);
+        assertEquals(Arrays.asList(tp2, tp3, tp1, tp0), new ArrayList<>(allocations.keySet()));
+        // unknown lag
+        assertEquals(MAX_PARTITION_BYTES, allocations.get(tp2).intValue());
+        // 90% of the fetch, bounded by the maximum partition bytes
+        assertEquals(MAX_PARTITION_BYTES, allocations.get(tp3).intValue());
+        // 10% of the fetch
+        assertEquals(100, allocations.get(tp1).intValue());
+        // throttled to the minimum
+        assertEquals(MAX_PARTITION_BYTES / LagWeightedFetchPrioritizer.HEAD_PARTITION_BYTES_DIVISOR,
+                allocations.get(tp0).intValue());
+    }
+
+    @Test
+    public void testSmallLagGetsMinimumAllocation() {
+        Map<TopicPartition, Integer> allocations = prioritizer.prioritize(Arrays.asList(
+                new PartitionState(tp0, 10, 1L),
+                new PartitionState(tp1, 10, 999L)), MAX_BYTES, MAX_PARTITION_BYTES, 0);
+        assertEquals(Arrays.asList(tp1, tp0), new ArrayList<>(allocations.keySet()));
+        assertEquals(MAX_PARTITION_BYTES / LagWeightedFetchPrioritizer.HEAD_PARTITION_BYTES_DIVISOR,
+                allocations.get(tp0).intValue());
+    }
+
+    @Test
+    public void testHeadPartitionsSkippedWhileBufferIsFull() {
+        Map<TopicPartition, Integer> allocations = prioritizer.prioritize(Arrays.asList(
+                new PartitionState(tp0, 10, 0L),
+                new PartitionState(tp1, 10, 100L)), MAX_BYTES, MAX_PARTITION_BYTES, MAX_BYTES);
+        assertEquals(Arrays.asList(tp1), new ArrayList<>(allocations.keySet()));
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.test.TestCondition;
+import org.apache.kafka.test.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelConsumerTest {
+
+    private final TopicPartition tp = new TopicPartition("test", 0);
+    private final AtomicInteger closed = new AtomicInteger();
+    // keeps the committed offsets readable after the parallel consumer closed it
+    private final MockConsumer<String, String> mockConsumer = new MockConsumer<String, String>(OffsetResetStrategy.EARLIEST) {
+        @Override
+        public void close(long timeout, TimeUnit unit) {
+            closed.incrementAndGet();
+        }
+    };
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger processed = new AtomicInteger();
+    private ParallelConsumer<String, String> consumer;
+
+    // blocks the records with key "slow" until released, and fails the records with key "fail"
+    private final RecordProcessor<String, String> processor = new RecordProcessor<String, String>() {
+        @Override
+        public void process(ConsumerRecord<String, String> record) throws Exception {
+            if (record.key().equals("slow"))
+                release.await();
+            if (record.key().equals("fail"))
+                throw new IllegalStateException("Processing failed");
+            processed.incrementAndGet();
+        }
+    };
+
+    @Before
+    public void setup() {
+        mockConsumer.subscribe(Collections.singleton(tp.topic()));
+        mockConsumer.rebalance(Collections.singleton(tp));
+        mockConsumer.updateBeginningOffsets(Collections.singletonMap(tp, 0L));
+        mockConsumer.seek(tp, 0);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (consumer != null)
+            consumer.close();
+    }
+
+    private void addRecords(String... keys) {
+        long offset = mockConsumer.position(tp);
+        for (String key : keys)
+            mockConsumer.addRecord(new ConsumerRecord<>(tp.topic(), tp.partition(), offset++, 0L,
+                    TimestampType.CREATE_TIME, 0L, 0, 0, key, "value"));
+    }
+
+    private void waitForProcessed(final int count) throws InterruptedException {
+        TestUtils.waitForCondition(new TestCondition() {
+            @Override
+            public boolean conditionMet() {
+                return processed.get() == count;
+            }
+        }, "Records were not processed");
+    }
+
+    @Test
+    public void testCommitsContiguousPrefixOfProcessedRecords() throws Exception {
+        consumer = new ParallelConsumer<>(mockConsumer, processor, 4, 100);
+        addRecords("a", "slow", "b", "c");
+        assertEquals(4, consumer.poll(0));
+        waitForProcessed(3);
+
+        // the records after the slow record are processed, but not committed
+        consumer.poll(0);
+        assertEquals(1L, mockConsumer.committed(tp).offset());
+
+        release.countDown();
+        consumer.commitSync();
+        assertEquals(4, processed.get());
+        assertEquals(4L, mockConsumer.committed(tp).offset());
+    }
+
+    @Test
+    public void testRecordsWithSameKeyAreProcessedInOrder() throws Exception {
+        final Map<String, List<Long>> offsetsByKey = new ConcurrentHashMap<>();
+        consumer = new ParallelConsumer<>(mockConsumer, new RecordProcessor<String, String>() {
+            @Override
+            public void process(ConsumerRecord<String, String> record) {
+                List<Long> offsets = offsetsByKey.get(record.key());
+                if (offsets == null) {
+                    offsets = Collections.synchronizedList(new ArrayList<Long>());
+                    offsetsByKey.put(record.key(), offsets);
+                }
+                offsets.add(record.offset());
+            }
+        }, 4, 1000);
+
+        int numRecords = 500;
+        String[] keys = new String[numRecords];
+        for (int i = 0; i < numRecords; i++)
+            keys[i] = "key" + (i % 7);
+        addRecords(keys);
+        consumer.poll(0);
+        consumer.commitSync();
+
+        assertEquals(numRecords, mockConsumer.committed(tp).offset());
+        assertEquals(7, offsetsByKey.size());
+        for (List<Long> offsets : offsetsByKey.values()) {
+            for (int i = 1; i < offsets.size(); i++)
+                assertEquals(offsets.get(i - 1) + 7, (long) offsets.get(i));
+        }
+    }
+
+    @Test
+    public void testProcessingFailure() throws Exception {
+        consumer = new ParallelConsumer<>(mockConsumer, processor, 1, 100);
+        addRecords("a", "fail", "b");
+        consumer.poll(0);
+        try {
+            consumer.commitSync();
+            fail("Expected the processing failure");
+        } catch (KafkaException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        try {
+            consumer.poll(0);
+            fail("Expected the processing failure");
+        } catch (KafkaException e) {
+            // expected
+        }
+        consumer.close();
+        // the failed record is processed again after a restart
+        assertEquals(1L, mockConsumer.committed(tp).offset());
+    }
+
+    @Test
+    public void testSeekBackwards() throws Exception {
+        consumer = new ParallelConsumer<>(mockConsumer, processor, 2, 100);
+        addRecords("a", "b", "c", "d");
+        consumer.poll(0);
+        consumer.commitSync();
+        assertEquals(4L, mockConsumer.committed(tp).offset());
+
+        consumer.seek(tp, 1);
+        addRecords("b", "c");
+        assertEquals(2, consumer.poll(0));
+        consumer.commitSync();
+        assertEquals(6, processed.get());
+        assertEquals(3L, mockConsumer.committed(tp).offset());
+    }
+
+    @Test
+    public void testOffsetResetToAnEarlierOffset() throws Exception {
+        consumer = new ParallelConsumer<>(mockConsumer, processor, 2, 100);
+        addRecords("a", "b", "c", "d");
+        consumer.poll(0);
+        consumer.commitSync();
+
+        // the position is reset behind the back of the parallel consumer, like by auto.offset.reset=earliest
+        mockConsumer.seek(tp, 0);
+        addRecords("a", "b");
+        assertEquals(2, consumer.poll(0));
+        consumer.commitSync();
+        assertEquals(6, processed.get());
+        assertEquals(2L, mockConsumer.committed(tp).offset());
+    }
+
+    @Test
+    public void testPartitionPausedWhileTooManyRecordsPending() throws Exception {
+        consumer = new ParallelConsumer<>(mockConsumer, processor, 1, 2);
+        addRecords("slow", "a", "b");
+        consumer.poll(0);
+        assertEquals(Collections.singleton(tp), mockConsumer.paused());
+
+        release.countDown();
+        waitForProcessed(3);
+        consumer.poll(0);
+        assertEquals(Collections.<TopicPartition>emptySet(), mockConsumer.paused());
+        consumer.close(5, TimeUnit.SECONDS);
+        assertEquals(1, closed.get());
+        assertEquals(3L, mockConsumer.committed(tp).offset());
+    }
+}
@@ -96,6 +96,7 @@ public class ConsumerCoordinatorTest {
     private long retryBackoffMs = 100;
     private boolean autoCommitEnabled = false;
     private int autoCommitIntervalMs = 2000;
+    private int autoCommitIntervalRecords = 0;
     private MockPartitionAssignor partitionAssignor = new MockPartitionAssignor();
     private List<PartitionAssignor> assignors = Collections.<PartitionAssignor>singletonList(partitionAssignor);
     private MockTime time;
@@ -1079,6 +1080,140 @@ public class ConsumerCoordinatorTest {
         assertNull(mockOffsetCommitCallback.exception);
     }
 
+    @Test
+    public void testAsyncCommitsCoalescedWhileCommitInFlight() {
+        client.prepareResponse(groupCoordinatorResponse(node, Errors.NONE));
+        coordinator.ensureCoordinatorReady();
+
+        MockCommitCallback first = new MockCommitCallback();
+        MockCommitCallback second = new MockCommitCallback();
+        MockCommitCallback third = new MockCommitCallback();
+        coordinator.commitOffsetsAsync(Collections.singletonMap(t1p, new OffsetAndMetadata(100L)), first);
+        coordinator.commitOffsetsAsync(Collections.singletonMap(t1p, new OffsetAndMetadata(200L)), second);
+        coordinator.commitOffsetsAsync(Collections.singletonMap(t2p, new OffsetAndMetadata(300L)), third);
+        coordinator.commitOffsetsAsync(Collections.singletonMap(t1p, new OffsetAndMetadata(400L)), third);
+        assertEquals(1, client.inFlightRequestCount());
+
+        client.respond(offsetCommitResponse(Collections.singletonMap(t1p, Errors.NONE)));
+        consumerClient.poll(0);
+        coordinator.invokeCompletedOffsetCommitCallbacks();
+        assertEquals(1, first.invoked);
+        assertEquals(0, second.invoked);
+
+        // the latest offset of each partition is committed by a single request
+        Map<TopicPartition, Errors> responseData = new HashMap<>();
+        responseData.put(t1p, Errors.NONE);
+        responseData.put(t2p, Errors.NONE);
+        client.prepareResponse(new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                Map<TopicPartition, OffsetCommitRequest.PartitionData> offsets = ((OffsetCommitRequest) body).offsetData();
+                return offsets.size() == 2 && offsets.get(t1p).offset == 400L && offsets.get(t2p).offset == 300L;
+            }
+        }, offsetCommitResponse(responseData));
+        coordinator.poll(time.milliseconds(), Long.MAX_VALUE);
+        consumerClient.poll(0);
+        coordinator.invokeCompletedOffsetCommitCallbacks();
+        assertEquals(0, client.inFlightRequestCount());
+        assertEquals(1, second.invoked);
+        assertNull(second.exception);
+        assertEquals(2, third.invoked);
+        assertNull(third.exception);
+    }
+
+    @Test
+    public void testCoalescedAsyncCommitsSentWithSyncCommit() {
+        client.prepareResponse(groupCoordinatorResponse(node, Errors.NONE));
+        coordinator.ensureCoordinatorReady();
+
+        MockCommitCallback cb = new MockCommitCallback();
+        coordinator.commitOffsetsAsync(Collections.singletonMap(t1p, new OffsetAndMetadata(100L)), cb);
+        coordinator.commitOffsetsAsync(Collections.singletonMap(t2p, new OffsetAndMetadata(200L)), cb);
+        client.respond(offsetCommitResponse(Collections.singletonMap(t1p, Errors.NONE)));
+
+        // the sync commit supersedes the offset of the coalesced async commit of the same partition
+        Map<TopicPartition, Errors> responseData = new HashMap<>();
+        responseData.put(t1p, Errors.NONE);
+        responseData.put(t2p, Errors.NONE);
+        client.prepareResponse(new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                Map<TopicPartition, OffsetCommitRequest.PartitionData> offsets = ((OffsetCommitRequest) body).offsetData();
+                return offsets.size() == 2 && offsets.get(t1p).offset == 150L && offsets.get(t2p).offset == 200L;
+            }
+        }, offsetCommitResponse(responseData));
+        assertTrue(coordinator.commitOffsetsSync(Collections.singletonMap(t1p, new OffsetAndMetadata(150L)), Long.MAX_VALUE));
+        coordinator.invokeCompletedOffsetCommitCallbacks();
+        assertEquals(2, cb.invoked);
+        assertNull(cb.exception);
+    }
+
+    @Test
+    public void testQueuedAsyncCommitSentBeforeRebalance() {
+        subscriptions.subscribe(singleton(topic1), rebalanceListener);
+        client.prepareResponse(groupCoordinatorResponse(node, Errors.NONE));
+        coordinator.ensureCoordinatorReady();
+        client.prepareResponse(joinGroupFollowerResponse(1, "consumer", "leader", Errors.NONE));
+        client.prepareResponse(syncGroupResponse(singletonList(t1p), Errors.NONE));
+        coordinator.joinGroupIfNeeded();
+
+        MockCommitCallback inFlight = new MockCommitCallback();
+        MockCommitCallback queued = new MockCommitCallback();
+        coordinator.commitOffsetsAsync(Collections.singletonMap(t1p, new OffsetAndMetadata(100L)), inFlight);
+        coordinator.commitOffsetsAsync(Collections.singletonMap(t1p, new OffsetAndMetadata(200L)), queued);
+        assertEquals(1, client.inFlightRequestCount());
+
+        // the queued commit is sent in the current generation before the partitions are revoked
+        client.prepareResponse(new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                OffsetCommitRequest request = (OffsetCommitRequest) body;
+                return request.generationId() == 1 && rebalanceListener.revokedCount == 1 &&
+                        request.offsetData().get(t1p).offset == 200L;
+            }
+        }, offsetCommitResponse(Collections.singletonMap(t1p, Errors.NONE)));
+        client.prepareResponse(joinGroupFollowerResponse(2, "consumer", "leader", Errors.NONE));
+        client.prepareResponse(syncGroupResponse(singletonList(t1p), Errors.NONE));
+        coordinator.requestRejoin();
+        coordinator.joinGroupIfNeeded();
+        assertEquals(2, rebalanceListener.revokedCount);
+
+        client.respond(offsetCommitResponse(Collections.singletonMap(t1p, Errors.NONE)));
+        consumerClient.poll(0);
+        coordinator.invokeCompletedOffsetCommitCallbacks();
+        assertEquals(0, client.inFlightRequestCount());
+        assertEquals(1, inFlight.invoked);
+        assertNull(inFlight.exception);
+        assertEquals(1, queued.invoked);
+        assertNull(queued.exception);
+    }
+
+    @Test
+    public void testAutoCommitAfterRecordsReturned() {
+        autoCommitIntervalRecords = 10;
+        ConsumerCoordinator coordinator = buildCoordinator(new Metrics(), assignors,
+                ConsumerConfig.DEFAULT_EXCLUDE_INTERNAL_TOPICS, true, true);
+        subscriptions.assignFromUser(singleton(t1p));
+        subscriptions.seek(t1p, 100);
+        client.prepareResponse(groupCoordinatorResponse(node, Errors.NONE));
+        coordinator.ensureCoordinatorReady();
+
+        coordinator.recordsReturned(9);
+        coordinator.poll(time.milliseconds(), Long.MAX_VALUE);
+        assertEquals(0, client.inFlightRequestCount());
+
+        // the offsets are committed before the auto-commit interval elapsed
+        client.prepareResponse(offsetCommitResponse(Collections.singletonMap(t1p, Errors.NONE)));
+        coordinator.recordsReturned(1);
+        coordinator.poll(time.milliseconds(), Long.MAX_VALUE);
+        assertEquals(100L, subscriptions.committed(t1p).offset());
+
+        subscriptions.seek(t1p, 200);
+        coordinator.poll(time.milliseconds(), Long.MAX_VALUE);
+        assertEquals(0, client.inFlightRequestCount());
+        assertEquals(100L, subscriptions.committed(t1p).offset());
+    }
+
     @Test
     public void testCommitAfterLeaveGroup() {
         // enable auto-assignment
@@ -1610,6 +1745,7 @@ public class ConsumerCoordinatorTest {
                 retryBackoffMs,
                 autoCommitEnabled,
                 autoCommitIntervalMs,
+                autoCommitIntervalRecords,
                 null,
                 excludeInternalTopics,
                 leaveGroup);
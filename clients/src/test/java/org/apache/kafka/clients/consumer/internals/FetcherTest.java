@@ -24,6 +24,7 @@ import org.apache.kafka.clients.NetworkClient;
 import org.apache.kafka.clients.NodeApiVersions;
 import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.FetchPrioritizer;
 import org.apache.kafka.clients.consumer.NoOffsetForPartitionException;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
@@ -41,6 +42,7 @@ import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.errors.TopicAuthorizationException;
 import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeader;
 import org.apache.kafka.common.metrics.KafkaMetric;
 import org.apache.kafka.common.metrics.Metrics;
@@ -62,6 +64,7 @@ import org.apache.kafka.common.record.SimpleRecord;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.requests.AbstractRequest;
 import org.apache.kafka.common.requests.ApiVersionsResponse;
+import org.apache.kafka.common.requests.FetchMetadata;
 import org.apache.kafka.common.requests.FetchRequest;
 import org.apache.kafka.common.requests.FetchRequest.PartitionData;
 import org.apache.kafka.common.requests.FetchResponse;
@@ -74,11 +77,13 @@ import org.apache.kafka.common.requests.ResponseHeader;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.ZeroCopyDeserializer;
 import org.apache.kafka.common.utils.ByteBufferOutputStream;
 import org.apache.kafka.common.utils.MockTime;
 import org.apache.kafka.common.utils.Utils;
 import org.apache.kafka.test.DelayedReceive;
 import org.apache.kafka.test.MockSelector;
+import org.apache.kafka.test.TestCondition;
 import org.apache.kafka.test.TestUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -188,6 +193,54 @@ public class FetcherTest {
         }
     }
 
+    @Test
+    public void testIncrementalFetchSession() {
+        subscriptions.assignFromUser(singleton(tp1));
+        subscriptions.seek(tp1, 0);
+
+        // the broker creates a session for the first fetch
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fetchRequestMatcher(FetchMetadata.INITIAL, singleton(tp1)),
+                new FetchResponse(Errors.NONE, fetchResponseData(tp1, this.records), 0, 123));
+        consumerClient.poll(0);
+        assertEquals(3, fetcher.fetchedRecords().get(tp1).size());
+        assertEquals(4L, subscriptions.position(tp1).longValue());
+
+        // the position of the partition changed, so it is sent with the next fetch of the session
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fetchRequestMatcher(new FetchMetadata(123, 1), singleton(tp1)),
+                new FetchResponse(Errors.NONE, new LinkedHashMap<TopicPartition, FetchResponse.PartitionData>(), 0, 123));
+        consumerClient.poll(0);
+        assertTrue(fetcher.fetchedRecords().isEmpty());
+
+        // nothing changed since the previous fetch
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fetchRequestMatcher(new FetchMetadata(123, 2), Collections.<TopicPartition>emptySet()),
+                new FetchResponse(Errors.NONE, fetchResponseData(tp1, this.nextRecords), 0, 123));
+        consumerClient.poll(0);
+        assertEquals(2, fetcher.fetchedRecords().get(tp1).size());
+        assertEquals(6L, subscriptions.position(tp1).longValue());
+    }
+
+    private MockClient.RequestMatcher fetchRequestMatcher(final FetchMetadata metadata,
+                                                          final Set<TopicPartition> partitions) {
+        return new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                FetchRequest fetch = (FetchRequest) body;
+                return fetch.metadata().equals(metadata) && fetch.fetchData().keySet().equals(partitions);
+            }
+        };
+    }
+
+    private LinkedHashMap<TopicPartition, FetchResponse.PartitionData> fetchResponseData(TopicPartition tp,
+                                                                                         MemoryRecords records) {
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+        responseData.put(tp, new FetchResponse.PartitionData(Errors.NONE, 100L, FetchResponse.INVALID_LAST_STABLE_OFFSET,
+                0L, null, records));
+        return responseData;
+    }
+
     @Test
     public void testFetcherIgnoresControlRecords() {
         subscriptions.assignFromUser(singleton(tp1));
@@ -424,6 +477,319 @@ public class FetcherTest {
         }
     }
 
+    @Test
+    public void testFetchDecodedAhead() throws Exception {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), 2, IsolationLevel.READ_UNCOMMITTED, new FetchDecoder("test", 1, Integer.MAX_VALUE));
+        try {
+            subscriptions.assignFromUser(singleton(tp1));
+            subscriptions.seek(tp1, 1);
+
+            assertEquals(1, fetcher.sendFetches());
+            client.prepareResponse(fetchResponse(tp1, this.records, Errors.NONE, 100L, 0));
+            consumerClient.poll(0);
+            awaitCompletedFetches(fetcher);
+
+            // the decoded records are returned in several polls, and the position only advances when they are
+            List<ConsumerRecord<byte[], byte[]>> records = fetcher.fetchedRecords().get(tp1);
+            assertEquals(2, records.size());
+            assertEquals(1L, records.get(0).offset());
+            assertEquals("value-2", new String(records.get(1).value(), StandardCharsets.UTF_8));
+            assertEquals(3L, subscriptions.position(tp1).longValue());
+
+            records = fetcher.fetchedRecords().get(tp1);
+            assertEquals(1, records.size());
+            assertEquals(3L, records.get(0).offset());
+            assertEquals(4L, subscriptions.position(tp1).longValue());
+            assertFalse(fetcher.hasCompletedFetches());
+        } finally {
+            fetcher.close();
+        }
+    }
+
+    @Test
+    public void testDecodeAheadStopsOnSerializationErrors() throws Exception {
+        ByteArrayDeserializer deserializer = new ByteArrayDeserializer() {
+            @Override
+            public byte[] deserialize(String topic, byte[] data) {
+                if (new String(data, StandardCharsets.UTF_8).equals("value-2"))
+                    throw new SerializationException();
+                return data;
+            }
+        };
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), deserializer, deserializer,
+                Integer.MAX_VALUE, IsolationLevel.READ_UNCOMMITTED, new FetchDecoder("test", 1, Integer.MAX_VALUE));
+        try {
+            subscriptions.assignFromUser(singleton(tp1));
+            subscriptions.seek(tp1, 1);
+
+            assertEquals(1, fetcher.sendFetches());
+            client.prepareResponse(fetchResponse(tp1, this.records, Errors.NONE, 100L, 0));
+            consumerClient.poll(0);
+            awaitCompletedFetches(fetcher);
+
+            // the records before the error are returned, then the error is raised like without decoding ahead
+            List<ConsumerRecord<byte[], byte[]>> records = fetcher.fetchedRecords().get(tp1);
+            assertEquals(1, records.size());
+            assertEquals(2L, subscriptions.position(tp1).longValue());
+            for (int i = 0; i < 2; i++) {
+                try {
+                    fetcher.fetchedRecords();
+                    fail("fetchedRecords should have raised");
+                } catch (SerializationException e) {
+                    assertEquals(2L, subscriptions.position(tp1).longValue());
+                }
+            }
+        } finally {
+            fetcher.close();
+        }
+    }
+
+    @Test
+    public void testDecodedRecordsAreDeserializedByThePollingThread() throws Exception {
+        final Set<Thread> deserializingThreads = Collections.synchronizedSet(new HashSet<Thread>());
+        ByteArrayDeserializer deserializer = new ByteArrayDeserializer() {
+            @Override
+            public byte[] deserialize(String topic, byte[] data) {
+                deserializingThreads.add(Thread.currentThread());
+                return data;
+            }
+        };
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), deserializer, deserializer,
+                Integer.MAX_VALUE, IsolationLevel.READ_UNCOMMITTED, new FetchDecoder("test", 2, Integer.MAX_VALUE));
+        try {
+            subscriptions.assignFromUser(singleton(tp1));
+            subscriptions.seek(tp1, 1);
+
+            assertEquals(1, fetcher.sendFetches());
+            client.prepareResponse(fetchResponse(tp1, this.records, Errors.NONE, 100L, 0));
+            consumerClient.poll(0);
+            awaitCompletedFetches(fetcher);
+            assertTrue(deserializingThreads.isEmpty());
+
+            assertEquals(3, fetcher.fetchedRecords().get(tp1).size());
+            assertEquals(singleton(Thread.currentThread()), deserializingThreads);
+        } finally {
+            fetcher.close();
+        }
+    }
+
+    @Test
+    public void testDecodeAheadIsLimitedByBytes() throws Exception {
+        FetchDecoder decoder = new FetchDecoder("test", 1, 1);
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, IsolationLevel.READ_UNCOMMITTED, decoder);
+        try {
+            subscriptions.assignFromUser(new HashSet<>(Arrays.asList(tp1, tp2)));
+            subscriptions.seek(tp1, 1);
+            subscriptions.seek(tp2, 4);
+
+            Map<TopicPartition, FetchResponse.PartitionData> partitions = new LinkedHashMap<>();
+            partitions.put(tp1, new FetchResponse.PartitionData(Errors.NONE, 100L,
+                    FetchResponse.INVALID_LAST_STABLE_OFFSET, 0L, null, records));
+            partitions.put(tp2, new FetchResponse.PartitionData(Errors.NONE, 100L,
+                    FetchResponse.INVALID_LAST_STABLE_OFFSET, 0L, null, nextRecords));
+            assertEquals(1, fetcher.sendFetches());
+            client.prepareResponse(new FetchResponse(new LinkedHashMap<>(partitions), 0));
+            consumerClient.poll(0);
+
+            // only the first fetch is decoded until it has been returned
+            assertEquals(records.sizeInBytes(), decoder.scheduledBytes());
+            awaitCompletedFetches(fetcher);
+
+            final Map<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> fetched = new HashMap<>();
+            final Fetcher<byte[], byte[]> finalFetcher = fetcher;
+            TestUtils.waitForCondition(new TestCondition() {
+                @Override
+                public boolean conditionMet() {
+                    fetched.putAll(finalFetcher.fetchedRecords());
+                    return fetched.size() == 2;
+                }
+            }, "Timed out waiting for the decoded records");
+            assertEquals(3, fetched.get(tp1).size());
+            assertEquals(2, fetched.get(tp2).size());
+            assertEquals(0L, decoder.scheduledBytes());
+        } finally {
+            fetcher.close();
+        }
+    }
+
+    @Test
+    public void testFetchBufferMemoryLimitsFetches() {
+        Metrics metrics = new Metrics(time);
+        FetchBufferPool bufferPool = new FetchBufferPool(fetchSize);
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, metrics, new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, IsolationLevel.READ_UNCOMMITTED, null, bufferPool);
+        KafkaMetric availableBytes = metrics.metrics().get(metrics.metricInstance(metricsRegistry.fetchBufferAvailableBytes));
+        KafkaMetric exhaustedRate = metrics.metrics().get(metrics.metricInstance(metricsRegistry.fetchBufferExhaustedRate));
+
+        subscriptions.assignFromUser(singleton(tp1));
+        subscriptions.seek(tp1, 0);
+
+        // the whole pool is reserved for the response
+        assertEquals(1, fetcher.sendFetches());
+        assertEquals(0, availableBytes.value(), 0.0);
+        client.prepareResponse(new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                return ((FetchRequest) body).maxBytes() == fetchSize;
+            }
+        }, fetchResponse(tp1, this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+        assertEquals(fetchSize - records.sizeInBytes(), availableBytes.value(), 0.0);
+
+        // the fetched data of tp1 is still buffered, so there is not enough memory to fetch tp2
+        subscriptions.assignFromUser(singleton(tp2));
+        subscriptions.seek(tp2, 0);
+        assertEquals(0, fetcher.sendFetches());
+        assertTrue(exhaustedRate.value() > 0);
+
+        // the memory is released once the fetched data is discarded by poll()
+        assertTrue(fetcher.fetchedRecords().isEmpty());
+        assertEquals(fetchSize, availableBytes.value(), 0.0);
+        assertEquals(1, fetcher.sendFetches());
+    }
+
+    @Test
+    public void testFetchPrioritizer() {
+        final List<List<FetchPrioritizer.PartitionState>> prioritized = new ArrayList<>();
+        FetchPrioritizer prioritizer = new FetchPrioritizer() {
+            @Override
+            public void configure(Map<String, ?> configs) {}
+
+            @Override
+            public Map<TopicPartition, Integer> prioritize(List<PartitionState> partitions, int maxBytes,
+                                                           int maxPartitionBytes, long bufferedBytes) {
+                prioritized.add(partitions);
+                // only tp2 is fetched, with more than the maximum partition fetch size
+                return Collections.singletonMap(tp2, maxPartitionBytes + 1);
+            }
+        };
+        Fetcher<byte[], byte[]> fetcher = new Fetcher<>(consumerClient, minBytes, maxBytes, maxWaitMs, fetchSize,
+                Integer.MAX_VALUE, true, new ByteArrayDeserializer(), new ByteArrayDeserializer(), metadata,
+                subscriptions, new Metrics(time), metricsRegistry, time, retryBackoffMs,
+                IsolationLevel.READ_UNCOMMITTED, null, new FetchBufferPool(Long.MAX_VALUE), prioritizer, "");
+
+        subscriptions.assignFromUser(new HashSet<>(Arrays.asList(tp1, tp2)));
+        subscriptions.seek(tp1, 0);
+        subscriptions.seek(tp2, 0);
+
+        assertEquals(1, fetcher.sendFetches());
+        assertEquals(1, prioritized.size());
+        assertEquals(2, prioritized.get(0).size());
+        assertNull(prioritized.get(0).get(0).lag());
+        client.prepareResponse(new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                Map<TopicPartition, FetchRequest.PartitionData> fetchData = ((FetchRequest) body).fetchData();
+                return fetchData.keySet().equals(singleton(tp2)) && fetchData.get(tp2).maxBytes == fetchSize;
+            }
+        }, fetchResponse(tp2, this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+        assertEquals(3, fetcher.fetchedRecords().get(tp2).size());
+
+        // the lag of tp2 is known after the fetch
+        assertEquals(1, fetcher.sendFetches());
+        for (FetchPrioritizer.PartitionState state : prioritized.get(1)) {
+            if (state.partition().equals(tp2)) {
+                assertEquals(4L, state.position());
+                assertEquals(96L, state.lag().longValue());
+            } else {
+                assertNull(state.lag());
+            }
+        }
+        fetcher.close();
+    }
+
+    @Test
+    public void testFetchPrioritizerOrderOnlyAppliesToFullFetches() {
+        final List<TopicPartition> order = new ArrayList<>(Arrays.asList(tp2, tp1));
+        FetchPrioritizer prioritizer = new FetchPrioritizer() {
+            @Override
+            public void configure(Map<String, ?> configs) {}
+
+            @Override
+            public Map<TopicPartition, Integer> prioritize(List<PartitionState> partitions, int maxBytes,
+                                                           int maxPartitionBytes, long bufferedBytes) {
+                Map<TopicPartition, Integer> allocations = new LinkedHashMap<>();
+                for (TopicPartition partition : order)
+                    allocations.put(partition, maxPartitionBytes);
+                return allocations;
+            }
+        };
+        Fetcher<byte[], byte[]> fetcher = new Fetcher<>(consumerClient, minBytes, maxBytes, maxWaitMs, fetchSize,
+                Integer.MAX_VALUE, true, new ByteArrayDeserializer(), new ByteArrayDeserializer(), metadata,
+                subscriptions, new Metrics(time), metricsRegistry, time, retryBackoffMs,
+                IsolationLevel.READ_UNCOMMITTED, null, new FetchBufferPool(Long.MAX_VALUE), prioritizer, "");
+        subscriptions.assignFromUser(new HashSet<>(Arrays.asList(tp1, tp2)));
+        subscriptions.seek(tp1, 0);
+        subscriptions.seek(tp2, 0);
+
+        // the full fetch which creates the session lists the partitions in the prioritized order
+        assertEquals(1, fetcher.sendFetches());
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+        for (TopicPartition tp : Arrays.asList(tp1, tp2))
+            responseData.put(tp, new FetchResponse.PartitionData(Errors.NONE, 100L,
+                    FetchResponse.INVALID_LAST_STABLE_OFFSET, 0L, null, MemoryRecords.EMPTY));
+        client.prepareResponse(new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                FetchRequest fetch = (FetchRequest) body;
+                return fetch.metadata().equals(FetchMetadata.INITIAL) &&
+                        new ArrayList<>(fetch.fetchData().keySet()).equals(Arrays.asList(tp2, tp1));
+            }
+        }, new FetchResponse(Errors.NONE, responseData, 0, 123));
+        consumerClient.poll(0);
+        assertTrue(fetcher.fetchedRecords().isEmpty());
+
+        // within the session, a new order without any other change does not change the request
+        order.clear();
+        order.addAll(Arrays.asList(tp1, tp2));
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fetchRequestMatcher(new FetchMetadata(123, 1), Collections.<TopicPartition>emptySet()),
+                new FetchResponse(Errors.NONE, new LinkedHashMap<TopicPartition, FetchResponse.PartitionData>(), 0, 123));
+        consumerClient.poll(0);
+        assertFalse(client.hasInFlightRequests());
+        fetcher.close();
+    }
+
+    @Test
+    public void testFetchPrioritizerReturningUnknownPartition() {
+        FetchPrioritizer prioritizer = new FetchPrioritizer() {
+            @Override
+            public void configure(Map<String, ?> configs) {}
+
+            @Override
+            public Map<TopicPartition, Integer> prioritize(List<PartitionState> partitions, int maxBytes,
+                                                           int maxPartitionBytes, long bufferedBytes) {
+                return Collections.singletonMap(tp2, maxPartitionBytes);
+            }
+        };
+        Fetcher<byte[], byte[]> fetcher = new Fetcher<>(consumerClient, minBytes, maxBytes, maxWaitMs, fetchSize,
+                Integer.MAX_VALUE, true, new ByteArrayDeserializer(), new ByteArrayDeserializer(), metadata,
+                subscriptions, new Metrics(time), metricsRegistry, time, retryBackoffMs,
+                IsolationLevel.READ_UNCOMMITTED, null, new FetchBufferPool(Long.MAX_VALUE), prioritizer, "");
+        subscriptions.assignFromUser(singleton(tp1));
+        subscriptions.seek(tp1, 0);
+        try {
+            fetcher.sendFetches();
+            fail("Expected the fetch of a partition which is not fetchable to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        } finally {
+            fetcher.close();
+        }
+    }
+
+    private void awaitCompletedFetches(final Fetcher<?, ?> fetcher) throws InterruptedException {
+        TestUtils.waitForCondition(new TestCondition() {
+            @Override
+            public boolean conditionMet() {
+                return fetcher.hasCompletedFetches();
+            }
+        }, "Timed out waiting for the fetch to be decoded");
+    }
+
     @Test
     public void testParseInvalidRecordBatch() throws Exception {
         MemoryRecords records = MemoryRecords.withRecords(RecordBatch.MAGIC_VALUE_V2, 0L,
@@ -496,6 +862,52 @@ public class FetcherTest {
         assertEquals("headerKey", record.headers().lastHeader("headerKey").key());
     }
 
+    @Test
+    public void testFetchWithZeroCopyDeserializer() {
+        ZeroCopyStringDeserializer deserializer = new ZeroCopyStringDeserializer();
+        Fetcher<String, String> fetcher = createFetcher(subscriptions, new Metrics(time), deserializer, deserializer);
+
+        Header[] headers = new Header[] {new RecordHeader("headerKey", "headerValue".getBytes(StandardCharsets.UTF_8))};
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long offset = 1L;
+        for (CompressionType compressionType : Arrays.asList(CompressionType.NONE, CompressionType.LZ4, CompressionType.GZIP)) {
+            MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, compressionType, TimestampType.CREATE_TIME, offset);
+            for (int i = 0; i < 3; i++, offset++)
+                builder.append(0L, ("key-" + offset).getBytes(), ("value-" + offset).getBytes(), headers);
+            builder.append(0L, (byte[]) null, null);
+            offset++;
+            builder.close();
+        }
+        buffer.flip();
+
+        subscriptions.assignFromUser(singleton(tp1));
+        subscriptions.seek(tp1, 1);
+        client.prepareResponse(matchesOffset(tp1, 1), fetchResponse(tp1, MemoryRecords.readableRecords(buffer), Errors.NONE, 100L, 0));
+
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        List<ConsumerRecord<String, String>> records = fetcher.fetchedRecords().get(tp1);
+
+        assertEquals(12, records.size());
+        assertEquals(13L, subscriptions.position(tp1).longValue());
+        for (ConsumerRecord<String, String> record : records) {
+            if ((record.offset() % 4) == 0) {
+                assertNull(record.key());
+                assertNull(record.value());
+                assertEquals(-1, record.serializedKeySize());
+                assertEquals(-1, record.serializedValueSize());
+                assertFalse(record.headers().iterator().hasNext());
+            } else {
+                assertEquals("key-" + record.offset(), record.key());
+                assertEquals("value-" + record.offset(), record.value());
+                assertEquals(record.key().length(), record.serializedKeySize());
+                assertEquals(record.value().length(), record.serializedValueSize());
+                assertEquals("headerValue", new String(record.headers().lastHeader("headerKey").value(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(18, deserializer.byteBufferDeserializations);
+    }
+
     @Test
     public void testFetchMaxPollRecords() {
         Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), 2);
@@ -763,6 +1175,74 @@ public class FetcherTest {
         assertEquals(1, subscriptions.position(tp1).longValue());
     }
 
+    @Test
+    public void testFetchFromPreferredReadReplica() {
+        Cluster cluster = TestUtils.clusterWith(2, topicName, 1);
+        metadata.update(cluster, Collections.<String>emptySet(), time.milliseconds());
+        Node leader = cluster.leaderFor(tp1);
+        Node follower = cluster.nodeById(1);
+        subscriptions.assignFromUser(singleton(tp1));
+        subscriptions.seek(tp1, 0);
+
+        // the leader directs the consumer to the follower
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponseFrom(fetchResponseWithPreferredReadReplica(tp1, follower.id()), leader);
+        consumerClient.poll(0);
+        assertEquals(0, fetcher.fetchedRecords().size());
+        assertEquals(follower.id(), subscriptions.preferredReadReplica(tp1, time.milliseconds()).intValue());
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponseFrom(fetchResponse(tp1, this.records, Errors.NONE, 100L, 0), follower);
+        consumerClient.poll(0);
+        assertEquals(3, fetcher.fetchedRecords().get(tp1).size());
+        assertEquals(4L, subscriptions.position(tp1).longValue());
+
+        // an out of range offset on the follower is retried on the leader instead of resetting the offset
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponseFrom(fetchResponse(tp1, MemoryRecords.EMPTY, Errors.OFFSET_OUT_OF_RANGE, 100L, 0), follower);
+        consumerClient.poll(0);
+        assertEquals(0, fetcher.fetchedRecords().size());
+        assertFalse(subscriptions.isOffsetResetNeeded(tp1));
+        assertNull(subscriptions.preferredReadReplica(tp1, time.milliseconds()));
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponseFrom(fetchResponse(tp1, this.nextRecords, Errors.NONE, 100L, 0), leader);
+        consumerClient.poll(0);
+        assertEquals(2, fetcher.fetchedRecords().get(tp1).size());
+    }
+
+    @Test
+    public void testFetchFromLeaderIfPreferredReadReplicaFails() {
+        Cluster cluster = TestUtils.clusterWith(2, topicName, 1);
+        metadata.update(cluster, Collections.<String>emptySet(), time.milliseconds());
+        Node leader = cluster.leaderFor(tp1);
+        Node follower = cluster.nodeById(1);
+        subscriptions.assignFromUser(singleton(tp1));
+        subscriptions.seek(tp1, 0);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponseFrom(fetchResponseWithPreferredReadReplica(tp1, follower.id()), leader);
+        consumerClient.poll(0);
+        fetcher.fetchedRecords();
+
+        // the consumer fetches from the leader if it cannot connect to the follower
+        client.blackout(follower, 500L);
+        assertEquals(1, fetcher.sendFetches());
+        assertNull(subscriptions.preferredReadReplica(tp1, time.milliseconds()));
+        client.prepareResponseFrom(fetchResponseWithPreferredReadReplica(tp1, follower.id()), leader);
+        consumerClient.poll(0);
+        fetcher.fetchedRecords();
+        assertEquals(follower.id(), subscriptions.preferredReadReplica(tp1, time.milliseconds()).intValue());
+
+        // or if the fetch from the follower fails
+        time.sleep(501L);
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponseFrom(fetchResponse(tp1, this.records, Errors.NONE, 100L, 0), follower, true);
+        consumerClient.poll(0);
+        assertEquals(0, fetcher.fetchedRecords().size());
+        assertNull(subscriptions.preferredReadReplica(tp1, time.milliseconds()));
+    }
+
     @Test
     public void testFetchedRecordsAfterSeek() {
         subscriptionsNoAutoReset.assignFromUser(singleton(tp1));
@@ -1975,6 +2455,13 @@ public class FetcherTest {
         return new FetchResponse(new LinkedHashMap<>(partitions), throttleTime);
     }
 
+    private FetchResponse fetchResponseWithPreferredReadReplica(TopicPartition tp, int preferredReadReplica) {
+        Map<TopicPartition, FetchResponse.PartitionData> partitions = Collections.singletonMap(tp,
+                new FetchResponse.PartitionData(Errors.NONE, 100L, FetchResponse.INVALID_LAST_STABLE_OFFSET, 0L, null,
+                        preferredReadReplica, MemoryRecords.EMPTY));
+        return new FetchResponse(new LinkedHashMap<>(partitions), 0);
+    }
+
     private MetadataResponse newMetadataResponse(String topic, Errors error) {
         List<MetadataResponse.PartitionMetadata> partitionsMetadata = new ArrayList<>();
         if (error == Errors.NONE) {
@@ -2035,10 +2522,49 @@ public class FetcherTest {
                 isolationLevel);
     }
 
+    private <K, V> Fetcher<K, V> createFetcher(SubscriptionState subscriptions,
+                                               Metrics metrics,
+                                               Deserializer<K> keyDeserializer,
+                                               Deserializer<V> valueDeserializer,
+                                               int maxPollRecords,
+                                               IsolationLevel isolationLevel,
+                                               FetchDecoder decoder) {
+        return createFetcher(subscriptions, metrics, keyDeserializer, valueDeserializer, maxPollRecords, isolationLevel,
+                decoder, new FetchBufferPool(Long.MAX_VALUE));
+    }
+
+    private <K, V> Fetcher<K, V> createFetcher(SubscriptionState subscriptions,
+                                               Metrics metrics,
+                                               Deserializer<K> keyDeserializer,
+                                               Deserializer<V> valueDeserializer,
+                                               int maxPollRecords,
+                                               IsolationLevel isolationLevel,
+                                               FetchDecoder decoder,
+                                               FetchBufferPool bufferPool) {
+        return new Fetcher<>(consumerClient, minBytes, maxBytes, maxWaitMs, fetchSize, maxPollRecords, true,
+                keyDeserializer, valueDeserializer, metadata, subscriptions, metrics, metricsRegistry, time,
+                retryBackoffMs, isolationLevel, decoder, bufferPool, null, "");
+    }
+
     private <T> List<Long> collectRecordOffsets(List<ConsumerRecord<T, T>> records) {
         List<Long> res = new ArrayList<>(records.size());
         for (ConsumerRecord<?, ?> record : records)
             res.add(record.offset());
         return res;
     }
+
+    private static class ZeroCopyStringDeserializer extends StringDeserializer implements ZeroCopyDeserializer<String> {
+        private int byteBufferDeserializations = 0;
+
+        @Override
+        public String deserialize(String topic, Headers headers, byte[] data) {
+            return deserialize(topic, data);
+        }
+
+        @Override
+        public String deserialize(String topic, Headers headers, ByteBuffer data) {
+            byteBufferDeserializations++;
+            return new String(data.array(), data.arrayOffset() + data.position(), data.remaining(), StandardCharsets.UTF_8);
+        }
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer.internals;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffsetWatermarkTest {
+
+    private final OffsetWatermark watermark = new OffsetWatermark();
+
+    @Test
+    public void testCommittableOffsetIsFirstPendingOffset() {
+        assertEquals(-1L, watermark.committableOffset());
+        for (long offset = 10; offset < 15; offset++)
+            watermark.dispatched(offset);
+        assertEquals(10L, watermark.committableOffset());
+
+        watermark.completed(11);
+        watermark.completed(13);
+        assertEquals(10L, watermark.committableOffset());
+        watermark.completed(10);
+        assertEquals(12L, watermark.committableOffset());
+        watermark.completed(14);
+        watermark.completed(12);
+        assertEquals(15L, watermark.committableOffset());
+        assertEquals(0, watermark.pendingCount());
+    }
+
+    @Test
+    public void testGapsDoNotHoldBackCommittableOffset() {
+        watermark.dispatched(5);
+        watermark.dispatched(9);
+        watermark.completed(5);
+        assertEquals(9L, watermark.committableOffset());
+        watermark.completed(9);
+        assertEquals(10L, watermark.committableOffset());
+
+        // the next record is beyond a large gap
+        watermark.dispatched(1000000);
+        assertEquals(1000000L, watermark.committableOffset());
+        assertFalse(watermark.isPending(9));
+        assertTrue(watermark.isPending(1000000));
+    }
+
+    @Test
+    public void testCompaction() {
+        for (long offset = 0; offset < 10000; offset++)
+            watermark.dispatched(offset);
+        watermark.completed(9999);
+        for (long offset = 0; offset < 5000; offset++) {
+            watermark.completed(offset);
+            assertEquals(offset + 1, watermark.committableOffset());
+        }
+        assertTrue(watermark.isPending(5000));
+        assertFalse(watermark.isPending(9999));
+        assertEquals(4999, watermark.pendingCount());
+        watermark.dispatched(10000);
+        assertEquals(5000L, watermark.committableOffset());
+    }
+
+    @Test
+    public void testRewind() {
+        watermark.dispatched(5);
+        watermark.dispatched(6);
+        watermark.completed(5);
+
+        // the records dispatched before the rewind are forgotten
+        watermark.dispatched(2);
+        assertFalse(watermark.isPending(6));
+        assertEquals(1, watermark.pendingCount());
+        assertEquals(2L, watermark.committableOffset());
+        watermark.completed(2);
+        assertEquals(3L, watermark.committableOffset());
+    }
+
+    @Test
+    public void testReset() {
+        watermark.dispatched(5);
+        watermark.reset();
+        assertEquals(-1L, watermark.committableOffset());
+        assertEquals(0, watermark.pendingCount());
+        watermark.dispatched(10);
+        assertEquals(10L, watermark.committableOffset());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompletingOffsetWhichIsNotPending() {
+        watermark.dispatched(5);
+        watermark.completed(6);
+    }
+}
@@ -34,6 +34,7 @@ import java.util.regex.Pattern;
 import static java.util.Collections.singleton;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class SubscriptionStateTest {
@@ -62,6 +63,20 @@ public class SubscriptionStateTest {
         assertFalse(state.isFetchable(tp0));
     }
 
+    @Test
+    public void preferredReadReplicaExpires() {
+        state.assignFromUser(singleton(tp0));
+        assertNull(state.preferredReadReplica(tp0, 0L));
+        state.updatePreferredReadReplica(tp0, 1, 10L);
+        assertEquals(1, state.preferredReadReplica(tp0, 9L).intValue());
+        assertNull(state.preferredReadReplica(tp0, 10L));
+
+        state.updatePreferredReadReplica(tp0, 2, 10L);
+        assertEquals(2, state.clearPreferredReadReplica(tp0).intValue());
+        assertNull(state.preferredReadReplica(tp0, 0L));
+        assertNull(state.clearPreferredReadReplica(tp1));
+    }
+
     @Test
     public void partitionAssignmentChangeOnTopicSubscription() {
         state.assignFromUser(new HashSet<>(Arrays.asList(tp0, tp1)));
@@ -19,8 +19,10 @@ package org.apache.kafka.clients.producer;
 import org.apache.kafka.clients.CommonClientConfigs;
 import org.apache.kafka.clients.Metadata;
 import org.apache.kafka.clients.producer.internals.ProducerInterceptors;
+import org.apache.kafka.clients.producer.internals.TransactionManager;
 import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
@@ -55,8 +57,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -484,4 +490,58 @@ public class KafkaProducerTest {
             // expected
         }
     }
+
+    @Test
+    public void testTrySendQueuesRecordsWithoutMetadata() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9999");
+        props.setProperty(ProducerConfig.MAX_PENDING_RECORDS_CONFIG, "1");
+        KafkaProducer<String, String> producer = new KafkaProducer<>(props, new StringSerializer(), new StringSerializer());
+
+        KafkaFuture<RecordMetadata> future = producer.trySend(new ProducerRecord<String, String>("topic", "value"), null);
+        assertFalse(future.isDone());
+        // the queue of records waiting for metadata is full
+        assertNull(producer.trySend(new ProducerRecord<String, String>("topic", "value"), null));
+
+        producer.close(0, TimeUnit.MILLISECONDS);
+        try {
+            future.get();
+            fail("The record should have failed when the producer was closed");
+        } catch (ExecutionException e) {
+            assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+    }
+
+    @Test
+    public void testTrySendDoesNotQueueRecordsOfTransactionalProducers() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9999");
+        props.setProperty(ProducerConfig.TRANSACTIONAL_ID_CONFIG, "transactionalId");
+        KafkaProducer<String, String> producer = new KafkaProducer<>(props, new StringSerializer(), new StringSerializer());
+
+        // no transaction has been started
+        try {
+            producer.trySend(new ProducerRecord<String, String>("topic", "value"), null);
+            fail("Expected IllegalStateException to be raised");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // a record of an ongoing transaction is rejected rather than queued until the metadata is available, when it
+        // could be appended after the transaction has completed
+        TransactionManager transactionManager = PowerMock.createNiceMock(TransactionManager.class);
+        EasyMock.expect(transactionManager.isTransactional()).andReturn(true).anyTimes();
+        transactionManager.failIfNotReadyForSend();
+        EasyMock.expectLastCall().times(2);
+        PowerMock.replay(transactionManager);
+        MemberModifier.field(KafkaProducer.class, "transactionManager").set(producer, transactionManager);
+
+        assertNull(producer.trySend(new ProducerRecord<String, String>("topic", "value"), null));
+        assertNull(producer.trySend(new ProducerRecord<String, String>("topic", "value"), null));
+        PowerMock.verify(transactionManager);
+
+        // nothing was queued, so flush does not wait for the metadata
+        producer.flush();
+        producer.close(0, TimeUnit.MILLISECONDS);
+    }
 }
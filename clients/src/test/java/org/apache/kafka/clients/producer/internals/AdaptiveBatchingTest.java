@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveBatchingTest {
+
+    private final TopicPartition tp = new TopicPartition("test", 0);
+    private final AdaptiveBatching adaptiveBatching = new AdaptiveBatching(5L, 100L, 16 * 1024, 256 * 1024);
+
+    @Test
+    public void testMinimumValuesWithoutSamples() {
+        assertEquals(5L, adaptiveBatching.lingerMs(tp));
+        assertEquals(16 * 1024, adaptiveBatching.batchSize(tp));
+
+        // the latency is not known yet
+        adaptiveBatching.onDrained(tp, 16 * 1024, 0L);
+        adaptiveBatching.onDrained(tp, 16 * 1024, 10L);
+        assertEquals(5L, adaptiveBatching.lingerMs(tp));
+        assertEquals(16 * 1024, adaptiveBatching.batchSize(tp));
+    }
+
+    @Test
+    public void testHighLoad() {
+        // 64 KB arrive per ms and a produce request takes 20 ms
+        long now = 0L;
+        adaptiveBatching.onDrained(tp, 0, now);
+        adaptiveBatching.onCompleted(tp, 20L);
+        for (int i = 0; i < 100; i++) {
+            now += 1;
+            adaptiveBatching.onDrained(tp, 64 * 1024, now);
+            adaptiveBatching.onCompleted(tp, 20L);
+        }
+        // the data of one round trip does not fit in the largest batch, so it is used and sent as soon as it is full
+        assertEquals(256 * 1024, adaptiveBatching.batchSize(tp));
+        adaptiveBatching.onDrained(tp, 64 * 1024, now + 1);
+        assertEquals(5L, adaptiveBatching.lingerMs(tp));
+    }
+
+    @Test
+    public void testModerateLoad() {
+        // 1 KB arrives per ms and a produce request takes 40 ms
+        long now = 0L;
+        adaptiveBatching.onDrained(tp, 0, now);
+        adaptiveBatching.onCompleted(tp, -1L);
+        for (int i = 0; i < 100; i++) {
+            now += 10;
+            adaptiveBatching.onDrained(tp, 10 * 1024, now);
+            adaptiveBatching.onCompleted(tp, 40L);
+        }
+        assertEquals(40 * 1024, adaptiveBatching.batchSize(tp));
+        // there is no request in flight, so there is no reason to wait
+        assertEquals(5L, adaptiveBatching.lingerMs(tp));
+
+        // while a request is in flight, wait for the batch to fill up, which takes as long as the request
+        adaptiveBatching.onDrained(tp, 10 * 1024, now + 10);
+        assertEquals(40L, adaptiveBatching.lingerMs(tp));
+        assertEquals(40.0, adaptiveBatching.maxLingerMs(), 0.0);
+        assertEquals(40.0, adaptiveBatching.averageLingerMs(), 0.0);
+        assertEquals(40.0 * 1024, adaptiveBatching.averageBatchSize(), 0.0);
+
+        // other partitions are not affected
+        TopicPartition other = new TopicPartition("test", 1);
+        assertEquals(5L, adaptiveBatching.lingerMs(other));
+        assertEquals(16 * 1024, adaptiveBatching.batchSize(other));
+    }
+
+    @Test
+    public void testLingerIsBounded() {
+        // 10 bytes arrive per ms and a produce request takes 500 ms
+        long now = 0L;
+        adaptiveBatching.onDrained(tp, 0, now);
+        for (int i = 0; i < 100; i++) {
+            now += 100;
+            adaptiveBatching.onDrained(tp, 1000, now);
+            adaptiveBatching.onCompleted(tp, 500L);
+        }
+        adaptiveBatching.onDrained(tp, 1000, now + 100);
+        assertEquals(16 * 1024, adaptiveBatching.batchSize(tp));
+        assertEquals(100L, adaptiveBatching.lingerMs(tp));
+    }
+
+    @Test
+    public void testFailedRequestsDoNotAffectLatency() {
+        long now = 0L;
+        adaptiveBatching.onDrained(tp, 0, now);
+        for (int i = 0; i < 100; i++) {
+            now += 10;
+            adaptiveBatching.onDrained(tp, 10 * 1024, now);
+            adaptiveBatching.onCompleted(tp, i % 2 == 0 ? 40L : -1L);
+        }
+        assertEquals(40 * 1024, adaptiveBatching.batchSize(tp));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLingerBounds() {
+        new AdaptiveBatching(10L, 5L, 1024, 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchSizeBounds() {
+        new AdaptiveBatching(0L, 5L, 1024, 512);
+    }
+}
@@ -23,18 +23,21 @@ import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.metrics.stats.Rate;
 import org.apache.kafka.common.utils.MockTime;
 import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.test.TestCondition;
 import org.apache.kafka.test.TestUtils;
 import org.junit.After;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -50,6 +53,7 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.anyString;
 
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assert.assertEquals;
@@ -108,6 +112,31 @@ public class BufferPoolTest {
         pool.allocate(1025, maxBlockTimeMs);
     }
 
+    @Test
+    public void testTryAllocate() throws Exception {
+        final BufferPool pool = new BufferPool(2 * 1024, 1024, metrics, time, metricGroup);
+        ByteBuffer pooled = pool.tryAllocate(1024);
+        assertEquals(1024, pooled.capacity());
+        assertNull("There is not enough memory", pool.tryAllocate(2 * 1024));
+        pool.deallocate(pooled);
+
+        // the pooled buffer is freed up for a larger allocation
+        ByteBuffer large = pool.tryAllocate(2 * 1024);
+        assertEquals(2 * 1024, large.capacity());
+        assertNull(pool.tryAllocate(1));
+
+        // a blocked allocation takes precedence
+        CountDownLatch allocation = asyncAllocate(pool, 1024);
+        TestUtils.waitForCondition(new TestCondition() {
+            @Override
+            public boolean conditionMet() {
+                return pool.queued() == 1;
+            }
+        }, "The allocation should be blocked");
+        pool.deallocate(large);
+        assertTrue(allocation.await(1, TimeUnit.SECONDS));
+    }
+
     /**
      * Test that delayed allocation blocks
      */
@@ -251,6 +280,7 @@ public class BufferPoolTest {
         MetricName metricName = createNiceMock(MetricName.class);
 
         expect(mockedMetrics.sensor(BufferPool.WAIT_TIME_SENSOR_NAME)).andReturn(mockedSensor);
+        expect(mockedMetrics.sensor(BufferPool.BLOCKED_ALLOCATION_SENSOR_NAME)).andReturn(createNiceMock(Sensor.class));
 
         mockedSensor.record(anyDouble(), anyLong());
         expectLastCall().andThrow(new OutOfMemoryError());
@@ -272,6 +302,75 @@ public class BufferPoolTest {
         bufferPool.allocate(1, 0);
     }
 
+    @Test
+    public void testBlockedAllocationsAreServedInOrder() throws Exception {
+        final BufferPool pool = new BufferPool(4 * 1024, 1024, metrics, Time.SYSTEM, metricGroup);
+        ByteBuffer buffer = pool.allocate(4 * 1024, maxBlockTimeMs);
+        final List<Integer> completed = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final int id = i;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        // the first waiter needs all the memory, the ones behind it must not overtake it
+                        ByteBuffer allocated = pool.allocate(id == 0 ? 4 * 1024 : 1024, maxBlockTimeMs);
+                        completed.add(id);
+                        pool.deallocate(allocated);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+            final int queued = i + 1;
+            TestUtils.waitForCondition(new TestCondition() {
+                @Override
+                public boolean conditionMet() {
+                    return pool.queued() == queued;
+                }
+            }, "Allocation should be waiting for memory");
+        }
+
+        pool.deallocate(buffer, 1024);
+        Thread.sleep(100);
+        assertTrue("No allocation should overtake the longest waiting one", completed.isEmpty());
+        pool.deallocate(buffer, 3 * 1024);
+        for (Thread thread : threads)
+            thread.join();
+        assertNull("Allocation failed: " + failure.get(), failure.get());
+        assertEquals(3, completed.size());
+        assertEquals(0, (int) completed.get(0));
+        assertEquals(4 * 1024, pool.availableMemory());
+        assertTrue(metrics.metrics().get(metrics.metricName("bufferpool-wait-time-max", metricGroup)).value() > 0);
+    }
+
+    @Test
+    public void testCacheHitRatio() throws Exception {
+        BufferPool pool = new BufferPool(4 * 1024, 1024, metrics, time, metricGroup);
+        MetricName hitRatio = metrics.metricName("bufferpool-cache-hit-ratio", metricGroup);
+        assertEquals(0.0, metrics.metrics().get(hitRatio).value(), 0.0);
+
+        ByteBuffer buffer = pool.allocate(1024, maxBlockTimeMs);
+        pool.deallocate(buffer);
+        // allocations of other sizes are not taken into account
+        pool.deallocate(pool.allocate(512, maxBlockTimeMs));
+        assertEquals(0.0, metrics.metrics().get(hitRatio).value(), 0.0);
+
+        assertTrue(buffer == pool.allocate(1024, maxBlockTimeMs));
+        assertEquals(0.5, metrics.metrics().get(hitRatio).value(), 0.0);
+    }
+
+    @Test
+    public void testStripes() {
+        assertEquals(1, BufferPool.stripes(1));
+        assertEquals(2, BufferPool.stripes(2));
+        assertEquals(8, BufferPool.stripes(5));
+        assertEquals(64, BufferPool.stripes(1000));
+    }
+
     private static class BufferPoolAllocator implements Runnable {
         BufferPool pool;
         long maxBlockTimeMs;
@@ -17,6 +17,7 @@
 package org.apache.kafka.clients.producer.internals;
 
 import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
@@ -28,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 public class DefaultPartitionerTest {
@@ -98,4 +100,39 @@ public class DefaultPartitionerTest {
         assertEquals(10, (int) partitionCount.get(1));
         assertEquals(10, (int) partitionCount.get(2));
     }
+
+    @Test
+    public void testStickyPartitioning() {
+        DefaultPartitioner stickyPartitioner = new DefaultPartitioner();
+        stickyPartitioner.configure(Collections.singletonMap(ProducerConfig.PARTITIONER_STICKY_ENABLE_CONFIG, "true"));
+
+        // records without a key stay on one available partition
+        int partition = stickyPartitioner.partition(topic, null, null, null, null, cluster);
+        assertTrue("We should never choose a leader-less node", partition == 0 || partition == 2);
+        for (int i = 0; i < 10; i++)
+            assertEquals(partition, stickyPartitioner.partition(topic, null, null, null, null, cluster));
+
+        // records with a key are not affected
+        assertEquals(partitioner.partition(topic, null, keyBytes, null, null, cluster),
+                stickyPartitioner.partition(topic, null, keyBytes, null, null, cluster));
+
+        // the partition changes when a new batch is needed for it
+        stickyPartitioner.onNewBatch(topic, cluster, partition);
+        int nextPartition = stickyPartitioner.partition(topic, null, null, null, null, cluster);
+        assertNotEquals(partition, nextPartition);
+        assertTrue("We should never choose a leader-less node", nextPartition == 0 || nextPartition == 2);
+
+        // but only once if several threads needed a new batch for the same partition
+        stickyPartitioner.onNewBatch(topic, cluster, partition);
+        assertEquals(nextPartition, stickyPartitioner.partition(topic, null, null, null, null, cluster));
+    }
+
+    @Test
+    public void testOnNewBatchWithoutStickyPartitioning() {
+        DefaultPartitioner roundRobinPartitioner = new DefaultPartitioner();
+        roundRobinPartitioner.configure(Collections.<String, Object>emptyMap());
+        int partition = roundRobinPartitioner.partition(topic, null, null, null, null, cluster);
+        roundRobinPartitioner.onNewBatch(topic, cluster, partition);
+        assertNotEquals(partition, roundRobinPartitioner.partition(topic, null, null, null, null, cluster));
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.utils.MockTime;
+import org.apache.kafka.test.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PendingRecordsTest {
+
+    private final MockTime time = new MockTime(1L);
+    private final Cluster cluster = TestUtils.singletonCluster("known", 1);
+    private final List<String> appended = new ArrayList<>();
+    private final List<String> failed = new ArrayList<>();
+    // the entries with these names can not be appended because there is no buffer memory
+    private final List<String> noMemory = new ArrayList<>();
+
+    private class TestEntry extends PendingRecords.Entry {
+        private final String name;
+
+        TestEntry(String topic, String name, long deadlineMs) {
+            super(topic, deadlineMs);
+            this.name = name;
+        }
+
+        @Override
+        protected boolean append(Cluster cluster) {
+            if (cluster.partitionsForTopic(topic()).isEmpty() || noMemory.contains(name))
+                return false;
+            if (name.startsWith("invalid"))
+                throw new IllegalArgumentException(name);
+            appended.add(name);
+            return true;
+        }
+
+        @Override
+        protected void fail(RuntimeException exception) {
+            failed.add(name + ":" + exception.getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    public void testRecordsOfATopicKeepTheirOrder() {
+        PendingRecords pending = new PendingRecords(10, time);
+        assertTrue(pending.offer(new TestEntry("unknown", "u1", 100L)));
+        assertTrue(pending.offer(new TestEntry("known", "k1", 100L)));
+        assertTrue(pending.offer(new TestEntry("known", "k2", 100L)));
+        assertTrue(pending.offer(new TestEntry("unknown", "u2", 100L)));
+        noMemory.add("k1");
+
+        assertEquals(100L, pending.appendReady(cluster, 0L));
+        assertEquals(0, appended.size());
+        assertTrue(pending.contains("known"));
+        assertTrue(pending.contains("unknown"));
+
+        noMemory.clear();
+        assertEquals(90L, pending.appendReady(cluster, 10L));
+        assertEquals(Arrays.asList("k1", "k2"), appended);
+        assertFalse(pending.contains("known"));
+        assertEquals(2, pending.size());
+
+        pending.appendReady(TestUtils.clusterWith(1, "unknown", 1), 20L);
+        assertEquals(Arrays.asList("k1", "k2", "u1", "u2"), appended);
+        assertTrue(pending.isEmpty());
+    }
+
+    @Test
+    public void testExpiredAndFailedRecords() {
+        PendingRecords pending = new PendingRecords(10, time);
+        pending.offer(new TestEntry("unknown", "u1", 10L));
+        pending.offer(new TestEntry("unknown", "u2", 20L));
+        pending.offer(new TestEntry("known", "invalid", 20L));
+
+        assertEquals(10L, pending.appendReady(cluster, 0L));
+        assertEquals(Arrays.asList("invalid:IllegalArgumentException"), failed);
+
+        assertEquals(5L, pending.appendReady(cluster, 15L));
+        assertEquals(Arrays.asList("invalid:IllegalArgumentException", "u1:" + TimeoutException.class.getSimpleName()), failed);
+        assertEquals(1, pending.size());
+    }
+
+    @Test
+    public void testRecordsAreAppendedWithoutHoldingTheLock() {
+        final PendingRecords pending = new PendingRecords(10, time);
+        pending.offer(new PendingRecords.Entry("known", 100L) {
+            @Override
+            protected boolean append(Cluster cluster) {
+                assertFalse(Thread.holdsLock(pending));
+                // a record of the topic sent meanwhile is queued behind the record being appended
+                assertTrue(pending.contains("known"));
+                assertTrue(pending.offer(new TestEntry("known", "k2", 100L)));
+                appended.add("k1");
+                return true;
+            }
+
+            @Override
+            protected void fail(RuntimeException exception) {
+                failed.add("k1");
+            }
+        });
+
+        assertEquals(0L, pending.appendReady(cluster, 0L));
+        assertEquals(Arrays.asList("k1"), appended);
+        assertEquals(1, pending.size());
+        assertEquals(Long.MAX_VALUE, pending.appendReady(cluster, 0L));
+        assertEquals(Arrays.asList("k1", "k2"), appended);
+        assertTrue(pending.isEmpty());
+    }
+
+    @Test
+    public void testCapacityAndClose() throws Exception {
+        PendingRecords pending = new PendingRecords(1, time);
+        assertTrue(pending.offer(new TestEntry("unknown", "u1", 100L)));
+        assertFalse(pending.offer(new TestEntry("unknown", "u2", 100L)));
+        assertFalse(pending.awaitEmpty(1L));
+
+        pending.close();
+        try {
+            pending.offer(new TestEntry("known", "k1", 100L));
+            fail("Records should not be accepted after close");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        pending.failAll(new IllegalStateException());
+        assertEquals(Arrays.asList("u1:IllegalStateException"), failed);
+        assertTrue(pending.awaitEmpty(1L));
+    }
+}
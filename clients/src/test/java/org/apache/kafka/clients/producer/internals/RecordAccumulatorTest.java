@@ -29,6 +29,7 @@ import org.apache.kafka.common.errors.UnsupportedVersionException;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.record.CompressionRatioEstimator;
+import org.apache.kafka.common.record.CompressionOptions;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.DefaultRecord;
 import org.apache.kafka.common.record.DefaultRecordBatch;
@@ -49,6 +50,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -57,11 +59,13 @@ import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -289,6 +293,239 @@ public class RecordAccumulatorTest {
     }
 
 
+    @Test
+    public void testThreadsAppendToTheirOwnOpenBatch() throws Exception {
+        long lingerMs = 10L;
+        final RecordAccumulator accum = new RecordAccumulator(1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10 * 1024,
+                CompressionType.NONE, CompressionOptions.DEFAULT, lingerMs, 100L, 2, null, metrics, time, new ApiVersions(), null);
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+
+        // find a thread that appends to the other open batch
+        Thread other;
+        do {
+            other = new Thread() {
+                public void run() {
+                    try {
+                        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        } while (other.getId() % 2 == Thread.currentThread().getId() % 2);
+        other.start();
+        other.join();
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+
+        Deque<ProducerBatch> partitionBatches = accum.batches().get(tp1);
+        assertEquals(2, partitionBatches.size());
+        assertEquals("Open batches should not be ready before the linger time", 0,
+                accum.ready(cluster, time.milliseconds()).readyNodes.size());
+
+        time.sleep(lingerMs);
+        assertEquals(Collections.singleton(node1), accum.ready(cluster, time.milliseconds()).readyNodes);
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, time.milliseconds()).get(node1.id());
+        assertEquals(1, batches.size());
+        int records = 0;
+        for (Record record : batches.get(0).records().records())
+            records++;
+        assertEquals(2, records);
+        // the batch of the other thread is now the first one and can still be appended to
+        assertEquals(1, partitionBatches.size());
+        assertTrue(partitionBatches.peekFirst().isWritable());
+    }
+
+    @Test
+    public void testRecordsOfEachThreadStayInOrderWithOpenBatches() throws Exception {
+        final int numThreads = 8;
+        final int msgs = 5000;
+        final RecordAccumulator accum = new RecordAccumulator(1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10 * 1024,
+                CompressionType.NONE, CompressionOptions.DEFAULT, 0L, 100L, 4, null, metrics, time, new ApiVersions(), null);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            final int thread = i;
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < msgs; i++) {
+                            byte[] value = ByteBuffer.allocate(8).putInt(thread).putInt(i).array();
+                            accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+        int read = 0;
+        int[] next = new int[numThreads];
+        // stop draining if an append failed, the remaining records would never arrive
+        while (read < numThreads * msgs && failure.get() == null) {
+            Set<Node> nodes = accum.ready(cluster, time.milliseconds()).readyNodes;
+            List<ProducerBatch> batches = accum.drain(cluster, nodes, 5 * 1024, 0).get(node1.id());
+            if (batches != null) {
+                for (ProducerBatch batch : batches) {
+                    for (Record record : batch.records().records()) {
+                        ByteBuffer value = record.value();
+                        int thread = value.getInt();
+                        assertEquals(next[thread]++, value.getInt());
+                        read++;
+                    }
+                    accum.deallocate(batch);
+                }
+            }
+        }
+
+        for (Thread t : threads)
+            t.join();
+        assertNull("Append failed: " + failure.get(), failure.get());
+        assertEquals(10 * 1024, accum.bufferPoolAvailableMemory());
+    }
+
+    @Test
+    public void testPartialDrainsStartAtADifferentPartition() throws Exception {
+        RecordAccumulator accum = new RecordAccumulator(1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10 * 1024,
+                CompressionType.NONE, 10L, 100L, metrics, time, new ApiVersions(), null);
+        int appends = 2 * (1024 / msgSize + 1);
+        for (TopicPartition tp : asList(tp1, tp2)) {
+            for (int i = 0; i < appends; i++)
+                accum.append(tp, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        }
+
+        // the batches are of the same age, and each drain only has room for one of them
+        Set<TopicPartition> drained = new HashSet<>();
+        for (int i = 0; i < 2; i++) {
+            List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), 1024, 0).get(node1.id());
+            assertEquals(1, batches.size());
+            drained.add(batches.get(0).topicPartition);
+        }
+        assertEquals(new HashSet<>(asList(tp1, tp2)), drained);
+    }
+
+    @Test
+    public void testDrainOldestBatchesFirst() throws Exception {
+        RecordAccumulator accum = new RecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 0L, 100L, metrics, time,
+                new ApiVersions(), null);
+        accum.append(tp2, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        time.sleep(10);
+        int appends = 1024 / msgSize;
+        for (int i = 0; i < appends; i++)
+            accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+
+        // the batch of tp2 is older, and the batch of tp1 does not fit in the rest of the request
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), 512, time.milliseconds()).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(tp2, batches.get(0).topicPartition);
+
+        // a batch larger than the request size is sent alone
+        batches = accum.drain(cluster, Collections.singleton(node1), 512, time.milliseconds()).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(tp1, batches.get(0).topicPartition);
+    }
+
+    @Test
+    public void testDrainFillsRequestWithSmallerBatches() throws Exception {
+        Cluster cluster = new Cluster(null, Arrays.asList(node1), Arrays.asList(part1, part2,
+                new PartitionInfo(topic, partition3, node1, null, null)), Collections.<String>emptySet(), Collections.<String>emptySet());
+        RecordAccumulator accum = new RecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 0L, 100L, metrics, time,
+                new ApiVersions(), null);
+        int appends = 1024 / msgSize;
+        for (int i = 0; i < appends; i++)
+            accum.append(tp2, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        time.sleep(10);
+        for (int i = 0; i < appends; i++)
+            accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        time.sleep(10);
+        accum.append(tp3, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+
+        // the oldest batch is sent first, the batch of tp1 does not fit anymore, but the small batch of tp3 does
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), 1024 + 200, time.milliseconds()).get(node1.id());
+        assertEquals(2, batches.size());
+        assertEquals(tp2, batches.get(0).topicPartition);
+        assertEquals(tp3, batches.get(1).topicPartition);
+    }
+
+    @Test
+    public void testTryAppendWithoutBufferMemory() throws Exception {
+        RecordAccumulator accum = new RecordAccumulator(1024, 1024, CompressionType.NONE, 10L, 100L, metrics, time,
+                new ApiVersions(), null);
+        assertNotNull(accum.tryAppend(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, false));
+
+        // all the memory is used by the batch of tp1
+        assertNull(accum.tryAppend(tp2, 0L, key, value, Record.EMPTY_HEADERS, null, false));
+        assertNull(accum.batches().get(tp2).peekFirst());
+        assertNotNull(accum.tryAppend(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, false).future);
+
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, time.milliseconds()).get(node1.id());
+        for (ProducerBatch batch : batches)
+            accum.deallocate(batch);
+        assertNotNull(accum.tryAppend(tp2, 0L, key, value, Record.EMPTY_HEADERS, null, false).future);
+    }
+
+    @Test
+    public void testAbortOnNewBatch() throws Exception {
+        RecordAccumulator accum = new RecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 10L, 100L, metrics, time,
+                new ApiVersions(), null);
+        RecordAccumulator.RecordAppendResult result = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, true);
+        assertTrue(result.abortForNewBatch);
+        assertNull(result.future);
+        assertEquals(0, accum.batches().get(tp1).size());
+
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false);
+        result = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, true);
+        assertFalse(result.abortForNewBatch);
+        assertNotNull(result.future);
+        assertEquals(1, accum.batches().get(tp1).size());
+
+        // once the batch is sent, records for the partition need a new batch again
+        accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, time.milliseconds());
+        assertTrue(accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, true).abortForNewBatch);
+    }
+
+    @Test
+    public void testAdaptiveBatching() throws Exception {
+        AdaptiveBatching adaptiveBatching = new AdaptiveBatching(0L, 50L, 4096, 64 * 1024);
+        RecordAccumulator accum = new RecordAccumulator(4096, 1024 * 1024, CompressionType.NONE, CompressionOptions.DEFAULT,
+                0L, 100L, 1, adaptiveBatching, metrics, time, new ApiVersions(), null);
+        byte[] value = new byte[500];
+
+        // 2 KB are sent every 10 ms and the produce requests take 40 ms
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < 4; j++)
+                accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+            time.sleep(10);
+            // there is no request in flight, so the batch is sent right away
+            assertEquals(Collections.singleton(node1), accum.ready(cluster, time.milliseconds()).readyNodes);
+            List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, time.milliseconds()).get(node1.id());
+            assertEquals(1, batches.size());
+            accum.deallocate(batches.get(0));
+            accum.produceRequestCompleted(Collections.singleton(tp1), 40L);
+        }
+        int batchSize = adaptiveBatching.batchSize(tp1);
+        assertTrue("Batch size should have grown: " + batchSize, batchSize > 7000 && batchSize < 9000);
+
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        assertEquals(batchSize, accum.batches().get(tp1).peekFirst().buffer().capacity());
+        List<ProducerBatch> inFlight = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, time.milliseconds()).get(node1.id());
+        assertEquals(1, inFlight.size());
+
+        // while a request is in flight, batches linger until they are expected to be full
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        long lingerMs = adaptiveBatching.lingerMs(tp1);
+        assertTrue("Linger time should be about the produce latency: " + lingerMs, lingerMs >= 35 && lingerMs <= 45);
+        RecordAccumulator.ReadyCheckResult result = accum.ready(cluster, time.milliseconds());
+        assertEquals(0, result.readyNodes.size());
+        assertEquals(lingerMs, result.nextReadyCheckDelayMs);
+        assertEquals((double) lingerMs, metrics.metrics().get(metrics.metricName("adaptive-linger-ms-max", "producer-metrics")).value(), 0.0);
+        assertEquals((double) batchSize, metrics.metrics().get(metrics.metricName("adaptive-batch-size-avg", "producer-metrics")).value(), 0.0);
+
+        accum.produceRequestCompleted(Collections.singleton(tp1), 40L);
+        assertEquals(Collections.singleton(node1), accum.ready(cluster, time.milliseconds()).readyNodes);
+    }
+
     @Test
     public void testNextReadyCheckDelay() throws Exception {
         // Next check time will use lingerMs since this test won't trigger any retries/backoff
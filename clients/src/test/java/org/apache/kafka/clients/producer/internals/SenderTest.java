@@ -605,6 +605,42 @@ public class SenderTest {
         assertEquals((long) transactionManager.sequenceNumber(tp0), 1L);
     }
 
+    @Test
+    public void testIdempotentRequestsInFlightContainDifferentPartitions() throws Exception {
+        final long producerId = 343434L;
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setProducerIdAndEpoch(new ProducerIdAndEpoch(producerId, (short) 0));
+        setupWithTransactionState(transactionManager);
+
+        Future<RecordMetadata> first = accumulator.append(tp0, time.milliseconds(), "key".getBytes(), "value".getBytes(), null, null, MAX_BLOCK_TIMEOUT).future;
+        sender.run(time.milliseconds());  // connect.
+        sender.run(time.milliseconds());  // send.
+        assertEquals(1, client.inFlightRequestCount());
+        assertEquals(Collections.singletonMap(tp0, 0), lastRequestSequences());
+
+        // the second batch of tp0 waits for the first one, but tp1 can be sent in another request
+        Future<RecordMetadata> second = accumulator.append(tp0, time.milliseconds(), "key".getBytes(), "value".getBytes(), null, null, MAX_BLOCK_TIMEOUT).future;
+        Future<RecordMetadata> other = accumulator.append(tp1, time.milliseconds(), "key".getBytes(), "value".getBytes(), null, null, MAX_BLOCK_TIMEOUT).future;
+        sender.run(time.milliseconds());
+        assertEquals(2, client.inFlightRequestCount());
+        assertEquals(Collections.singletonMap(tp1, 0), lastRequestSequences());
+
+        client.respond(produceResponse(tp0, 0, Errors.NONE, 0));
+        sender.run(time.milliseconds());  // receive the response.
+        assertTrue(first.isDone());
+        sender.run(time.milliseconds());  // send the second batch of tp0.
+        assertEquals(2, client.inFlightRequestCount());
+        assertEquals(Collections.singletonMap(tp0, 1), lastRequestSequences());
+
+        client.respond(produceResponse(tp1, 0, Errors.NONE, 0));
+        client.respond(produceResponse(tp0, 1, Errors.NONE, 0));
+        sender.run(time.milliseconds());
+        assertTrue(other.isDone());
+        assertTrue(second.isDone());
+        assertEquals(2L, (long) transactionManager.sequenceNumber(tp0));
+        assertEquals(1L, (long) transactionManager.sequenceNumber(tp1));
+    }
+
     @Test
     public void testAbortRetryWhenProducerIdChanges() throws InterruptedException {
         final long producerId = 343434L;
@@ -814,6 +850,17 @@ public class SenderTest {
         }
     }
 
+    private Map<TopicPartition, Integer> lastRequestSequences() {
+        ClientRequest request = null;
+        for (ClientRequest inFlight : client.requests())
+            request = inFlight;
+        ProduceRequest produceRequest = (ProduceRequest) request.requestBuilder().build();
+        Map<TopicPartition, Integer> sequences = new HashMap<>();
+        for (Map.Entry<TopicPartition, MemoryRecords> entry : produceRequest.partitionRecordsOrFail().entrySet())
+            sequences.put(entry.getKey(), entry.getValue().batches().iterator().next().baseSequence());
+        return sequences;
+    }
+
     private ProduceResponse produceResponse(TopicPartition tp, long offset, Errors error, int throttleTimeMs) {
         ProduceResponse.PartitionResponse resp = new ProduceResponse.PartitionResponse(error, offset, RecordBatch.NO_TIMESTAMP);
         Map<TopicPartition, ProduceResponse.PartitionResponse> partResp = Collections.singletonMap(tp, resp);
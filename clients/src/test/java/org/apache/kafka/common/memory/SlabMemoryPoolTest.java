@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.memory;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Total;
+import org.apache.kafka.common.utils.MockTime;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlabMemoryPoolTest {
+
+    private final MockTime time = new MockTime();
+
+    @Test
+    public void testBuffersOfTheSameSizeClassAreReused() {
+        SlabMemoryPool pool = new SlabMemoryPool(1024 * 1024, 64 * 1024, time, null);
+        ByteBuffer buffer = pool.tryAllocate(3000);
+        assertEquals(0, buffer.position());
+        assertEquals(3000, buffer.limit());
+        assertEquals(4096, buffer.capacity());
+        assertEquals(1024 * 1024 - 4096, pool.availableMemory());
+
+        buffer.position(100);
+        pool.release(buffer);
+        assertEquals(1024 * 1024, pool.availableMemory());
+        assertEquals(4096, pool.freeBytes());
+
+        ByteBuffer reused = pool.tryAllocate(2100);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(2100, reused.limit());
+        assertEquals(0, pool.freeBytes());
+
+        // a request of another size class gets a new buffer
+        ByteBuffer other = pool.tryAllocate(1000);
+        assertNotSame(buffer, other);
+        assertEquals(1024, other.capacity());
+
+        // the smallest size class serves small requests
+        assertEquals(SlabMemoryPool.MIN_BUFFER_SIZE, pool.tryAllocate(0).capacity());
+        assertEquals(SlabMemoryPool.MIN_BUFFER_SIZE, pool.tryAllocate(10).capacity());
+    }
+
+    @Test
+    public void testLargeBuffersAreNotReused() {
+        SlabMemoryPool pool = new SlabMemoryPool(1024 * 1024, 64 * 1024, time, null);
+        ByteBuffer buffer = pool.tryAllocate(100 * 1000);
+        assertEquals(100 * 1000, buffer.capacity());
+        assertEquals(1024 * 1024 - 100 * 1000, pool.availableMemory());
+        pool.release(buffer);
+        assertEquals(1024 * 1024, pool.availableMemory());
+        assertEquals(0, pool.freeBytes());
+        assertNotSame(buffer, pool.tryAllocate(100 * 1000));
+    }
+
+    @Test
+    public void testAllocationsAreBounded() {
+        SlabMemoryPool pool = new SlabMemoryPool(10000, 4096, time, null);
+        ByteBuffer first = pool.tryAllocate(4096);
+        ByteBuffer second = pool.tryAllocate(4096);
+        assertFalse(pool.isOutOfMemory());
+        // the pool may go over its size by a single buffer
+        ByteBuffer third = pool.tryAllocate(4096);
+        assertTrue(pool.isOutOfMemory());
+        assertEquals(10000 - 3 * 4096, pool.availableMemory());
+        assertNull(pool.tryAllocate(1));
+
+        pool.release(first);
+        assertFalse(pool.isOutOfMemory());
+        // released buffers are only kept while they fit in the pool
+        assertEquals(0, pool.freeBytes());
+        pool.release(second);
+        assertEquals(4096, pool.freeBytes());
+        pool.release(third);
+        assertEquals(8192, pool.freeBytes());
+        assertEquals(10000, pool.availableMemory());
+    }
+
+    @Test
+    public void testFreeBuffersAreDroppedToMakeRoom() {
+        SlabMemoryPool pool = new SlabMemoryPool(10000, 8192, time, null);
+        pool.release(pool.tryAllocate(8192));
+        assertEquals(8192, pool.freeBytes());
+
+        ByteBuffer buffer = pool.tryAllocate(4096);
+        assertEquals(0, pool.freeBytes());
+        assertEquals(10000 - 4096, pool.availableMemory());
+        pool.release(buffer);
+        assertEquals(4096, pool.freeBytes());
+    }
+
+    @Test
+    public void testRequestLargerThanThePool() {
+        SlabMemoryPool pool = new SlabMemoryPool(1000, 1024, time, null);
+        ByteBuffer buffer = pool.tryAllocate(5000);
+        assertEquals(5000, buffer.limit());
+        assertTrue(pool.isOutOfMemory());
+        pool.release(buffer);
+        assertEquals(1000, pool.availableMemory());
+    }
+
+    @Test
+    public void testDepletedTimeIsRecorded() {
+        Metrics metrics = new Metrics(time);
+        try {
+            Sensor sensor = metrics.sensor("depleted");
+            MetricName metricName = metrics.metricName("depleted-time-total", "test");
+            sensor.add(metricName, new Total());
+            SlabMemoryPool pool = new SlabMemoryPool(1024, 1024, time, sensor);
+
+            ByteBuffer buffer = pool.tryAllocate(1024);
+            time.sleep(10);
+            assertNull(pool.tryAllocate(1024));
+            time.sleep(50);
+            assertNull(pool.tryAllocate(1024));
+            pool.release(buffer);
+            assertEquals(50.0, metrics.metrics().get(metricName).value(), 0.0);
+        } finally {
+            metrics.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSize() {
+        new SlabMemoryPool(1024, 1024, time, null).tryAllocate(-1);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MultiSendTest {
+
+    @Test
+    public void testConsecutiveByteBufferSendsAreWrittenTogether() throws IOException {
+        List<Send> sends = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            sends.add(new ByteBufferSend("0", ByteBuffer.wrap(bytes(i * 10, 10))));
+        MultiSend send = new MultiSend("0", sends);
+
+        RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+        assertEquals(100, send.writeTo(channel));
+        assertTrue(send.completed());
+        assertEquals(1, channel.writes);
+        assertArrayEquals(bytes(0, 100), channel.output.toByteArray());
+    }
+
+    @Test
+    public void testPartialGatheringWrites() throws IOException {
+        List<Send> sends = new ArrayList<>();
+        sends.add(new ByteBufferSend("0", ByteBuffer.wrap(bytes(0, 5)), ByteBuffer.wrap(bytes(5, 10))));
+        sends.add(new ByteBufferSend("0", ByteBuffer.wrap(bytes(15, 20))));
+        // a send which is not gathered is written on its own
+        sends.add(new NonGatheringSend(new ByteBufferSend("0", ByteBuffer.wrap(bytes(35, 15)))));
+        sends.add(new ByteBufferSend("0", ByteBuffer.wrap(new byte[0])));
+        sends.add(new ByteBufferSend("0", ByteBuffer.wrap(bytes(50, 30))));
+        sends.add(new ByteBufferSend("0", ByteBuffer.wrap(bytes(80, 20))));
+        MultiSend send = new MultiSend("0", sends);
+        assertEquals(100, send.size());
+
+        RecordingChannel channel = new RecordingChannel(7);
+        long written = 0;
+        while (!send.completed()) {
+            written += send.writeTo(channel);
+            channel.allowWrite();
+        }
+        assertEquals(100, written);
+        assertArrayEquals(bytes(0, 100), channel.output.toByteArray());
+    }
+
+    @Test
+    public void testGatheredBytesAreBounded() throws IOException {
+        int sendSize = MultiSend.MAX_GATHERED_BYTES / 2;
+        List<Send> sends = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            sends.add(new ByteBufferSend("0", ByteBuffer.allocate(sendSize)));
+        MultiSend send = new MultiSend("0", sends);
+
+        RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+        assertEquals(4 * sendSize, send.writeTo(channel));
+        assertTrue(send.completed());
+        assertEquals(2, channel.writes);
+    }
+
+    private static byte[] bytes(int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) (start + i);
+        return bytes;
+    }
+
+    private static class NonGatheringSend implements Send {
+        private final Send send;
+
+        NonGatheringSend(Send send) {
+            this.send = send;
+        }
+
+        @Override
+        public String destination() {
+            return send.destination();
+        }
+
+        @Override
+        public boolean completed() {
+            return send.completed();
+        }
+
+        @Override
+        public long writeTo(GatheringByteChannel channel) throws IOException {
+            return send.writeTo(channel);
+        }
+
+        @Override
+        public long size() {
+            return send.size();
+        }
+    }
+
+    /**
+     * A channel which accepts up to a number of bytes until the next call to allowWrite(), like a full socket buffer.
+     */
+    private static class RecordingChannel implements GatheringByteChannel {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final int maxBytesPerWrite;
+        private int writable;
+        private int writes = 0;
+
+        RecordingChannel(int maxBytesPerWrite) {
+            this.maxBytesPerWrite = maxBytesPerWrite;
+            this.writable = maxBytesPerWrite;
+        }
+
+        void allowWrite() {
+            writable = maxBytesPerWrite;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            writes++;
+            long written = 0;
+            for (ByteBuffer src : Arrays.copyOfRange(srcs, offset, offset + length)) {
+                int bytes = Math.min(src.remaining(), writable);
+                for (int i = 0; i < bytes; i++)
+                    output.write(src.get());
+                writable -= bytes;
+                written += bytes;
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[] {src});
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.kafka.common.network;
 
+import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.memory.SlabMemoryPool;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.protocol.SecurityProtocol;
 import org.apache.kafka.common.utils.MockTime;
@@ -33,6 +35,7 @@ import java.net.ServerSocket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Collections;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -266,6 +269,44 @@ public class SelectorTest {
         assertEquals("The response should be from the previously muted node", "1", selector.completedReceives().get(0).source());
     }
 
+    @Test
+    public void testMuteWhileMemoryPoolIsOutOfMemory() throws Exception {
+        // the pool is out of memory after a single allocation
+        MemoryPool pool = new SlabMemoryPool(SlabMemoryPool.MIN_BUFFER_SIZE, SlabMemoryPool.MIN_BUFFER_SIZE, time, null);
+        this.selector.close();
+        this.selector = new Selector(NetworkReceive.UNLIMITED, 5000, new Metrics(), time, "MetricGroup",
+                Collections.<String, String>emptyMap(), true, false, channelBuilder, pool);
+        blockingConnect("0");
+        blockingConnect("1");
+
+        selector.send(createSend("0", "hello"));
+        NetworkReceive receive = null;
+        while (receive == null) {
+            selector.poll(5);
+            if (!selector.completedReceives().isEmpty())
+                receive = selector.completedReceives().get(0);
+        }
+        assertEquals("hello", asString(receive));
+        assertTrue(pool.isOutOfMemory());
+
+        selector.send(createSend("1", "hi"));
+        while (!selector.channel("1").isWaitingForMemory()) {
+            selector.poll(5);
+            assertTrue("No buffer should be allocated while the pool is out of memory",
+                    selector.completedReceives().isEmpty());
+        }
+        assertFalse(selector.channel("1").isMute());
+
+        pool.release(receive.payload());
+        do {
+            selector.poll(5);
+        } while (selector.completedReceives().isEmpty());
+        assertEquals("hi", asString(selector.completedReceives().get(0)));
+        assertFalse(selector.channel("1").isWaitingForMemory());
+        pool.release(selector.completedReceives().get(0).payload());
+        assertEquals("hi", blockingRequest("1", "hi"));
+    }
+
 
     @Test
     public void testCloseOldestConnection() throws Exception {
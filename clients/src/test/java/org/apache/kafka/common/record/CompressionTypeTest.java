@@ -16,13 +16,19 @@
  */
 package org.apache.kafka.common.record;
 
+import com.github.luben.zstd.ZstdDictTrainer;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.utils.ByteBufferOutputStream;
+import org.apache.kafka.common.utils.Utils;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class CompressionTypeTest {
 
@@ -53,4 +59,76 @@ public class CompressionTypeTest {
                 buffer, RecordBatch.MAGIC_VALUE_V1, BufferSupplier.create());
         assertFalse(in.ignoreFlagDescriptorChecksum());
     }
+
+    @Test
+    public void testZstdForIdAndName() {
+        assertEquals(CompressionType.ZSTD, CompressionType.forId(4));
+        assertEquals(CompressionType.ZSTD, CompressionType.forName("zstd"));
+    }
+
+    @Test
+    public void testZstdWithLevelAndDictionary() {
+        byte[] dictionary = trainDictionary();
+        long dictionaryId = ZstdDictionaries.dictionaryId(dictionary);
+        try {
+            MemoryRecords records = zstdRecords(CompressionOptions.zstd(10, dictionary));
+            assertEquals(dictionaryId, ZstdDictionaries.frameDictionaryId(
+                    (ByteBuffer) records.buffer().duplicate().position(DefaultRecordBatch.RECORDS_OFFSET)));
+
+            List<Record> read = Utils.toList(records.records().iterator());
+            assertEquals(100, read.size());
+            for (int i = 0; i < read.size(); i++)
+                assertEquals(ByteBuffer.wrap(jsonValue(i).getBytes()), read.get(i).value());
+
+            ZstdDictionaries.unregister(dictionaryId);
+            try {
+                Utils.toList(records.records().iterator());
+                fail("Expected decompression to fail without the dictionary");
+            } catch (KafkaException e) {
+                // expected
+            }
+        } finally {
+            ZstdDictionaries.unregister(dictionaryId);
+        }
+    }
+
+    @Test
+    public void testZstdWithoutDictionary() {
+        MemoryRecords records = zstdRecords(CompressionOptions.zstd(1, null));
+        assertEquals(0, ZstdDictionaries.frameDictionaryId(
+                (ByteBuffer) records.buffer().duplicate().position(DefaultRecordBatch.RECORDS_OFFSET)));
+        assertEquals(100, Utils.toList(records.records().iterator()).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZstdInvalidLevel() {
+        CompressionOptions.zstd(CompressionOptions.MAX_ZSTD_LEVEL + 1, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZstdRawDictionaryNotSupported() {
+        CompressionOptions.zstd(CompressionOptions.DEFAULT_ZSTD_LEVEL, "not a dictionary".getBytes());
+    }
+
+    private static MemoryRecords zstdRecords(CompressionOptions options) {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), RecordBatch.MAGIC_VALUE_V2,
+                CompressionType.ZSTD, options, TimestampType.CREATE_TIME, 0L, RecordBatch.NO_TIMESTAMP,
+                RecordBatch.NO_PRODUCER_ID, RecordBatch.NO_PRODUCER_EPOCH, RecordBatch.NO_SEQUENCE, false, false,
+                RecordBatch.NO_PARTITION_LEADER_EPOCH);
+        for (int i = 0; i < 100; i++)
+            builder.append(i, null, jsonValue(i).getBytes());
+        return builder.build();
+    }
+
+    private static byte[] trainDictionary() {
+        ZstdDictTrainer trainer = new ZstdDictTrainer(1024 * 1024, 4 * 1024);
+        for (int i = 0; i < 5000; i++)
+            trainer.addSample(jsonValue(i).getBytes());
+        return trainer.trainSamples();
+    }
+
+    private static String jsonValue(int i) {
+        return "{\"id\":" + i + ",\"name\":\"user-" + (i % 37) + "\",\"active\":" + (i % 2 == 0) +
+                ",\"tags\":[\"kafka\",\"zstd\"],\"score\":" + (i * 7 % 101) + "}";
+    }
 }
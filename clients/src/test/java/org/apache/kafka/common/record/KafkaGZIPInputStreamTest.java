@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class KafkaGZIPInputStreamTest {
+
+    private final Random random = new Random(0);
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (int size : new int[] {0, 1, 100, KafkaGZIPInputStream.BUFFER_SIZE, 3 * KafkaGZIPInputStream.BUFFER_SIZE + 7}) {
+            byte[] payload = payload(size);
+            byte[] compressed = gzip(payload);
+            assertArrayEquals(payload, readFully(ByteBuffer.wrap(compressed), BufferSupplier.NO_CACHING));
+            assertArrayEquals(payload, readFully(directBuffer(compressed), BufferSupplier.NO_CACHING));
+        }
+    }
+
+    @Test
+    public void testSingleByteReads() throws IOException {
+        byte[] payload = payload(1000);
+        try (InputStream in = new KafkaGZIPInputStream(ByteBuffer.wrap(gzip(payload)), BufferSupplier.NO_CACHING)) {
+            for (byte b : payload)
+                assertEquals(b & 0xff, in.read());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testPositionOfInputIsNotModified() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(gzip(payload(100)));
+        readFully(buffer, BufferSupplier.NO_CACHING);
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testInflaterAndBufferAreReused() throws IOException {
+        BufferSupplier supplier = BufferSupplier.create();
+        Inflater inflater = supplier.getInflater();
+        ByteBuffer buffer = supplier.get(KafkaGZIPInputStream.BUFFER_SIZE);
+        supplier.releaseInflater(inflater);
+        supplier.release(buffer);
+
+        byte[] first = payload(100);
+        byte[] second = payload(5000);
+        assertArrayEquals(first, readFully(ByteBuffer.wrap(gzip(first)), supplier));
+        assertArrayEquals(second, readFully(ByteBuffer.wrap(gzip(second)), supplier));
+
+        assertSame(inflater, supplier.getInflater());
+        assertSame(buffer, supplier.get(KafkaGZIPInputStream.BUFFER_SIZE));
+        supplier.close();
+    }
+
+    @Test
+    public void testConcatenatedMembers() throws IOException {
+        byte[] first = payload(100);
+        byte[] second = payload(200);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(gzip(first));
+        out.write(gzip(second));
+
+        byte[] expected = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, expected, first.length, second.length);
+        assertArrayEquals(expected, readFully(ByteBuffer.wrap(out.toByteArray()), BufferSupplier.create()));
+    }
+
+    @Test
+    public void testOptionalHeaderFields() throws IOException {
+        byte[] payload = payload(1000);
+        int flags = 2 | 4 | 8 | 16;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] {(byte) 0x1f, (byte) 0x8b, 8, (byte) flags, 0, 0, 0, 0, 0, (byte) 255});
+        out.write(new byte[] {3, 0, 1, 2, 3});
+        out.write(new byte[] {'n', 'a', 'm', 'e', 0});
+        out.write(new byte[] {'c', 'o', 'm', 'm', 'e', 'n', 't', 0});
+        CRC32 headerCrc = new CRC32();
+        headerCrc.update(out.toByteArray());
+        out.write((int) headerCrc.getValue() & 0xff);
+        out.write((int) (headerCrc.getValue() >> 8) & 0xff);
+        writeDeflatedWithTrailer(out, payload);
+
+        assertArrayEquals(payload, readFully(ByteBuffer.wrap(out.toByteArray()), BufferSupplier.create()));
+    }
+
+    @Test(expected = ZipException.class)
+    public void testInvalidMagic() throws IOException {
+        byte[] compressed = gzip(payload(100));
+        compressed[0] = 0;
+        new KafkaGZIPInputStream(ByteBuffer.wrap(compressed), BufferSupplier.NO_CACHING);
+    }
+
+    @Test
+    public void testCorruptTrailer() throws IOException {
+        byte[] compressed = gzip(payload(100));
+        compressed[compressed.length - 5] ^= 1;
+        try {
+            readFully(ByteBuffer.wrap(compressed), BufferSupplier.NO_CACHING);
+            fail("Expected a corrupt trailer to be detected");
+        } catch (ZipException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTruncatedInput() throws IOException {
+        byte[] compressed = gzip(payload(10000));
+        for (int length : new int[] {5, compressed.length / 2, compressed.length - 1}) {
+            try {
+                readFully(ByteBuffer.wrap(compressed, 0, length), BufferSupplier.NO_CACHING);
+                fail("Expected truncated input of length " + length + " to fail");
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+    }
+
+    private byte[] payload(int size) {
+        // half random, half repeated so that the data is compressible
+        byte[] payload = new byte[size];
+        random.nextBytes(payload);
+        Arrays.fill(payload, size / 2, size, (byte) 1);
+        return payload;
+    }
+
+    private static byte[] gzip(byte[] payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(payload);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeDeflatedWithTrailer(ByteArrayOutputStream out, byte[] payload) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+        deflater.end();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putInt((int) crc.getValue());
+        trailer.putInt(payload.length);
+        out.write(trailer.array(), 0, trailer.capacity());
+    }
+
+    private static ByteBuffer directBuffer(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] readFully(ByteBuffer buffer, BufferSupplier supplier) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new KafkaGZIPInputStream(buffer, supplier)) {
+            byte[] chunk = new byte[777];
+            int read;
+            while ((read = in.read(chunk, 0, chunk.length)) != -1)
+                out.write(chunk, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
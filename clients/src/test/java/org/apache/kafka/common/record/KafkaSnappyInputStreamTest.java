@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.junit.Test;
+import org.xerial.snappy.Snappy;
+import org.xerial.snappy.SnappyOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class KafkaSnappyInputStreamTest {
+
+    private final Random random = new Random(0);
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        // SnappyOutputStream uses 32 KB blocks, so the larger payloads span several blocks
+        for (int size : new int[] {0, 1, 100, KafkaSnappyInputStream.MIN_BUFFER_SIZE, 3 * KafkaSnappyInputStream.MIN_BUFFER_SIZE + 7}) {
+            byte[] payload = payload(size);
+            byte[] compressed = snappy(payload);
+            assertArrayEquals(payload, readFully(ByteBuffer.wrap(compressed), BufferSupplier.NO_CACHING));
+            assertArrayEquals(payload, readFully(directBuffer(compressed), BufferSupplier.NO_CACHING));
+        }
+    }
+
+    @Test
+    public void testSingleByteReads() throws IOException {
+        byte[] payload = payload(1000);
+        try (InputStream in = new KafkaSnappyInputStream(ByteBuffer.wrap(snappy(payload)), BufferSupplier.NO_CACHING)) {
+            for (byte b : payload)
+                assertEquals(b & 0xff, in.read());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testBufferIsReused() throws IOException {
+        BufferSupplier supplier = BufferSupplier.create();
+        ByteBuffer buffer = supplier.get(KafkaSnappyInputStream.MIN_BUFFER_SIZE);
+        supplier.release(buffer);
+
+        byte[] first = payload(100);
+        byte[] second = payload(5000);
+        assertArrayEquals(first, readFully(ByteBuffer.wrap(snappy(first)), supplier));
+        assertArrayEquals(second, readFully(ByteBuffer.wrap(snappy(second)), supplier));
+
+        assertSame(buffer, supplier.get(KafkaSnappyInputStream.MIN_BUFFER_SIZE));
+        supplier.close();
+    }
+
+    @Test
+    public void testConcatenatedStreams() throws IOException {
+        byte[] first = payload(100);
+        byte[] second = payload(200);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(snappy(first));
+        out.write(snappy(second));
+
+        byte[] expected = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, expected, first.length, second.length);
+        assertArrayEquals(expected, readFully(ByteBuffer.wrap(out.toByteArray()), BufferSupplier.create()));
+    }
+
+    @Test
+    public void testRawInputWithoutHeader() throws IOException {
+        byte[] payload = payload(1000);
+        assertArrayEquals(payload, readFully(ByteBuffer.wrap(Snappy.compress(payload)), BufferSupplier.create()));
+    }
+
+    @Test
+    public void testTruncatedInput() throws IOException {
+        byte[] compressed = snappy(payload(10000));
+        for (int length : new int[] {18, compressed.length / 2, compressed.length - 1}) {
+            try {
+                readFully(ByteBuffer.wrap(compressed, 0, length), BufferSupplier.NO_CACHING);
+                fail("Expected truncated input of length " + length + " to fail");
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+    }
+
+    private byte[] payload(int size) {
+        // half random, half repeated so that the data is compressible
+        byte[] payload = new byte[size];
+        random.nextBytes(payload);
+        Arrays.fill(payload, size / 2, size, (byte) 1);
+        return payload;
+    }
+
+    private static byte[] snappy(byte[] payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SnappyOutputStream snappy = new SnappyOutputStream(out)) {
+            snappy.write(payload);
+        }
+        return out.toByteArray();
+    }
+
+    private static ByteBuffer directBuffer(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] readFully(ByteBuffer buffer, BufferSupplier supplier) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new KafkaSnappyInputStream(buffer, supplier)) {
+            byte[] chunk = new byte[777];
+            int read;
+            while ((read = in.read(chunk, 0, chunk.length)) != -1)
+                out.write(chunk, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -435,7 +435,8 @@ public class MemoryRecordsBuilderTest {
         Records records = MemoryRecords.readableRecords(buffer).downConvert(RecordBatch.MAGIC_VALUE_V1, 0);
 
         List<? extends RecordBatch> batches = Utils.toList(records.batches().iterator());
-        if (compressionType != CompressionType.NONE) {
+        // zstd is not supported by the v1 format, so those batches are down-converted without compression
+        if (compressionType != CompressionType.NONE && compressionType != CompressionType.ZSTD) {
             assertEquals(2, batches.size());
             assertEquals(TimestampType.LOG_APPEND_TIME, batches.get(0).timestampType());
             assertEquals(TimestampType.CREATE_TIME, batches.get(1).timestampType());
@@ -472,7 +473,8 @@ public class MemoryRecordsBuilderTest {
         Records records = MemoryRecords.readableRecords(buffer).downConvert(RecordBatch.MAGIC_VALUE_V1, 0);
 
         List<? extends RecordBatch> batches = Utils.toList(records.batches().iterator());
-        if (compressionType != CompressionType.NONE) {
+        // zstd is not supported by the v1 format, so those batches are down-converted without compression
+        if (compressionType != CompressionType.NONE && compressionType != CompressionType.ZSTD) {
             assertEquals(2, batches.size());
             assertEquals(RecordBatch.MAGIC_VALUE_V0, batches.get(0).magic());
             assertEquals(0, batches.get(0).baseOffset());
@@ -498,7 +500,7 @@ public class MemoryRecordsBuilderTest {
         batches = Utils.toList(records.batches().iterator());
         logRecords = Utils.toList(records.records().iterator());
 
-        if (compressionType != CompressionType.NONE) {
+        if (compressionType != CompressionType.NONE && compressionType != CompressionType.ZSTD) {
             assertEquals(2, batches.size());
             assertEquals(RecordBatch.MAGIC_VALUE_V0, batches.get(0).magic());
             assertEquals(0, batches.get(0).baseOffset());
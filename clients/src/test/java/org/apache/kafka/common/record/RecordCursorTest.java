@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.apache.kafka.common.record.DefaultRecordBatch.RECORDS_COUNT_OFFSET;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(value = Parameterized.class)
+public class RecordCursorTest {
+
+    private final CompressionType compressionType;
+
+    public RecordCursorTest(CompressionType compressionType) {
+        this.compressionType = compressionType;
+    }
+
+    @Parameterized.Parameters(name = "compressionType={0}")
+    public static Collection<Object[]> data() {
+        List<Object[]> values = new ArrayList<>();
+        for (CompressionType type : CompressionType.values())
+            values.add(new Object[] {type});
+        return values;
+    }
+
+    @Test
+    public void testCursorMatchesIterator() {
+        MemoryRecords records = records(TimestampType.CREATE_TIME, 0L, 0L, 20L);
+
+        try (RecordCursor cursor = new RecordCursor(BufferSupplier.create())) {
+            for (RecordBatch batch : records.batches()) {
+                assertTrue(RecordCursor.canRead(batch));
+                List<Record> expected = new ArrayList<>();
+                for (Record record : batch)
+                    expected.add(record);
+
+                cursor.reset(batch);
+                for (Record expectedRecord : expected) {
+                    assertTrue(cursor.hasNext());
+                    assertSame(cursor, cursor.next());
+                    assertEquals(expectedRecord.offset(), cursor.offset());
+                    assertEquals(expectedRecord.offset() - batch.baseOffset(), cursor.offsetDelta());
+                    assertEquals(expectedRecord.timestamp(), cursor.timestamp());
+                    assertEquals(expectedRecord.sequence(), cursor.sequence());
+                    assertEquals(expectedRecord.sizeInBytes(), cursor.sizeInBytes());
+                    assertEquals(expectedRecord.keySize(), cursor.keySize());
+                    assertEquals(expectedRecord.key(), cursor.key());
+                    assertEquals(expectedRecord.valueSize(), cursor.valueSize());
+                    assertEquals(expectedRecord.value(), cursor.value());
+                    assertEquals(expectedRecord.headers().length, cursor.headerCount());
+                    assertArrayEquals(expectedRecord.headers(), cursor.headers());
+                }
+                assertFalse(cursor.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void testLogAppendTime() {
+        long logAppendTime = 12345L;
+        MemoryRecords records = records(TimestampType.LOG_APPEND_TIME, logAppendTime, 0L, 0L);
+        RecordCursor cursor = new RecordCursor(BufferSupplier.NO_CACHING);
+        for (RecordBatch batch : records.batches()) {
+            cursor.reset(batch);
+            while (cursor.hasNext())
+                assertEquals(logAppendTime, cursor.next().timestamp());
+        }
+        cursor.close();
+    }
+
+    @Test
+    public void testHeadersRemainValidAfterReset() {
+        MemoryRecords records = records(TimestampType.CREATE_TIME, 0L, 0L, 0L);
+        RecordCursor cursor = new RecordCursor(BufferSupplier.create());
+        List<Header[]> headers = new ArrayList<>();
+        for (RecordBatch batch : records.batches()) {
+            cursor.reset(batch);
+            while (cursor.hasNext())
+                headers.add(cursor.next().headers());
+        }
+        cursor.close();
+
+        List<Header[]> expected = new ArrayList<>();
+        for (Record record : records.records())
+            expected.add(record.headers());
+
+        assertEquals(expected.size(), headers.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertArrayEquals(expected.get(i), headers.get(i));
+    }
+
+    @Test(expected = InvalidRecordException.class)
+    public void testInvalidRecordCountTooMany() {
+        consumeWithInvalidRecordCount(5);
+    }
+
+    @Test(expected = InvalidRecordException.class)
+    public void testInvalidRecordCountTooLittle() {
+        consumeWithInvalidRecordCount(2);
+    }
+
+    @Test
+    public void testLegacyBatchesAreNotSupported() {
+        if (compressionType == CompressionType.ZSTD)
+            return;
+        MemoryRecords records = MemoryRecords.withRecords(RecordBatch.MAGIC_VALUE_V1, 0L, compressionType,
+                TimestampType.CREATE_TIME, new SimpleRecord(1L, "a".getBytes(), "1".getBytes()));
+        assertFalse(RecordCursor.canRead(records.batches().iterator().next()));
+    }
+
+    private void consumeWithInvalidRecordCount(int invalidCount) {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V2, compressionType,
+                TimestampType.CREATE_TIME, 0L);
+        builder.appendWithOffset(0, 1L, null, "hello".getBytes());
+        builder.appendWithOffset(1, 1L, null, "there".getBytes());
+        builder.appendWithOffset(2, 1L, null, "beautiful".getBytes());
+        ByteBuffer batchBuffer = builder.build().buffer();
+        batchBuffer.putInt(RECORDS_COUNT_OFFSET, invalidCount);
+
+        RecordCursor cursor = new RecordCursor(BufferSupplier.NO_CACHING).reset(new DefaultRecordBatch(batchBuffer));
+        while (cursor.hasNext())
+            cursor.next();
+    }
+
+    private MemoryRecords records(TimestampType timestampType, long logAppendTime, long producerId, long baseOffset) {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        Header[] headers = new Header[] {new RecordHeader("a", "1".getBytes()), new RecordHeader("b", (byte[]) null)};
+        for (int batch = 0; batch < 3; batch++) {
+            MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, RecordBatch.MAGIC_VALUE_V2, compressionType,
+                    timestampType, baseOffset + batch * 10, logAppendTime, producerId, (short) 0, batch * 10,
+                    false, false, RecordBatch.NO_PARTITION_LEADER_EPOCH, buffer.capacity());
+            builder.append(100L + batch, "key".getBytes(), "value".getBytes());
+            builder.append(200L + batch, null, ("value" + batch).getBytes(), headers);
+            builder.append(300L + batch, ("key" + batch).getBytes(), null);
+            builder.append(400L + batch, new byte[0], Arrays.copyOf("large".getBytes(), 1000), headers);
+            builder.close();
+        }
+        buffer.flip();
+        MemoryRecords records = MemoryRecords.readableRecords(buffer);
+        assertNull(records.batches().iterator().next().iterator().next().checksumOrNull());
+        return records;
+    }
+}
@@ -28,6 +28,7 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -84,6 +85,21 @@ public class ProduceRequestTest {
         assertTrue(request.hasIdempotentRecords());
     }
 
+    @Test
+    public void testZstdRecordsRequireVersion4() {
+        final MemoryRecords zstdRecords = MemoryRecords.withRecords(CompressionType.ZSTD, simpleRecord);
+        final MemoryRecords gzipRecords = MemoryRecords.withRecords(CompressionType.GZIP, simpleRecord);
+
+        final Map<TopicPartition, MemoryRecords> recordsByPartition = new LinkedHashMap<>();
+        recordsByPartition.put(new TopicPartition("foo", 0), gzipRecords);
+        assertEquals(3, new ProduceRequest.Builder(RecordBatch.CURRENT_MAGIC_VALUE, (short) -1, 5000,
+                recordsByPartition).build().version());
+
+        recordsByPartition.put(new TopicPartition("foo", 1), zstdRecords);
+        assertEquals(4, new ProduceRequest.Builder(RecordBatch.CURRENT_MAGIC_VALUE, (short) -1, 5000,
+                recordsByPartition).build().version());
+    }
+
     @Test
     public void testMixedTransactionalData() {
         final long producerId = 15L;
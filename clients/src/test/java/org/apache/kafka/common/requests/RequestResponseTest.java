@@ -546,6 +546,62 @@ public class RequestResponseTest {
         assertEquals(request.isolationLevel(), deserialized.isolationLevel());
     }
 
+    @Test
+    public void testIncrementalFetchRequestAndResponse() throws Exception {
+        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
+        fetchData.put(new TopicPartition("test1", 0), new FetchRequest.PartitionData(100, 0L, 1000000));
+        List<TopicPartition> toForget = Arrays.asList(new TopicPartition("test2", 0), new TopicPartition("test2", 1));
+        FetchRequest.Builder builder = FetchRequest.Builder.forConsumer(100, 100000, fetchData)
+                .metadata(new FetchMetadata(123, 5))
+                .toForget(toForget);
+        FetchRequest request = builder.build((short) 6);
+        FetchRequest deserialized = (FetchRequest) deserialize(request, request.toStruct(), request.version());
+        assertEquals(new FetchMetadata(123, 5), deserialized.metadata());
+        assertEquals(toForget, deserialized.toForget());
+        assertEquals(fetchData, deserialized.fetchData());
+
+        try {
+            builder.build((short) 5);
+            fail("Incremental fetch requests should require version 6");
+        } catch (UnsupportedVersionException e) {
+            // expected
+        }
+
+        FetchResponse response = new FetchResponse(Errors.INVALID_FETCH_SESSION_EPOCH,
+                new LinkedHashMap<TopicPartition, FetchResponse.PartitionData>(), 10, 123);
+        FetchResponse deserializedResponse = FetchResponse.parse(toBuffer(response.toStruct((short) 6)), (short) 6);
+        assertEquals(Errors.INVALID_FETCH_SESSION_EPOCH, deserializedResponse.error());
+        assertEquals(123, deserializedResponse.sessionId());
+        assertEquals(10, deserializedResponse.throttleTimeMs());
+    }
+
+    @Test
+    public void testFetchRackIdAndPreferredReadReplica() throws Exception {
+        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
+        fetchData.put(new TopicPartition("test", 0), new FetchRequest.PartitionData(100, 0L, 1000000));
+        FetchRequest.Builder builder = FetchRequest.Builder.forConsumer(100, 100000, fetchData).rackId("rack1");
+        FetchRequest request = builder.build((short) 7);
+        FetchRequest deserialized = (FetchRequest) deserialize(request, request.toStruct(), request.version());
+        assertEquals("rack1", deserialized.rackId());
+
+        // older versions do not send the rack
+        request = builder.build((short) 6);
+        deserialized = (FetchRequest) deserialize(request, request.toStruct(), request.version());
+        assertEquals("", deserialized.rackId());
+
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+        responseData.put(new TopicPartition("test", 0), new FetchResponse.PartitionData(Errors.NONE, 1000000,
+                FetchResponse.INVALID_LAST_STABLE_OFFSET, 0L, null, 2, MemoryRecords.EMPTY));
+        FetchResponse response = new FetchResponse(responseData, 0);
+        FetchResponse.PartitionData partitionData = FetchResponse.parse(toBuffer(response.toStruct((short) 7)), (short) 7)
+                .responseData().get(new TopicPartition("test", 0));
+        assertEquals(2, partitionData.preferredReadReplica);
+
+        partitionData = FetchResponse.parse(toBuffer(response.toStruct((short) 6)), (short) 6)
+                .responseData().get(new TopicPartition("test", 0));
+        assertEquals(FetchResponse.INVALID_PREFERRED_REPLICA_ID, partitionData.preferredReadReplica);
+    }
+
     @Test
     public void testJoinGroupRequestVersion0RebalanceTimeout() throws Exception {
         final short version = 0;
@@ -20,6 +20,7 @@ package org.apache.kafka.common.utils;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Random;
 import java.util.zip.Checksum;
 
 import static org.junit.Assert.assertEquals;
@@ -49,6 +50,25 @@ public class ChecksumsTest {
         doTestUpdateByteBufferWithOffsetPosition(bytes, ByteBuffer.allocateDirect(bytes.length), 2);
     }
 
+    @Test
+    public void testUpdateLargeDirectByteBuffer() {
+        byte[] bytes = new byte[10000];
+        new Random(0).nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 3);
+        buffer.put(new byte[3]);
+        buffer.put(bytes);
+        buffer.flip();
+        buffer.position(1);
+        long expected = Crc32C.compute(bytes, 0, bytes.length);
+
+        // the slicing and the Java 9 implementations read the buffer directly, others copy it in chunks
+        for (Checksum crc : new Checksum[]{Crc32C.create(), new SlicingBy16Crc32C(), new PureJavaCrc32C()}) {
+            Checksums.update(crc, buffer, 2, bytes.length);
+            assertEquals(expected, crc.getValue());
+            assertEquals(1, buffer.position());
+        }
+    }
+
     @Test
     public void testUpdateInt() {
         final int value = 1000;
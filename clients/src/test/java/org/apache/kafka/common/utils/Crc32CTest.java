@@ -18,6 +18,9 @@ package org.apache.kafka.common.utils;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
 import java.util.zip.Checksum;
 
 import static org.junit.Assert.assertEquals;
@@ -49,4 +52,33 @@ public class Crc32CTest {
         assertEquals(608512271, Crc32C.compute(bytes, 0, bytes.length));
     }
 
+    @Test
+    public void testSlicingBy16MatchesPureJava() {
+        Random random = new Random(0);
+        byte[] bytes = new byte[1000];
+        random.nextBytes(bytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        ByteBuffer littleEndian = direct.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int offset = 0; offset < 20; offset++) {
+            for (int size : new int[]{0, 1, 15, 16, 17, 33, 500, bytes.length - offset}) {
+                Checksum expected = new PureJavaCrc32C();
+                expected.update(bytes, offset, size);
+
+                SlicingBy16Crc32C crc = new SlicingBy16Crc32C();
+                crc.update(bytes, offset, size);
+                assertEquals(expected.getValue(), crc.getValue());
+
+                crc.reset();
+                crc.update(direct, offset, size);
+                assertEquals(expected.getValue(), crc.getValue());
+
+                crc.reset();
+                crc.update(littleEndian, offset, size);
+                assertEquals(expected.getValue(), crc.getValue());
+            }
+        }
+    }
+
 }
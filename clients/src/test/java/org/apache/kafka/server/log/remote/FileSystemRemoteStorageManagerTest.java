@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.server.log.remote;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.server.log.remote.RemoteStorageManager.IndexType;
+import org.apache.kafka.test.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FileSystemRemoteStorageManagerTest {
+
+    private final TopicPartition tp = new TopicPartition("topic", 0);
+    private File storageDir;
+    private File localDir;
+    private FileSystemRemoteStorageManager rsm;
+
+    @Before
+    public void setUp() {
+        storageDir = TestUtils.tempDirectory();
+        localDir = TestUtils.tempDirectory();
+        rsm = new FileSystemRemoteStorageManager();
+        rsm.configure(Collections.singletonMap(FileSystemRemoteStorageManager.STORAGE_DIR_CONFIG, storageDir.getPath()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        rsm.close();
+        Utils.delete(storageDir);
+        Utils.delete(localDir);
+    }
+
+    @Test
+    public void testCopyListAndFetch() throws IOException {
+        RemoteLogSegmentMetadata second = new RemoteLogSegmentMetadata(tp, 100L, 149L, 2000L, 10);
+        RemoteLogSegmentMetadata first = new RemoteLogSegmentMetadata(tp, 0L, 99L, 1000L, 10);
+        rsm.copyLogSegment(second, segmentData("second", true));
+        rsm.copyLogSegment(first, segmentData("first", false));
+
+        assertEquals(Arrays.asList(first, second), rsm.listRemoteLogSegments(tp));
+        assertEquals(Collections.emptyList(), rsm.listRemoteLogSegments(new TopicPartition("topic", 1)));
+
+        assertEquals("first-log", string(rsm.fetchLogSegmentData(first, 0, 100)));
+        assertEquals("st-l", string(rsm.fetchLogSegmentData(first, 3, 4)));
+        assertEquals("", string(rsm.fetchLogSegmentData(first, 100, 4)));
+        assertEquals("second-index", string(rsm.fetchIndex(second, IndexType.OFFSET)));
+        assertEquals("second-timeindex", string(rsm.fetchIndex(second, IndexType.TIMESTAMP)));
+        assertEquals("second-txnindex", string(rsm.fetchIndex(second, IndexType.TRANSACTION)));
+        assertEquals("second-snapshot", string(rsm.fetchIndex(second, IndexType.PRODUCER_SNAPSHOT)));
+        assertNull(rsm.fetchIndex(first, IndexType.PRODUCER_SNAPSHOT));
+    }
+
+    @Test
+    public void testCopyReplacesSegmentWithTheSameBaseOffset() throws IOException {
+        rsm.copyLogSegment(new RemoteLogSegmentMetadata(tp, 0L, 49L, 1000L, 10), segmentData("old", true));
+        RemoteLogSegmentMetadata longer = new RemoteLogSegmentMetadata(tp, 0L, 99L, 1000L, 20);
+        rsm.copyLogSegment(longer, segmentData("new", false));
+
+        assertEquals(Collections.singletonList(longer), rsm.listRemoteLogSegments(tp));
+        assertEquals("new-log", string(rsm.fetchLogSegmentData(longer, 0, 100)));
+        assertNull(rsm.fetchIndex(longer, IndexType.PRODUCER_SNAPSHOT));
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        RemoteLogSegmentMetadata segment = new RemoteLogSegmentMetadata(tp, 0L, 99L, 1000L, 10);
+        rsm.copyLogSegment(segment, segmentData("segment", true));
+        rsm.deleteLogSegment(segment);
+        assertEquals(Collections.emptyList(), rsm.listRemoteLogSegments(tp));
+        // deleting a missing segment has no effect
+        rsm.deleteLogSegment(segment);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testStorageDirIsRequired() {
+        new FileSystemRemoteStorageManager().configure(Collections.<String, Object>emptyMap());
+    }
+
+    private LogSegmentData segmentData(String prefix, boolean withSnapshot) throws IOException {
+        return new LogSegmentData(file(prefix, "log"), file(prefix, "index"), file(prefix, "timeindex"),
+                file(prefix, "txnindex"), withSnapshot ? file(prefix, "snapshot") : null);
+    }
+
+    private File file(String prefix, String suffix) throws IOException {
+        File file = new File(localDir, prefix + "." + suffix);
+        Files.write(file.toPath(), (prefix + "-" + suffix).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        return new String(Utils.toArray(buffer), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.server.replica;
+
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RackAwareReplicaSelectorTest {
+
+    private final RackAwareReplicaSelector selector = new RackAwareReplicaSelector();
+    private final TopicPartition tp = new TopicPartition("test", 0);
+    private final Node leader = new Node(0, "localhost", 9092, "rack-a");
+    private final Node follower1 = new Node(1, "localhost", 9093, "rack-b");
+    private final Node follower2 = new Node(2, "localhost", 9094, "rack-c");
+    private final List<Node> inSyncReplicas = Arrays.asList(leader, follower1, follower2);
+
+    @Test
+    public void testSelectsReplicaInClientRack() {
+        assertEquals(follower2, selector.select(tp, "client", "rack-c", leader, inSyncReplicas));
+        assertEquals(follower1, selector.select(tp, "client", "rack-b", leader, inSyncReplicas));
+    }
+
+    @Test
+    public void testPrefersLeaderInClientRack() {
+        Node follower = new Node(3, "localhost", 9095, "rack-a");
+        assertEquals(leader, selector.select(tp, "client", "rack-a", leader, Arrays.asList(follower, leader)));
+    }
+
+    @Test
+    public void testFallsBackToLeader() {
+        assertEquals(leader, selector.select(tp, "client", "", leader, inSyncReplicas));
+        assertEquals(leader, selector.select(tp, "client", "rack-d", leader, inSyncReplicas));
+        // a follower in the rack of the client which is not in sync is not selected
+        assertEquals(leader, selector.select(tp, "client", "rack-c", leader, Arrays.asList(leader, follower1)));
+    }
+}
@@ -69,7 +69,12 @@ object ApiVersion {
     "0.11.0-IV1" -> KAFKA_0_11_0_IV1,
     // Introduced leader epoch fetches to the replica fetcher via KIP-101
     "0.11.0-IV2" -> KAFKA_0_11_0_IV2,
-    "0.11.0" -> KAFKA_0_11_0_IV2
+    "0.11.0" -> KAFKA_0_11_0_IV2,
+    // Introduced FetchRequest v6 for incremental fetch sessions
+    "1.0-IV0" -> KAFKA_1_0_IV0,
+    // Introduced ProduceRequest v4 and FetchRequest v8 for zstd compression
+    "1.0-IV1" -> KAFKA_1_0_IV1,
+    "1.0" -> KAFKA_1_0_IV1
   )
 
   private val versionPattern = "\\.".r
@@ -171,3 +176,15 @@ case object KAFKA_0_11_0_IV2 extends ApiVersion {
   val messageFormatVersion: Byte = RecordBatch.MAGIC_VALUE_V2
   val id: Int = 12
 }
+
+case object KAFKA_1_0_IV0 extends ApiVersion {
+  val version: String = "1.0-IV0"
+  val messageFormatVersion: Byte = RecordBatch.MAGIC_VALUE_V2
+  val id: Int = 13
+}
+
+case object KAFKA_1_0_IV1 extends ApiVersion {
+  val version: String = "1.0-IV1"
+  val messageFormatVersion: Byte = RecordBatch.MAGIC_VALUE_V2
+  val id: Int = 14
+}
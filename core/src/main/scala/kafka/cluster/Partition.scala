@@ -323,7 +323,8 @@ class Partition(val topic: String,
    *
    * Note that this method will only be called if requiredAcks = -1 and we are waiting for all replicas in ISR to be
    * fully caught up to the (local) leader's offset corresponding to this produce request before we acknowledge the
-   * produce request.
+   * produce request. If the leader log requires appends to be flushed before they are acknowledged, we also wait for
+   * the leader log to be flushed up to `requiredOffset`.
    */
   def checkEnoughReplicasReachOffset(requiredOffset: Long): (Boolean, Errors) = {
     leaderReplicaIfLocal match {
@@ -347,7 +348,7 @@ class Partition(val topic: String,
 
         val minIsr = leaderReplica.log.get.config.minInSyncReplicas
 
-        if (leaderReplica.highWatermark.messageOffset >= requiredOffset) {
+        if (leaderReplica.highWatermark.messageOffset >= requiredOffset && leaderReplica.log.get.isFlushedUpTo(requiredOffset)) {
           /*
            * The topic may be configured not to accept messages if there are not enough replicas in ISR
            * in this scenario the request was already appended locally and then added to the purgatory before the ISR was shrunk
@@ -363,6 +364,22 @@ class Partition(val topic: String,
     }
   }
 
+  /*
+   * Returns a tuple where the first element is a boolean indicating whether the leader log has been flushed up to
+   * `requiredOffset` and the second element is an error (which would be `Errors.NONE` for no error).
+   *
+   * Note that this method will only be called if requiredAcks = 1 and the leader log requires appends to be flushed
+   * before they are acknowledged, see Log.requiresFlushBeforeAck.
+   */
+  def checkLeaderLogFlushedUpTo(requiredOffset: Long): (Boolean, Errors) = {
+    leaderReplicaIfLocal match {
+      case Some(leaderReplica) =>
+        (leaderReplica.log.get.isFlushedUpTo(requiredOffset), Errors.NONE)
+      case None =>
+        (false, Errors.NOT_LEADER_FOR_PARTITION)
+    }
+  }
+
   /**
    * Check and maybe increment the high watermark of the partition;
    * this function can be triggered when
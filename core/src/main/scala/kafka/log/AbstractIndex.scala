@@ -20,6 +20,8 @@ package kafka.log
 import java.io.{File, IOException, RandomAccessFile}
 import java.nio.{ByteBuffer, MappedByteBuffer}
 import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util
 import java.util.concurrent.locks.{Lock, ReentrantLock}
 
 import kafka.log.IndexSearchType.IndexSearchEntity
@@ -33,6 +35,11 @@ import scala.math.ceil
 /**
  * The abstract index class which holds entry format agnostic methods.
  *
+ * The index file is memory-mapped when the index is first accessed rather than when it is opened, so that the indexes
+ * of the segments which are never read do not take virtual memory. The indexes of inactive segments are tracked by
+ * [[MappedIndexCache]], which drops the memory map of the least recently used ones. They are mapped again when they
+ * are accessed again.
+ *
  * @param file The index file
  * @param baseOffset the base offset of the segment that this index is corresponding to.
  * @param maxIndexSize The maximum index size in bytes.
@@ -44,19 +51,79 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
 
   protected val lock = new ReentrantLock
 
-  @volatile
-  protected var mmap: MappedByteBuffer = {
+  private[this] val newlyCreated = {
     val newlyCreated = file.createNewFile()
-    val raf = if (writable) new RandomAccessFile(file, "rw") else new RandomAccessFile(file, "r")
-    try {
-      /* pre-allocate the file if necessary */
-      if(newlyCreated) {
-        if(maxIndexSize < entrySize)
-          throw new IllegalArgumentException("Invalid max index size: " + maxIndexSize)
-        raf.setLength(roundDownToExactMultiple(maxIndexSize, entrySize))
+    /* pre-allocate the file if necessary */
+    if (newlyCreated) {
+      if (maxIndexSize < entrySize)
+        throw new IllegalArgumentException("Invalid max index size: " + maxIndexSize)
+      val raf = if (writable) new RandomAccessFile(file, "rw") else new RandomAccessFile(file, "r")
+      try raf.setLength(roundDownToExactMultiple(maxIndexSize, entrySize))
+      finally CoreUtils.swallow(raf.close())
+    }
+    newlyCreated
+  }
+
+  /* the memory map of the file, null until the index is first accessed or after the map was dropped while idle */
+  @volatile
+  private[this] var _mmap: MappedByteBuffer = null
+
+  /* whether the memory map was accessed since it was last checked by the MappedIndexCache */
+  @volatile
+  private[this] var accessed = false
+
+  @volatile
+  private[this] var deleted = false
+
+  /**
+   * The maximum number of entries this index can hold
+   */
+  @volatile
+  private[this] var _maxEntries = (file.length / entrySize).toInt
+
+  /** The number of entries in this index, a pre-existing index is assumed to be valid and full */
+  @volatile
+  protected var _entries = if (newlyCreated) 0 else _maxEntries
+
+  /**
+   * True iff there are no more slots available in this index
+   */
+  def isFull: Boolean = _entries >= _maxEntries
+
+  def maxEntries: Int = _maxEntries
+
+  def entries: Int = _entries
+
+  /**
+   * The memory map of the index file, which is mapped if it is not yet. The position of the map is the position of
+   * the next entry.
+   */
+  protected def mmap: MappedByteBuffer = {
+    val m = _mmap
+    if (m != null) {
+      if (!accessed)
+        accessed = true
+      m
+    } else {
+      inLock(lock) {
+        if (_mmap != null)
+          _mmap
+        else {
+          val m = map()
+          _mmap = m
+          accessed = true
+          MappedIndexCache.update(this)
+          m
+        }
       }
+    }
+  }
 
-      /* memory-map the file */
+  private def map(): MappedByteBuffer = {
+    if (deleted)
+      throw new IllegalStateException(s"Attempt to access index ${file.getAbsolutePath} which has been deleted")
+    val raf = if (writable) new RandomAccessFile(file, "rw") else new RandomAccessFile(file, "r")
+    try {
       val len = raf.length()
       val idx = {
         if (writable)
@@ -65,35 +132,51 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
           raf.getChannel.map(FileChannel.MapMode.READ_ONLY, 0, len)
       }
       /* set the position in the index for the next entry */
-      if(newlyCreated)
-        idx.position(0)
-      else
-        // if this is a pre-existing index, assume it is valid and set position to last entry
-        idx.position(roundDownToExactMultiple(idx.limit, entrySize))
+      idx.position(_entries * entrySize)
       idx
     } finally {
       CoreUtils.swallow(raf.close())
     }
   }
 
+  /** Whether the index file is currently memory-mapped */
+  private[log] def isMapped: Boolean = _mmap != null
+
   /**
-   * The maximum number of entries this index can hold
+   * True iff the index has no free slots, which is the case of the indexes of inactive segments since they are trimmed
+   * to their entries when the segment is rolled
    */
-  @volatile
-  private[this] var _maxEntries = mmap.limit / entrySize
-
-  /** The number of entries in this index */
-  @volatile
-  protected var _entries = mmap.position / entrySize
+  private[log] def isTrimmed: Boolean = _entries == _maxEntries
 
   /**
-   * True iff there are no more slots available in this index
+   * Clear the flag recording that the memory map was accessed
+   * @return true if the memory map was accessed since the flag was last cleared
    */
-  def isFull: Boolean = _entries >= _maxEntries
-
-  def maxEntries: Int = _maxEntries
+  private[log] def clearAccessed(): Boolean = {
+    val wasAccessed = accessed
+    accessed = false
+    wasAccessed
+  }
 
-  def entries: Int = _entries
+  /**
+   * Drop the memory map of this index if it is trimmed, unless the index is locked by an append or a resize. The map
+   * is not unmapped forcefully since lookups may still be reading it, it is unmapped by the garbage collector once it
+   * is no longer referenced.
+   *
+   * @return false if the index was locked
+   */
+  private[log] def tryUnmap(): Boolean = {
+    if (lock.tryLock()) {
+      try {
+        if (isTrimmed)
+          _mmap = null
+        true
+      } finally {
+        lock.unlock()
+      }
+    } else
+      false
+  }
 
   /**
    * Reset the size of the memory map and the underneath file. This is used in two kinds of cases: (1) in
@@ -103,20 +186,26 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
    */
   def resize(newSize: Int) {
     inLock(lock) {
-      val raf = new RandomAccessFile(file, "rw")
       val roundedNewSize = roundDownToExactMultiple(newSize, entrySize)
-      val position = mmap.position
-
-      /* Windows won't let us modify the file length while the file is mmapped :-( */
-      if (OperatingSystem.IS_WINDOWS)
-        forceUnmap(mmap);
-      try {
-        raf.setLength(roundedNewSize)
-        mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, roundedNewSize)
-        _maxEntries = mmap.limit / entrySize
-        mmap.position(position)
-      } finally {
-        CoreUtils.swallow(raf.close())
+      // an index which is not mapped and already has the requested size is left unmapped
+      if (_mmap != null || file.length != roundedNewSize) {
+        val raf = new RandomAccessFile(file, "rw")
+        val position = _entries * entrySize
+
+        /* Windows won't let us modify the file length while the file is mmapped :-( */
+        if (OperatingSystem.IS_WINDOWS && _mmap != null)
+          forceUnmap(_mmap);
+        try {
+          raf.setLength(roundedNewSize)
+          val m = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, roundedNewSize)
+          _maxEntries = m.limit / entrySize
+          m.position(position)
+          _mmap = m
+          accessed = true
+        } finally {
+          CoreUtils.swallow(raf.close())
+        }
+        MappedIndexCache.update(this)
       }
     }
   }
@@ -136,7 +225,14 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
    */
   def flush() {
     inLock(lock) {
-      mmap.force()
+      if (_mmap != null)
+        _mmap.force()
+      else if (writable && file.exists) {
+        // the entries may have been written through a memory map which has been dropped since
+        val channel = FileChannel.open(file.toPath, StandardOpenOption.WRITE)
+        try channel.force(true)
+        finally CoreUtils.swallow(channel.close())
+      }
     }
   }
 
@@ -146,14 +242,17 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
   def delete(): Boolean = {
     info(s"Deleting index ${file.getAbsolutePath}")
     inLock(lock) {
+      MappedIndexCache.remove(this)
       // On JVM, a memory mapping is typically unmapped by garbage collector.
       // However, in some cases it can pause application threads(STW) for a long moment reading metadata from a physical disk.
       // To prevent this, we forcefully cleanup memory mapping within proper execution which never affects API responsiveness.
       // See https://issues.apache.org/jira/browse/KAFKA-4614 for the details.
-      CoreUtils.swallow(forceUnmap(mmap))
+      if (_mmap != null)
+        CoreUtils.swallow(forceUnmap(_mmap))
       // Accessing unmapped mmap crashes JVM by SEGV.
       // Accessing it after this method called sounds like a bug but for safety, assign null and do not allow later access.
-      mmap = null
+      _mmap = null
+      deleted = true
     }
     file.delete()
   }
@@ -185,6 +284,18 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
    */
   def sanityCheck(): Unit
 
+  /**
+   * Check that the size of the index file is a multiple of the entry size, which unlike [[sanityCheck]] does not
+   * need to read the index
+   *
+   * @throws IllegalArgumentException if the size is not a multiple of the entry size
+   */
+  def sanityCheckFileSize(): Unit = {
+    val len = file.length()
+    require(len % entrySize == 0,
+      s"Index file ${file.getAbsolutePath} is corrupt, found $len bytes which is not a multiple of $entrySize.")
+  }
+
   /**
    * Remove all the entries from the index.
    */
@@ -256,33 +367,51 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
     indexSlotRangeFor(idx, target, searchEntity)._2
 
   /**
-   * Lookup lower and upper bounds for the given target.
+   * The number of entries at the end of the index which make up its warm section. Most lookups are for recent entries
+   * at the end of the index, either by followers and consumers which keep up with the log or by appends, so the pages of
+   * the warm section are almost always in the page cache, whereas the pages that a binary search over the whole index
+   * would touch on the way may have been evicted. 8KB covers at most three pages, and with the 4KB index interval it
+   * maps the last 4MB of a segment with the offset index, and the last 2.7MB with the time index.
+   */
+  protected def warmEntries: Int = 8192 / entrySize
+
+  /**
+   * Lookup lower and upper bounds for the given target. The warm section at the end of the index is searched first,
+   * the rest of the index is only searched if the target is before the warm section.
    */
   private def indexSlotRangeFor(idx: ByteBuffer, target: Long, searchEntity: IndexSearchEntity): (Int, Int) = {
     // check if the index is empty
     if(_entries == 0)
       return (-1, -1)
 
+    // binary search for the entry between the given slots
+    def binarySearch(begin: Int, end: Int): (Int, Int) = {
+      var lo = begin
+      var hi = end
+      while(lo < hi) {
+        val mid = ceil(hi/2.0 + lo/2.0).toInt
+        val found = parseEntry(idx, mid)
+        val compareResult = compareIndexEntry(found, target, searchEntity)
+        if(compareResult > 0)
+          hi = mid - 1
+        else if(compareResult < 0)
+          lo = mid
+        else
+          return (mid, mid)
+      }
+      (lo, if (lo == _entries - 1) -1 else lo + 1)
+    }
+
+    // check if the target is in the warm section of the index
+    val firstWarmEntry = math.max(0, _entries - 1 - warmEntries)
+    if(compareIndexEntry(parseEntry(idx, firstWarmEntry), target, searchEntity) < 0)
+      return binarySearch(firstWarmEntry, _entries - 1)
+
     // check if the target offset is smaller than the least offset
     if(compareIndexEntry(parseEntry(idx, 0), target, searchEntity) > 0)
       return (-1, 0)
 
-    // binary search for the entry
-    var lo = 0
-    var hi = _entries - 1
-    while(lo < hi) {
-      val mid = ceil(hi/2.0 + lo/2.0).toInt
-      val found = parseEntry(idx, mid)
-      val compareResult = compareIndexEntry(found, target, searchEntity)
-      if(compareResult > 0)
-        hi = mid - 1
-      else if(compareResult < 0)
-        lo = mid
-      else
-        return (mid, mid)
-    }
-
-    (lo, if (lo == _entries - 1) -1 else lo + 1)
+    binarySearch(0, firstWarmEntry)
   }
 
   private def compareIndexEntry(indexEntry: IndexEntry, target: Long, searchEntity: IndexSearchEntity): Int = {
@@ -300,6 +429,58 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
 
 }
 
+/**
+ * The memory-mapped indexes of inactive segments, which are no longer appended to. When there are more than
+ * `maxMappedIndexes` of them, the memory maps of the least recently used ones are dropped, so that the indexes of
+ * segments which are not read anymore do not hold on to virtual memory. The indexes of the active segments, which have
+ * free slots, are not tracked and stay mapped.
+ *
+ * The indexes to unmap are chosen with the second chance algorithm, so that a lookup only sets a flag on the index it
+ * reads rather than reordering a list shared by all the indexes.
+ */
+private[log] object MappedIndexCache {
+
+  val DefaultMaxMappedIndexes = 10000
+
+  @volatile var maxMappedIndexes = DefaultMaxMappedIndexes
+
+  /* in the order in which the indexes were mapped or given a second chance */
+  private val indexes = new util.LinkedHashSet[AbstractIndex[_, _]]
+
+  /**
+   * Track the index if it is mapped and trimmed, or stop tracking it otherwise
+   */
+  def update(index: AbstractIndex[_, _]): Unit = synchronized {
+    if (index.isMapped && index.isTrimmed) {
+      if (indexes.add(index))
+        evict()
+    } else
+      indexes.remove(index)
+  }
+
+  def remove(index: AbstractIndex[_, _]): Unit = synchronized {
+    indexes.remove(index)
+  }
+
+  def size: Int = synchronized {
+    indexes.size
+  }
+
+  private def evict(): Unit = {
+    // every index is given at most one second chance, so that concurrent lookups cannot keep the eviction going
+    var attempts = 2 * indexes.size
+    while (indexes.size > maxMappedIndexes && attempts > 0) {
+      val iterator = indexes.iterator
+      val eldest = iterator.next()
+      iterator.remove()
+      if (eldest.clearAccessed() || !eldest.tryUnmap())
+        indexes.add(eldest)
+      attempts -= 1
+    }
+  }
+
+}
+
 object IndexSearchType extends Enumeration {
   type IndexSearchEntity = Value
   val KEY, VALUE = Value
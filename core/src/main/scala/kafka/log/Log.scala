@@ -173,7 +173,18 @@ class Log(@volatile var dir: File,
    * equals the log end offset (which may never happen for a partition under consistent load). This is needed to
    * prevent the log start offset (which is exposed in fetch responses) from getting ahead of the high watermark.
    */
-  @volatile private var replicaHighWatermark: Option[Long] = None
+  @volatile private[log] var replicaHighWatermark: Option[Long] = None
+
+  /* The highest offset which has been copied to the remote tier if the segments of this log are copied to it, see
+   * RemoteLogManager. Segments are then only eligible for deletion by retention once they have been copied, and the
+   * local retention limits of the log apply instead of the retention limits.
+   */
+  @volatile var highestOffsetInRemoteStorage: Option[Long] = None
+
+  /* The flusher of the data directory of this log, see LogManager. When it is set, appends which reach the flush
+   * interval queue the log to be flushed by it instead of flushing the log themselves.
+   */
+  @volatile private[kafka] var flusher: Option[LogFlusher] = None
 
   /* the actual segments of the log */
   private val segments: ConcurrentNavigableMap[java.lang.Long, LogSegment] = new ConcurrentSkipListMap[java.lang.Long, LogSegment]
@@ -276,7 +287,10 @@ class Log(@volatile var dir: File,
   private def loadSegmentFiles(): Unit = {
     // load segments in ascending order because transactional data from one segment may depend on the
     // segments that come before it
-    for (file <- dir.listFiles.sortBy(_.getName) if file.isFile) {
+    val files = dir.listFiles.sortBy(_.getName)
+    val segmentBaseOffsets = files.filter(file => file.isFile && isLogFile(file)).map(file => offsetFromFilename(file.getName))
+    val nextSegmentBaseOffsets = segmentBaseOffsets.zip(segmentBaseOffsets.drop(1)).toMap
+    for (file <- files if file.isFile) {
       val filename = file.getName
       if (isIndexFile(file)) {
         // if it is an index file, make sure it has a corresponding .log file
@@ -295,6 +309,10 @@ class Log(@volatile var dir: File,
 
         val indexFileExists = indexFile.exists()
         val timeIndexFileExists = timeIndexFile.exists()
+        // The indexes of a segment which ends before the recovery point were flushed along with the segment before
+        // the recovery point was checkpointed, so only the sizes of their files are checked. This avoids reading the
+        // indexes of every segment of every log at startup, they are only memory-mapped once they are accessed.
+        val isFlushed = nextSegmentBaseOffsets.get(startOffset).exists(_ <= recoveryPoint)
         val segment = new LogSegment(dir = dir,
           startOffset = startOffset,
           indexIntervalBytes = config.indexInterval,
@@ -305,12 +323,19 @@ class Log(@volatile var dir: File,
 
         if (indexFileExists) {
           try {
-            segment.index.sanityCheck()
+            if (isFlushed)
+              segment.index.sanityCheckFileSize()
+            else
+              segment.index.sanityCheck()
             // Resize the time index file to 0 if it is newly created.
             if (!timeIndexFileExists)
               segment.timeIndex.resize(0)
-            segment.timeIndex.sanityCheck()
-            segment.txnIndex.sanityCheck()
+            if (isFlushed)
+              segment.timeIndex.sanityCheckFileSize()
+            else {
+              segment.timeIndex.sanityCheck()
+              segment.txnIndex.sanityCheck()
+            }
           } catch {
             case e: java.lang.IllegalArgumentException =>
               warn(s"Found a corrupted index file due to ${e.getMessage}}. deleting ${timeIndexFile.getAbsolutePath}, " +
@@ -365,7 +390,8 @@ class Log(@volatile var dir: File,
         baseOffset = startOffset,
         indexIntervalBytes = config.indexInterval,
         rollJitterMs = config.randomSegmentJitter,
-        time = time)
+        time = time,
+        readPositionCacheSize = LogSegment.ReadPositionCacheSize)
       info("Found log file %s from interrupted swap operation, repairing.".format(swapFile.getPath))
       recoverSegment(swapSegment)
       val oldSegments = logSegments(swapSegment.baseOffset, swapSegment.nextOffset())
@@ -602,7 +628,8 @@ class Log(@volatile var dir: File,
               config.messageTimestampType,
               config.messageTimestampDifferenceMaxMs,
               leaderEpoch,
-              isFromClient)
+              isFromClient,
+              CompressionOptions.zstd(config.compressionZstdLevel, null))
           } catch {
             case e: IOException => throw new KafkaException("Error in validating messages while appending to log '%s'".format(name), e)
           }
@@ -697,8 +724,12 @@ class Log(@volatile var dir: File,
         trace("Appended message set to log %s with first offset: %d, next offset: %d, and messages: %s"
           .format(this.name, appendInfo.firstOffset, nextOffsetMetadata.messageOffset, validRecords))
 
-        if (unflushedMessages >= config.flushInterval)
-          flush()
+        if (unflushedMessages >= config.flushInterval) {
+          flusher match {
+            case Some(logFlusher) => logFlusher.requestFlush(this)
+            case None => flush()
+          }
+        }
 
         appendInfo
       }
@@ -1144,24 +1175,36 @@ class Log(@volatile var dir: File,
   }
 
   private def deleteRetentionMsBreachedSegments(): Int = {
-    if (config.retentionMs < 0) return 0
+    val retentionMs: Long = if (highestOffsetInRemoteStorage.isDefined) config.localRetentionMs else config.retentionMs
+    if (retentionMs < 0) return 0
     val startMs = time.milliseconds
-    deleteOldSegments((segment, _) => startMs - segment.largestTimestamp > config.retentionMs,
-      reason = s"retention time ${config.retentionMs}ms breach")
+    deleteOldSegments((segment, nextSegmentOpt) =>
+      isCopiedToRemoteStorage(nextSegmentOpt) && startMs - segment.largestTimestamp > retentionMs,
+      reason = s"retention time ${retentionMs}ms breach")
   }
 
   private def deleteRetentionSizeBreachedSegments(): Int = {
-    if (config.retentionSize < 0 || size < config.retentionSize) return 0
-    var diff = size - config.retentionSize
+    val retentionSize: Long = if (highestOffsetInRemoteStorage.isDefined) config.localRetentionBytes else config.retentionSize
+    if (retentionSize < 0 || size < retentionSize) return 0
+    var diff = size - retentionSize
     def shouldDelete(segment: LogSegment, nextSegmentOpt: Option[LogSegment]) = {
-      if (diff - segment.size >= 0) {
+      if (isCopiedToRemoteStorage(nextSegmentOpt) && diff - segment.size >= 0) {
         diff -= segment.size
         true
       } else {
         false
       }
     }
-    deleteOldSegments(shouldDelete, reason = s"retention size in bytes ${config.retentionSize} breach")
+    deleteOldSegments(shouldDelete, reason = s"retention size in bytes $retentionSize breach")
+  }
+
+  /**
+   * True if the segment followed by the given segment has been copied to the remote tier, or if the segments of this
+   * log are not copied to it. The active segment is never copied.
+   */
+  private def isCopiedToRemoteStorage(nextSegmentOpt: Option[LogSegment]): Boolean = highestOffsetInRemoteStorage match {
+    case None => true
+    case Some(highestOffset) => nextSegmentOpt.exists(_.baseOffset - 1 <= highestOffset)
   }
 
   private def deleteLogStartOffsetBreachedSegments(): Int = {
@@ -1293,6 +1336,18 @@ class Log(@volatile var dir: File,
    */
   def unflushedMessages() = this.logEndOffset - this.recoveryPoint
 
+  /**
+   * Whether appends to this log must be flushed before they are acknowledged to the producer. This is the case when
+   * every message is to be flushed but the flush has been handed to the flusher of the data directory.
+   */
+  def requiresFlushBeforeAck: Boolean = flusher.isDefined && config.flushInterval <= 1
+
+  /**
+   * Whether the messages before the given offset are durable, i.e. do not need to be flushed before they are
+   * acknowledged or have been flushed.
+   */
+  def isFlushedUpTo(offset: Long): Boolean = !requiresFlushBeforeAck || recoveryPoint >= offset
+
   /**
    * Flush all log segments
    */
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.{File, IOException}
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+
+import kafka.common.KafkaStorageException
+import kafka.utils.CoreUtils._
+import kafka.utils.{Exit, ShutdownableThread}
+
+import scala.collection.JavaConverters._
+
+/**
+ * A thread that flushes the logs of a single data directory on behalf of the request handler threads.
+ *
+ * Logs which reach their flush interval are queued with `requestFlush` instead of being flushed in the append path.
+ * Each pass of the thread flushes every log queued since the previous pass, so all the appends to a log which arrive
+ * while a flush is in progress share the next one (group commit). Once a log is flushed, `onFlushed` is invoked so
+ * that requests waiting for the appended messages to be durable can be completed. Like an I/O error in the append
+ * path, an I/O error while flushing halts the broker, since the appended messages can no longer be acknowledged.
+ *
+ * @param dir The data directory whose logs are flushed by this thread
+ * @param onFlushed The callback invoked with each log after it has been flushed
+ */
+private[kafka] class LogFlusher(val dir: File, onFlushed: Log => Unit)
+  extends ShutdownableThread(s"log-flusher-${dir.getName}", isInterruptible = false) {
+
+  private val MaxWaitMs = 100L
+
+  private val lock = new ReentrantLock
+  private val flushRequested = lock.newCondition()
+  private val pending = new java.util.LinkedHashSet[Log]
+  // the logs taken by the current pass which have not been flushed yet
+  private val flushing = new java.util.HashSet[Log]
+  // held while a log is flushed, so that a cancelled log is not closed or deleted during its flush
+  private val flushLock = new ReentrantLock
+
+  /**
+   * Queue the given log to be flushed up to its log end offset on the next pass of the thread
+   */
+  def requestFlush(log: Log): Unit = inLock(lock) {
+    if (pending.add(log))
+      flushRequested.signal()
+  }
+
+  /**
+   * Remove the given log from the queue, if present, waiting for its flush if it is in progress. Used when the log is
+   * closed or deleted.
+   */
+  def cancel(log: Log): Unit = inLock(flushLock) {
+    inLock(lock) {
+      pending.remove(log)
+      flushing.remove(log)
+    }
+  }
+
+  override def initiateShutdown(): Boolean = {
+    val justShutdown = super.initiateShutdown()
+    inLock(lock) {
+      flushRequested.signal()
+    }
+    justShutdown
+  }
+
+  override def doWork(): Unit = {
+    val logs = inLock(lock) {
+      if (pending.isEmpty && isRunning.get)
+        flushRequested.await(MaxWaitMs, TimeUnit.MILLISECONDS)
+      val logs = pending.asScala.toList
+      flushing.addAll(pending)
+      pending.clear()
+      logs
+    }
+    for (log <- logs) {
+      val flushed = inLock(flushLock) {
+        inLock(lock)(flushing.remove(log)) && flush(log)
+      }
+      if (flushed)
+        onFlushed(log)
+    }
+  }
+
+  private def flush(log: Log): Boolean = {
+    try {
+      log.flush()
+      true
+    } catch {
+      case e@ (_: IOException | _: KafkaStorageException) =>
+        fatal(s"Halting due to unrecoverable I/O error while flushing log ${log.name} in dir ${dir.getAbsolutePath}", e)
+        Exit.halt(1)
+      case e: Exception =>
+        error(s"Error while flushing log ${log.name} in dir ${dir.getAbsolutePath}", e)
+        false
+    }
+  }
+
+}
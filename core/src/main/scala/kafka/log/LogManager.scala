@@ -20,9 +20,12 @@ package kafka.log
 import java.io._
 import java.nio.file.Files
 import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicInteger
 
+import com.yammer.metrics.core.Gauge
 import kafka.admin.AdminUtils
 import kafka.common.{KafkaException, KafkaStorageException}
+import kafka.metrics.KafkaMetricsGroup
 import kafka.server.checkpoints.OffsetCheckpointFile
 import kafka.server.{BrokerState, RecoveringFromUncleanShutdown, _}
 import kafka.utils._
@@ -41,6 +44,11 @@ import scala.collection._
  * size or I/O rate.
  * 
  * A background thread handles log retention by periodically truncating excess log segments.
+ *
+ * The logs of all the data directories are loaded at startup by a single pool of
+ * `num.recovery.threads.per.data.dir` threads per directory, so that the threads of a directory which has been loaded
+ * help loading the others. The progress of the loading is exposed by the RemainingLogsToLoad and
+ * LogLoadingRemainingTimeMs metrics.
  */
 @threadsafe
 class LogManager(val logDirs: Array[File],
@@ -56,7 +64,7 @@ class LogManager(val logDirs: Array[File],
                  scheduler: Scheduler,
                  val brokerState: BrokerState,
                  brokerTopicStats: BrokerTopicStats,
-                 time: Time) extends Logging {
+                 time: Time) extends Logging with KafkaMetricsGroup {
   val RecoveryPointCheckpointFile = "recovery-point-offset-checkpoint"
   val LogStartOffsetCheckpointFile = "log-start-offset-checkpoint"
   val LockFile = ".lock"
@@ -70,6 +78,29 @@ class LogManager(val logDirs: Array[File],
   private val dirLocks = lockLogDirs(logDirs)
   private val recoveryPointCheckpoints = logDirs.map(dir => (dir, new OffsetCheckpointFile(new File(dir, RecoveryPointCheckpointFile)))).toMap
   private val logStartOffsetCheckpoints = logDirs.map(dir => (dir, new OffsetCheckpointFile(new File(dir, LogStartOffsetCheckpointFile)))).toMap
+
+  // one flusher per data directory, attached to the logs of the directory once the log manager is started
+  private val flushers = logDirs.map(dir => (dir.getPath, new LogFlusher(dir, log => flushListener(log.topicPartition)))).toMap
+  @volatile private var flushersStarted = false
+  @volatile private var flushListener: TopicPartition => Unit = (_: TopicPartition) => ()
+
+  // the progress of the loading of the logs at startup
+  private val logsToLoad = new AtomicInteger(0)
+  private val logsLoaded = new AtomicInteger(0)
+  @volatile private var loadLogsStartMs = -1L
+
+  newGauge("RemainingLogsToLoad",
+    new Gauge[Int] {
+      def value = logsToLoad.get - logsLoaded.get
+    }
+  )
+
+  newGauge("LogLoadingRemainingTimeMs",
+    new Gauge[Long] {
+      def value = remainingLoadTimeEstimateMs
+    }
+  )
+
   loadLogs()
 
   // public, so we can access this from kafka.admin.DeleteTopicTest
@@ -121,13 +152,10 @@ class LogManager(val logDirs: Array[File],
   private def loadLogs(): Unit = {
     info("Loading logs.")
     val startMs = time.milliseconds
-    val threadPools = mutable.ArrayBuffer.empty[ExecutorService]
-    val jobs = mutable.Map.empty[File, Seq[Future[_]]]
+    loadLogsStartMs = startMs
+    val jobs = mutable.ArrayBuffer.empty[(File, Seq[Runnable])]
 
     for (dir <- this.logDirs) {
-      val pool = Executors.newFixedThreadPool(ioThreads)
-      threadPools.append(pool)
-
       val cleanShutdownFile = new File(dir, Log.CleanShutdownFile)
 
       if (cleanShutdownFile.exists) {
@@ -188,15 +216,26 @@ class LogManager(val logDirs: Array[File],
                   current.dir.getAbsolutePath, previous.dir.getAbsolutePath))
             }
           }
+          logsLoaded.incrementAndGet()
         }
       }
 
-      jobs(cleanShutdownFile) = jobsForDir.map(pool.submit)
+      jobs += cleanShutdownFile -> jobsForDir
     }
-
+    logsToLoad.set(jobs.map(_._2.size).sum)
+    info(s"Loading ${logsToLoad.get} logs from ${logDirs.length} data directories.")
+
+    // A single pool loads the logs of all the directories, so that a directory with more logs to load or recover
+    // than the others is loaded by all the threads once the others are done. The jobs of the directories are
+    // interleaved so that every directory is being loaded from the start.
+    val pool = Executors.newFixedThreadPool(ioThreads * logDirs.length)
+    val futures = jobs.map { case (cleanShutdownFile, _) => cleanShutdownFile -> mutable.ArrayBuffer.empty[Future[_]] }
+    val maxJobsPerDir = if (jobs.isEmpty) 0 else jobs.map(_._2.size).max
+    for (i <- 0 until maxJobsPerDir; ((_, dirJobs), (_, dirFutures)) <- jobs.zip(futures) if i < dirJobs.size)
+      dirFutures += pool.submit(dirJobs(i))
 
     try {
-      for ((cleanShutdownFile, dirJobs) <- jobs) {
+      for ((cleanShutdownFile, dirJobs) <- futures) {
         dirJobs.foreach(_.get)
         cleanShutdownFile.delete()
       }
@@ -206,16 +245,37 @@ class LogManager(val logDirs: Array[File],
         throw e.getCause
       }
     } finally {
-      threadPools.foreach(_.shutdown())
+      pool.shutdown()
     }
 
     info(s"Logs loading complete in ${time.milliseconds - startMs} ms.")
   }
 
+  /**
+   * Estimate the time remaining to load the logs at startup from the average time taken by the logs loaded so far,
+   * or -1 if no log has been loaded yet.
+   */
+  private def remainingLoadTimeEstimateMs: Long = {
+    val loaded = logsLoaded.get
+    val remaining = logsToLoad.get - loaded
+    if (remaining <= 0)
+      0L
+    else if (loaded == 0 || loadLogsStartMs < 0)
+      -1L
+    else
+      (time.milliseconds - loadLogsStartMs) * remaining / loaded
+  }
+
   /**
    *  Start the background threads to flush logs and do log cleanup
    */
   def startup() {
+    logCreationOrDeletionLock synchronized {
+      allLogs.foreach(attachFlusher)
+      flushers.values.foreach(_.start())
+      flushersStarted = true
+    }
+
     /* Schedule the cleanup task to delete old logs */
     if(scheduler != null) {
       info("Starting log cleanup with a period of %d ms.".format(retentionCheckMs))
@@ -264,6 +324,12 @@ class LogManager(val logDirs: Array[File],
       CoreUtils.swallow(cleaner.shutdown())
     }
 
+    // then the flushers, the logs are flushed below
+    if (flushersStarted) {
+      allLogs.foreach(_.flusher = None)
+      flushers.values.foreach(flusher => CoreUtils.swallow(flusher.shutdown()))
+    }
+
     // close logs in each dir
     for (dir <- this.logDirs) {
       debug("Flushing and closing logs at " + dir)
@@ -307,6 +373,8 @@ class LogManager(val logDirs: Array[File],
       threadPools.foreach(_.shutdown())
       // regardless of whether the close succeeded, we need to unlock the data directories
       dirLocks.foreach(_.destroy())
+      removeMetric("RemainingLogsToLoad")
+      removeMetric("LogLoadingRemainingTimeMs")
     }
 
     info("Shutdown complete.")
@@ -422,6 +490,8 @@ class LogManager(val logDirs: Array[File],
           scheduler = scheduler,
           time = time,
           brokerTopicStats = brokerTopicStats)
+        if (flushersStarted)
+          attachFlusher(log)
         logs.put(topicPartition, log)
         info("Created log for partition [%s,%d] in %s with properties {%s}."
           .format(topicPartition.topic,
@@ -475,6 +545,8 @@ class LogManager(val logDirs: Array[File],
         cleaner.abortCleaning(topicPartition)
         cleaner.updateCheckpoints(removedLog.dir.getParentFile)
       }
+      removedLog.flusher.foreach(_.cancel(removedLog))
+      removedLog.flusher = None
       val dirName = Log.logDeleteDirName(removedLog.name)
       removedLog.close()
       val renamedDir = new File(removedLog.dir.getParent, dirName)
@@ -536,6 +608,17 @@ class LogManager(val logDirs: Array[File],
    */
   def allLogs(): Iterable[Log] = logs.values
 
+  /**
+   * Register the callback invoked with the partition of each log flushed by the flushers of the data directories
+   */
+  def registerFlushListener(listener: TopicPartition => Unit): Unit = {
+    flushListener = listener
+  }
+
+  private def attachFlusher(log: Log): Unit = {
+    log.flusher = flushers.get(log.dir.getParent)
+  }
+
   /**
    * Get a map of TopicPartition => Log
    */
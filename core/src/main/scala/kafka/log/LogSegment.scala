@@ -17,8 +17,10 @@
 package kafka.log
 
 import java.io.{File, IOException}
+import java.lang.{Long => JLong}
 import java.nio.file.Files
 import java.nio.file.attribute.FileTime
+import java.util
 import java.util.concurrent.TimeUnit
 
 import kafka.common._
@@ -48,6 +50,7 @@ import scala.math._
  * @param baseOffset A lower bound on the offsets in this segment
  * @param indexIntervalBytes The approximate number of bytes between entries in the index
  * @param time The time instance
+ * @param readPositionCacheSize The number of recently read offsets whose file position is cached, 0 to disable the cache
  */
 @nonthreadsafe
 class LogSegment(val log: FileRecords,
@@ -57,19 +60,37 @@ class LogSegment(val log: FileRecords,
                  val baseOffset: Long,
                  val indexIntervalBytes: Int,
                  val rollJitterMs: Long,
-                 time: Time) extends Logging {
+                 time: Time,
+                 readPositionCacheSize: Int) extends Logging {
 
   private var created = time.milliseconds
 
+  /* the positions of the batches containing recently read offsets, shared by the fetches reading the same offsets */
+  private val readPositionCache = new ReadPositionCache(readPositionCacheSize)
+
   /* the number of bytes since we last added an entry in the offset index */
   private var bytesSinceLastIndexEntry = 0
 
   /* The timestamp we used for time based log rolling */
   private var rollingBasedTimestamp: Option[Long] = None
 
-  /* The maximum timestamp we see so far */
-  @volatile private var maxTimestampSoFar: Long = timeIndex.lastEntry.timestamp
-  @volatile private var offsetOfMaxTimestamp: Long = timeIndex.lastEntry.offset
+  /* The maximum timestamp we see so far, which is read from the time index when it is first needed */
+  @volatile private var _maxTimestampSoFar: Option[Long] = None
+  @volatile private var _offsetOfMaxTimestamp: Option[Long] = None
+
+  private def maxTimestampSoFar_=(timestamp: Long): Unit = _maxTimestampSoFar = Some(timestamp)
+  private def maxTimestampSoFar: Long = {
+    if (_maxTimestampSoFar.isEmpty)
+      _maxTimestampSoFar = Some(timeIndex.lastEntry.timestamp)
+    _maxTimestampSoFar.get
+  }
+
+  private def offsetOfMaxTimestamp_=(offset: Long): Unit = _offsetOfMaxTimestamp = Some(offset)
+  private def offsetOfMaxTimestamp: Long = {
+    if (_offsetOfMaxTimestamp.isEmpty)
+      _offsetOfMaxTimestamp = Some(timeIndex.lastEntry.offset)
+    _offsetOfMaxTimestamp.get
+  }
 
   def this(dir: File, startOffset: Long, indexIntervalBytes: Int, maxIndexSize: Int, rollJitterMs: Long, time: Time,
            fileAlreadyExists: Boolean = false, initFileSize: Int = 0, preallocate: Boolean = false) =
@@ -80,7 +101,8 @@ class LogSegment(val log: FileRecords,
          startOffset,
          indexIntervalBytes,
          rollJitterMs,
-         time)
+         time,
+         LogSegment.ReadPositionCacheSize)
 
   /* Return the size in bytes of this log segment */
   def size: Int = log.sizeInBytes()
@@ -177,6 +199,32 @@ class LogSegment(val log: FileRecords,
     log.searchForOffsetWithSize(offset, max(mapping.position, startingFilePosition))
   }
 
+  /**
+   * Translate an offset which is read through the read position cache. The position of a batch does not change
+   * when records are appended, so only found positions are cached and the cache is cleared on truncation.
+   *
+   * The starting file position must not be larger than the position of the batch containing the offset, otherwise
+   * the result would depend on it.
+   */
+  @threadsafe
+  private def cachedTranslateOffset(offset: Long, startingFilePosition: Int = 0): LogOffsetPosition = {
+    if (!readPositionCache.enabled)
+      return translateOffset(offset, startingFilePosition)
+
+    val cached = readPositionCache.get(offset)
+    if (cached != null) {
+      LogReadStats.readPositionCacheHitRate.mark()
+      cached
+    } else {
+      LogReadStats.readPositionCacheMissRate.mark()
+      val generation = readPositionCache.generation
+      val position = translateOffset(offset, startingFilePosition)
+      if (position != null)
+        readPositionCache.put(offset, position, generation)
+      position
+    }
+  }
+
   /**
    * Read a message set from this segment beginning with the first offset >= startOffset. The message set will include
    * no more than maxSize bytes and will end before maxOffset if a maxOffset is specified.
@@ -197,7 +245,7 @@ class LogSegment(val log: FileRecords,
       throw new IllegalArgumentException("Invalid max size for log read (%d)".format(maxSize))
 
     val logSize = log.sizeInBytes // this may change, need to save a consistent copy
-    val startOffsetAndSize = translateOffset(startOffset)
+    val startOffsetAndSize = cachedTranslateOffset(startOffset)
 
     // if the start position is already off the end of the log, return null
     if (startOffsetAndSize == null)
@@ -226,7 +274,7 @@ class LogSegment(val log: FileRecords,
         // offset between new leader's high watermark and the log end offset, we want to return an empty response.
         if (offset < startOffset)
           return FetchDataInfo(offsetMetadata, MemoryRecords.EMPTY, firstEntryIncomplete = false)
-        val mapping = translateOffset(offset, startPosition)
+        val mapping = cachedTranslateOffset(offset, startPosition)
         val endPosition =
           if (mapping == null)
             logSize // the max offset is off the end of the log, use the end of the file
@@ -253,6 +301,7 @@ class LogSegment(val log: FileRecords,
    */
   @nonthreadsafe
   def recover(producerStateManager: ProducerStateManager, leaderEpochCache: Option[LeaderEpochCache] = None): Int = {
+    readPositionCache.clear()
     index.truncate()
     index.resize(index.maxIndexSize)
     timeIndex.truncate()
@@ -337,6 +386,7 @@ class LogSegment(val log: FileRecords,
     val mapping = translateOffset(offset)
     if (mapping == null)
       return 0
+    readPositionCache.clear()
     index.truncateTo(offset)
     timeIndex.truncateTo(offset)
     txnIndex.truncateTo(offset)
@@ -485,7 +535,9 @@ class LogSegment(val log: FileRecords,
    * Close this log segment
    */
   def close() {
-    CoreUtils.swallow(timeIndex.maybeAppend(maxTimestampSoFar, offsetOfMaxTimestamp, skipFullCheck = true))
+    // the time index is already up to date if the maximum timestamp was never read from it
+    if (_maxTimestampSoFar.nonEmpty || _offsetOfMaxTimestamp.nonEmpty)
+      CoreUtils.swallow(timeIndex.maybeAppend(maxTimestampSoFar, offsetOfMaxTimestamp, skipFullCheck = true))
     CoreUtils.swallow(index.close())
     CoreUtils.swallow(timeIndex.close())
     CoreUtils.swallow(log.close())
@@ -533,6 +585,54 @@ class LogSegment(val log: FileRecords,
   }
 }
 
+object LogSegment {
+  val ReadPositionCacheSize = 16
+}
+
 object LogFlushStats extends KafkaMetricsGroup {
   val logFlushTimer = new KafkaTimer(newTimer("LogFlushRateAndTimeMs", TimeUnit.MILLISECONDS, TimeUnit.SECONDS))
 }
+
+object LogReadStats extends KafkaMetricsGroup {
+  val readPositionCacheHitRate = newMeter("ReadPositionCacheHitsPerSec", "hits", TimeUnit.SECONDS)
+  val readPositionCacheMissRate = newMeter("ReadPositionCacheMissesPerSec", "misses", TimeUnit.SECONDS)
+}
+
+/**
+ * A small LRU cache of the file positions of the batches containing recently read offsets. Consumers tailing a
+ * partition fetch the same offsets, which would otherwise repeat the index lookup and the scan of the batch headers.
+ *
+ * The generation changes whenever the cache is cleared, so that a position computed before a truncation is not
+ * added after it.
+ */
+@threadsafe
+private[log] class ReadPositionCache(maxEntries: Int) {
+  private val positions = new util.LinkedHashMap[JLong, LogOffsetPosition](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: util.Map.Entry[JLong, LogOffsetPosition]): Boolean = this.size > maxEntries
+  }
+  private var currentGeneration = 0L
+
+  def enabled: Boolean = maxEntries > 0
+
+  def generation: Long = synchronized {
+    currentGeneration
+  }
+
+  def get(offset: Long): LogOffsetPosition = synchronized {
+    positions.get(offset)
+  }
+
+  def put(offset: Long, position: LogOffsetPosition, generation: Long): Unit = synchronized {
+    if (generation == currentGeneration)
+      positions.put(offset, position)
+  }
+
+  def clear(): Unit = synchronized {
+    currentGeneration += 1
+    positions.clear()
+  }
+
+  def size: Int = synchronized {
+    positions.size
+  }
+}
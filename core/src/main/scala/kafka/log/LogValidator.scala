@@ -19,7 +19,7 @@ package kafka.log
 import java.nio.ByteBuffer
 
 import kafka.common.LongRef
-import kafka.message.{CompressionCodec, NoCompressionCodec}
+import kafka.message.{CompressionCodec, NoCompressionCodec, ZStdCompressionCodec}
 import kafka.utils.Logging
 import org.apache.kafka.common.errors.{InvalidTimestampException, UnsupportedForMessageFormatException}
 import org.apache.kafka.common.record._
@@ -29,6 +29,12 @@ import scala.collection.JavaConverters._
 
 private[kafka] object LogValidator extends Logging {
 
+  // Validation runs on the request handler and replica fetcher threads, each of which decompresses one batch at a
+  // time, so a supplier per thread lets the inflaters and decompression buffers be reused across requests
+  private val decompressionBufferSupplier = new ThreadLocal[BufferSupplier] {
+    override def initialValue: BufferSupplier = BufferSupplier.create()
+  }
+
   /**
    * Update the offsets for this message set and do further validation on messages including:
    * 1. Messages for compacted topics must have keys
@@ -54,7 +60,11 @@ private[kafka] object LogValidator extends Logging {
                                                       timestampType: TimestampType,
                                                       timestampDiffMaxMs: Long,
                                                       partitionLeaderEpoch: Int,
-                                                      isFromClient: Boolean): ValidationAndOffsetAssignResult = {
+                                                      isFromClient: Boolean,
+                                                      compressionOptions: CompressionOptions = CompressionOptions.DEFAULT): ValidationAndOffsetAssignResult = {
+    if (targetCodec == ZStdCompressionCodec && magic < RecordBatch.MAGIC_VALUE_V2)
+      throw new UnsupportedForMessageFormatException(s"ZStandard compression cannot be used with magic version $magic")
+
     if (sourceCodec == NoCompressionCodec && targetCodec == NoCompressionCodec) {
       // check the magic value
       if (!records.hasMatchingMagic(magic))
@@ -66,7 +76,7 @@ private[kafka] object LogValidator extends Logging {
           partitionLeaderEpoch, isFromClient, magic)
     } else {
       validateMessagesAndAssignOffsetsCompressed(records, offsetCounter, now, sourceCodec, targetCodec, compactedTopic,
-        magic, timestampType, timestampDiffMaxMs, partitionLeaderEpoch, isFromClient)
+        magic, timestampType, timestampDiffMaxMs, partitionLeaderEpoch, isFromClient, compressionOptions)
     }
   }
 
@@ -223,7 +233,8 @@ private[kafka] object LogValidator extends Logging {
                                                  timestampType: TimestampType,
                                                  timestampDiffMaxMs: Long,
                                                  partitionLeaderEpoch: Int,
-                                                 isFromClient: Boolean): ValidationAndOffsetAssignResult = {
+                                                 isFromClient: Boolean,
+                                                 compressionOptions: CompressionOptions): ValidationAndOffsetAssignResult = {
 
       // No in place assignment situation 1 and 2
       var inPlaceAssignment = sourceCodec == targetCodec && toMagic > RecordBatch.MAGIC_VALUE_V0
@@ -239,25 +250,30 @@ private[kafka] object LogValidator extends Logging {
         if (sourceCodec == NoCompressionCodec && batch.isControlBatch)
           inPlaceAssignment = true
 
-        for (record <- batch.asScala) {
-          validateRecord(batch, record, now, timestampType, timestampDiffMaxMs, compactedTopic)
-          if (sourceCodec != NoCompressionCodec && record.isCompressed)
-            throw new InvalidRecordException("Compressed outer record should not have an inner record with a " +
-              s"compression attribute set: $record")
-          if (batch.magic > RecordBatch.MAGIC_VALUE_V0 && toMagic > RecordBatch.MAGIC_VALUE_V0) {
-            // Check if we need to overwrite offset
-            // No in place assignment situation 3
-            if (record.offset != expectedInnerOffset.getAndIncrement())
+        val recordsIterator = batch.streamingIterator(decompressionBufferSupplier.get)
+        try {
+          for (record <- recordsIterator.asScala) {
+            validateRecord(batch, record, now, timestampType, timestampDiffMaxMs, compactedTopic)
+            if (sourceCodec != NoCompressionCodec && record.isCompressed)
+              throw new InvalidRecordException("Compressed outer record should not have an inner record with a " +
+                s"compression attribute set: $record")
+            if (batch.magic > RecordBatch.MAGIC_VALUE_V0 && toMagic > RecordBatch.MAGIC_VALUE_V0) {
+              // Check if we need to overwrite offset
+              // No in place assignment situation 3
+              if (record.offset != expectedInnerOffset.getAndIncrement())
+                inPlaceAssignment = false
+              if (record.timestamp > maxTimestamp)
+                maxTimestamp = record.timestamp
+            }
+
+            // No in place assignment situation 4
+            if (!record.hasMagic(toMagic))
               inPlaceAssignment = false
-            if (record.timestamp > maxTimestamp)
-              maxTimestamp = record.timestamp
-          }
-
-          // No in place assignment situation 4
-          if (!record.hasMagic(toMagic))
-            inPlaceAssignment = false
 
-          validatedRecords += record
+            validatedRecords += record
+          }
+        } finally {
+          recordsIterator.close()
         }
       }
 
@@ -269,8 +285,8 @@ private[kafka] object LogValidator extends Logging {
           val first = records.batches.asScala.head
           (first.producerId, first.producerEpoch, first.baseSequence, first.isTransactional)
         }
-        buildRecordsAndAssignOffsets(toMagic, offsetCounter, timestampType, CompressionType.forId(targetCodec.codec), now,
-          validatedRecords, producerId, producerEpoch, sequence, isTransactional, partitionLeaderEpoch)
+        buildRecordsAndAssignOffsets(toMagic, offsetCounter, timestampType, CompressionType.forId(targetCodec.codec),
+          compressionOptions, now, validatedRecords, producerId, producerEpoch, sequence, isTransactional, partitionLeaderEpoch)
       } else {
         // we can update the batch only and write the compressed payload as is
         val batch = records.batches.iterator.next()
@@ -298,6 +314,7 @@ private[kafka] object LogValidator extends Logging {
                                            offsetCounter: LongRef,
                                            timestampType: TimestampType,
                                            compressionType: CompressionType,
+                                           compressionOptions: CompressionOptions,
                                            logAppendTime: Long,
                                            validatedRecords: Seq[Record],
                                            producerId: Long,
@@ -308,8 +325,9 @@ private[kafka] object LogValidator extends Logging {
     val estimatedSize = AbstractRecords.estimateSizeInBytes(magic, offsetCounter.value, compressionType,
       validatedRecords.asJava)
     val buffer = ByteBuffer.allocate(estimatedSize)
-    val builder = MemoryRecords.builder(buffer, magic, compressionType, timestampType, offsetCounter.value,
-      logAppendTime, producerId, producerEpoch, baseSequence, isTransactional, partitionLeaderEpoch)
+    val builder = MemoryRecords.builder(buffer, magic, compressionType, compressionOptions, timestampType,
+      offsetCounter.value, logAppendTime, producerId, producerEpoch, baseSequence, isTransactional, false,
+      partitionLeaderEpoch)
 
     validatedRecords.foreach { record =>
       builder.appendWithOffset(offsetCounter.getAndIncrement(), record)
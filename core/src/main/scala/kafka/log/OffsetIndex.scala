@@ -53,11 +53,11 @@ class OffsetIndex(file: File, baseOffset: Long, maxIndexSize: Int = -1, writable
 
   override def entrySize = 8
   
-  /* the last offset in the index */
-  private[this] var _lastOffset = lastEntry.offset
+  /* the last offset in the index, which is read from the index when it is first needed */
+  @volatile private[this] var _lastOffset: Option[Long] = None
   
-  debug("Loaded index file %s with maxEntries = %d, maxIndexSize = %d, entries = %d, lastOffset = %d, file position = %d"
-    .format(file.getAbsolutePath, maxEntries, maxIndexSize, _entries, _lastOffset, mmap.position))
+  debug("Loaded index file %s with maxEntries = %d, maxIndexSize = %d, entries = %d"
+    .format(file.getAbsolutePath, maxEntries, maxIndexSize, _entries))
 
   /**
    * The last entry in the index
@@ -71,7 +71,15 @@ class OffsetIndex(file: File, baseOffset: Long, maxIndexSize: Int = -1, writable
     }
   }
 
-  def lastOffset: Long = _lastOffset
+  def lastOffset: Long = {
+    _lastOffset.getOrElse {
+      inLock(lock) {
+        if (_lastOffset.isEmpty)
+          _lastOffset = Some(lastEntry.offset)
+        _lastOffset.get
+      }
+    }
+  }
 
   /**
    * Find the largest offset less than or equal to the given targetOffset 
@@ -137,16 +145,16 @@ class OffsetIndex(file: File, baseOffset: Long, maxIndexSize: Int = -1, writable
   def append(offset: Long, position: Int) {
     inLock(lock) {
       require(!isFull, "Attempt to append to a full index (size = " + _entries + ").")
-      if (_entries == 0 || offset > _lastOffset) {
+      if (_entries == 0 || offset > lastOffset) {
         debug("Adding index entry %d => %d to %s.".format(offset, position, file.getName))
         mmap.putInt((offset - baseOffset).toInt)
         mmap.putInt(position)
         _entries += 1
-        _lastOffset = offset
+        _lastOffset = Some(offset)
         require(_entries * entrySize == mmap.position, entries + " entries but file position in index is " + mmap.position + ".")
       } else {
         throw new InvalidOffsetException("Attempt to append an offset (%d) to position %d no larger than the last offset appended (%d) to %s."
-          .format(offset, entries, _lastOffset, file.getAbsolutePath))
+          .format(offset, entries, lastOffset, file.getAbsolutePath))
       }
     }
   }
@@ -181,14 +189,14 @@ class OffsetIndex(file: File, baseOffset: Long, maxIndexSize: Int = -1, writable
     inLock(lock) {
       _entries = entries
       mmap.position(_entries * entrySize)
-      _lastOffset = lastEntry.offset
+      _lastOffset = Some(lastEntry.offset)
     }
   }
 
   override def sanityCheck() {
-    require(_entries == 0 || _lastOffset > baseOffset,
+    require(_entries == 0 || lastOffset > baseOffset,
             s"Corrupt index found, index file (${file.getAbsolutePath}) has non-zero size but the last offset " +
-                s"is ${_lastOffset} which is no larger than the base offset $baseOffset.")
+                s"is $lastOffset which is no larger than the base offset $baseOffset.")
     val len = file.length()
     require(len % entrySize == 0,
             "Index file " + file.getAbsolutePath + " is corrupt, found " + len +
@@ -0,0 +1,411 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{Callable, ExecutionException, Executors, ThreadFactory, TimeUnit, TimeoutException}
+
+import kafka.metrics.KafkaMetricsGroup
+import kafka.server.{FetchDataInfo, LogOffsetMetadata}
+import kafka.utils.{Logging, Pool, Scheduler}
+import org.apache.kafka.common.{KafkaException, TopicPartition}
+import org.apache.kafka.common.record.{MemoryRecords, Records}
+import org.apache.kafka.common.requests.FetchResponse.AbortedTransaction
+import org.apache.kafka.common.requests.IsolationLevel
+import org.apache.kafka.common.utils.{Time, Utils}
+import org.apache.kafka.server.log.remote.RemoteStorageManager.IndexType
+import org.apache.kafka.server.log.remote.{LogSegmentData, RemoteLogSegmentMetadata, RemoteStorageManager}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+/**
+ * Copies the segments of the logs of the topics with `remote.storage.enable` to the remote tier and serves the reads
+ * of the offsets which are only in the remote tier.
+ *
+ * A periodic task lists the remote segments of every such partition. The leader of a partition then copies each
+ * segment which is no longer active and is below the high watermark, and deletes the remote segments which have
+ * breached the retention limits of the topic. On every replica, the highest remote offset is set on the log, which
+ * only deletes the segments which have been copied and applies the local retention limits of the topic.
+ *
+ * The remote segments are read in chunks which are cached, along with their offset and transaction indexes, up to the
+ * given total size. The chunks are read by a pool of reader threads so that a slow remote tier only holds up the
+ * request handler threads for the given read timeout, after which the fetch of the partition fails.
+ */
+class RemoteLogManager(remoteStorageManager: RemoteStorageManager,
+                       logManager: LogManager,
+                       isLeader: TopicPartition => Boolean,
+                       scheduler: Scheduler,
+                       taskIntervalMs: Long,
+                       chunkCacheBytes: Long,
+                       readerThreads: Int,
+                       readTimeoutMs: Long,
+                       time: Time) extends Logging with KafkaMetricsGroup {
+
+  this.logIdent = "[RemoteLogManager] "
+
+  /* the remote segments of each partition whose segments are copied to the remote tier, ordered by base offset */
+  private val remoteSegments = new Pool[TopicPartition, Vector[RemoteLogSegmentMetadata]]()
+  private val chunkCache = new RemoteLogChunkCache(remoteStorageManager, chunkCacheBytes, readerThreads,
+    readTimeoutMs)
+
+  private val remoteFetchBytesRate = newMeter("RemoteFetchBytesPerSec", "bytes", TimeUnit.SECONDS)
+  private val copiedBytesRate = newMeter("RemoteCopyBytesPerSec", "bytes", TimeUnit.SECONDS)
+
+  def startup(): Unit = {
+    scheduler.schedule("remote-log-manager", copyAndDeleteSegments _, delay = 0, period = taskIntervalMs,
+      TimeUnit.MILLISECONDS)
+  }
+
+  /**
+   * Copy the segments of the partitions this broker leads to the remote tier and delete the remote segments which
+   * have breached the retention limits, then update the highest remote offset of every log.
+   */
+  def copyAndDeleteSegments(): Unit = {
+    for ((topicPartition, log) <- logManager.logsByTopicPartition) {
+      try {
+        if (isTiered(log)) {
+          val segments = remoteStorageManager.listRemoteLogSegments(topicPartition).asScala.toVector
+          remoteSegments.put(topicPartition, segments)
+          if (isLeader(topicPartition)) {
+            copySegments(topicPartition, log)
+            deleteExpiredSegments(topicPartition, log)
+          }
+          log.highestOffsetInRemoteStorage = Some(highestRemoteOffset(topicPartition))
+        } else {
+          log.highestOffsetInRemoteStorage = None
+          remoteSegments.remove(topicPartition)
+        }
+      } catch {
+        case e: Exception =>
+          warn(s"Error while copying the segments of $topicPartition to the remote tier, will retry", e)
+      }
+    }
+    remoteSegments.keys.filterNot(logManager.getLog(_).isDefined).foreach(remoteSegments.remove)
+  }
+
+  /**
+   * Read from a segment in the remote tier. Like a read of a local segment, the records returned start with the
+   * batch which contains the fetch offset and do not span more than one segment.
+   *
+   * @return The records read, or None if the fetch offset is not in the remote tier
+   */
+  def read(topicPartition: TopicPartition, log: Log, fetchOffset: Long, maxBytes: Int, minOneMessage: Boolean,
+           isolationLevel: IsolationLevel): Option[FetchDataInfo] = {
+    val segments = Option(remoteSegments.get(topicPartition)).getOrElse(Vector.empty)
+    // the segments copied by different leaders may overlap
+    val segmentIndex = segments.lastIndexWhere(segment => segment.baseOffset <= fetchOffset && segment.endOffset >= fetchOffset)
+    if (segmentIndex < 0)
+      return None
+
+    val segment = segments(segmentIndex)
+    findBatch(segment, fetchOffset).map { case (position, firstBatchSize) =>
+      read(log, segments.drop(segmentIndex), fetchOffset, position, firstBatchSize, maxBytes, minOneMessage,
+        isolationLevel)
+    }
+  }
+
+  private def read(log: Log, segments: Seq[RemoteLogSegmentMetadata], fetchOffset: Long, position: Int,
+                   firstBatchSize: Int, maxBytes: Int, minOneMessage: Boolean,
+                   isolationLevel: IsolationLevel): FetchDataInfo = {
+    val segment = segments.head
+    val offsetMetadata = LogOffsetMetadata(fetchOffset, segment.baseOffset, position)
+    val adjustedMaxSize = if (minOneMessage) math.max(maxBytes, firstBatchSize) else maxBytes
+    if (adjustedMaxSize == 0)
+      return FetchDataInfo(offsetMetadata, MemoryRecords.EMPTY)
+
+    val buffer = chunkCache.read(segment, position, math.min(adjustedMaxSize, segment.sizeInBytes - position))
+    remoteFetchBytesRate.mark(buffer.remaining)
+    val abortedTransactions =
+      if (isolationLevel == IsolationLevel.READ_COMMITTED)
+        Some(collectAbortedTransactions(log, segments, fetchOffset, segment.endOffset + 1))
+      else
+        None
+    FetchDataInfo(offsetMetadata, MemoryRecords.readableRecords(buffer),
+      firstEntryIncomplete = adjustedMaxSize < firstBatchSize, abortedTransactions = abortedTransactions)
+  }
+
+  /**
+   * The earliest offset of the partition in the remote tier, if any.
+   */
+  def earliestOffset(topicPartition: TopicPartition): Option[Long] =
+    Option(remoteSegments.get(topicPartition)).flatMap(_.headOption).map(_.baseOffset)
+
+  def shutdown(): Unit = {
+    removeMetric("RemoteFetchBytesPerSec")
+    removeMetric("RemoteCopyBytesPerSec")
+    chunkCache.close()
+    remoteStorageManager.close()
+  }
+
+  private def isTiered(log: Log): Boolean =
+    log.config.remoteStorageEnable && log.config.delete && !log.config.compact
+
+  private def highestRemoteOffset(topicPartition: TopicPartition): Long =
+    Option(remoteSegments.get(topicPartition)).map(_.foldLeft(-1L)(_ max _.endOffset)).getOrElse(-1L)
+
+  private def copySegments(topicPartition: TopicPartition, log: Log): Unit = {
+    val highWatermark = log.replicaHighWatermark.getOrElse(-1L)
+    val localSegments = log.logSegments.toVector
+    for ((segment, nextSegment) <- localSegments.zip(localSegments.drop(1))) {
+      val endOffset = nextSegment.baseOffset - 1
+      // the segments of a previous leader may end within a local segment, which is then copied entirely
+      if (nextSegment.baseOffset <= highWatermark && endOffset > highestRemoteOffset(topicPartition) && segment.size > 0) {
+        val metadata = new RemoteLogSegmentMetadata(topicPartition, segment.baseOffset, endOffset,
+          segment.largestTimestamp, segment.size)
+        val producerSnapshot = Log.producerSnapshotFile(log.dir, nextSegment.baseOffset)
+        val data = new LogSegmentData(segment.log.file, segment.index.file, segment.timeIndex.file,
+          segment.txnIndex.file, if (producerSnapshot.exists) producerSnapshot else null)
+        remoteStorageManager.copyLogSegment(metadata, data)
+        copiedBytesRate.mark(segment.size)
+        debug(s"Copied segment $metadata to the remote tier")
+
+        chunkCache.invalidate(topicPartition, metadata.baseOffset)
+        val segments = remoteSegments.get(topicPartition).filterNot(_.baseOffset == metadata.baseOffset) :+ metadata
+        remoteSegments.put(topicPartition, segments)
+        log.highestOffsetInRemoteStorage = Some(endOffset)
+      }
+    }
+  }
+
+  /**
+   * Delete the oldest remote segments while the partition breaches its retention limits. The size of the partition is
+   * the size of its remote segments and of its local segments which have not been copied yet. The newest remote
+   * segment is always retained so that the highest remote offset is known.
+   */
+  private def deleteExpiredSegments(topicPartition: TopicPartition, log: Log): Unit = {
+    val config = log.config
+    val nowMs = time.milliseconds
+    var segments = remoteSegments.get(topicPartition)
+    if (segments.size <= 1)
+      return
+    val highestOffset = highestRemoteOffset(topicPartition)
+    var size = segments.map(_.sizeInBytes.toLong).sum +
+      log.logSegments.filter(_.baseOffset > highestOffset).map(_.size.toLong).sum
+
+    def isExpired(segment: RemoteLogSegmentMetadata): Boolean =
+      (config.retentionMs >= 0 && nowMs - segment.maxTimestamp > config.retentionMs) ||
+        (config.retentionSize >= 0 && size - segment.sizeInBytes >= config.retentionSize)
+
+    while (segments.size > 1 && isExpired(segments.head)) {
+      val segment = segments.head
+      info(s"Deleting remote segment $segment which breached the retention limits")
+      remoteStorageManager.deleteLogSegment(segment)
+      chunkCache.invalidate(topicPartition, segment.baseOffset)
+      size -= segment.sizeInBytes
+      segments = segments.tail
+      remoteSegments.put(topicPartition, segments)
+    }
+  }
+
+  /**
+   * Find the position and the size of the first batch of the segment whose last offset is at least the given offset,
+   * starting from the position of the largest offset in the offset index which is at most the given offset.
+   */
+  private def findBatch(segment: RemoteLogSegmentMetadata, offset: Long): Option[(Int, Int)] = {
+    var position = lookupPosition(segment, offset)
+    while (position <= segment.sizeInBytes - Records.LOG_OVERHEAD) {
+      val header = chunkCache.read(segment, position, Records.LOG_OVERHEAD)
+      if (header.remaining < Records.LOG_OVERHEAD)
+        return None
+      val batchSize = Records.LOG_OVERHEAD + header.getInt(header.position + Records.SIZE_OFFSET)
+      val batches = MemoryRecords.readableRecords(chunkCache.read(segment, position, batchSize)).batches.iterator
+      if (!batches.hasNext)
+        return None
+      if (batches.next().lastOffset >= offset)
+        return Some((position, batchSize))
+      position += batchSize
+    }
+    None
+  }
+
+  private def lookupPosition(segment: RemoteLogSegmentMetadata, offset: Long): Int = {
+    chunkCache.index(segment, IndexType.OFFSET) match {
+      case None => 0
+      case Some(index) =>
+        val entrySize = 8
+        val relativeOffset = offset - segment.baseOffset
+        // binary search for the last entry whose relative offset is at most the target
+        var lo = 0
+        var hi = index.remaining / entrySize - 1
+        var position = 0
+        while (lo <= hi) {
+          val mid = (lo + hi) >>> 1
+          val entry = index.position + mid * entrySize
+          if (index.getInt(entry) <= relativeOffset) {
+            position = index.getInt(entry + 4)
+            lo = mid + 1
+          } else {
+            hi = mid - 1
+          }
+        }
+        position
+    }
+  }
+
+  /**
+   * Collect the aborted transactions which overlap [fetchOffset, upperBoundOffset) from the transaction indexes of
+   * the given remote segments and then of the local segments, until one of them is known to be complete.
+   */
+  private def collectAbortedTransactions(log: Log, segments: Seq[RemoteLogSegmentMetadata], fetchOffset: Long,
+                                         upperBoundOffset: Long): List[AbortedTransaction] = {
+    val abortedTxns = mutable.LinkedHashSet.empty[AbortedTxn]
+    for (segment <- segments) {
+      chunkCache.index(segment, IndexType.TRANSACTION).foreach { index =>
+        var position = index.position
+        while (index.limit - position >= AbortedTxn.TotalSize) {
+          val entry = index.duplicate()
+          entry.position(position)
+          entry.limit(position + AbortedTxn.TotalSize)
+          val abortedTxn = new AbortedTxn(entry.slice())
+          if (abortedTxn.lastOffset >= fetchOffset && abortedTxn.firstOffset < upperBoundOffset)
+            abortedTxns += abortedTxn
+          if (abortedTxn.lastStableOffset >= upperBoundOffset)
+            return abortedTxns.toList.map(_.asAbortedTransaction)
+          position += AbortedTxn.TotalSize
+        }
+      }
+    }
+    abortedTxns ++= log.collectAbortedTransactions(log.logStartOffset, upperBoundOffset)
+      .filter(txn => txn.lastOffset >= fetchOffset && txn.firstOffset < upperBoundOffset)
+    abortedTxns.toList.map(_.asAbortedTransaction)
+  }
+}
+
+object RemoteLogManager {
+  val ChunkSize = 1024 * 1024
+}
+
+/**
+ * A cache of the chunks of remote segments and of their indexes, which evicts the least recently used ones once
+ * their total size exceeds the given size. The chunks and indexes which are not cached are fetched by the given number
+ * of reader threads, and a fetch which takes longer than the read timeout fails with a `KafkaException`.
+ */
+private[log] class RemoteLogChunkCache(remoteStorageManager: RemoteStorageManager, maxBytes: Long,
+                                       readerThreads: Int, readTimeoutMs: Long,
+                                       chunkSize: Int = RemoteLogManager.ChunkSize) {
+
+  // an index is cached as the chunk -1 of its type, and a missing index as an empty buffer
+  private case class Key(segment: RemoteLogSegmentMetadata, indexType: Option[IndexType], chunk: Int)
+
+  private val chunks = new java.util.LinkedHashMap[Key, ByteBuffer](16, 0.75f, true)
+  private var cachedBytes = 0L
+
+  private val readerIndex = new AtomicInteger(0)
+  private val readers = Executors.newFixedThreadPool(readerThreads, new ThreadFactory() {
+    def newThread(runnable: Runnable): Thread =
+      Utils.newThread(s"remote-log-reader-${readerIndex.getAndIncrement()}", runnable, true)
+  })
+
+  /**
+   * Read up to the given number of bytes of a segment from the given position. The bytes are copied unless they are
+   * in a single chunk.
+   */
+  def read(segment: RemoteLogSegmentMetadata, position: Int, length: Int): ByteBuffer = {
+    val end = math.min(position.toLong + length, segment.sizeInBytes.toLong).toInt
+    if (end <= position)
+      return ByteBuffer.allocate(0)
+    if (position / chunkSize == (end - 1) / chunkSize)
+      return slice(chunk(segment, position / chunkSize), position % chunkSize, end - position)
+
+    val buffer = ByteBuffer.allocate(end - position)
+    var currentPosition = position
+    while (currentPosition < end) {
+      val data = chunk(segment, currentPosition / chunkSize)
+      val offsetInChunk = currentPosition % chunkSize
+      if (offsetInChunk >= data.remaining) {
+        buffer.flip()
+        return buffer
+      }
+      val bytes = slice(data, offsetInChunk, end - currentPosition)
+      currentPosition += bytes.remaining
+      buffer.put(bytes)
+    }
+    buffer.flip()
+    buffer
+  }
+
+  def index(segment: RemoteLogSegmentMetadata, indexType: IndexType): Option[ByteBuffer] = {
+    val index = get(Key(segment, Some(indexType), -1)) {
+      Option(remoteStorageManager.fetchIndex(segment, indexType)).getOrElse(ByteBuffer.allocate(0))
+    }
+    if (index.hasRemaining) Some(index) else None
+  }
+
+  def close(): Unit = readers.shutdownNow()
+
+  def invalidate(topicPartition: TopicPartition, baseOffset: Long): Unit = synchronized {
+    val iterator = chunks.entrySet.iterator
+    while (iterator.hasNext) {
+      val entry = iterator.next()
+      val segment = entry.getKey.segment
+      if (segment.topicPartition == topicPartition && segment.baseOffset == baseOffset) {
+        cachedBytes -= entry.getValue.capacity
+        iterator.remove()
+      }
+    }
+  }
+
+  private def chunk(segment: RemoteLogSegmentMetadata, chunk: Int): ByteBuffer =
+    get(Key(segment, None, chunk)) {
+      remoteStorageManager.fetchLogSegmentData(segment, chunk * chunkSize, chunkSize)
+    }
+
+  private def slice(buffer: ByteBuffer, offset: Int, length: Int): ByteBuffer = {
+    val duplicate = buffer.duplicate()
+    duplicate.position(math.min(buffer.position + offset, buffer.limit))
+    duplicate.limit(math.min(duplicate.position + length, buffer.limit))
+    duplicate.slice()
+  }
+
+  // the chunks are fetched without holding the lock, so concurrent misses of the same chunk may fetch it twice
+  private def get(key: Key)(fetch: => ByteBuffer): ByteBuffer = {
+    val cached = synchronized(chunks.get(key))
+    if (cached != null)
+      return cached.duplicate()
+
+    val buffer = fetchWithTimeout(key)(fetch)
+    synchronized {
+      val replaced = chunks.put(key, buffer)
+      if (replaced != null)
+        cachedBytes -= replaced.capacity
+      cachedBytes += buffer.capacity
+      val iterator = chunks.values.iterator
+      while (cachedBytes > maxBytes && iterator.hasNext) {
+        cachedBytes -= iterator.next().capacity
+        iterator.remove()
+      }
+    }
+    buffer.duplicate()
+  }
+
+  private def fetchWithTimeout(key: Key)(fetch: => ByteBuffer): ByteBuffer = {
+    val future = readers.submit(new Callable[ByteBuffer] {
+      def call(): ByteBuffer = fetch
+    })
+    try future.get(readTimeoutMs, TimeUnit.MILLISECONDS)
+    catch {
+      case _: TimeoutException =>
+        future.cancel(true)
+        val file = key.indexType.map(indexType => s"the $indexType index").getOrElse(s"chunk ${key.chunk}")
+        throw new KafkaException(s"Timed out after $readTimeoutMs ms reading $file of remote segment ${key.segment}")
+      case e: ExecutionException => throw e.getCause
+    }
+  }
+}
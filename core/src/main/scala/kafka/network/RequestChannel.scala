@@ -29,6 +29,7 @@ import kafka.server.QuotaId
 import kafka.utils.{Logging, NotNothing}
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors.InvalidRequestException
+import org.apache.kafka.common.memory.MemoryPool
 import org.apache.kafka.common.network.{ListenerName, Send}
 import org.apache.kafka.common.protocol.{ApiKeys, Protocol, SecurityProtocol}
 import org.apache.kafka.common.record.{RecordBatch, MemoryRecords}
@@ -57,7 +58,8 @@ object RequestChannel extends Logging {
   }
 
   case class Request(processor: Int, connectionId: String, session: Session, private var buffer: ByteBuffer,
-                     startTimeNanos: Long, listenerName: ListenerName, securityProtocol: SecurityProtocol) {
+                     startTimeNanos: Long, listenerName: ListenerName, securityProtocol: SecurityProtocol,
+                     memoryPool: MemoryPool = MemoryPool.NONE) {
     // These need to be volatile because the readers are in the network thread and the writers are in the request
     // handler threads or the purgatory threads
     @volatile var requestDequeueTimeNanos = -1L
@@ -104,7 +106,16 @@ object RequestChannel extends Logging {
       else
         null
 
-    buffer = null
+    /**
+     * Returns the buffer the request was read into to the memory pool. This is invoked once the request has been
+     * handled since the parsed request may refer to the buffer (e.g. the records of a produce request).
+     */
+    def releaseBuffer(): Unit = {
+      if (buffer != null) {
+        memoryPool.release(buffer)
+        buffer = null
+      }
+    }
 
     def requestDesc(details: Boolean): String = {
       if (requestObj != null)
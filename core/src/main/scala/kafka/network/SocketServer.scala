@@ -32,7 +32,9 @@ import kafka.security.CredentialProvider
 import kafka.server.KafkaConfig
 import kafka.utils._
 import org.apache.kafka.common.errors.InvalidRequestException
+import org.apache.kafka.common.memory.{MemoryPool, SlabMemoryPool}
 import org.apache.kafka.common.metrics._
+import org.apache.kafka.common.metrics.stats.{Rate, Total}
 import org.apache.kafka.common.network.{ChannelBuilders, KafkaChannel, ListenerName, Selectable, Send, Selector => KSelector}
 import org.apache.kafka.common.security.auth.KafkaPrincipal
 import org.apache.kafka.common.protocol.SecurityProtocol
@@ -61,6 +63,15 @@ class SocketServer(val config: KafkaConfig, val metrics: Metrics, val time: Time
 
   this.logIdent = "[Socket Server on Broker " + config.brokerId + "], "
 
+  private val memoryPoolSensor = metrics.sensor("MemoryPoolDepletedTime")
+  memoryPoolSensor.add(metrics.metricName("memory-pool-depleted-ratio", "socket-server-metrics",
+    "The fraction of time the request memory pool was out of memory."), new Rate(TimeUnit.MILLISECONDS))
+  memoryPoolSensor.add(metrics.metricName("memory-pool-depleted-time-total", "socket-server-metrics",
+    "The total time in milliseconds the request memory pool was out of memory."), new Total())
+  private val memoryPool =
+    if (config.queuedMaxBytes > 0) new SlabMemoryPool(config.queuedMaxBytes, SocketServer.MaxPooledRequestBufferSize, time, memoryPoolSensor)
+    else MemoryPool.NONE
+
   val requestChannel = new RequestChannel(totalProcessorThreads, maxQueuedRequests)
   private val processors = new Array[Processor](totalProcessorThreads)
 
@@ -109,6 +120,16 @@ class SocketServer(val config: KafkaConfig, val metrics: Metrics, val time: Time
         }.sum / totalProcessorThreads
       }
     )
+    newGauge("MemoryPoolAvailable",
+      new Gauge[Long] {
+        def value = memoryPool.availableMemory()
+      }
+    )
+    newGauge("MemoryPoolUsed",
+      new Gauge[Long] {
+        def value = memoryPool.size() - memoryPool.availableMemory()
+      }
+    )
 
     info("Started " + acceptors.size + " acceptor threads")
   }
@@ -149,7 +170,8 @@ class SocketServer(val config: KafkaConfig, val metrics: Metrics, val time: Time
       securityProtocol,
       config,
       metrics,
-      credentialProvider
+      credentialProvider,
+      memoryPool
     )
   }
 
@@ -162,6 +184,11 @@ class SocketServer(val config: KafkaConfig, val metrics: Metrics, val time: Time
 
 }
 
+object SocketServer {
+  // requests up to this size are read into buffers which are reused, larger requests are read into new buffers
+  val MaxPooledRequestBufferSize = 1024 * 1024
+}
+
 /**
  * A base class with some helper variables and methods
  */
@@ -378,7 +405,8 @@ private[kafka] class Processor(val id: Int,
                                securityProtocol: SecurityProtocol,
                                config: KafkaConfig,
                                metrics: Metrics,
-                               credentialProvider: CredentialProvider) extends AbstractServerThread(connectionQuotas) with KafkaMetricsGroup {
+                               credentialProvider: CredentialProvider,
+                               memoryPool: MemoryPool) extends AbstractServerThread(connectionQuotas) with KafkaMetricsGroup {
 
   private object ConnectionId {
     def fromString(s: String): Option[ConnectionId] = s.split("-") match {
@@ -422,7 +450,8 @@ private[kafka] class Processor(val id: Int,
     metricTags,
     false,
     true,
-    ChannelBuilders.serverChannelBuilder(listenerName, securityProtocol, config, credentialProvider.credentialCache))
+    ChannelBuilders.serverChannelBuilder(listenerName, securityProtocol, config, credentialProvider.credentialCache),
+    memoryPool)
 
   override def run() {
     startupComplete()
@@ -517,13 +546,14 @@ private[kafka] class Processor(val id: Int,
 
         val req = RequestChannel.Request(processor = id, connectionId = receive.source, session = session,
           buffer = receive.payload, startTimeNanos = time.nanoseconds,
-          listenerName = listenerName, securityProtocol = securityProtocol)
+          listenerName = listenerName, securityProtocol = securityProtocol, memoryPool = memoryPool)
         requestChannel.sendRequest(req)
         selector.mute(receive.source)
       } catch {
         case e @ (_: InvalidRequestException | _: SchemaException) =>
           // note that even though we got an exception, we can assume that receive.source is valid. Issues with constructing a valid receive object were handled earlier
           error(s"Closing socket for ${receive.source} because of error", e)
+          memoryPool.release(receive.payload)
           close(selector, receive.source)
       }
     }
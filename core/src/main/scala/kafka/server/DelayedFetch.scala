@@ -21,7 +21,7 @@ import java.util.concurrent.TimeUnit
 
 import kafka.metrics.KafkaMetricsGroup
 import org.apache.kafka.common.TopicPartition
-import org.apache.kafka.common.errors.{NotLeaderForPartitionException, UnknownTopicOrPartitionException}
+import org.apache.kafka.common.errors.{NotLeaderForPartitionException, ReplicaNotAvailableException, UnknownTopicOrPartitionException}
 import org.apache.kafka.common.requests.FetchRequest.PartitionData
 import org.apache.kafka.common.requests.IsolationLevel
 
@@ -67,7 +67,8 @@ class DelayedFetch(delayMs: Long,
   /**
    * The operation can be completed if:
    *
-   * Case A: This broker is no longer the leader for some partitions it tries to fetch
+   * Case A: This broker is no longer the leader (or an in-sync replica, for consumers fetching from followers) for
+   *         some partitions it tries to fetch
    * Case B: This broker does not know of some partitions it tries to fetch
    * Case C: The fetch offset locates not on the last segment of the log
    * Case D: The accumulated bytes from all the fetching partitions exceeds the minimum bytes
@@ -82,7 +83,8 @@ class DelayedFetch(delayMs: Long,
         val fetchOffset = fetchStatus.startOffsetMetadata
         try {
           if (fetchOffset != LogOffsetMetadata.UnknownOffsetMetadata) {
-            val replica = replicaManager.getLeaderReplicaIfLocal(topicPartition)
+            val replica = replicaManager.getReplicaForFetch(topicPartition, fetchMetadata.replicaId,
+              fetchMetadata.fetchOnlyLeader)
             val endOffset =
               if (isolationLevel == IsolationLevel.READ_COMMITTED)
                 replica.lastStableOffset
@@ -95,7 +97,14 @@ class DelayedFetch(delayMs: Long,
             // has just rolled, then the high watermark offset will remain the same but be on the old segment,
             // which would incorrectly be seen as an instance of Case C.
             if (endOffset.messageOffset != fetchOffset.messageOffset) {
-              if (endOffset.onOlderSegment(fetchOffset)) {
+              if (endOffset.messageOffsetOnly || fetchOffset.messageOffsetOnly) {
+                // The high watermark of a follower only carries the message offset, so neither the segment
+                // nor the number of available bytes is known; satisfy the fetch as soon as there is new data
+                if (fetchOffset.messageOffset < endOffset.messageOffset) {
+                  debug("Satisfying fetch %s since partition %s has data beyond its fetch offset.".format(fetchMetadata, topicPartition))
+                  return forceComplete()
+                }
+              } else if (endOffset.onOlderSegment(fetchOffset)) {
                 // Case C, this can happen when the new fetch operation is on a truncated leader
                 debug("Satisfying fetch %s since it is fetching later segments of partition %s.".format(fetchMetadata, topicPartition))
                 return forceComplete()
@@ -123,6 +132,9 @@ class DelayedFetch(delayMs: Long,
           case _: NotLeaderForPartitionException =>  // Case A
             debug("Broker is no longer the leader of %s, satisfy %s immediately".format(topicPartition, fetchMetadata))
             return forceComplete()
+          case _: ReplicaNotAvailableException =>  // Case A
+            debug("Broker no longer has a replica of %s, satisfy %s immediately".format(topicPartition, fetchMetadata))
+            return forceComplete()
         }
     }
 
@@ -157,7 +169,7 @@ class DelayedFetch(delayMs: Long,
 
     val fetchPartitionData = logReadResults.map { case (tp, result) =>
       tp -> FetchPartitionData(result.error, result.highWatermark, result.leaderLogStartOffset, result.info.records,
-        result.lastStableOffset, result.info.abortedTransactions)
+        result.lastStableOffset, result.info.abortedTransactions, result.preferredReadReplica)
     }
 
     responseCallback(fetchPartitionData)
@@ -79,7 +79,8 @@ class DelayedProduce(delayMs: Long,
    * Case A: This broker is no longer the leader: set an error in response
    * Case B: This broker is the leader:
    *   B.1 - If there was a local error thrown while checking if at least requiredAcks
-   *         replicas have caught up to this operation: set an error in response
+   *         replicas have caught up to this operation (and the leader log has been
+   *         flushed if required): set an error in response
    *   B.2 - Otherwise, set the response with no error.
    */
   override def tryComplete(): Boolean = {
@@ -90,7 +91,10 @@ class DelayedProduce(delayMs: Long,
       if (status.acksPending) {
         val (hasEnough, error) = replicaManager.getPartition(topicPartition) match {
           case Some(partition) =>
-            partition.checkEnoughReplicasReachOffset(status.requiredOffset)
+            if (produceMetadata.produceRequiredAcks == -1)
+              partition.checkEnoughReplicasReachOffset(status.requiredOffset)
+            else
+              partition.checkLeaderLogFlushedUpTo(status.requiredOffset)
           case None =>
             // Case A
             (false, Errors.UNKNOWN_TOPIC_OR_PARTITION)
@@ -0,0 +1,350 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+import com.yammer.metrics.core.Gauge
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.Logging
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.requests.FetchMetadata.{FINAL_EPOCH, INVALID_SESSION_ID}
+import org.apache.kafka.common.requests.{FetchRequest, FetchResponse, FetchMetadata => JFetchMetadata}
+import org.apache.kafka.common.utils.Time
+
+import scala.collection.JavaConverters._
+
+object FetchSession {
+  type REQ_MAP = util.Map[TopicPartition, FetchRequest.PartitionData]
+  type RESP_MAP = util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]
+}
+
+import FetchSession._
+
+/**
+ * A partition of a fetch session. It holds the fetch parameters last sent by the fetcher, and the offsets last
+ * returned to the fetcher, which decide whether the partition must be included in the next incremental response.
+ */
+class CachedPartition(val topicPartition: TopicPartition,
+                      var fetchOffset: Long,
+                      var fetcherLogStartOffset: Long,
+                      var maxBytes: Int) {
+
+  var highWatermark: Long = -1L
+  var lastStableOffset: Long = -1L
+  var leaderLogStartOffset: Long = -1L
+
+  def this(topicPartition: TopicPartition, reqData: FetchRequest.PartitionData) =
+    this(topicPartition, reqData.fetchOffset, reqData.logStartOffset, reqData.maxBytes)
+
+  def updateRequestParams(reqData: FetchRequest.PartitionData) {
+    fetchOffset = reqData.fetchOffset
+    fetcherLogStartOffset = reqData.logStartOffset
+    maxBytes = reqData.maxBytes
+  }
+
+  def reqData = new FetchRequest.PartitionData(fetchOffset, fetcherLogStartOffset, maxBytes)
+
+  /**
+   * Record the offsets of a response and return true if the partition must be included in an incremental response,
+   * that is if it has records, an error or a preferred read replica, or if any of its offsets changed since the last
+   * response.
+   */
+  def maybeUpdateResponseData(respData: FetchResponse.PartitionData): Boolean = {
+    var mustRespond = respData.error != Errors.NONE || (respData.records != null && respData.records.sizeInBytes > 0) ||
+      respData.preferredReadReplica != FetchResponse.INVALID_PREFERRED_REPLICA_ID
+    if (highWatermark != respData.highWatermark) {
+      highWatermark = respData.highWatermark
+      mustRespond = true
+    }
+    if (lastStableOffset != respData.lastStableOffset) {
+      lastStableOffset = respData.lastStableOffset
+      mustRespond = true
+    }
+    if (leaderLogStartOffset != respData.logStartOffset) {
+      leaderLogStartOffset = respData.logStartOffset
+      mustRespond = true
+    }
+    mustRespond
+  }
+
+  override def toString = s"CachedPartition(topicPartition=$topicPartition, fetchOffset=$fetchOffset, " +
+    s"maxBytes=$maxBytes, highWatermark=$highWatermark)"
+}
+
+/**
+ * An incremental fetch session. The partitions are kept in the order in which they are fetched, partitions which
+ * returned records are moved to the end so that the other partitions are fetched first by the next request.
+ *
+ * Access to the mutable state must be synchronized on the session.
+ */
+class FetchSession(val id: Int,
+                   val isFromFollower: Boolean,
+                   val partitions: util.LinkedHashMap[TopicPartition, CachedPartition],
+                   val creationMs: Long) {
+
+  // the epoch expected in the next request of the session
+  var epoch: Int = JFetchMetadata.nextEpoch(JFetchMetadata.INITIAL_EPOCH)
+
+  var lastUsedMs: Long = creationMs
+
+  def update(fetchData: REQ_MAP, toForget: util.List[TopicPartition]) {
+    fetchData.asScala.foreach { case (topicPartition, reqData) =>
+      val cachedPartition = partitions.get(topicPartition)
+      if (cachedPartition == null)
+        partitions.put(topicPartition, new CachedPartition(topicPartition, reqData))
+      else
+        cachedPartition.updateRequestParams(reqData)
+    }
+    toForget.asScala.foreach(partitions.remove)
+  }
+
+  override def toString = s"FetchSession(id=$id, isFromFollower=$isFromFollower, epoch=$epoch, " +
+    s"partitions=${partitions.size})"
+}
+
+object FetchSessionCache {
+  // a session is only evicted for a new session once it has not been used for this long
+  val EvictionMs = 120000L
+}
+
+/**
+ * The incremental fetch sessions of the broker. The number of sessions is bounded, a new session replaces the least
+ * recently used session if that session has not been used for `evictionMs`. Otherwise the fetch is served without
+ * a session.
+ */
+class FetchSessionCache(val maxEntries: Int, val evictionMs: Long) extends Logging with KafkaMetricsGroup {
+
+  // ordered from the least to the most recently used session
+  private val sessions = new util.LinkedHashMap[Int, FetchSession](16, 0.75f, true)
+  private val random = new Random
+
+  newGauge("NumIncrementalFetchSessions",
+    new Gauge[Int] {
+      def value = size
+    }
+  )
+
+  private val evictionsMeter = newMeter("IncrementalFetchSessionEvictionsPerSec", "evictions", TimeUnit.SECONDS)
+
+  def size: Int = synchronized {
+    sessions.size
+  }
+
+  def get(sessionId: Int): Option[FetchSession] = synchronized {
+    Option(sessions.get(sessionId))
+  }
+
+  /**
+   * Mark a session as used, which makes it the last session to be evicted.
+   */
+  def touch(session: FetchSession, now: Long): Unit = synchronized {
+    session.lastUsedMs = now
+    // reading the session moves it to the end of the access order
+    sessions.get(session.id)
+  }
+
+  /**
+   * Create a session if there is room for it.
+   *
+   * @return The ID of the new session, or INVALID_SESSION_ID if no session was created
+   */
+  def maybeCreateSession(now: Long,
+                         isFromFollower: Boolean,
+                         partitions: util.LinkedHashMap[TopicPartition, CachedPartition]): Int = synchronized {
+    if (maxEntries <= 0 || (sessions.size >= maxEntries && !tryEvict(now))) {
+      debug(s"No fetch session created for ${partitions.size} partitions, the cache is full")
+      INVALID_SESSION_ID
+    } else {
+      val session = new FetchSession(newSessionId(), isFromFollower, partitions, now)
+      sessions.put(session.id, session)
+      debug(s"Created $session")
+      session.id
+    }
+  }
+
+  def remove(sessionId: Int): Option[FetchSession] = synchronized {
+    val session = Option(sessions.remove(sessionId))
+    session.foreach(session => debug(s"Removed $session"))
+    session
+  }
+
+  private def tryEvict(now: Long): Boolean = {
+    val eldest = sessions.values.iterator.next
+    if (now - eldest.lastUsedMs >= evictionMs) {
+      sessions.remove(eldest.id)
+      evictionsMeter.mark()
+      debug(s"Evicted $eldest")
+      true
+    } else
+      false
+  }
+
+  private def newSessionId(): Int = {
+    var id = INVALID_SESSION_ID
+    while (id == INVALID_SESSION_ID || sessions.containsKey(id))
+      id = random.nextInt(Int.MaxValue)
+    id
+  }
+
+  def shutdown() {
+    removeMetric("NumIncrementalFetchSessions")
+    removeMetric("IncrementalFetchSessionEvictionsPerSec")
+  }
+}
+
+/**
+ * The partitions to read for a fetch request, and how to build its response.
+ */
+sealed trait FetchContext extends Logging {
+  /**
+   * The partitions to read and their fetch parameters.
+   */
+  def fetchData: REQ_MAP
+
+  /**
+   * Build the response from the data read for the partitions of `fetchData`, updating the session if there is one.
+   */
+  def updateAndGenerateResponseData(updates: RESP_MAP): FetchResponse
+}
+
+/**
+ * The context of a request which refers to an unknown session or to a session in an unexpected state.
+ */
+class SessionErrorContext(val error: Errors) extends FetchContext {
+  override val fetchData: REQ_MAP = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+
+  override def updateAndGenerateResponseData(updates: RESP_MAP): FetchResponse =
+    new FetchResponse(error, new RESP_MAP, 0, INVALID_SESSION_ID)
+}
+
+/**
+ * The context of a full fetch which does not use a session, such as the fetches of old clients.
+ */
+class SessionlessFetchContext(override val fetchData: REQ_MAP) extends FetchContext {
+  override def updateAndGenerateResponseData(updates: RESP_MAP): FetchResponse =
+    new FetchResponse(Errors.NONE, updates, 0, INVALID_SESSION_ID)
+}
+
+/**
+ * The context of a full fetch which creates a new session if the cache has room for it.
+ */
+class FullFetchContext(time: Time,
+                       cache: FetchSessionCache,
+                       override val fetchData: REQ_MAP,
+                       isFromFollower: Boolean) extends FetchContext {
+  override def updateAndGenerateResponseData(updates: RESP_MAP): FetchResponse = {
+    val partitions = new util.LinkedHashMap[TopicPartition, CachedPartition]
+    fetchData.asScala.foreach { case (topicPartition, reqData) =>
+      val cachedPartition = new CachedPartition(topicPartition, reqData)
+      val respData = updates.get(topicPartition)
+      if (respData != null)
+        cachedPartition.maybeUpdateResponseData(respData)
+      partitions.put(topicPartition, cachedPartition)
+    }
+    val sessionId = cache.maybeCreateSession(time.milliseconds, isFromFollower, partitions)
+    new FetchResponse(Errors.NONE, updates, 0, sessionId)
+  }
+}
+
+/**
+ * The context of an incremental fetch, which reads all the partitions of the session and only returns the
+ * partitions with records, errors or changed offsets.
+ */
+class IncrementalFetchContext(session: FetchSession) extends FetchContext {
+  private val epoch = session.synchronized(session.epoch)
+
+  override val fetchData: REQ_MAP = session.synchronized {
+    val fetchData = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+    session.partitions.asScala.foreach { case (topicPartition, cachedPartition) =>
+      fetchData.put(topicPartition, cachedPartition.reqData)
+    }
+    fetchData
+  }
+
+  override def updateAndGenerateResponseData(updates: RESP_MAP): FetchResponse = session.synchronized {
+    if (session.epoch != epoch) {
+      // another request of the session was received while this one was being served
+      debug(s"Incremental fetch session ${session.id} expected epoch $epoch, but it is at ${session.epoch}")
+      new FetchResponse(Errors.INVALID_FETCH_SESSION_EPOCH, new RESP_MAP, 0, INVALID_SESSION_ID)
+    } else {
+      val iter = updates.entrySet.iterator
+      while (iter.hasNext) {
+        val entry = iter.next
+        val topicPartition = entry.getKey
+        val respData = entry.getValue
+        val cachedPartition = session.partitions.get(topicPartition)
+        if (cachedPartition == null || !cachedPartition.maybeUpdateResponseData(respData))
+          iter.remove()
+        else if (respData.records != null && respData.records.sizeInBytes > 0) {
+          session.partitions.remove(topicPartition)
+          session.partitions.put(topicPartition, cachedPartition)
+        }
+      }
+      new FetchResponse(Errors.NONE, updates, 0, session.id)
+    }
+  }
+}
+
+/**
+ * Creates the context of each fetch request from its session metadata.
+ */
+class FetchManager(private val time: Time, private val cache: FetchSessionCache) extends Logging {
+
+  def newContext(metadata: JFetchMetadata,
+                 fetchData: REQ_MAP,
+                 toForget: util.List[TopicPartition],
+                 isFromFollower: Boolean): FetchContext = {
+    if (metadata.isFull) {
+      // a full fetch closes the previous session of the fetcher
+      if (metadata.sessionId != INVALID_SESSION_ID)
+        cache.remove(metadata.sessionId)
+      if (metadata.epoch == FINAL_EPOCH)
+        new SessionlessFetchContext(fetchData)
+      else
+        new FullFetchContext(time, cache, fetchData, isFromFollower)
+    } else {
+      cache.get(metadata.sessionId) match {
+        case None =>
+          debug(s"Incremental fetch session ${metadata.sessionId} not found")
+          new SessionErrorContext(Errors.FETCH_SESSION_ID_NOT_FOUND)
+        case Some(session) => session.synchronized {
+          if (session.isFromFollower != isFromFollower) {
+            debug(s"Incremental fetch session ${metadata.sessionId} does not belong to the fetcher")
+            new SessionErrorContext(Errors.FETCH_SESSION_ID_NOT_FOUND)
+          } else if (session.epoch != metadata.epoch) {
+            debug(s"Incremental fetch session ${session.id} expected epoch ${session.epoch}, but got ${metadata.epoch}")
+            new SessionErrorContext(Errors.INVALID_FETCH_SESSION_EPOCH)
+          } else {
+            session.update(fetchData, toForget)
+            session.epoch = JFetchMetadata.nextEpoch(session.epoch)
+            cache.touch(session, time.milliseconds)
+            new IncrementalFetchContext(session)
+          }
+        }
+      }
+    }
+  }
+
+  def shutdown() {
+    cache.shutdown()
+  }
+}
@@ -25,7 +25,7 @@ import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicInteger
 
 import kafka.admin.{AdminUtils, RackAwareMode}
-import kafka.api.{ApiVersion, ControlledShutdownRequest, ControlledShutdownResponse, KAFKA_0_11_0_IV0}
+import kafka.api.{ApiVersion, ControlledShutdownRequest, ControlledShutdownResponse, KAFKA_0_11_0_IV0, KAFKA_1_0_IV1}
 import kafka.cluster.Partition
 import kafka.common.{KafkaStorageException, OffsetAndMetadata, OffsetMetadata, TopicAndPartition}
 import kafka.server.QuotaFactory.{QuotaManagers, UnboundedQuota}
@@ -33,6 +33,7 @@ import kafka.controller.KafkaController
 import kafka.coordinator.group.{GroupCoordinator, JoinGroupResult}
 import kafka.coordinator.transaction.{InitProducerIdResult, TransactionCoordinator}
 import kafka.log.{Log, LogManager, TimestampOffset}
+import kafka.message.ZStdCompressionCodec
 import kafka.network.{RequestChannel, RequestOrResponseSend}
 import kafka.security.SecurityUtils
 import kafka.security.auth._
@@ -43,7 +44,7 @@ import org.apache.kafka.common.internals.Topic.{GROUP_METADATA_TOPIC_NAME, TRANS
 import org.apache.kafka.common.metrics.Metrics
 import org.apache.kafka.common.network.ListenerName
 import org.apache.kafka.common.protocol.{ApiKeys, Errors, Protocol}
-import org.apache.kafka.common.record.{ControlRecordType, EndTransactionMarker, MemoryRecords, RecordBatch}
+import org.apache.kafka.common.record.{CompressionType, ControlRecordType, EndTransactionMarker, MemoryRecords, RecordBatch}
 import org.apache.kafka.common.requests.CreateAclsResponse.AclCreationResponse
 import org.apache.kafka.common.requests.DeleteAclsResponse.{AclDeletionResult, AclFilterResponse}
 import org.apache.kafka.common.requests.{Resource => RResource, ResourceType => RResourceType, _}
@@ -75,6 +76,7 @@ class KafkaApis(val requestChannel: RequestChannel,
                 val metrics: Metrics,
                 val authorizer: Option[Authorizer],
                 val quotas: QuotaManagers,
+                val fetchManager: FetchManager,
                 brokerTopicStats: BrokerTopicStats,
                 val clusterId: String,
                 time: Time) extends Logging {
@@ -83,6 +85,7 @@ class KafkaApis(val requestChannel: RequestChannel,
 
   def close() {
     quotas.shutdown()
+    fetchManager.shutdown()
     info("Shutdown complete.")
   }
 
@@ -397,15 +400,20 @@ class KafkaApis(val requestChannel: RequestChannel,
         authorize(request.session, Describe, new Resource(Topic, tp.topic)) && metadataCache.contains(tp.topic)
       }
 
-    val (authorizedRequestInfo, unauthorizedForWriteRequestInfo) = existingAndAuthorizedForDescribeTopics.partition {
+    val (authorizedForWriteRequestInfo, unauthorizedForWriteRequestInfo) = existingAndAuthorizedForDescribeTopics.partition {
       case (tp, _) => authorize(request.session, Write, new Resource(Topic, tp.topic))
     }
 
+    val (authorizedRequestInfo, unsupportedCompressionRequestInfo) = authorizedForWriteRequestInfo.partition {
+      case (tp, records) => isCompressionTypeSupported(tp, records, request.header.apiVersion)
+    }
+
     // the callback for sending a produce response
     def sendResponseCallback(responseStatus: Map[TopicPartition, PartitionResponse]) {
 
       val mergedResponseStatus = responseStatus ++
         unauthorizedForWriteRequestInfo.mapValues(_ => new PartitionResponse(Errors.TOPIC_AUTHORIZATION_FAILED)) ++
+        unsupportedCompressionRequestInfo.mapValues(_ => new PartitionResponse(Errors.UNSUPPORTED_COMPRESSION_TYPE)) ++
         nonExistingOrUnauthorizedForDescribeTopics.mapValues(_ => new PartitionResponse(Errors.UNKNOWN_TOPIC_OR_PARTITION))
 
       var errorInResponse = false
@@ -476,6 +484,19 @@ class KafkaApis(val requestChannel: RequestChannel,
     }
   }
 
+  /**
+   * zstd compressed batches may only be produced with ProduceRequest v4 and above, and only once the inter-broker
+   * protocol guarantees that the followers fetch them with a FetchRequest version which supports zstd. The latter
+   * also applies to topics which are compressed with zstd by the broker.
+   */
+  private def isCompressionTypeSupported(tp: TopicPartition, records: MemoryRecords, produceVersion: Short): Boolean = {
+    val zstdSupportedByFollowers = config.interBrokerProtocolVersion >= KAFKA_1_0_IV1
+    val recompressedWithZstd = replicaManager.getLog(tp).exists(_.config.compressionType == ZStdCompressionCodec.name)
+    val hasZstdBatches = records.batches.asScala.exists(_.compressionType == CompressionType.ZSTD)
+    (!recompressedWithZstd || zstdSupportedByFollowers) &&
+      (!hasZstdBatches || (produceVersion >= 4 && zstdSupportedByFollowers))
+  }
+
   /**
    * Handle a fetch request
    */
@@ -483,12 +504,14 @@ class KafkaApis(val requestChannel: RequestChannel,
     val fetchRequest = request.body[FetchRequest]
     val versionId = request.header.apiVersion
     val clientId = request.header.clientId
+    val fetchContext = fetchManager.newContext(fetchRequest.metadata, fetchRequest.fetchData, fetchRequest.toForget,
+      fetchRequest.isFromFollower)
 
     val (clusterAuthorizedTopics, clusterUnauthorizedTopics) =
       if (fetchRequest.isFromFollower() && !authorize(request.session, ClusterAction, Resource.ClusterResource)) {
-        (Seq.empty, fetchRequest.fetchData.asScala.toSeq)
+        (Seq.empty, fetchContext.fetchData.asScala.toSeq)
       } else {
-        (fetchRequest.fetchData.asScala.toSeq, Seq.empty)
+        (fetchContext.fetchData.asScala.toSeq, Seq.empty)
       }
 
     val (existingAndAuthorizedForDescribeTopics, nonExistingOrUnauthorizedForDescribeTopics) = clusterAuthorizedTopics.partition {
@@ -516,31 +539,39 @@ class KafkaApis(val requestChannel: RequestChannel,
 
     def convertedPartitionData(tp: TopicPartition, data: FetchResponse.PartitionData) = {
 
-      // Down-conversion of the fetched records is needed when the stored magic version is
-      // greater than that supported by the client (as indicated by the fetch request version). If the
-      // configured magic version for the topic is less than or equal to that supported by the version of the
-      // fetch request, we skip the iteration through the records in order to check the magic version since we
-      // know it must be supported. However, if the magic version is changed from a higher version back to a
-      // lower version, this check will no longer be valid and we will fail to down-convert the messages
-      // which were written in the new format prior to the version downgrade.
-      replicaManager.getMagic(tp).flatMap { magic =>
-        val downConvertMagic = {
-          if (magic > RecordBatch.MAGIC_VALUE_V0 && versionId <= 1 && !data.records.hasCompatibleMagic(RecordBatch.MAGIC_VALUE_V0))
-            Some(RecordBatch.MAGIC_VALUE_V0)
-          else if (magic > RecordBatch.MAGIC_VALUE_V1 && versionId <= 3 && !data.records.hasCompatibleMagic(RecordBatch.MAGIC_VALUE_V1))
-            Some(RecordBatch.MAGIC_VALUE_V1)
-          else
-            None
-        }
+      // Fetchers using v4 to v7 receive batches in the stored format, which they cannot decode if it is compressed
+      // with zstd. Older fetchers receive down-converted batches without compression instead.
+      if (versionId >= 4 && versionId < 8 && data.records.batches.asScala.exists(_.compressionType == CompressionType.ZSTD)) {
+        trace(s"Not returning zstd compressed records from partition $tp to fetch request version $versionId from $clientId")
+        new FetchResponse.PartitionData(Errors.UNSUPPORTED_COMPRESSION_TYPE, data.highWatermark, data.lastStableOffset,
+          data.logStartOffset, null, data.preferredReadReplica, MemoryRecords.EMPTY)
+      } else {
+        // Down-conversion of the fetched records is needed when the stored magic version is
+        // greater than that supported by the client (as indicated by the fetch request version). If the
+        // configured magic version for the topic is less than or equal to that supported by the version of the
+        // fetch request, we skip the iteration through the records in order to check the magic version since we
+        // know it must be supported. However, if the magic version is changed from a higher version back to a
+        // lower version, this check will no longer be valid and we will fail to down-convert the messages
+        // which were written in the new format prior to the version downgrade.
+        replicaManager.getMagic(tp).flatMap { magic =>
+          val downConvertMagic = {
+            if (magic > RecordBatch.MAGIC_VALUE_V0 && versionId <= 1 && !data.records.hasCompatibleMagic(RecordBatch.MAGIC_VALUE_V0))
+              Some(RecordBatch.MAGIC_VALUE_V0)
+            else if (magic > RecordBatch.MAGIC_VALUE_V1 && versionId <= 3 && !data.records.hasCompatibleMagic(RecordBatch.MAGIC_VALUE_V1))
+              Some(RecordBatch.MAGIC_VALUE_V1)
+            else
+              None
+          }
 
-        downConvertMagic.map { magic =>
-          trace(s"Down converting records from partition $tp to message format version $magic for fetch request from $clientId")
-          val converted = data.records.downConvert(magic, fetchRequest.fetchData.get(tp).fetchOffset)
-          new FetchResponse.PartitionData(data.error, data.highWatermark, FetchResponse.INVALID_LAST_STABLE_OFFSET,
-            data.logStartOffset, data.abortedTransactions, converted)
-        }
+          downConvertMagic.map { magic =>
+            trace(s"Down converting records from partition $tp to message format version $magic for fetch request from $clientId")
+            val converted = data.records.downConvert(magic, fetchContext.fetchData.get(tp).fetchOffset)
+            new FetchResponse.PartitionData(data.error, data.highWatermark, FetchResponse.INVALID_LAST_STABLE_OFFSET,
+              data.logStartOffset, data.abortedTransactions, data.preferredReadReplica, converted)
+          }
 
-      }.getOrElse(data)
+        }.getOrElse(data)
+      }
     }
 
     // the callback for process a fetch response, invoked before throttling
@@ -549,8 +580,9 @@ class KafkaApis(val requestChannel: RequestChannel,
         responsePartitionData.map { case (tp, data) =>
           val abortedTransactions = data.abortedTransactions.map(_.asJava).orNull
           val lastStableOffset = data.lastStableOffset.getOrElse(FetchResponse.INVALID_LAST_STABLE_OFFSET)
+          val preferredReadReplica = data.preferredReadReplica.getOrElse(FetchResponse.INVALID_PREFERRED_REPLICA_ID)
           tp -> new FetchResponse.PartitionData(data.error, data.highWatermark, lastStableOffset,
-            data.logStartOffset, abortedTransactions, data.records)
+            data.logStartOffset, abortedTransactions, preferredReadReplica, data.records)
         }
       }
 
@@ -567,14 +599,18 @@ class KafkaApis(val requestChannel: RequestChannel,
         fetchedPartitionData.put(topicPartition, data)
       }
 
+      // an incremental fetch only returns the partitions of the session which changed
+      val unconvertedFetchResponse = fetchContext.updateAndGenerateResponseData(fetchedPartitionData)
+
       // fetch response callback invoked after any throttling
       def fetchResponseCallback(bandwidthThrottleTimeMs: Int) {
         def createResponse(requestThrottleTimeMs: Int): RequestChannel.Response = {
           val convertedData = new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]
-          fetchedPartitionData.asScala.foreach { case (tp, partitionData) =>
+          unconvertedFetchResponse.responseData.asScala.foreach { case (tp, partitionData) =>
             convertedData.put(tp, convertedPartitionData(tp, partitionData))
           }
-          val response = new FetchResponse(convertedData, 0)
+          val response = new FetchResponse(unconvertedFetchResponse.error, convertedData, 0,
+            unconvertedFetchResponse.sessionId)
           val responseStruct = response.toStruct(versionId)
 
           trace(s"Sending fetch response to client $clientId of ${responseStruct.sizeOf} bytes.")
@@ -608,13 +644,19 @@ class KafkaApis(val requestChannel: RequestChannel,
         // Fetch size used to determine throttle time is calculated before any down conversions.
         // This may be slightly different from the actual response size. But since down conversions
         // result in data being loaded into memory, it is better to do this after throttling to avoid OOM.
-        val response = new FetchResponse(fetchedPartitionData, 0)
-        val responseStruct = response.toStruct(versionId)
+        val responseStruct = unconvertedFetchResponse.toStruct(versionId)
         quotas.fetch.recordAndMaybeThrottle(request.session.sanitizedUser, clientId, responseStruct.sizeOf,
           fetchResponseCallback)
       }
     }
 
+    // consumers which know about preferred read replicas may fetch from followers
+    val clientMetadata =
+      if (!fetchRequest.isFromFollower && versionId >= 7)
+        Some(ClientMetadata(clientId, fetchRequest.rackId, request.listenerName))
+      else
+        None
+
     if (authorizedRequestInfo.isEmpty)
       processResponseCallback(Seq.empty)
     else {
@@ -628,7 +670,8 @@ class KafkaApis(val requestChannel: RequestChannel,
         authorizedRequestInfo,
         replicationQuota(fetchRequest),
         processResponseCallback,
-        fetchRequest.isolationLevel)
+        fetchRequest.isolationLevel,
+        clientMetadata)
     }
   }
 
@@ -748,7 +791,14 @@ class KafkaApis(val requestChannel: RequestChannel,
 
             if (timestamp == ListOffsetRequest.LATEST_TIMESTAMP)
               TimestampOffset(RecordBatch.NO_TIMESTAMP, lastFetchableOffset)
-            else {
+            else if (timestamp == ListOffsetRequest.EARLIEST_TIMESTAMP) {
+              // consumers may fetch the offsets below the local log start offset from the remote tier
+              val localEarliest = fetchOffsetForTimestamp(topicPartition, timestamp).getOrElse(TimestampOffset.Unknown)
+              replicaManager.remoteLogManager.flatMap(_.earliestOffset(topicPartition))
+                .filter(_ < localEarliest.offset)
+                .map(TimestampOffset(RecordBatch.NO_TIMESTAMP, _))
+                .getOrElse(localEarliest)
+            } else {
               def allowed(timestampOffset: TimestampOffset): Boolean =
                 timestamp == ListOffsetRequest.EARLIEST_TIMESTAMP || timestampOffset.offset < lastFetchableOffset
 
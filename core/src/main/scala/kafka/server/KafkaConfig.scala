@@ -32,7 +32,7 @@ import org.apache.kafka.common.config.{AbstractConfig, ConfigDef, ConfigExceptio
 import org.apache.kafka.common.metrics.Sensor
 import org.apache.kafka.common.network.ListenerName
 import org.apache.kafka.common.protocol.SecurityProtocol
-import org.apache.kafka.common.record.TimestampType
+import org.apache.kafka.common.record.{CompressionOptions, TimestampType}
 
 import scala.collection.JavaConverters._
 import scala.collection.Map
@@ -52,6 +52,7 @@ object Defaults {
   val NumIoThreads = 8
   val BackgroundThreads = 10
   val QueuedMaxRequests = 500
+  val QueuedMaxRequestBytes = -1L
 
   /************* Authorizer Configuration ***********/
   val AuthorizerClassName = ""
@@ -108,6 +109,10 @@ object Defaults {
   val LogMessageTimestampType = "CreateTime"
   val LogMessageTimestampDifferenceMaxMs = Long.MaxValue
   val NumRecoveryThreadsPerDataDir = 1
+  val RemoteLogManagerTaskIntervalMs = 30 * 1000L
+  val RemoteLogChunkCacheBytes = 64 * 1024 * 1024L
+  val RemoteLogReaderThreads = 5
+  val RemoteLogReaderTimeoutMs = 30000L
   val AutoCreateTopicsEnable = true
   val MinInSyncReplicas = 1
 
@@ -128,6 +133,7 @@ object Defaults {
   val FetchPurgatoryPurgeIntervalRequests = 1000
   val ProducerPurgatoryPurgeIntervalRequests = 1000
   val DeleteRecordsPurgatoryPurgeIntervalRequests = 1
+  val MaxIncrementalFetchSessionCacheSlots = 1000
   val AutoLeaderRebalanceEnable = true
   val LeaderImbalancePerBrokerPercentage = 10
   val LeaderImbalanceCheckIntervalSeconds = 300
@@ -182,6 +188,8 @@ object Defaults {
   val DeleteTopicEnable = false
 
   val CompressionType = "producer"
+  val CompressionZstdLevel = CompressionOptions.DEFAULT_ZSTD_LEVEL
+  val CompressionZstdDictionaries = ""
 
   val MaxIdMapSnapshots = 2
   /** ********* Kafka Metrics Configuration ***********/
@@ -236,6 +244,7 @@ object KafkaConfig {
   val NumIoThreadsProp = "num.io.threads"
   val BackgroundThreadsProp = "background.threads"
   val QueuedMaxRequestsProp = "queued.max.requests"
+  val QueuedMaxBytesProp = "queued.max.request.bytes"
   val RequestTimeoutMsProp = CommonClientConfigs.REQUEST_TIMEOUT_MS_CONFIG
   /************* Authorizer Configuration ***********/
   val AuthorizerClassNameProp = "authorizer.class.name"
@@ -302,6 +311,11 @@ object KafkaConfig {
   val MinInSyncReplicasProp = "min.insync.replicas"
   val CreateTopicPolicyClassNameProp = "create.topic.policy.class.name"
   val AlterConfigPolicyClassNameProp = "alter.config.policy.class.name"
+  val RemoteLogStorageManagerClassNameProp = "remote.log.storage.manager.class.name"
+  val RemoteLogManagerTaskIntervalMsProp = "remote.log.manager.task.interval.ms"
+  val RemoteLogChunkCacheBytesProp = "remote.log.chunk.cache.bytes"
+  val RemoteLogReaderThreadsProp = "remote.log.reader.threads"
+  val RemoteLogReaderTimeoutMsProp = "remote.log.reader.timeout.ms"
   /** ********* Replication configuration ***********/
   val ControllerSocketTimeoutMsProp = "controller.socket.timeout.ms"
   val DefaultReplicationFactorProp = "default.replication.factor"
@@ -318,6 +332,8 @@ object KafkaConfig {
   val FetchPurgatoryPurgeIntervalRequestsProp = "fetch.purgatory.purge.interval.requests"
   val ProducerPurgatoryPurgeIntervalRequestsProp = "producer.purgatory.purge.interval.requests"
   val DeleteRecordsPurgatoryPurgeIntervalRequestsProp = "delete.records.purgatory.purge.interval.requests"
+  val MaxIncrementalFetchSessionCacheSlotsProp = "max.incremental.fetch.session.cache.slots"
+  val ReplicaSelectorClassProp = "replica.selector.class"
   val AutoLeaderRebalanceEnableProp = "auto.leader.rebalance.enable"
   val LeaderImbalancePerBrokerPercentageProp = "leader.imbalance.per.broker.percentage"
   val LeaderImbalanceCheckIntervalSecondsProp = "leader.imbalance.check.interval.seconds"
@@ -365,6 +381,8 @@ object KafkaConfig {
 
   val DeleteTopicEnableProp = "delete.topic.enable"
   val CompressionTypeProp = "compression.type"
+  val CompressionZstdLevelProp = "compression.zstd.level"
+  val CompressionZstdDictionariesProp = "compression.zstd.dictionaries"
 
   /** ********* Kafka Metrics Configuration ***********/
   val MetricSampleWindowMsProp = CommonClientConfigs.METRICS_SAMPLE_WINDOW_MS_CONFIG
@@ -420,6 +438,9 @@ object KafkaConfig {
   val NumIoThreadsDoc = "The number of threads that the server uses for processing requests, which may include disk I/O"
   val BackgroundThreadsDoc = "The number of threads to use for various background processing tasks"
   val QueuedMaxRequestsDoc = "The number of queued requests allowed before blocking the network threads"
+  val QueuedMaxRequestBytesDoc = "The number of queued bytes allowed before no more requests are read. The buffers of " +
+    "requests are allocated from a pool of this size shared by the network threads and reused once the requests have " +
+    "been handled. Connections stop being read while the pool is out of memory. A value of -1 disables the pool."
   val RequestTimeoutMsDoc = CommonClientConfigs.REQUEST_TIMEOUT_MS_DOC
   /************* Authorizer Configuration ***********/
   val AuthorizerClassNameDoc = "The authorizer class that should be used for authorization"
@@ -531,6 +552,18 @@ object KafkaConfig {
     "implement the <code>org.apache.kafka.server.policy.CreateTopicPolicy</code> interface."
   val AlterConfigPolicyClassNameDoc = "The alter configs policy class that should be used for validation. The class should " +
     "implement the <code>org.apache.kafka.server.policy.AlterConfigPolicy</code> interface."
+  val RemoteLogStorageManagerClassNameDoc = "The fully qualified name of a class that implements the " +
+    "<code>org.apache.kafka.server.log.remote.RemoteStorageManager</code> interface, to which the segments of the " +
+    "topics with <code>remote.storage.enable</code> are copied, for example " +
+    "<code>org.apache.kafka.server.log.remote.FileSystemRemoteStorageManager</code>. By default no segments are copied."
+  val RemoteLogManagerTaskIntervalMsDoc = "The frequency in ms with which the rolled segments are copied to the remote " +
+    "tier and the remote segments are checked for deletion"
+  val RemoteLogChunkCacheBytesDoc = "The total size of the chunks of remote segments and of their indexes cached to " +
+    "serve the fetches below the local log start offset"
+  val RemoteLogReaderThreadsDoc = "The number of threads which read the segments and indexes which are not cached from " +
+    "the remote tier"
+  val RemoteLogReaderTimeoutMsDoc = "The maximum time in ms a fetch waits for a read from the remote tier, after which " +
+    "the fetch of the partition fails and is retried by the consumer"
 
   /** ********* Replication configuration ***********/
   val ControllerSocketTimeoutMsDoc = "The socket timeout for controller-to-broker channels"
@@ -559,6 +592,12 @@ object KafkaConfig {
   val FetchPurgatoryPurgeIntervalRequestsDoc = "The purge interval (in number of requests) of the fetch request purgatory"
   val ProducerPurgatoryPurgeIntervalRequestsDoc = "The purge interval (in number of requests) of the producer request purgatory"
   val DeleteRecordsPurgatoryPurgeIntervalRequestsDoc = "The purge interval (in number of requests) of the delete records request purgatory"
+  val MaxIncrementalFetchSessionCacheSlotsDoc = "The maximum number of incremental fetch sessions that the broker will keep. " +
+    "A session whose slot is needed by a new session is only evicted after it has not been used for 2 minutes."
+  val ReplicaSelectorClassDoc = "The fully qualified name of a class that implements the " +
+    "<code>org.apache.kafka.server.replica.ReplicaSelector</code> interface, which is used by the leader to direct " +
+    "consumers to the replica they should fetch from, for example " +
+    "<code>org.apache.kafka.server.replica.RackAwareReplicaSelector</code>. By default consumers fetch from the leader."
   val AutoLeaderRebalanceEnableDoc = "Enables auto leader balancing. A background thread checks and triggers leader balance if required at regular intervals"
   val LeaderImbalancePerBrokerPercentageDoc = "The ratio of leader imbalance allowed per broker. The controller would trigger a leader balance if it goes above this value per broker. The value is specified in percentage."
   val LeaderImbalanceCheckIntervalSecondsDoc = "The frequency with which the partition rebalance check is triggered by the controller"
@@ -622,8 +661,12 @@ object KafkaConfig {
 
   val DeleteTopicEnableDoc = "Enables delete topic. Delete topic through the admin tool will have no effect if this config is turned off"
   val CompressionTypeDoc = "Specify the final compression type for a given topic. This configuration accepts the standard compression codecs " +
-  "('gzip', 'snappy', 'lz4'). It additionally accepts 'uncompressed' which is equivalent to no compression; and " +
-  "'producer' which means retain the original compression codec set by the producer."
+  "('gzip', 'snappy', 'lz4', 'zstd'). It additionally accepts 'uncompressed' which is equivalent to no compression; and " +
+  "'producer' which means retain the original compression codec set by the producer. 'zstd' requires message format version 0.11.0 or later."
+  val CompressionZstdLevelDoc = "The default compression level used when the broker (re)compresses record batches with zstd."
+  val CompressionZstdDictionariesDoc = "A list of paths to zstd dictionaries (as created by <code>zstd --train</code>). " +
+  "Record batches that producers compressed with a dictionary can only be validated, cleaned and down-converted " +
+  "if the same dictionary is listed here."
 
   /** ********* Kafka Metrics Configuration ***********/
   val MetricSampleWindowMsDoc = CommonClientConfigs.METRICS_SAMPLE_WINDOW_MS_DOC
@@ -684,6 +727,7 @@ object KafkaConfig {
       .define(NumIoThreadsProp, INT, Defaults.NumIoThreads, atLeast(1), HIGH, NumIoThreadsDoc)
       .define(BackgroundThreadsProp, INT, Defaults.BackgroundThreads, atLeast(1), HIGH, BackgroundThreadsDoc)
       .define(QueuedMaxRequestsProp, INT, Defaults.QueuedMaxRequests, atLeast(1), HIGH, QueuedMaxRequestsDoc)
+      .define(QueuedMaxBytesProp, LONG, Defaults.QueuedMaxRequestBytes, MEDIUM, QueuedMaxRequestBytesDoc)
       .define(RequestTimeoutMsProp, INT, Defaults.RequestTimeoutMs, HIGH, RequestTimeoutMsDoc)
 
       /************* Authorizer Configuration ***********/
@@ -753,6 +797,11 @@ object KafkaConfig {
       .define(LogMessageTimestampDifferenceMaxMsProp, LONG, Defaults.LogMessageTimestampDifferenceMaxMs, MEDIUM, LogMessageTimestampDifferenceMaxMsDoc)
       .define(CreateTopicPolicyClassNameProp, CLASS, null, LOW, CreateTopicPolicyClassNameDoc)
       .define(AlterConfigPolicyClassNameProp, CLASS, null, LOW, AlterConfigPolicyClassNameDoc)
+      .define(RemoteLogStorageManagerClassNameProp, CLASS, null, LOW, RemoteLogStorageManagerClassNameDoc)
+      .define(RemoteLogManagerTaskIntervalMsProp, LONG, Defaults.RemoteLogManagerTaskIntervalMs, atLeast(1), LOW, RemoteLogManagerTaskIntervalMsDoc)
+      .define(RemoteLogChunkCacheBytesProp, LONG, Defaults.RemoteLogChunkCacheBytes, atLeast(0), LOW, RemoteLogChunkCacheBytesDoc)
+      .define(RemoteLogReaderThreadsProp, INT, Defaults.RemoteLogReaderThreads, atLeast(1), LOW, RemoteLogReaderThreadsDoc)
+      .define(RemoteLogReaderTimeoutMsProp, LONG, Defaults.RemoteLogReaderTimeoutMs, atLeast(1), LOW, RemoteLogReaderTimeoutMsDoc)
 
       /** ********* Replication configuration ***********/
       .define(ControllerSocketTimeoutMsProp, INT, Defaults.ControllerSocketTimeoutMs, MEDIUM, ControllerSocketTimeoutMsDoc)
@@ -770,6 +819,8 @@ object KafkaConfig {
       .define(FetchPurgatoryPurgeIntervalRequestsProp, INT, Defaults.FetchPurgatoryPurgeIntervalRequests, MEDIUM, FetchPurgatoryPurgeIntervalRequestsDoc)
       .define(ProducerPurgatoryPurgeIntervalRequestsProp, INT, Defaults.ProducerPurgatoryPurgeIntervalRequests, MEDIUM, ProducerPurgatoryPurgeIntervalRequestsDoc)
       .define(DeleteRecordsPurgatoryPurgeIntervalRequestsProp, INT, Defaults.DeleteRecordsPurgatoryPurgeIntervalRequests, MEDIUM, DeleteRecordsPurgatoryPurgeIntervalRequestsDoc)
+      .define(MaxIncrementalFetchSessionCacheSlotsProp, INT, Defaults.MaxIncrementalFetchSessionCacheSlots, atLeast(0), MEDIUM, MaxIncrementalFetchSessionCacheSlotsDoc)
+      .define(ReplicaSelectorClassProp, CLASS, null, LOW, ReplicaSelectorClassDoc)
       .define(AutoLeaderRebalanceEnableProp, BOOLEAN, Defaults.AutoLeaderRebalanceEnable, HIGH, AutoLeaderRebalanceEnableDoc)
       .define(LeaderImbalancePerBrokerPercentageProp, INT, Defaults.LeaderImbalancePerBrokerPercentage, HIGH, LeaderImbalancePerBrokerPercentageDoc)
       .define(LeaderImbalanceCheckIntervalSecondsProp, LONG, Defaults.LeaderImbalanceCheckIntervalSeconds, HIGH, LeaderImbalanceCheckIntervalSecondsDoc)
@@ -801,6 +852,9 @@ object KafkaConfig {
       .define(OffsetCommitRequiredAcksProp, SHORT, Defaults.OffsetCommitRequiredAcks, HIGH, OffsetCommitRequiredAcksDoc)
       .define(DeleteTopicEnableProp, BOOLEAN, Defaults.DeleteTopicEnable, HIGH, DeleteTopicEnableDoc)
       .define(CompressionTypeProp, STRING, Defaults.CompressionType, HIGH, CompressionTypeDoc)
+      .define(CompressionZstdLevelProp, INT, Defaults.CompressionZstdLevel,
+        between(CompressionOptions.MIN_ZSTD_LEVEL, CompressionOptions.MAX_ZSTD_LEVEL), MEDIUM, CompressionZstdLevelDoc)
+      .define(CompressionZstdDictionariesProp, LIST, Defaults.CompressionZstdDictionaries, LOW, CompressionZstdDictionariesDoc)
 
       /** ********* Transaction management configuration ***********/
       .define(TransactionalIdExpirationMsProp, INT, Defaults.TransactionalIdExpirationMs, atLeast(1), HIGH, TransactionalIdExpirationMsDoc)
@@ -900,6 +954,7 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val numNetworkThreads = getInt(KafkaConfig.NumNetworkThreadsProp)
   val backgroundThreads = getInt(KafkaConfig.BackgroundThreadsProp)
   val queuedMaxRequests = getInt(KafkaConfig.QueuedMaxRequestsProp)
+  val queuedMaxBytes = getLong(KafkaConfig.QueuedMaxBytesProp)
   val numIoThreads = getInt(KafkaConfig.NumIoThreadsProp)
   val messageMaxBytes = getInt(KafkaConfig.MessageMaxBytesProp)
   val requestTimeoutMs = getInt(KafkaConfig.RequestTimeoutMsProp)
@@ -964,6 +1019,10 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val logMessageFormatVersion = ApiVersion(logMessageFormatVersionString)
   val logMessageTimestampType = TimestampType.forName(getString(KafkaConfig.LogMessageTimestampTypeProp))
   val logMessageTimestampDifferenceMaxMs: Long = getLong(KafkaConfig.LogMessageTimestampDifferenceMaxMsProp)
+  val remoteLogManagerTaskIntervalMs: Long = getLong(KafkaConfig.RemoteLogManagerTaskIntervalMsProp)
+  val remoteLogChunkCacheBytes: Long = getLong(KafkaConfig.RemoteLogChunkCacheBytesProp)
+  val remoteLogReaderThreads: Int = getInt(KafkaConfig.RemoteLogReaderThreadsProp)
+  val remoteLogReaderTimeoutMs: Long = getLong(KafkaConfig.RemoteLogReaderTimeoutMsProp)
 
   /** ********* Replication configuration ***********/
   val controllerSocketTimeoutMs: Int = getInt(KafkaConfig.ControllerSocketTimeoutMsProp)
@@ -981,6 +1040,7 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val fetchPurgatoryPurgeIntervalRequests = getInt(KafkaConfig.FetchPurgatoryPurgeIntervalRequestsProp)
   val producerPurgatoryPurgeIntervalRequests = getInt(KafkaConfig.ProducerPurgatoryPurgeIntervalRequestsProp)
   val deleteRecordsPurgatoryPurgeIntervalRequests = getInt(KafkaConfig.DeleteRecordsPurgatoryPurgeIntervalRequestsProp)
+  val maxIncrementalFetchSessionCacheSlots = getInt(KafkaConfig.MaxIncrementalFetchSessionCacheSlotsProp)
   val autoLeaderRebalanceEnable = getBoolean(KafkaConfig.AutoLeaderRebalanceEnableProp)
   val leaderImbalancePerBrokerPercentage = getInt(KafkaConfig.LeaderImbalancePerBrokerPercentageProp)
   val leaderImbalanceCheckIntervalSeconds = getLong(KafkaConfig.LeaderImbalanceCheckIntervalSecondsProp)
@@ -1071,6 +1131,8 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
 
   val deleteTopicEnable = getBoolean(KafkaConfig.DeleteTopicEnableProp)
   val compressionType = getString(KafkaConfig.CompressionTypeProp)
+  val compressionZstdLevel = getInt(KafkaConfig.CompressionZstdLevelProp)
+  val compressionZstdDictionaries = getList(KafkaConfig.CompressionZstdDictionariesProp).asScala
   val listeners: Seq[EndPoint] = getListeners
   val advertisedListeners: Seq[EndPoint] = getAdvertisedListeners
   private[kafka] lazy val listenerSecurityProtocolMap = getListenerSecurityProtocolMap
@@ -1164,6 +1226,8 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
     require(logRollTimeJitterMillis >= 0, "log.roll.jitter.ms must be equal or greater than 0")
     require(logRetentionTimeMillis >= 1 || logRetentionTimeMillis == -1, "log.retention.ms must be unlimited (-1) or, equal or greater than 1")
     require(logDirs.nonEmpty, "At least one log directory must be defined via log.dirs or log.dir.")
+    require(queuedMaxBytes <= 0 || queuedMaxBytes >= socketRequestMaxBytes,
+      s"${KafkaConfig.QueuedMaxBytesProp} must be larger or equal to ${KafkaConfig.SocketRequestMaxBytesProp}")
     require(logCleanerDedupeBufferSize / logCleanerThreads > 1024 * 1024, "log.cleaner.dedupe.buffer.size must be at least 1MB per cleaner thread.")
     require(replicaFetchWaitMaxMs <= replicaSocketTimeoutMs, "replica.socket.timeout.ms should always be at least replica.fetch.wait.max.ms" +
       " to prevent unnecessary socket timeouts")
@@ -63,7 +63,8 @@ class KafkaRequestHandler(id: Int,
           return
         }
         trace("Kafka request handler %d on broker %d handling request %s".format(id, brokerId, req))
-        apis.handle(req)
+        try apis.handle(req)
+        finally req.releaseBuffer()
       } catch {
         case e: FatalExitError =>
           latch.countDown()
@@ -41,6 +41,7 @@ import org.apache.kafka.common.internals.ClusterResourceListeners
 import org.apache.kafka.common.metrics.{JmxReporter, Metrics, _}
 import org.apache.kafka.common.network._
 import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.record.ZstdDictionaries
 import org.apache.kafka.common.requests.{ControlledShutdownRequest, ControlledShutdownResponse}
 import org.apache.kafka.common.security.{JaasContext, JaasUtils}
 import org.apache.kafka.common.utils.{AppInfoParser, Time}
@@ -71,6 +72,7 @@ object KafkaServer {
     logProps.put(LogConfig.CleanupPolicyProp, kafkaConfig.logCleanupPolicy)
     logProps.put(LogConfig.MinInSyncReplicasProp, kafkaConfig.minInSyncReplicas)
     logProps.put(LogConfig.CompressionTypeProp, kafkaConfig.compressionType)
+    logProps.put(LogConfig.CompressionZstdLevelProp, kafkaConfig.compressionZstdLevel: java.lang.Integer)
     logProps.put(LogConfig.UncleanLeaderElectionEnableProp, kafkaConfig.uncleanLeaderElectionEnable)
     logProps.put(LogConfig.PreAllocateEnableProp, kafkaConfig.logPreAllocateEnable)
     logProps.put(LogConfig.MessageFormatVersionProp, kafkaConfig.logMessageFormatVersion.version)
@@ -187,6 +189,9 @@ class KafkaServer(val config: KafkaConfig, time: Time = Time.SYSTEM, threadNameP
         /* start scheduler */
         kafkaScheduler.startup()
 
+        /* zstd dictionaries must be known before any log is loaded, cleaned or appended to */
+        ZstdDictionaries.registerAll(config.compressionZstdDictionaries.asJava)
+
         /* setup zookeeper */
         zkUtils = initZk()
 
@@ -249,9 +254,11 @@ class KafkaServer(val config: KafkaConfig, time: Time = Time.SYSTEM, threadNameP
         }
 
         /* start processing requests */
+        val fetchManager = new FetchManager(time,
+          new FetchSessionCache(config.maxIncrementalFetchSessionCacheSlots, FetchSessionCache.EvictionMs))
         apis = new KafkaApis(socketServer.requestChannel, replicaManager, adminManager, groupCoordinator, transactionCoordinator,
           kafkaController, zkUtils, config.brokerId, config, metadataCache, metrics, authorizer, quotaManagers,
-          brokerTopicStats, clusterId, time)
+          fetchManager, brokerTopicStats, clusterId, time)
 
         requestHandlerPool = new KafkaRequestHandlerPool(config.brokerId, socketServer.requestChannel, apis, time,
           config.numIoThreads)
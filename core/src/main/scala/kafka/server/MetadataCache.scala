@@ -111,6 +111,16 @@ class MetadataCache(brokerId: Int) extends Logging {
     }
 
   // errorUnavailableEndpoints exists to support v0 MetadataResponses
+  // the endpoint of an alive broker, with its rack
+  def getAliveNodeWithRack(brokerId: Int, listenerName: ListenerName): Option[Node] = {
+    inReadLock(partitionMetadataLock) {
+      for {
+        broker <- aliveBrokers.get(brokerId)
+        node <- aliveNodes.get(brokerId).flatMap(_.get(listenerName))
+      } yield new Node(node.id, node.host, node.port, broker.rack.orNull)
+    }
+  }
+
   def getTopicMetadata(topics: Set[String], listenerName: ListenerName, errorUnavailableEndpoints: Boolean = false): Seq[MetadataResponse.TopicMetadata] = {
     inReadLock(partitionMetadataLock) {
       topics.toSeq.flatMap { topic =>
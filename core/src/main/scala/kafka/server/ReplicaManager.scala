@@ -26,7 +26,7 @@ import kafka.api._
 import kafka.cluster.{Partition, Replica}
 import kafka.common.KafkaStorageException
 import kafka.controller.KafkaController
-import kafka.log.{Log, LogAppendInfo, LogManager}
+import kafka.log.{Log, LogAppendInfo, LogManager, RemoteLogManager}
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.QuotaFactory.UnboundedQuota
 import kafka.server.checkpoints.OffsetCheckpointFile
@@ -35,6 +35,7 @@ import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors.{ControllerMovedException, CorruptRecordException, InvalidTimestampException, InvalidTopicException, NotEnoughReplicasException, NotLeaderForPartitionException, OffsetOutOfRangeException, PolicyViolationException, _}
 import org.apache.kafka.common.internals.Topic
 import org.apache.kafka.common.metrics.Metrics
+import org.apache.kafka.common.network.ListenerName
 import org.apache.kafka.common.protocol.Errors
 import org.apache.kafka.common.protocol.Errors.UNKNOWN_TOPIC_OR_PARTITION
 import org.apache.kafka.common.record._
@@ -44,6 +45,8 @@ import org.apache.kafka.common.requests.FetchResponse.AbortedTransaction
 import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
 import org.apache.kafka.common.requests.{DeleteRecordsRequest, DeleteRecordsResponse, LeaderAndIsrRequest, PartitionState, StopReplicaRequest, UpdateMetadataRequest, _}
 import org.apache.kafka.common.utils.Time
+import org.apache.kafka.server.log.remote.RemoteStorageManager
+import org.apache.kafka.server.replica.ReplicaSelector
 
 import scala.collection.JavaConverters._
 import scala.collection._
@@ -82,7 +85,8 @@ case class LogReadResult(info: FetchDataInfo,
                          fetchTimeMs: Long,
                          readSize: Int,
                          lastStableOffset: Option[Long],
-                         exception: Option[Throwable] = None) {
+                         exception: Option[Throwable] = None,
+                         preferredReadReplica: Option[Int] = None) {
 
   def error: Errors = exception match {
     case None => Errors.NONE
@@ -91,7 +95,8 @@ case class LogReadResult(info: FetchDataInfo,
 
   override def toString =
     s"Fetch Data: [$info], HW: [$highWatermark], leaderLogStartOffset: [$leaderLogStartOffset], leaderLogEndOffset: [$leaderLogEndOffset], " +
-    s"followerLogStartOffset: [$followerLogStartOffset], fetchTimeMs: [$fetchTimeMs], readSize: [$readSize], error: [$error]"
+    s"followerLogStartOffset: [$followerLogStartOffset], fetchTimeMs: [$fetchTimeMs], readSize: [$readSize], error: [$error], " +
+    s"preferredReadReplica: [$preferredReadReplica]"
 
 }
 
@@ -100,7 +105,14 @@ case class FetchPartitionData(error: Errors = Errors.NONE,
                               logStartOffset: Long,
                               records: Records,
                               lastStableOffset: Option[Long],
-                              abortedTransactions: Option[List[AbortedTransaction]])
+                              abortedTransactions: Option[List[AbortedTransaction]],
+                              preferredReadReplica: Option[Int] = None)
+
+/**
+ * The metadata of a consumer whose fetch request lets it be directed to a preferred read replica, and which may
+ * therefore be served by in-sync followers.
+ */
+case class ClientMetadata(clientId: String, rackId: String, listenerName: ListenerName)
 
 object LogReadResult {
   val UnknownLogReadResult = LogReadResult(info = FetchDataInfo(LogOffsetMetadata.UnknownOffsetMetadata, MemoryRecords.EMPTY),
@@ -181,6 +193,13 @@ class ReplicaManager(val config: KafkaConfig,
   private val isrChangeSet: mutable.Set[TopicPartition] = new mutable.HashSet[TopicPartition]()
   private val lastIsrChangeMs = new AtomicLong(System.currentTimeMillis())
   private val lastIsrPropagationMs = new AtomicLong(System.currentTimeMillis())
+  private val replicaSelector: Option[ReplicaSelector] =
+    Option(config.getConfiguredInstance(KafkaConfig.ReplicaSelectorClassProp, classOf[ReplicaSelector]))
+  val remoteLogManager: Option[RemoteLogManager] =
+    Option(config.getConfiguredInstance(KafkaConfig.RemoteLogStorageManagerClassNameProp, classOf[RemoteStorageManager]))
+      .map(new RemoteLogManager(_, logManager, tp => getPartition(tp).exists(_.leaderReplicaIfLocal.isDefined),
+        scheduler, config.remoteLogManagerTaskIntervalMs, config.remoteLogChunkCacheBytes, config.remoteLogReaderThreads,
+        config.remoteLogReaderTimeoutMs, time))
 
   val leaderCount = newGauge(
     "LeaderCount",
@@ -278,6 +297,9 @@ class ReplicaManager(val config: KafkaConfig,
     // A follower can lag behind leader for up to config.replicaLagTimeMaxMs x 1.5 before it is removed from ISR
     scheduler.schedule("isr-expiration", maybeShrinkIsr _, period = config.replicaLagTimeMaxMs / 2, unit = TimeUnit.MILLISECONDS)
     scheduler.schedule("isr-change-propagation", maybePropagateIsrChanges _, period = 2500L, unit = TimeUnit.MILLISECONDS)
+    remoteLogManager.foreach(_.startup())
+    // complete the produce requests waiting for the logs to be flushed
+    logManager.registerFlushListener(topicPartition => tryCompleteDelayedProduce(new TopicPartitionOperationKey(topicPartition)))
   }
 
   def stopReplica(topicPartition: TopicPartition, deletePartition: Boolean): Errors  = {
@@ -352,6 +374,48 @@ class ReplicaManager(val config: KafkaConfig,
     }
   }
 
+  /**
+   * Get the local replica to read from for a fetch. Fetches which may be served by followers are served by any local
+   * replica, but ordinary consumers are only served by followers which are in sync.
+   */
+  def getReplicaForFetch(topicPartition: TopicPartition, replicaId: Int, fetchOnlyFromLeader: Boolean): Replica = {
+    if (fetchOnlyFromLeader)
+      getLeaderReplicaIfLocal(topicPartition)
+    else {
+      val replica = getReplicaOrException(topicPartition)
+      if (replicaId == Request.OrdinaryConsumerId && !isLeaderOrInSyncFollower(topicPartition))
+        throw new NotLeaderForPartitionException(s"Replica $localBrokerId is not in sync for partition $topicPartition")
+      replica
+    }
+  }
+
+  private def isLeaderOrInSyncFollower(topicPartition: TopicPartition): Boolean = {
+    getPartition(topicPartition).exists(_.leaderReplicaIfLocal.isDefined) ||
+      metadataCache.getPartitionInfo(topicPartition.topic, topicPartition.partition).exists { partitionInfo =>
+        partitionInfo.leaderIsrAndControllerEpoch.leaderAndIsr.isr.contains(localBrokerId)
+      }
+  }
+
+  /**
+   * Find the replica a consumer should fetch a partition from, if it is not this broker. Only the leader directs
+   * consumers to other replicas, and only to in-sync followers which have replicated the fetch offset.
+   */
+  private def findPreferredReadReplica(topicPartition: TopicPartition, fetchOffset: Long,
+                                       clientMetadata: ClientMetadata): Option[Int] = {
+    for {
+      selector <- replicaSelector
+      partition <- getPartition(topicPartition)
+      _ <- partition.leaderReplicaIfLocal
+      leader <- metadataCache.getAliveNodeWithRack(localBrokerId, clientMetadata.listenerName)
+      inSyncReplicas = partition.inSyncReplicas.toSeq
+        .filter(replica => replica.brokerId == localBrokerId || replica.logEndOffset.messageOffset >= fetchOffset)
+        .flatMap(replica => metadataCache.getAliveNodeWithRack(replica.brokerId, clientMetadata.listenerName))
+      selected <- Option(selector.select(topicPartition, clientMetadata.clientId, clientMetadata.rackId, leader,
+        inSyncReplicas.asJava))
+      if selected.id != localBrokerId && inSyncReplicas.exists(_.id == selected.id)
+    } yield selected.id
+  }
+
   def getReplica(topicPartition: TopicPartition, replicaId: Int): Option[Replica] =
     getPartition(topicPartition).flatMap(_.getReplica(replicaId))
 
@@ -507,17 +571,22 @@ class ReplicaManager(val config: KafkaConfig,
 
   // If all the following conditions are true, we need to put a delayed produce request and wait for replication to complete
   //
-  // 1. required acks = -1
+  // 1. required acks = -1, or required acks = 1 and a log appended to requires the append to be flushed before the ack
   // 2. there is data to append
   // 3. at least one partition append was successful (fewer errors than partitions)
   private def delayedProduceRequestRequired(requiredAcks: Short,
                                             entriesPerPartition: Map[TopicPartition, MemoryRecords],
                                             localProduceResults: Map[TopicPartition, LogAppendResult]): Boolean = {
-    requiredAcks == -1 &&
+    (requiredAcks == -1 || requiredAcks == 1 && localProduceResults.exists { case (topicPartition, result) =>
+      result.exception.isEmpty && requiresFlushBeforeAck(topicPartition)
+    }) &&
     entriesPerPartition.nonEmpty &&
     localProduceResults.values.count(_.exception.isDefined) < entriesPerPartition.size
   }
 
+  private def requiresFlushBeforeAck(topicPartition: TopicPartition): Boolean =
+    getPartition(topicPartition).flatMap(_.leaderReplicaIfLocal).flatMap(_.log).exists(_.requiresFlushBeforeAck)
+
   private def isValidRequiredAcks(requiredAcks: Short): Boolean = {
     requiredAcks == -1 || requiredAcks == 1 || requiredAcks == 0
   }
@@ -601,9 +670,10 @@ class ReplicaManager(val config: KafkaConfig,
                     fetchInfos: Seq[(TopicPartition, PartitionData)],
                     quota: ReplicaQuota = UnboundedQuota,
                     responseCallback: Seq[(TopicPartition, FetchPartitionData)] => Unit,
-                    isolationLevel: IsolationLevel) {
+                    isolationLevel: IsolationLevel,
+                    clientMetadata: Option[ClientMetadata] = None) {
     val isFromFollower = replicaId >= 0
-    val fetchOnlyFromLeader: Boolean = replicaId != Request.DebuggingConsumerId
+    val fetchOnlyFromLeader: Boolean = replicaId != Request.DebuggingConsumerId && clientMetadata.isEmpty
     val fetchOnlyCommitted: Boolean = ! Request.isValidBrokerId(replicaId)
 
     // read from local logs
@@ -615,7 +685,8 @@ class ReplicaManager(val config: KafkaConfig,
       hardMaxBytesLimit = hardMaxBytesLimit,
       readPartitionInfo = fetchInfos,
       quota = quota,
-      isolationLevel = isolationLevel)
+      isolationLevel = isolationLevel,
+      clientMetadata = clientMetadata)
 
     // if the fetch comes from the follower,
     // update its corresponding log end offset
@@ -627,15 +698,17 @@ class ReplicaManager(val config: KafkaConfig,
     val bytesReadable = logReadResultValues.map(_.info.records.sizeInBytes).sum
     val errorReadingData = logReadResultValues.foldLeft(false) ((errorIncurred, readResult) =>
       errorIncurred || (readResult.error != Errors.NONE))
+    val hasPreferredReadReplica = logReadResultValues.exists(_.preferredReadReplica.isDefined)
 
     // respond immediately if 1) fetch request does not want to wait
     //                        2) fetch request does not require any data
     //                        3) has enough data to respond
     //                        4) some error happens while reading data
-    if (timeout <= 0 || fetchInfos.isEmpty || bytesReadable >= fetchMinBytes || errorReadingData) {
+    //                        5) the consumer should fetch some partition from another replica
+    if (timeout <= 0 || fetchInfos.isEmpty || bytesReadable >= fetchMinBytes || errorReadingData || hasPreferredReadReplica) {
       val fetchPartitionData = logReadResults.map { case (tp, result) =>
         tp -> FetchPartitionData(result.error, result.highWatermark, result.leaderLogStartOffset, result.info.records,
-          result.lastStableOffset, result.info.abortedTransactions)
+          result.lastStableOffset, result.info.abortedTransactions, result.preferredReadReplica)
       }
       responseCallback(fetchPartitionData)
     } else {
@@ -670,7 +743,8 @@ class ReplicaManager(val config: KafkaConfig,
                        hardMaxBytesLimit: Boolean,
                        readPartitionInfo: Seq[(TopicPartition, PartitionData)],
                        quota: ReplicaQuota,
-                       isolationLevel: IsolationLevel): Seq[(TopicPartition, LogReadResult)] = {
+                       isolationLevel: IsolationLevel,
+                       clientMetadata: Option[ClientMetadata] = None): Seq[(TopicPartition, LogReadResult)] = {
 
     def read(tp: TopicPartition, fetchInfo: PartitionData, limitBytes: Int, minOneMessage: Boolean): LogReadResult = {
       val offset = fetchInfo.fetchOffset
@@ -686,10 +760,7 @@ class ReplicaManager(val config: KafkaConfig,
           (if (minOneMessage) s", ignoring response/partition size limits" else ""))
 
         // decide whether to only fetch from leader
-        val localReplica = if (fetchOnlyFromLeader)
-          getLeaderReplicaIfLocal(tp)
-        else
-          getReplicaOrException(tp)
+        val localReplica = getReplicaForFetch(tp, replicaId, fetchOnlyFromLeader)
 
         val initialHighWatermark = localReplica.highWatermark.messageOffset
         val lastStableOffset = if (isolationLevel == IsolationLevel.READ_COMMITTED)
@@ -712,12 +783,24 @@ class ReplicaManager(val config: KafkaConfig,
         val initialLogEndOffset = localReplica.logEndOffset.messageOffset
         val initialLogStartOffset = localReplica.logStartOffset
         val fetchTimeMs = time.milliseconds
+        // no records are returned to a consumer which should fetch from another replica
+        val preferredReadReplica = clientMetadata.flatMap(findPreferredReadReplica(tp, offset, _))
         val logReadInfo = localReplica.log match {
+          case Some(_) if preferredReadReplica.isDefined =>
+            FetchDataInfo(LogOffsetMetadata.UnknownOffsetMetadata, MemoryRecords.EMPTY)
+
           case Some(log) =>
             val adjustedFetchSize = math.min(partitionFetchSize, limitBytes)
 
             // Try the read first, this tells us whether we need all of adjustedFetchSize for this partition
-            val fetch = log.read(offset, adjustedFetchSize, maxOffsetOpt, minOneMessage, isolationLevel)
+            val fetch = try {
+              log.read(offset, adjustedFetchSize, maxOffsetOpt, minOneMessage, isolationLevel)
+            } catch {
+              // consumers may read the offsets below the local log start offset from the remote tier
+              case e: OffsetOutOfRangeException if offset < initialLogStartOffset && !Request.isValidBrokerId(replicaId) =>
+                remoteLogManager.flatMap(_.read(tp, log, offset, adjustedFetchSize, minOneMessage, isolationLevel))
+                  .getOrElse(throw e)
+            }
 
             // If the partition is being throttled, simply return an empty set.
             if (shouldLeaderThrottle(quota, tp, replicaId))
@@ -741,7 +824,8 @@ class ReplicaManager(val config: KafkaConfig,
                       fetchTimeMs = fetchTimeMs,
                       readSize = partitionFetchSize,
                       lastStableOffset = lastStableOffset,
-                      exception = None)
+                      exception = None,
+                      preferredReadReplica = preferredReadReplica)
       } catch {
         // NOTE: Failed fetch requests metric is not incremented for known exceptions since it
         // is supposed to indicate un-expected failure of a broker in handling a fetch request
@@ -1132,6 +1216,8 @@ class ReplicaManager(val config: KafkaConfig,
     delayedFetchPurgatory.shutdown()
     delayedProducePurgatory.shutdown()
     delayedDeleteRecordsPurgatory.shutdown()
+    CoreUtils.swallow(replicaSelector.foreach(_.close()))
+    CoreUtils.swallow(remoteLogManager.foreach(_.shutdown()))
     if (checkpointHW)
       checkpointHighWatermarks()
     info("Shut down completely")
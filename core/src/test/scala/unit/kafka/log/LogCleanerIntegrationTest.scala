@@ -142,6 +142,10 @@ class LogCleanerIntegrationTest(compressionCodec: String) extends AbstractLogCle
 
   @Test
   def testCleanerWithMessageFormatV0(): Unit = {
+    // zstd compression is not supported with older message formats
+    if (codec == CompressionType.ZSTD)
+      return
+
     val largeMessageKey = 20
     val (largeMessageValue, largeMessageSet) = createLargeSingleMessageSet(largeMessageKey, RecordBatch.MAGIC_VALUE_V0)
     val maxMessageSize = codec match {
@@ -192,6 +196,10 @@ class LogCleanerIntegrationTest(compressionCodec: String) extends AbstractLogCle
 
   @Test
   def testCleaningNestedMessagesWithMultipleVersions(): Unit = {
+    // zstd compression is not supported with older message formats
+    if (codec == CompressionType.ZSTD)
+      return
+
     val maxMessageSize = 192
     cleaner = makeCleaner(partitions = topicPartitions, maxMessageSize = maxMessageSize)
 
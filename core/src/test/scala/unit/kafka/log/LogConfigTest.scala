@@ -77,6 +77,8 @@ class LogConfigTest {
       case LogConfig.MinCleanableDirtyRatioProp => assertPropertyInvalid(name, "not_a_number", "-0.1", "1.2")
       case LogConfig.MinInSyncReplicasProp => assertPropertyInvalid(name, "not_a_number", "0", "-1")
       case LogConfig.MessageFormatVersionProp => assertPropertyInvalid(name, "")
+      case LogConfig.LocalRetentionMsProp => assertPropertyInvalid(name, "not_a_number", "-3")
+      case LogConfig.LocalRetentionBytesProp => assertPropertyInvalid(name, "not_a_number", "-3")
       case _ => assertPropertyInvalid(name, "not_a_number", "-1")
     })
   }
@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.File
+import java.util.Properties
+import java.util.concurrent.atomic.AtomicReference
+
+import kafka.server.BrokerTopicStats
+import kafka.utils.{MockTime, TestUtils}
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.utils.{Utils, Exit => JExit}
+import org.junit.Assert._
+import org.junit.{After, Before, Test}
+import org.scalatest.junit.JUnitSuite
+
+import scala.collection.mutable
+
+class LogFlusherTest extends JUnitSuite {
+
+  val time = new MockTime()
+  val brokerTopicStats = new BrokerTopicStats
+  var dataDir: File = null
+  var logManager: LogManager = null
+
+  @Before
+  def setUp() {
+    dataDir = TestUtils.tempDir()
+  }
+
+  @After
+  def tearDown() {
+    if (logManager != null)
+      logManager.shutdown()
+    brokerTopicStats.close()
+    Utils.delete(dataDir)
+  }
+
+  @Test
+  def testAppendsAreFlushedByTheFlusher() {
+    val log = createLog(new File(dataDir, "topic-0"), flushMessages = 1)
+    val flushed = mutable.Buffer[Log]()
+    val flusher = new LogFlusher(dataDir, flushed += _)
+    log.flusher = Some(flusher)
+
+    for (i <- 0 until 3)
+      log.appendAsLeader(TestUtils.singletonRecords(value = s"value-$i".getBytes), leaderEpoch = 0)
+    // the appends are not flushed until the flusher runs, and then share a single flush
+    assertEquals(0L, log.recoveryPoint)
+    assertTrue(log.requiresFlushBeforeAck)
+    assertFalse(log.isFlushedUpTo(1L))
+
+    flusher.doWork()
+    assertEquals(log.logEndOffset, log.recoveryPoint)
+    assertTrue(log.isFlushedUpTo(log.logEndOffset))
+    assertEquals(Seq(log), flushed)
+
+    // a cancelled flush is not done
+    log.appendAsLeader(TestUtils.singletonRecords(value = "value".getBytes), leaderEpoch = 0)
+    flusher.cancel(log)
+    flusher.doWork()
+    assertEquals(3L, log.recoveryPoint)
+    assertEquals(Seq(log), flushed)
+    log.close()
+  }
+
+  @Test
+  def testFlushErrorsHaltTheBroker() {
+    val log = createLog(new File(dataDir, "topic-0"), flushMessages = 1)
+    val flushed = mutable.Buffer[Log]()
+    val flusher = new LogFlusher(dataDir, flushed += _)
+    log.flusher = Some(flusher)
+    log.appendAsLeader(TestUtils.singletonRecords(value = "value".getBytes), leaderEpoch = 0)
+    // closing the channel makes the flush fail with an IOException
+    log.activeSegment.log.channel.close()
+
+    val haltStatus = new AtomicReference[Integer]
+    JExit.setHaltProcedure(new JExit.Procedure {
+      def execute(statusCode: Int, message: String): Unit = {
+        haltStatus.set(statusCode)
+        throw new IllegalStateException("halted")
+      }
+    })
+    try {
+      intercept[IllegalStateException](flusher.doWork())
+    } finally {
+      JExit.resetHaltProcedure()
+    }
+    assertEquals(1, haltStatus.get)
+    // the appended messages are not acknowledged
+    assertEquals(Seq.empty, flushed)
+    assertFalse(log.isFlushedUpTo(1L))
+  }
+
+  @Test
+  def testLogsWithoutFlusherAreFlushedOnAppend() {
+    val log = createLog(new File(dataDir, "topic-0"), flushMessages = 1)
+    log.appendAsLeader(TestUtils.singletonRecords(value = "value".getBytes), leaderEpoch = 0)
+    assertEquals(1L, log.recoveryPoint)
+    assertFalse(log.requiresFlushBeforeAck)
+    assertTrue(log.isFlushedUpTo(1L))
+    log.close()
+  }
+
+  @Test
+  def testAcknowledgementDoesNotWaitForPeriodicFlushes() {
+    val log = createLog(new File(dataDir, "topic-0"), flushMessages = 2)
+    log.flusher = Some(new LogFlusher(dataDir, _ => ()))
+    log.appendAsLeader(TestUtils.singletonRecords(value = "value".getBytes), leaderEpoch = 0)
+    assertFalse(log.requiresFlushBeforeAck)
+    assertTrue(log.isFlushedUpTo(1L))
+    log.close()
+  }
+
+  @Test
+  def testLogManagerFlushesLogsInTheBackground() {
+    val tp = new TopicPartition("topic", 0)
+    logManager = TestUtils.createLogManager(Array(dataDir), time = time)
+    val flushed = new java.util.concurrent.ConcurrentLinkedQueue[TopicPartition]
+    logManager.registerFlushListener(topicPartition => flushed.add(topicPartition))
+    logManager.startup()
+
+    val logProps = new Properties()
+    logProps.put(LogConfig.FlushMessagesProp, "1")
+    val log = logManager.createLog(tp, LogConfig(logProps))
+    assertTrue(log.requiresFlushBeforeAck)
+    log.appendAsLeader(TestUtils.singletonRecords(value = "value".getBytes), leaderEpoch = 0)
+    TestUtils.waitUntilTrue(() => log.isFlushedUpTo(1L), "The log was not flushed by the flusher")
+    TestUtils.waitUntilTrue(() => flushed.contains(tp), "The flush listener was not invoked")
+  }
+
+  private def createLog(dir: File, flushMessages: Int): Log = {
+    val logProps = new Properties()
+    logProps.put(LogConfig.FlushMessagesProp, flushMessages: Integer)
+    Log(dir, LogConfig(logProps), logStartOffset = 0L, recoveryPoint = 0L, scheduler = time.scheduler,
+      brokerTopicStats = brokerTopicStats, time = time)
+  }
+}
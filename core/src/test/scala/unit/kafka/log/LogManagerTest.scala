@@ -20,6 +20,8 @@ package kafka.log
 import java.io._
 import java.util.Properties
 
+import com.yammer.metrics.Metrics
+import com.yammer.metrics.core.Gauge
 import kafka.common._
 import kafka.server.FetchDataInfo
 import kafka.server.checkpoints.OffsetCheckpointFile
@@ -31,6 +33,8 @@ import org.apache.kafka.common.utils.Utils
 import org.junit.Assert._
 import org.junit.{After, Before, Test}
 
+import scala.collection.JavaConverters._
+
 class LogManagerTest {
 
   val time: MockTime = new MockTime()
@@ -237,6 +241,32 @@ class LogManagerTest {
     }
   }
 
+  /**
+   * Test that the logs of all the data directories are loaded at startup and that the loading progress is reported
+   */
+  @Test
+  def testLoadLogsOfMultipleDirectories() {
+    val dirs = Array(TestUtils.tempDir(),
+                     TestUtils.tempDir(),
+                     TestUtils.tempDir())
+    logManager.shutdown()
+    logManager = createLogManager(dirs)
+    val partitions = (0 until 10).map(new TopicPartition("test", _))
+    for (tp <- partitions) {
+      val log = logManager.createLog(tp, logConfig)
+      for (_ <- 0 until tp.partition + 1)
+        log.appendAsLeader(TestUtils.singletonRecords("test".getBytes()), leaderEpoch = 0)
+    }
+    logManager.shutdown()
+
+    logManager = createLogManager(dirs)
+    assertEquals(partitions.toSet, logManager.logsByTopicPartition.keySet)
+    for (tp <- partitions)
+      assertEquals(tp.partition + 1, logManager.getLog(tp).get.logEndOffset)
+    assertEquals(0, gaugeValue("RemainingLogsToLoad"))
+    assertEquals(0L, gaugeValue("LogLoadingRemainingTimeMs"))
+  }
+
   /**
    * Test that it is not possible to open two log managers using the same data directory
    */
@@ -304,6 +334,13 @@ class LogManagerTest {
     }
   }
 
+  private def gaugeValue(name: String): Any = {
+    val (_, metric) = Metrics.defaultRegistry.allMetrics.asScala.find { case (metricName, _) =>
+      metricName.getMBeanName == s"kafka.log:type=LogManager,name=$name"
+    }.get
+    metric.asInstanceOf[Gauge[_]].value
+  }
+
   private def createLogManager(logDirs: Array[File] = Array(this.logDir)): LogManager = {
     TestUtils.createLogManager(
       defaultConfig = logConfig,
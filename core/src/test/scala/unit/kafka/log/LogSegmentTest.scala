@@ -48,7 +48,8 @@ class LogSegmentTest {
     val idx = new OffsetIndex(idxFile, offset, 1000)
     val timeIdx = new TimeIndex(timeIdxFile, offset, 1500)
     val txnIndex = new TransactionIndex(offset, txnIdxFile)
-    val seg = new LogSegment(ms, idx, timeIdx, txnIndex, offset, indexIntervalBytes, 0, Time.SYSTEM)
+    val seg = new LogSegment(ms, idx, timeIdx, txnIndex, offset, indexIntervalBytes, 0, Time.SYSTEM,
+      LogSegment.ReadPositionCacheSize)
     segments += seg
     seg
   }
@@ -168,6 +169,26 @@ class LogSegmentTest {
     }
   }
 
+  /**
+   * The cached position of a read offset must not be used once the segment was truncated and other batches appended.
+   */
+  @Test
+  def testReadPositionCacheClearedOnTruncate() {
+    val seg = createSegment(40)
+    seg.append(50, 50, RecordBatch.NO_TIMESTAMP, -1L, records(50, "hello"))
+    // a single v2 batch with two records
+    seg.append(51, 52, RecordBatch.NO_TIMESTAMP, -1L, MemoryRecords.withRecords(51, CompressionType.NONE,
+      new SimpleRecord("there".getBytes), new SimpleRecord("little".getBytes)))
+    assertEquals(List(51L, 52L), seg.read(52, None, 10000).records.records.asScala.map(_.offset).toList)
+    // the position is cached, the batch containing offset 52 still starts at offset 51
+    assertEquals(List(51L, 52L), seg.read(52, None, 10000).records.records.asScala.map(_.offset).toList)
+
+    seg.truncateTo(51)
+    seg.append(51, 51, RecordBatch.NO_TIMESTAMP, -1L, records(51, "there"))
+    seg.append(52, 52, RecordBatch.NO_TIMESTAMP, -1L, records(52, "bee"))
+    assertEquals(List(52L), seg.read(52, None, 10000).records.records.asScala.map(_.offset).toList)
+  }
+
   @Test
   def testReloadLargestTimestampAndNextOffsetAfterTruncation() {
     val numMessages = 30
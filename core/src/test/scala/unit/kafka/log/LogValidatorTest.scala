@@ -19,9 +19,10 @@ package kafka.log
 import java.nio.ByteBuffer
 
 import kafka.common.LongRef
-import kafka.message.{CompressionCodec, DefaultCompressionCodec, GZIPCompressionCodec, NoCompressionCodec, SnappyCompressionCodec}
+import kafka.message.{CompressionCodec, DefaultCompressionCodec, GZIPCompressionCodec, NoCompressionCodec, SnappyCompressionCodec, ZStdCompressionCodec}
 import org.apache.kafka.common.errors.{InvalidTimestampException, UnsupportedForMessageFormatException}
 import org.apache.kafka.common.record._
+import org.apache.kafka.common.utils.Utils
 import org.apache.kafka.test.TestUtils
 import org.junit.Assert._
 import org.junit.Test
@@ -432,6 +433,46 @@ class LogValidatorTest {
       isFromClient = true)
   }
 
+  @Test(expected = classOf[UnsupportedForMessageFormatException])
+  def testZStdCompressedWithUnavailableMagic() {
+    val records = createRecords(magicValue = RecordBatch.MAGIC_VALUE_V2, codec = CompressionType.ZSTD)
+    LogValidator.validateMessagesAndAssignOffsets(
+      records,
+      offsetCounter = new LongRef(0),
+      now = System.currentTimeMillis(),
+      sourceCodec = ZStdCompressionCodec,
+      targetCodec = ZStdCompressionCodec,
+      magic = RecordBatch.MAGIC_VALUE_V1,
+      compactedTopic = false,
+      timestampType = TimestampType.CREATE_TIME,
+      timestampDiffMaxMs = 1000L,
+      partitionLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH,
+      isFromClient = true)
+  }
+
+  @Test
+  def testRecompressionToZStd() {
+    val records = createRecords(magicValue = RecordBatch.MAGIC_VALUE_V2, codec = CompressionType.GZIP)
+    val validatedRecords = LogValidator.validateMessagesAndAssignOffsets(
+      records,
+      offsetCounter = new LongRef(0),
+      now = System.currentTimeMillis(),
+      sourceCodec = GZIPCompressionCodec,
+      targetCodec = ZStdCompressionCodec,
+      magic = RecordBatch.MAGIC_VALUE_V2,
+      compactedTopic = false,
+      timestampType = TimestampType.CREATE_TIME,
+      timestampDiffMaxMs = 1000L,
+      partitionLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH,
+      isFromClient = true,
+      compressionOptions = CompressionOptions.zstd(19, null)).validatedRecords
+
+    for (batch <- validatedRecords.batches.asScala)
+      assertEquals(CompressionType.ZSTD, batch.compressionType)
+    assertEquals(Seq("hello", "there", "beautiful"),
+      validatedRecords.records.asScala.map(record => Utils.utf8(record.value, record.valueSize)).toSeq)
+  }
+
   @Test(expected = classOf[InvalidTimestampException])
   def testInvalidCreateTimeCompressedV1() {
     val now = System.currentTimeMillis()
@@ -71,6 +71,27 @@ class OffsetIndexTest extends JUnitSuite {
     }
   }
   
+  @Test
+  def testLookupBeforeAndInWarmSection() {
+    // more entries than the warm section at the end of the index
+    val entries = 3000
+    val idx = new OffsetIndex(nonExistantTempFile(), baseOffset = 0L, maxIndexSize = entries * 8)
+    for (i <- 0 until entries)
+      idx.append(10L * (i + 1), 100 * i)
+
+    assertEquals(OffsetPosition(0L, 0), idx.lookup(5L))
+    for (i <- 0 until entries) {
+      val expected = OffsetPosition(10L * (i + 1), 100 * i)
+      assertEquals(expected, idx.lookup(10L * (i + 1)))
+      assertEquals(expected, idx.lookup(10L * (i + 1) + 5))
+    }
+    assertEquals(Some(OffsetPosition(20L, 100)), idx.fetchUpperBoundOffset(OffsetPosition(10L, 0), 50))
+    assertEquals(Some(OffsetPosition(10L * entries, 100 * (entries - 1))),
+      idx.fetchUpperBoundOffset(OffsetPosition(10L * (entries - 1), 100 * (entries - 2)), 50))
+    assertEquals(None, idx.fetchUpperBoundOffset(OffsetPosition(10L * entries, 100 * (entries - 1)), 50))
+    idx.file.delete()
+  }
+
   @Test
   def lookupExtremeCases() {
     assertEquals("Lookup on empty file", OffsetPosition(idx.baseOffset, 0), idx.lookup(idx.baseOffset))
@@ -133,6 +154,51 @@ class OffsetIndexTest extends JUnitSuite {
     assertWriteFails("Append should fail on read-only index", idxRo, 53, classOf[IllegalArgumentException])
   }
   
+  @Test
+  def testIndexIsMappedOnFirstAccess() {
+    idx.append(51, 0)
+    idx.append(52, 1)
+    idx.close()
+    val reopened = new OffsetIndex(idx.file, baseOffset = idx.baseOffset)
+    assertFalse("Opening an index should not map it", reopened.isMapped)
+    assertEquals(2, reopened.entries)
+    reopened.sanityCheckFileSize()
+    assertFalse("Checking the size of the file should not map the index", reopened.isMapped)
+    assertEquals(OffsetPosition(52, 1), reopened.lookup(52))
+    assertTrue(reopened.isMapped)
+  }
+
+  @Test
+  def testIdleTrimmedIndexesAreUnmapped() {
+    val maxMappedIndexes = MappedIndexCache.maxMappedIndexes
+    MappedIndexCache.maxMappedIndexes = 1
+    try {
+      val indexes = (0 until 2).map { i =>
+        val index = new OffsetIndex(nonExistantTempFile(), baseOffset = 0L, maxIndexSize = 10 * 8)
+        index.append(i + 1, i)
+        index
+      }
+      val active = new OffsetIndex(nonExistantTempFile(), baseOffset = 0L, maxIndexSize = 10 * 8)
+      active.append(1, 0)
+
+      // the indexes of inactive segments are trimmed when the segment is rolled
+      indexes(0).trimToValidSize()
+      indexes(1).trimToValidSize()
+      assertFalse("The least recently used trimmed index should be unmapped", indexes(0).isMapped)
+      assertTrue(indexes(1).isMapped)
+      assertTrue("An index with free slots should not be unmapped", active.isMapped)
+
+      // an unmapped index is mapped again when it is read
+      assertEquals(OffsetPosition(1, 0), indexes(0).lookup(1))
+      assertTrue(indexes(0).isMapped)
+      assertFalse(indexes(1).isMapped)
+
+      (indexes :+ active).foreach(_.file.delete())
+    } finally {
+      MappedIndexCache.maxMappedIndexes = maxMappedIndexes
+    }
+  }
+
   @Test
   def truncate() {
 	val idx = new OffsetIndex(nonExistantTempFile(), baseOffset = 0L, maxIndexSize = 10 * 8)
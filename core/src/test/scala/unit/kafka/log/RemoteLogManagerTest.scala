@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.util.concurrent.CountDownLatch
+import java.util.{Collections, Properties}
+
+import kafka.utils.{MockTime, TestUtils}
+import org.apache.kafka.common.{KafkaException, TopicPartition}
+import org.apache.kafka.common.requests.IsolationLevel
+import org.apache.kafka.common.utils.Utils
+import org.apache.kafka.server.log.remote.RemoteStorageManager.IndexType
+import org.apache.kafka.server.log.remote.{FileSystemRemoteStorageManager, LogSegmentData, RemoteLogSegmentMetadata}
+import org.junit.Assert._
+import org.junit.{After, Before, Test}
+
+import scala.collection.JavaConverters._
+
+class RemoteLogManagerTest {
+
+  val time = new MockTime()
+  val tp = new TopicPartition("topic", 0)
+  var logDir: File = null
+  var remoteDir: File = null
+  var logManager: LogManager = null
+  var remoteStorageManager: FileSystemRemoteStorageManager = null
+  var remoteLogManager: RemoteLogManager = null
+
+  @Before
+  def setUp() {
+    logDir = TestUtils.tempDir()
+    remoteDir = TestUtils.tempDir()
+    logManager = TestUtils.createLogManager(Array(logDir), time = time)
+    remoteStorageManager = new FileSystemRemoteStorageManager
+    remoteStorageManager.configure(Collections.singletonMap(FileSystemRemoteStorageManager.STORAGE_DIR_CONFIG, remoteDir.getPath))
+    remoteLogManager = new RemoteLogManager(remoteStorageManager, logManager, _ => true, time.scheduler, 1000L,
+      1024 * 1024L, readerThreads = 1, readTimeoutMs = 30000L, time)
+  }
+
+  @After
+  def tearDown() {
+    remoteLogManager.shutdown()
+    logManager.shutdown()
+    Utils.delete(logDir)
+    Utils.delete(remoteDir)
+  }
+
+  @Test
+  def testCopiedSegmentsAreDeletedLocallyAndReadRemotely() {
+    val log = createLog()
+    for (i <- 0 until 100)
+      log.appendAsLeader(TestUtils.singletonRecords(value = s"value-$i".getBytes), leaderEpoch = 0)
+    val activeSegmentBaseOffset = log.activeSegment.baseOffset
+    assertTrue(log.numberOfSegments > 3)
+    log.onHighWatermarkIncremented(log.logEndOffset)
+
+    // until the segments have been copied, the usual retention limits apply
+    assertEquals(0, log.deleteOldSegments())
+
+    remoteLogManager.copyAndDeleteSegments()
+    val remoteSegments = remoteStorageManager.listRemoteLogSegments(tp).asScala
+    assertEquals(log.numberOfSegments - 1, remoteSegments.size)
+    assertEquals(0L, remoteSegments.head.baseOffset)
+    assertEquals(activeSegmentBaseOffset - 1, remoteSegments.last.endOffset)
+    assertEquals(Some(activeSegmentBaseOffset - 1), log.highestOffsetInRemoteStorage)
+    assertEquals(Some(0L), remoteLogManager.earliestOffset(tp))
+
+    // the copied segments are deleted according to the local retention limits
+    log.deleteOldSegments()
+    assertEquals(1, log.numberOfSegments)
+    assertEquals(activeSegmentBaseOffset, log.logStartOffset)
+
+    for (offset <- Seq(0L, 5L, activeSegmentBaseOffset - 1)) {
+      val fetchInfo = remoteLogManager.read(tp, log, offset, 1024, minOneMessage = true, IsolationLevel.READ_UNCOMMITTED).get
+      val records = fetchInfo.records.records.asScala.toList
+      assertEquals(offset, records.head.offset)
+      assertEquals(offset, fetchInfo.fetchOffsetMetadata.messageOffset)
+      records.foreach(record => assertEquals(s"value-${record.offset}", utf8(record.value)))
+    }
+
+    val readCommitted = remoteLogManager.read(tp, log, 0L, 1024, minOneMessage = true, IsolationLevel.READ_COMMITTED).get
+    assertEquals(Some(List.empty), readCommitted.abortedTransactions)
+
+    // a partial first batch is not returned unless one message is required
+    val incomplete = remoteLogManager.read(tp, log, 0L, 10, minOneMessage = false, IsolationLevel.READ_UNCOMMITTED).get
+    assertTrue(incomplete.firstEntryIncomplete)
+
+    assertEquals(None, remoteLogManager.read(tp, log, activeSegmentBaseOffset, 1024, minOneMessage = true,
+      IsolationLevel.READ_UNCOMMITTED))
+  }
+
+  @Test
+  def testSegmentsAboveTheHighWatermarkAreNotCopied() {
+    val log = createLog()
+    for (i <- 0 until 100)
+      log.appendAsLeader(TestUtils.singletonRecords(value = s"value-$i".getBytes), leaderEpoch = 0)
+    val numberOfSegments = log.numberOfSegments
+    log.onHighWatermarkIncremented(0L)
+
+    remoteLogManager.copyAndDeleteSegments()
+    assertTrue(remoteStorageManager.listRemoteLogSegments(tp).isEmpty)
+    assertEquals(Some(-1L), log.highestOffsetInRemoteStorage)
+
+    log.onHighWatermarkIncremented(log.logEndOffset)
+    assertEquals(0, log.deleteOldSegments())
+    assertEquals(numberOfSegments, log.numberOfSegments)
+  }
+
+  @Test
+  def testRemoteSegmentsAreDeletedByRetention() {
+    val log = createLog(LogConfig.RetentionBytesProp -> "1")
+    for (i <- 0 until 100)
+      log.appendAsLeader(TestUtils.singletonRecords(value = s"value-$i".getBytes), leaderEpoch = 0)
+    log.onHighWatermarkIncremented(log.logEndOffset)
+    val highestOffset = log.activeSegment.baseOffset - 1
+
+    remoteLogManager.copyAndDeleteSegments()
+    remoteLogManager.copyAndDeleteSegments()
+    // the newest remote segment is retained
+    val remoteSegments = remoteStorageManager.listRemoteLogSegments(tp).asScala
+    assertEquals(1, remoteSegments.size)
+    assertEquals(highestOffset, remoteSegments.head.endOffset)
+    assertEquals(Some(highestOffset), log.highestOffsetInRemoteStorage)
+  }
+
+  @Test
+  def testLogsWithoutRemoteStorageAreNotCopied() {
+    val logProps = new Properties()
+    logProps.put(LogConfig.SegmentBytesProp, "1024")
+    val log = logManager.createLog(tp, LogConfig(logProps))
+    for (i <- 0 until 100)
+      log.appendAsLeader(TestUtils.singletonRecords(value = s"value-$i".getBytes), leaderEpoch = 0)
+    log.onHighWatermarkIncremented(log.logEndOffset)
+
+    remoteLogManager.copyAndDeleteSegments()
+    assertTrue(remoteStorageManager.listRemoteLogSegments(tp).isEmpty)
+    assertEquals(None, log.highestOffsetInRemoteStorage)
+  }
+
+  @Test
+  def testChunkCacheReadsAcrossChunks() {
+    val segment = new RemoteLogSegmentMetadata(tp, 0L, 0L, 0L, 100)
+    val data = new File(logDir, "segment.log")
+    Files.write(data.toPath, Array.tabulate[Byte](100)(_.toByte))
+    remoteStorageManager.copyLogSegment(segment, new LogSegmentData(data, null, null, null, null))
+
+    val cache = new RemoteLogChunkCache(remoteStorageManager, maxBytes = 30, readerThreads = 1,
+      readTimeoutMs = 30000L, chunkSize = 16)
+    try {
+      assertEquals((5 until 45).map(_.toByte), bytes(cache.read(segment, 5, 40)))
+      assertEquals((90 until 100).map(_.toByte), bytes(cache.read(segment, 90, 40)))
+      assertEquals(Seq.empty, bytes(cache.read(segment, 100, 40)))
+      assertEquals(None, cache.index(segment, IndexType.OFFSET))
+    } finally {
+      cache.close()
+    }
+  }
+
+  @Test
+  def testChunkCacheReadsTimeOut() {
+    val segment = new RemoteLogSegmentMetadata(tp, 0L, 0L, 0L, 100)
+    val data = new File(logDir, "segment.log")
+    Files.write(data.toPath, Array.tabulate[Byte](100)(_.toByte))
+    remoteStorageManager.copyLogSegment(segment, new LogSegmentData(data, null, null, null, null))
+
+    val blocked = new CountDownLatch(1)
+    val slowStorageManager = new FileSystemRemoteStorageManager {
+      override def fetchLogSegmentData(metadata: RemoteLogSegmentMetadata, position: Int, size: Int): ByteBuffer = {
+        blocked.await()
+        super.fetchLogSegmentData(metadata, position, size)
+      }
+    }
+    slowStorageManager.configure(Collections.singletonMap(FileSystemRemoteStorageManager.STORAGE_DIR_CONFIG, remoteDir.getPath))
+    val cache = new RemoteLogChunkCache(slowStorageManager, maxBytes = 1024, readerThreads = 1, readTimeoutMs = 100L)
+    try {
+      try {
+        cache.read(segment, 0, 10)
+        fail("The read should have timed out")
+      } catch {
+        case _: KafkaException =>
+      }
+      // the timed out read is cancelled and not cached, so the next read fetches the chunk again
+      blocked.countDown()
+      assertEquals((0 until 10).map(_.toByte), bytes(cache.read(segment, 0, 10)))
+    } finally {
+      cache.close()
+    }
+  }
+
+  private def createLog(props: (String, String)*): Log = {
+    val logProps = new Properties()
+    logProps.put(LogConfig.SegmentBytesProp, "1024")
+    logProps.put(LogConfig.RemoteStorageEnableProp, "true")
+    logProps.put(LogConfig.LocalRetentionBytesProp, "1")
+    props.foreach { case (name, value) => logProps.put(name, value) }
+    logManager.createLog(tp, LogConfig(logProps))
+  }
+
+  private def bytes(buffer: ByteBuffer): Seq[Byte] = Utils.toArray(buffer).toSeq
+
+  private def utf8(buffer: ByteBuffer): String = Utils.utf8(buffer, buffer.remaining)
+}
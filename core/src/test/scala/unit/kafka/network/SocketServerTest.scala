@@ -29,6 +29,7 @@ import kafka.security.CredentialProvider
 import kafka.server.KafkaConfig
 import kafka.utils.TestUtils
 import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.memory.MemoryPool
 import org.apache.kafka.common.metrics.Metrics
 import org.apache.kafka.common.network.{ListenerName, NetworkSend, Send}
 import org.apache.kafka.common.protocol.{ApiKeys, SecurityProtocol}
@@ -294,6 +295,40 @@ class SocketServerTest extends JUnitSuite {
     }
   }
 
+  @Test
+  def testRequestsAreNotReadWhileMemoryPoolIsOutOfMemory() {
+    val poolProps = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect, port = 0)
+    poolProps.put(KafkaConfig.SocketRequestMaxBytesProp, "50")
+    // the pool is out of memory once the buffer of a single request is in use
+    poolProps.put(KafkaConfig.QueuedMaxBytesProp, "50")
+    val serverMetrics = new Metrics()
+    val poolServer = new SocketServer(KafkaConfig.fromProps(poolProps), serverMetrics, Time.SYSTEM, credentialProvider)
+    try {
+      poolServer.startup()
+      val socket1 = connect(poolServer)
+      val socket2 = connect(poolServer)
+      val serializedBytes = producerRequestBytes()
+
+      sendRequest(socket1, serializedBytes)
+      val request1 = receiveRequest(poolServer.requestChannel)
+      sendRequest(socket2, serializedBytes)
+      assertNull("A request should not be read while the memory pool is out of memory",
+        poolServer.requestChannel.receiveRequest(500))
+
+      request1.releaseBuffer()
+      processRequest(poolServer.requestChannel, request1)
+      assertEquals(serializedBytes.toSeq, receiveResponse(socket1).toSeq)
+      val request2 = receiveRequest(poolServer.requestChannel)
+      assertNotEquals(request1.connectionId, request2.connectionId)
+      request2.releaseBuffer()
+      processRequest(poolServer.requestChannel, request2)
+      assertEquals(serializedBytes.toSeq, receiveResponse(socket2).toSeq)
+    } finally {
+      poolServer.shutdown()
+      serverMetrics.close()
+    }
+  }
+
   @Test
   def testSslSocketServer() {
     val trustStoreFile = File.createTempFile("truststore", ".jks")
@@ -354,7 +389,7 @@ class SocketServerTest extends JUnitSuite {
       override def newProcessor(id: Int, connectionQuotas: ConnectionQuotas, listenerName: ListenerName,
                                 protocol: SecurityProtocol): Processor = {
         new Processor(id, time, config.socketRequestMaxBytes, requestChannel, connectionQuotas,
-          config.connectionsMaxIdleMs, listenerName, protocol, config, metrics, credentialProvider) {
+          config.connectionsMaxIdleMs, listenerName, protocol, config, metrics, credentialProvider, MemoryPool.NONE) {
           override protected[network] def sendResponse(response: RequestChannel.Response, responseSend: Send) {
             conn.close()
             super.sendResponse(response, responseSend)
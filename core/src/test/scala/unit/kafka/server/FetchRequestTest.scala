@@ -23,10 +23,10 @@ import kafka.api.KAFKA_0_11_0_IV2
 import kafka.log.LogConfig
 import kafka.utils.TestUtils
 import kafka.utils.TestUtils._
-import org.apache.kafka.clients.producer.{KafkaProducer, ProducerRecord}
+import org.apache.kafka.clients.producer.{KafkaProducer, ProducerConfig, ProducerRecord}
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.protocol.{ApiKeys, Errors}
-import org.apache.kafka.common.record.{Record, RecordBatch}
+import org.apache.kafka.common.record.{CompressionType, Record, RecordBatch}
 import org.apache.kafka.common.requests.{FetchRequest, FetchResponse, IsolationLevel}
 import org.apache.kafka.common.serialization.StringSerializer
 import org.junit.Assert._
@@ -230,6 +230,41 @@ class FetchRequestTest extends BaseRequestTest {
       expectedMagic = RecordBatch.MAGIC_VALUE_V2)
   }
 
+  @Test
+  def testZstdCompressedRecordsAreOnlyReturnedToFetchersSupportingZstd(): Unit = {
+    val producerProps = new Properties
+    producerProps.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, CompressionType.ZSTD.name)
+    producer = TestUtils.createNewProducer(TestUtils.getBrokerListStrFromServers(servers),
+      retries = 5, keySerializer = new StringSerializer, valueSerializer = new StringSerializer,
+      props = Some(producerProps))
+    val (topicPartition, leaderId) = createTopics(numTopics = 1, numPartitions = 1).head
+    producer.send(new ProducerRecord(topicPartition.topic, topicPartition.partition, "key", "value")).get
+
+    def fetch(requestVersion: Short): FetchResponse.PartitionData = {
+      val fetchRequest = FetchRequest.Builder.forConsumer(Int.MaxValue, 0, createPartitionMap(1024,
+        Seq(topicPartition))).build(requestVersion)
+      sendFetchRequest(leaderId, fetchRequest).responseData.get(topicPartition)
+    }
+
+    // fetchers using v4 to v7 would receive the zstd compressed batch unchanged
+    val unsupported = fetch(5)
+    assertEquals(Errors.UNSUPPORTED_COMPRESSION_TYPE, unsupported.error)
+    assertEquals(0, unsupported.records.sizeInBytes)
+
+    // older fetchers receive the records down-converted without compression
+    val downConverted = fetch(3)
+    assertEquals(Errors.NONE, downConverted.error)
+    val downConvertedBatches = downConverted.records.batches.asScala.toBuffer
+    assertEquals(1, downConvertedBatches.size)
+    assertEquals(RecordBatch.MAGIC_VALUE_V1, downConvertedBatches.head.magic)
+    assertEquals(CompressionType.NONE, downConvertedBatches.head.compressionType)
+
+    val supported = fetch(8)
+    assertEquals(Errors.NONE, supported.error)
+    assertEquals(Seq(CompressionType.ZSTD), supported.records.batches.asScala.map(_.compressionType).toSeq)
+    assertEquals(1, records(supported).size)
+  }
+
   private def records(partitionData: FetchResponse.PartitionData): Seq[Record] = {
     partitionData.records.records.asScala.toIndexedSeq
   }
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util
+import java.util.Collections
+
+import kafka.utils.MockTime
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.record.{CompressionType, MemoryRecords, SimpleRecord}
+import org.apache.kafka.common.requests.{FetchRequest, FetchResponse, FetchMetadata => JFetchMetadata}
+import org.junit.Assert._
+import org.junit.{After, Test}
+
+import scala.collection.JavaConverters._
+
+class FetchSessionTest {
+
+  private val time = new MockTime
+  private val cache = new FetchSessionCache(2, 1000)
+  private val fetchManager = new FetchManager(time, cache)
+
+  private val tp0 = new TopicPartition("foo", 0)
+  private val tp1 = new TopicPartition("foo", 1)
+  private val tp2 = new TopicPartition("bar", 0)
+
+  @After
+  def tearDown() {
+    fetchManager.shutdown()
+  }
+
+  private def reqData(partitions: (TopicPartition, Long)*): util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData] = {
+    val data = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+    partitions.foreach { case (tp, offset) => data.put(tp, new FetchRequest.PartitionData(offset, 0, 1000)) }
+    data
+  }
+
+  private def respData(partitions: (TopicPartition, Long, Boolean)*): util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData] = {
+    val data = new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]
+    partitions.foreach { case (tp, highWatermark, hasRecords) =>
+      val records = if (hasRecords)
+        MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord("v".getBytes))
+      else
+        MemoryRecords.EMPTY
+      data.put(tp, new FetchResponse.PartitionData(Errors.NONE, highWatermark, highWatermark, 0, null, records))
+    }
+    data
+  }
+
+  private def fullFetch(partitions: (TopicPartition, Long)*): FetchContext =
+    fetchManager.newContext(JFetchMetadata.INITIAL, reqData(partitions: _*), Collections.emptyList(), false)
+
+  @Test
+  def testSessionlessFetch() {
+    val context = fetchManager.newContext(JFetchMetadata.LEGACY, reqData(tp0 -> 0L), Collections.emptyList(), false)
+    assertTrue(context.isInstanceOf[SessionlessFetchContext])
+    val response = context.updateAndGenerateResponseData(respData((tp0, 10L, true)))
+    assertEquals(Errors.NONE, response.error)
+    assertEquals(JFetchMetadata.INVALID_SESSION_ID, response.sessionId)
+    assertEquals(0, cache.size)
+  }
+
+  @Test
+  def testIncrementalFetch() {
+    val full = fullFetch(tp0 -> 0L, tp1 -> 0L)
+    val fullResponse = full.updateAndGenerateResponseData(respData((tp0, 10L, true), (tp1, 10L, true)))
+    val sessionId = fullResponse.sessionId
+    assertNotEquals(JFetchMetadata.INVALID_SESSION_ID, sessionId)
+    assertEquals(List(tp0, tp1), fullResponse.responseData.keySet.asScala.toList)
+
+    // the partitions of the session are read, but unchanged partitions are not returned
+    val context1 = fetchManager.newContext(JFetchMetadata.newIncremental(sessionId), reqData(tp0 -> 5L),
+      Collections.emptyList(), false)
+    assertEquals(reqData(tp0 -> 5L, tp1 -> 0L).asScala, context1.fetchData.asScala)
+    val response1 = context1.updateAndGenerateResponseData(respData((tp0, 10L, true), (tp1, 10L, false)))
+    assertEquals(Errors.NONE, response1.error)
+    assertEquals(sessionId, response1.sessionId)
+    assertEquals(List(tp0), response1.responseData.keySet.asScala.toList)
+
+    // partitions which returned records are fetched last, a high watermark change is returned
+    val context2 = fetchManager.newContext(JFetchMetadata.newIncremental(sessionId).nextIncremental(), reqData(tp2 -> 0L),
+      Collections.singletonList(tp0), false)
+    assertEquals(List(tp1, tp2), context2.fetchData.keySet.asScala.toList)
+    val response2 = context2.updateAndGenerateResponseData(respData((tp1, 11L, false), (tp2, 0L, false)))
+    assertEquals(List(tp1, tp2), response2.responseData.keySet.asScala.toList)
+  }
+
+  @Test
+  def testIncrementalFetchErrors() {
+    val sessionId = fullFetch(tp0 -> 0L).updateAndGenerateResponseData(respData((tp0, 10L, false))).sessionId
+
+    val unknownSession = fetchManager.newContext(JFetchMetadata.newIncremental(sessionId + 1), reqData(),
+      Collections.emptyList(), false)
+    assertEquals(Errors.FETCH_SESSION_ID_NOT_FOUND, unknownSession.updateAndGenerateResponseData(respData()).error)
+
+    val fromFollower = fetchManager.newContext(JFetchMetadata.newIncremental(sessionId), reqData(),
+      Collections.emptyList(), true)
+    assertEquals(Errors.FETCH_SESSION_ID_NOT_FOUND, fromFollower.updateAndGenerateResponseData(respData()).error)
+
+    val wrongEpoch = fetchManager.newContext(JFetchMetadata.newIncremental(sessionId).nextIncremental(), reqData(),
+      Collections.emptyList(), false)
+    assertEquals(Errors.INVALID_FETCH_SESSION_EPOCH, wrongEpoch.updateAndGenerateResponseData(respData()).error)
+
+    // a full fetch closes the session
+    val full = fetchManager.newContext(JFetchMetadata.newIncremental(sessionId).nextCloseExisting(), reqData(tp0 -> 0L),
+      Collections.emptyList(), false)
+    full.updateAndGenerateResponseData(respData((tp0, 10L, false)))
+    assertEquals(None, cache.get(sessionId))
+    assertEquals(1, cache.size)
+  }
+
+  @Test
+  def testSessionEviction() {
+    val session1 = fullFetch(tp0 -> 0L).updateAndGenerateResponseData(respData((tp0, 0L, false))).sessionId
+    time.sleep(500)
+    val session2 = fullFetch(tp0 -> 0L).updateAndGenerateResponseData(respData((tp0, 0L, false))).sessionId
+    assertEquals(2, cache.size)
+
+    // the cache is full and no session is idle for long enough
+    val noSession = fullFetch(tp0 -> 0L).updateAndGenerateResponseData(respData((tp0, 0L, false))).sessionId
+    assertEquals(JFetchMetadata.INVALID_SESSION_ID, noSession)
+
+    // the least recently used session is evicted
+    time.sleep(500)
+    fetchManager.newContext(JFetchMetadata.newIncremental(session1), reqData(), Collections.emptyList(), false)
+    time.sleep(600)
+    val session3 = fullFetch(tp0 -> 0L).updateAndGenerateResponseData(respData((tp0, 0L, false))).sessionId
+    assertNotEquals(JFetchMetadata.INVALID_SESSION_ID, session3)
+    assertTrue(cache.get(session1).isDefined)
+    assertEquals(None, cache.get(session2))
+  }
+}
@@ -88,6 +88,27 @@ class ProduceRequestTest extends BaseRequestTest {
     assertEquals(-1, partitionResponse.logAppendTime)
   }
 
+  @Test
+  def testZstdProduceRequest() {
+    val (partition, leader) = createTopicAndFindPartitionWithLeader("topic")
+    val topicPartition = new TopicPartition("topic", partition)
+
+    def sendAndCheck(version: Option[Short], expectedError: Errors, expectedOffset: Long): Unit = {
+      val memoryRecords = MemoryRecords.withRecords(CompressionType.ZSTD,
+        new SimpleRecord(System.currentTimeMillis(), "key".getBytes, "value".getBytes))
+      val builder = new ProduceRequest.Builder(RecordBatch.CURRENT_MAGIC_VALUE, -1, 3000,
+        Map(topicPartition -> memoryRecords).asJava)
+      val produceResponse = sendProduceRequest(leader, version.map(builder.build).getOrElse(builder.build()))
+      val partitionResponse = produceResponse.responses.get(topicPartition)
+      assertEquals(expectedError, partitionResponse.error)
+      assertEquals(expectedOffset, partitionResponse.baseOffset)
+    }
+
+    // versions older than 4 may not contain zstd compressed batches
+    sendAndCheck(Some(3), Errors.UNSUPPORTED_COMPRESSION_TYPE, -1)
+    sendAndCheck(None, Errors.NONE, 0)
+  }
+
   private def sendProduceRequest(leaderId: Int, request: ProduceRequest): ProduceResponse = {
     val response = connectAndSend(request, ApiKeys.PRODUCE, destination = brokerSocketServer(leaderId))
     ProduceResponse.parse(response, request.version)
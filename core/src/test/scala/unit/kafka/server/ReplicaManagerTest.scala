@@ -21,19 +21,23 @@ import java.io.File
 import java.util.Properties
 import java.util.concurrent.atomic.AtomicBoolean
 
-import kafka.log.LogConfig
+import kafka.api.{LeaderAndIsr, PartitionStateInfo}
+import kafka.controller.LeaderIsrAndControllerEpoch
+import kafka.log.{LogConfig, LogFlusher}
 import kafka.utils.{MockScheduler, MockTime, TestUtils, ZkUtils}
 import TestUtils.createBroker
 import kafka.utils.timer.MockTimer
 import org.I0Itec.zkclient.ZkClient
 import org.apache.kafka.common.metrics.Metrics
-import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.network.ListenerName
+import org.apache.kafka.common.protocol.{Errors, SecurityProtocol}
 import org.apache.kafka.common.record._
 import org.apache.kafka.common.requests.{IsolationLevel, LeaderAndIsrRequest, PartitionState}
 import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
 import org.apache.kafka.common.requests.FetchRequest.PartitionData
 import org.apache.kafka.common.requests.FetchResponse.AbortedTransaction
 import org.apache.kafka.common.{Node, TopicPartition}
+import org.apache.kafka.server.replica.RackAwareReplicaSelector
 import org.easymock.EasyMock
 import org.junit.Assert._
 import org.junit.{After, Before, Test}
@@ -385,6 +389,206 @@ class ReplicaManagerTest {
     }
   }
 
+  @Test
+  def testConsumerDirectedToInSyncReplicaInItsRack() {
+    val props = TestUtils.createBrokerConfig(1, TestUtils.MockZkConnect)
+    props.put("log.dir", TestUtils.tempRelativeDir("data").getAbsolutePath)
+    props.put("broker.id", Int.box(0))
+    props.put(KafkaConfig.ReplicaSelectorClassProp, classOf[RackAwareReplicaSelector].getName)
+    val config = KafkaConfig.fromProps(props)
+    val logProps = new Properties()
+    val mockLogMgr = TestUtils.createLogManager(config.logDirs.map(new File(_)).toArray, LogConfig(logProps))
+    val listenerName = ListenerName.forSecurityProtocol(SecurityProtocol.PLAINTEXT)
+    val aliveBrokers = Seq(createBroker(0, "host0", 0), createBroker(1, "host1", 1))
+    val metadataCache = EasyMock.createMock(classOf[MetadataCache])
+    EasyMock.expect(metadataCache.getAliveBrokers).andReturn(aliveBrokers).anyTimes()
+    EasyMock.expect(metadataCache.isBrokerAlive(EasyMock.anyInt)).andReturn(true).anyTimes()
+    EasyMock.expect(metadataCache.getAliveNodeWithRack(EasyMock.eq(0), EasyMock.eq(listenerName)))
+      .andReturn(Some(new Node(0, "host0", 0, "rack-a"))).anyTimes()
+    EasyMock.expect(metadataCache.getAliveNodeWithRack(EasyMock.eq(1), EasyMock.eq(listenerName)))
+      .andReturn(Some(new Node(1, "host1", 1, "rack-b"))).anyTimes()
+    EasyMock.replay(metadataCache)
+    val rm = new ReplicaManager(config, metrics, time, zkUtils, new MockScheduler(time), mockLogMgr,
+      new AtomicBoolean(false), QuotaFactory.instantiate(config, metrics, time).follower, new BrokerTopicStats,
+      metadataCache, Option(this.getClass.getName))
+
+    try {
+      val tp = new TopicPartition(topic, 0)
+      val brokerList = Seq[Integer](0, 1).asJava
+      val partition = rm.getOrCreatePartition(tp)
+      partition.getOrCreateReplica(0)
+
+      // Make this replica the leader.
+      val leaderAndIsrRequest = new LeaderAndIsrRequest.Builder(0, 0,
+        collection.immutable.Map(tp -> new PartitionState(0, 0, 0, brokerList, 0, brokerList)).asJava,
+        Set(new Node(0, "host0", 0), new Node(1, "host1", 1)).asJava).build()
+      rm.becomeLeaderOrFollower(0, leaderAndIsrRequest, (_, _) => ())
+
+      for (i <- 1 to 2) {
+        val records = TestUtils.singletonRecords(s"message $i".getBytes)
+        appendRecords(rm, tp, records).onFire { response =>
+          assertEquals(Errors.NONE, response.error)
+        }
+      }
+
+      // a consumer in the rack of the follower is only directed to it once it replicated the fetch offset
+      val rackBConsumer = Some(ClientMetadata("consumer", "rack-b", listenerName))
+      var fetchData = fetchAsConsumer(rm, tp, new PartitionData(0, 0, 100000), clientMetadata = rackBConsumer).assertFired
+      assertEquals(None, fetchData.preferredReadReplica)
+      fetchAsFollower(rm, tp, new PartitionData(2, 0, 100000)).assertFired
+
+      fetchData = fetchAsConsumer(rm, tp, new PartitionData(0, 0, 100000), clientMetadata = rackBConsumer).assertFired
+      assertEquals(Errors.NONE, fetchData.error)
+      assertEquals(Some(1), fetchData.preferredReadReplica)
+      assertEquals(MemoryRecords.EMPTY, fetchData.records)
+
+      // a consumer in the rack of the leader fetches from the leader
+      fetchData = fetchAsConsumer(rm, tp, new PartitionData(0, 0, 100000),
+        clientMetadata = Some(ClientMetadata("consumer", "rack-a", listenerName))).assertFired
+      assertEquals(None, fetchData.preferredReadReplica)
+      assertEquals(2, fetchData.records.batches.asScala.size)
+    } finally {
+      rm.shutdown(checkpointHW = false)
+    }
+  }
+
+  @Test
+  def testDelayedConsumerFetchOnFollowerCompletesOnHighWatermarkIncrement() {
+    val props = TestUtils.createBrokerConfig(1, TestUtils.MockZkConnect)
+    props.put("log.dir", TestUtils.tempRelativeDir("data").getAbsolutePath)
+    props.put("broker.id", Int.box(0))
+    val config = KafkaConfig.fromProps(props)
+    val logProps = new Properties()
+    val mockLogMgr = TestUtils.createLogManager(config.logDirs.map(new File(_)).toArray, LogConfig(logProps))
+    val listenerName = ListenerName.forSecurityProtocol(SecurityProtocol.PLAINTEXT)
+    val aliveBrokers = Seq(createBroker(0, "host0", 0), createBroker(1, "host1", 1))
+    val metadataCache = EasyMock.createMock(classOf[MetadataCache])
+    EasyMock.expect(metadataCache.getAliveBrokers).andReturn(aliveBrokers).anyTimes()
+    EasyMock.expect(metadataCache.isBrokerAlive(EasyMock.anyInt)).andReturn(true).anyTimes()
+    EasyMock.expect(metadataCache.getPartitionInfo(topic, 0)).andReturn(Some(PartitionStateInfo(
+      LeaderIsrAndControllerEpoch(LeaderAndIsr(1, List(0, 1)), 0), Seq(0, 1)))).anyTimes()
+    EasyMock.replay(metadataCache)
+    val rm = new ReplicaManager(config, metrics, time, zkUtils, new MockScheduler(time), mockLogMgr,
+      new AtomicBoolean(false), QuotaFactory.instantiate(config, metrics, time).follower, new BrokerTopicStats,
+      metadataCache, Option(this.getClass.getName))
+
+    try {
+      val tp = new TopicPartition(topic, 0)
+      val brokerList = Seq[Integer](0, 1).asJava
+      val partition = rm.getOrCreatePartition(tp)
+      partition.getOrCreateReplica(0)
+
+      // Make this replica a follower of broker 1.
+      val leaderAndIsrRequest = new LeaderAndIsrRequest.Builder(0, 0,
+        collection.immutable.Map(tp -> new PartitionState(0, 1, 0, brokerList, 0, brokerList)).asJava,
+        Set(new Node(0, "host0", 0), new Node(1, "host1", 1)).asJava).build()
+      rm.becomeLeaderOrFollower(0, leaderAndIsrRequest, (_, _) => ())
+
+      // a consumer fetching from the in-sync follower waits for data below the high watermark
+      val fetchResult = fetchAsConsumer(rm, tp, new PartitionData(0, 0, 100000), minBytes = 1,
+        clientMetadata = Some(ClientMetadata("consumer", "rack-b", listenerName)))
+      assertFalse(fetchResult.isFired)
+
+      // replicate two records and advance the high watermark the way the replica fetcher thread does
+      val replica = rm.getReplicaOrException(tp)
+      replica.log.get.appendAsFollower(MemoryRecords.withRecords(0L, CompressionType.NONE, Int.box(0),
+        new SimpleRecord("message 1".getBytes), new SimpleRecord("message 2".getBytes)))
+      replica.highWatermark = new LogOffsetMetadata(2)
+      rm.tryCompleteDelayedFetch(new TopicPartitionOperationKey(tp))
+
+      val fetchData = fetchResult.assertFired
+      assertEquals(Errors.NONE, fetchData.error)
+      assertEquals(2, fetchData.records.records.asScala.size)
+    } finally {
+      rm.shutdown(checkpointHW = false)
+    }
+  }
+
+  @Test
+  def testAcksOneProduceWaitsForLeaderFlush() {
+    val timer = new MockTimer
+    val rm = setupReplicaManagerWithMockedPurgatories(timer, flushEveryMessageProps)
+
+    try {
+      val tp = new TopicPartition(topic, 0)
+      val flusher = becomeLeaderWithManualFlusher(rm, tp)
+
+      val produceResult = appendRecords(rm, tp, TestUtils.singletonRecords("message".getBytes), requiredAcks = 1)
+      assertFalse(produceResult.isFired)
+
+      flusher.doWork()
+      assertEquals(Errors.NONE, produceResult.assertFired.error)
+    } finally {
+      rm.shutdown(checkpointHW = false)
+    }
+  }
+
+  @Test
+  def testAcksAllProduceWaitsForLeaderFlushAfterHighWatermark() {
+    val timer = new MockTimer
+    val rm = setupReplicaManagerWithMockedPurgatories(timer, flushEveryMessageProps)
+
+    try {
+      val tp = new TopicPartition(topic, 0)
+      val flusher = becomeLeaderWithManualFlusher(rm, tp)
+
+      val produceResult = appendRecords(rm, tp, TestUtils.singletonRecords("message".getBytes), requiredAcks = -1)
+      // the leader is the only replica in the ISR, so the high watermark has already reached the append
+      assertEquals(1L, rm.getLeaderReplicaIfLocal(tp).highWatermark.messageOffset)
+      assertFalse(produceResult.isFired)
+
+      flusher.doWork()
+      assertEquals(Errors.NONE, produceResult.assertFired.error)
+    } finally {
+      rm.shutdown(checkpointHW = false)
+    }
+  }
+
+  @Test
+  def testProduceWaitingForFlushTimesOut() {
+    val timer = new MockTimer
+    val rm = setupReplicaManagerWithMockedPurgatories(timer, flushEveryMessageProps)
+
+    try {
+      val tp = new TopicPartition(topic, 0)
+      becomeLeaderWithManualFlusher(rm, tp)
+
+      val produceResult = appendRecords(rm, tp, TestUtils.singletonRecords("message".getBytes), requiredAcks = 1)
+      assertFalse(produceResult.isFired)
+
+      timer.advanceClock(1001)
+      assertEquals(Errors.REQUEST_TIMED_OUT, produceResult.assertFired.error)
+      assertFalse(rm.getLeaderReplicaIfLocal(tp).log.get.isFlushedUpTo(1L))
+    } finally {
+      rm.shutdown(checkpointHW = false)
+    }
+  }
+
+  private def flushEveryMessageProps: Properties = {
+    val logProps = new Properties()
+    logProps.put(LogConfig.FlushMessagesProp, Int.box(1))
+    logProps
+  }
+
+  /**
+   * Make this broker the leader and only replica of the partition, and attach a flusher to its log which only flushes
+   * the log when the test calls `doWork()`
+   */
+  private def becomeLeaderWithManualFlusher(rm: ReplicaManager, tp: TopicPartition): LogFlusher = {
+    val brokerList = Seq[Integer](0).asJava
+    rm.getOrCreatePartition(tp).getOrCreateReplica(0)
+    val leaderAndIsrRequest = new LeaderAndIsrRequest.Builder(0, 0,
+      collection.immutable.Map(tp -> new PartitionState(0, 0, 0, brokerList, 0, brokerList)).asJava,
+      Set(new Node(0, "host0", 0)).asJava).build()
+    rm.becomeLeaderOrFollower(0, leaderAndIsrRequest, (_, _) => ())
+
+    val log = rm.getLeaderReplicaIfLocal(tp).log.get
+    val flusher = new LogFlusher(log.dir.getParentFile,
+      flushedLog => rm.tryCompleteDelayedProduce(new TopicPartitionOperationKey(flushedLog.topicPartition)))
+    log.flusher = Some(flusher)
+    flusher
+  }
+
   private class CallbackResult[T] {
     private var value: Option[T] = None
     private var fun: Option[T => Unit] = None
@@ -413,7 +617,8 @@ class ReplicaManagerTest {
   private def appendRecords(replicaManager: ReplicaManager,
                             partition: TopicPartition,
                             records: MemoryRecords,
-                            isFromClient: Boolean = true): CallbackResult[PartitionResponse] = {
+                            isFromClient: Boolean = true,
+                            requiredAcks: Short = -1): CallbackResult[PartitionResponse] = {
     val result = new CallbackResult[PartitionResponse]()
     def appendCallback(responses: Map[TopicPartition, PartitionResponse]): Unit = {
       val response = responses.get(partition)
@@ -423,7 +628,7 @@ class ReplicaManagerTest {
 
     replicaManager.appendRecords(
       timeout = 1000,
-      requiredAcks = -1,
+      requiredAcks = requiredAcks,
       internalTopicsAllowed = false,
       isFromClient = isFromClient,
       entriesPerPartition = Map(partition -> records),
@@ -436,8 +641,9 @@ class ReplicaManagerTest {
                               partition: TopicPartition,
                               partitionData: PartitionData,
                               minBytes: Int = 0,
-                              isolationLevel: IsolationLevel = IsolationLevel.READ_UNCOMMITTED): CallbackResult[FetchPartitionData] = {
-    fetchMessages(replicaManager, replicaId = -1, partition, partitionData, minBytes, isolationLevel)
+                              isolationLevel: IsolationLevel = IsolationLevel.READ_UNCOMMITTED,
+                              clientMetadata: Option[ClientMetadata] = None): CallbackResult[FetchPartitionData] = {
+    fetchMessages(replicaManager, replicaId = -1, partition, partitionData, minBytes, isolationLevel, clientMetadata)
   }
 
   private def fetchAsFollower(replicaManager: ReplicaManager,
@@ -453,7 +659,8 @@ class ReplicaManagerTest {
                             partition: TopicPartition,
                             partitionData: PartitionData,
                             minBytes: Int,
-                            isolationLevel: IsolationLevel): CallbackResult[FetchPartitionData] = {
+                            isolationLevel: IsolationLevel,
+                            clientMetadata: Option[ClientMetadata] = None): CallbackResult[FetchPartitionData] = {
     val result = new CallbackResult[FetchPartitionData]()
     def fetchCallback(responseStatus: Seq[(TopicPartition, FetchPartitionData)]) = {
       assertEquals(1, responseStatus.size)
@@ -470,17 +677,18 @@ class ReplicaManagerTest {
       hardMaxBytesLimit = false,
       fetchInfos = Seq(partition -> partitionData),
       responseCallback = fetchCallback,
-      isolationLevel = isolationLevel)
+      isolationLevel = isolationLevel,
+      clientMetadata = clientMetadata)
 
     result
   }
 
-  private def setupReplicaManagerWithMockedPurgatories(timer: MockTimer): ReplicaManager = {
+  private def setupReplicaManagerWithMockedPurgatories(timer: MockTimer,
+                                                      logProps: Properties = new Properties()): ReplicaManager = {
     val props = TestUtils.createBrokerConfig(1, TestUtils.MockZkConnect)
     props.put("log.dir", TestUtils.tempRelativeDir("data").getAbsolutePath)
     props.put("broker.id", Int.box(0))
     val config = KafkaConfig.fromProps(props)
-    val logProps = new Properties()
     val mockLogMgr = TestUtils.createLogManager(config.logDirs.map(new File(_)).toArray, LogConfig(logProps))
     val aliveBrokers = Seq(createBroker(0, "host0", 0), createBroker(1, "host1", 1))
     val metadataCache = EasyMock.createMock(classOf[MetadataCache])
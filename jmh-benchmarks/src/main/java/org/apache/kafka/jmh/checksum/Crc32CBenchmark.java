@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.checksum;
+
+import org.apache.kafka.common.utils.Checksums;
+import org.apache.kafka.common.utils.Crc32C;
+import org.apache.kafka.common.utils.PureJavaCrc32C;
+import org.apache.kafka.common.utils.SlicingBy16Crc32C;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+/**
+ * Compares the CRC32C implementations on heap and direct buffers. `DEFAULT` is the implementation chosen by
+ * {@link Crc32C}, which is java.util.zip.CRC32C when running on Java 9 or later, e.g.
+ * `./jmh.sh -p implementation=DEFAULT,SLICING_BY_16 Crc32CBenchmark`.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class Crc32CBenchmark {
+
+    public enum Implementation {
+        DEFAULT, SLICING_BY_16, PURE_JAVA
+    }
+
+    @Param(value = {"DEFAULT", "SLICING_BY_16", "PURE_JAVA"})
+    private Implementation implementation = Implementation.DEFAULT;
+
+    @Param(value = {"1024", "16384", "1048576"})
+    private int size = 1024;
+
+    @Param(value = {"false", "true"})
+    private boolean direct = false;
+
+    private ByteBuffer buffer;
+    private Checksum checksum;
+
+    @Setup
+    public void init() {
+        byte[] bytes = new byte[size];
+        new Random(0).nextBytes(bytes);
+        buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        buffer.put(bytes);
+        buffer.flip();
+
+        switch (implementation) {
+            case DEFAULT:
+                checksum = Crc32C.create();
+                break;
+            case SLICING_BY_16:
+                checksum = new SlicingBy16Crc32C();
+                break;
+            case PURE_JAVA:
+                checksum = new PureJavaCrc32C();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown implementation " + implementation);
+        }
+    }
+
+    @Benchmark
+    public long checksum() {
+        checksum.reset();
+        Checksums.update(checksum, buffer, size);
+        return checksum.getValue();
+    }
+}
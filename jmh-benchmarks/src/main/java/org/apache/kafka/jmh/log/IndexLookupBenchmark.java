@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.log;
+
+import kafka.log.IndexEntry;
+import kafka.log.OffsetIndex;
+import org.apache.kafka.common.utils.Utils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookups of an offset index of a full 1GB segment for offsets at the head of the index, at its tail (the
+ * last 1000 entries, like followers and consumers which keep up with the log) and at random. Compare `warmSection`
+ * true (the tail of the index is searched first) and false (a binary search over the whole index).
+ * <p>
+ * `lookup` measures the latency of the lookups and `pagesTouched` the number of distinct 4KB pages of the index read
+ * per lookup, which are the pages a lookup may miss in the page cache: only the pages at the tail of the index are
+ * reliably resident. Run with `-prof perfnorm` to also count the page faults and cache misses per lookup, e.g.
+ * `./jmh.sh IndexLookupBenchmark -prof perfnorm`.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class IndexLookupBenchmark {
+
+    private static final int ENTRIES = 256 * 1024;
+    private static final int TAIL_ENTRIES = 1000;
+    private static final int LOOKUPS = 1024;
+    private static final int PAGE_SIZE = 4096;
+    private static final int ENTRY_SIZE = 8;
+
+    @Param(value = {"head", "tail", "random"})
+    private String target = "tail";
+
+    @Param(value = {"true", "false"})
+    private boolean warmSection = true;
+
+    private File dir;
+    private OffsetIndex index;
+    private PageCountingOffsetIndex countingIndex;
+    private long[] targetOffsets;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("kafka-jmh-index").toFile();
+        index = new BenchmarkOffsetIndex(new File(dir, "00000000000000000000.index"), warmSection);
+        countingIndex = new PageCountingOffsetIndex(new File(dir, "00000000000000000001.index"), warmSection);
+        // an entry every 10 offsets and 4KB, as with the default index interval
+        for (int i = 0; i < ENTRIES; i++) {
+            index.append(10L * (i + 1), PAGE_SIZE * i);
+            countingIndex.append(10L * (i + 1), PAGE_SIZE * i);
+        }
+
+        Random random = new Random(0);
+        targetOffsets = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            int entry;
+            switch (target) {
+                case "head":
+                    entry = random.nextInt(TAIL_ENTRIES);
+                    break;
+                case "tail":
+                    entry = ENTRIES - 1 - random.nextInt(TAIL_ENTRIES);
+                    break;
+                case "random":
+                    entry = random.nextInt(ENTRIES);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown target " + target);
+            }
+            // look up offsets between the indexed ones, like most fetches do
+            targetOffsets[i] = 10L * (entry + 1) + random.nextInt(10);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Utils.delete(dir);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(LOOKUPS)
+    public void lookup(Blackhole bh) {
+        for (long offset : targetOffsets)
+            bh.consume(index.lookup(offset));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OperationsPerInvocation(LOOKUPS)
+    public void pagesTouched(PageCounters counters, Blackhole bh) {
+        for (long offset : targetOffsets) {
+            countingIndex.pages.clear();
+            bh.consume(countingIndex.lookup(offset));
+            counters.pagesTouched += countingIndex.pages.cardinality();
+        }
+    }
+
+    /**
+     * The pages touched per lookup are the `pagesTouched` rate divided by the rate of lookups.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class PageCounters {
+        public long pagesTouched;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            pagesTouched = 0;
+        }
+    }
+
+    private static class BenchmarkOffsetIndex extends OffsetIndex {
+        private final boolean warmSection;
+
+        BenchmarkOffsetIndex(File file, boolean warmSection) {
+            super(file, 0L, ENTRIES * ENTRY_SIZE, true);
+            this.warmSection = warmSection;
+        }
+
+        @Override
+        public int warmEntries() {
+            return warmSection ? super.warmEntries() : 0;
+        }
+    }
+
+    private static class PageCountingOffsetIndex extends BenchmarkOffsetIndex {
+        final BitSet pages = new BitSet();
+
+        PageCountingOffsetIndex(File file, boolean warmSection) {
+            super(file, warmSection);
+        }
+
+        @Override
+        public IndexEntry parseEntry(ByteBuffer buffer, int n) {
+            pages.set(n * ENTRY_SIZE / PAGE_SIZE);
+            return super.parseEntry(buffer, n);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.log;
+
+import kafka.log.LogSegment;
+import kafka.log.OffsetIndex;
+import kafka.log.TimeIndex;
+import kafka.log.TransactionIndex;
+import kafka.server.FetchDataInfo;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.FileRecords;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import scala.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Measures the reads of many consumer groups tailing the same partition: the groups are spread over a few offsets
+ * near the end of the active segment, as they are when they keep up with the producers. Compare `readPositionCacheSize`
+ * 0 (no cache) and 16, e.g. `./jmh.sh LogSegmentReadBenchmark`.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class LogSegmentReadBenchmark {
+
+    private static final int BATCH_COUNT = 10000;
+    private static final int RECORDS_PER_BATCH = 10;
+    private static final int CONSUMER_GROUPS = 64;
+    private static final Option<Object> NO_MAX_OFFSET = Option.empty();
+
+    @Param(value = {"0", "16"})
+    private int readPositionCacheSize = 16;
+
+    @Param(value = {"4", "16"})
+    private int distinctOffsets = 4;
+
+    private File dir;
+    private LogSegment segment;
+    private long[] fetchOffsets;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("kafka-jmh-log").toFile();
+        segment = new LogSegment(FileRecords.open(new File(dir, "00000000000000000000.log")),
+                new OffsetIndex(new File(dir, "00000000000000000000.index"), 0L, 10 * 1024 * 1024, true),
+                new TimeIndex(new File(dir, "00000000000000000000.timeindex"), 0L, 10 * 1024 * 1024, true),
+                new TransactionIndex(0L, new File(dir, "00000000000000000000.txnindex")),
+                0L, 4096, 0L, Time.SYSTEM, readPositionCacheSize);
+
+        SimpleRecord[] records = new SimpleRecord[RECORDS_PER_BATCH];
+        for (int i = 0; i < RECORDS_PER_BATCH; i++)
+            records[i] = new SimpleRecord(new byte[100]);
+        for (int batch = 0; batch < BATCH_COUNT; batch++) {
+            long offset = (long) batch * RECORDS_PER_BATCH;
+            segment.append(offset, offset + RECORDS_PER_BATCH - 1, RecordBatch.NO_TIMESTAMP, offset,
+                    MemoryRecords.withRecords(offset, CompressionType.NONE, records));
+        }
+
+        // the groups are at the start of one of the last batches of the segment
+        long endOffset = (long) BATCH_COUNT * RECORDS_PER_BATCH;
+        fetchOffsets = new long[CONSUMER_GROUPS];
+        for (int group = 0; group < CONSUMER_GROUPS; group++)
+            fetchOffsets[group] = endOffset - (1 + group % distinctOffsets) * RECORDS_PER_BATCH;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        segment.close();
+        Utils.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONSUMER_GROUPS)
+    public void readFromTail(Blackhole bh) {
+        for (long fetchOffset : fetchOffsets) {
+            FetchDataInfo info = segment.read(fetchOffset, NO_MAX_OFFSET, 1024 * 1024, segment.size(), false);
+            bh.consume(info.records().sizeInBytes());
+        }
+    }
+}
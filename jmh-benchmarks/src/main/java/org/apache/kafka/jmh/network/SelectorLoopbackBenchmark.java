@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.network;
+
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.network.ByteBufferSend;
+import org.apache.kafka.common.network.MultiSend;
+import org.apache.kafka.common.network.NetworkReceive;
+import org.apache.kafka.common.network.NetworkSend;
+import org.apache.kafka.common.network.PlaintextChannelBuilder;
+import org.apache.kafka.common.network.Selectable;
+import org.apache.kafka.common.network.Selector;
+import org.apache.kafka.common.network.Send;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Drives request/response round trips over many loopback connections through the network {@link Selector}. Each
+ * response is written by the server as a {@link MultiSend} of `sendsPerResponse` parts, like a fetch response with
+ * many partitions. Compare `gatheringWrites` true (the parts are written by a single gathering write) and false (a
+ * write per part), e.g. `./jmh.sh SelectorLoopbackBenchmark`. The process needs a file descriptor limit of at least
+ * twice the number of connections.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SelectorLoopbackBenchmark {
+
+    private static final int CONNECTIONS = 1000;
+    private static final int REQUEST_SIZE = 100;
+    private static final int RESPONSE_PART_SIZE = 64;
+
+    @Param(value = {"1", "16"})
+    private int sendsPerResponse = 16;
+
+    @Param(value = {"true", "false"})
+    private boolean gatheringWrites = true;
+
+    private Selector client;
+    private EchoServer server;
+    private List<String> connectionIds;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = new EchoServer(sendsPerResponse, gatheringWrites);
+        server.start();
+
+        client = newSelector();
+        connectionIds = new ArrayList<>(CONNECTIONS);
+        InetSocketAddress address = new InetSocketAddress("localhost", server.port());
+        for (int i = 0; i < CONNECTIONS; i++) {
+            String id = String.valueOf(i);
+            client.connect(id, address, Selectable.USE_DEFAULT_BUFFER_SIZE, Selectable.USE_DEFAULT_BUFFER_SIZE);
+            connectionIds.add(id);
+        }
+        int connected = 0;
+        while (connected < CONNECTIONS) {
+            client.poll(100);
+            connected += client.connected().size();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONNECTIONS)
+    public int roundTrip() throws IOException {
+        for (String id : connectionIds)
+            client.send(new NetworkSend(id, ByteBuffer.allocate(REQUEST_SIZE)));
+        int received = 0;
+        while (received < CONNECTIONS) {
+            client.poll(1000);
+            received += client.completedReceives().size();
+        }
+        return received;
+    }
+
+    private static Selector newSelector() {
+        PlaintextChannelBuilder channelBuilder = new PlaintextChannelBuilder();
+        channelBuilder.configure(Collections.<String, Object>emptyMap());
+        // connections never expire
+        return new Selector(NetworkReceive.UNLIMITED, -1L, new Metrics(), Time.SYSTEM, "benchmark",
+                Collections.<String, String>emptyMap(), false, channelBuilder);
+    }
+
+    /**
+     * Accepts the connections and responds to every request, on a single thread like a network processor of a broker.
+     */
+    private static class EchoServer extends Thread {
+        private final ServerSocketChannel serverSocketChannel;
+        private final Selector selector;
+        private final int sendsPerResponse;
+        private final boolean gatheringWrites;
+        private int nextConnectionId = 0;
+        private volatile boolean running = true;
+
+        EchoServer(int sendsPerResponse, boolean gatheringWrites) throws IOException {
+            super("selector-benchmark-server");
+            setDaemon(true);
+            this.sendsPerResponse = sendsPerResponse;
+            this.gatheringWrites = gatheringWrites;
+            this.serverSocketChannel = ServerSocketChannel.open();
+            this.serverSocketChannel.configureBlocking(false);
+            this.serverSocketChannel.socket().bind(new InetSocketAddress("localhost", 0), CONNECTIONS);
+            this.selector = newSelector();
+        }
+
+        int port() {
+            return serverSocketChannel.socket().getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    SocketChannel socketChannel;
+                    while ((socketChannel = serverSocketChannel.accept()) != null) {
+                        socketChannel.configureBlocking(false);
+                        selector.register(String.valueOf(nextConnectionId++), socketChannel);
+                    }
+                    selector.poll(nextConnectionId < CONNECTIONS ? 1 : 100);
+                    for (NetworkReceive receive : selector.completedReceives())
+                        selector.send(response(receive.source()));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private Send response(String destination) {
+            List<Send> sends = new ArrayList<>(sendsPerResponse + 1);
+            ByteBuffer size = ByteBuffer.allocate(4);
+            size.putInt(0, sendsPerResponse * RESPONSE_PART_SIZE);
+            sends.add(new ByteBufferSend(destination, size));
+            for (int i = 0; i < sendsPerResponse; i++) {
+                Send part = new ByteBufferSend(destination, ByteBuffer.allocate(RESPONSE_PART_SIZE));
+                sends.add(gatheringWrites ? part : new NonGatheringSend(part));
+            }
+            return new MultiSend(destination, sends);
+        }
+
+        void close() throws Exception {
+            running = false;
+            selector.wakeup();
+            join();
+            selector.close();
+            serverSocketChannel.close();
+        }
+    }
+
+    private static class NonGatheringSend implements Send {
+        private final Send send;
+
+        NonGatheringSend(Send send) {
+            this.send = send;
+        }
+
+        @Override
+        public String destination() {
+            return send.destination();
+        }
+
+        @Override
+        public boolean completed() {
+            return send.completed();
+        }
+
+        @Override
+        public long writeTo(GatheringByteChannel channel) throws IOException {
+            return send.writeTo(channel);
+        }
+
+        @Override
+        public long size() {
+            return send.size();
+        }
+    }
+}
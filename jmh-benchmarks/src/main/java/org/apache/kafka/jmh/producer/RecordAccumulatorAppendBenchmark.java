@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.ApiVersions;
+import org.apache.kafka.clients.producer.internals.ProducerBatch;
+import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionOptions;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link RecordAccumulator#append}, which is where threads calling
+ * {@link org.apache.kafka.clients.producer.KafkaProducer#send} contend with each other, while a background thread
+ * drains and releases the batches like the sender does. Run it with different thread counts to see how the throughput
+ * scales, e.g. {@code ./jmh.sh -t 8 RecordAccumulatorAppendBenchmark}.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecordAccumulatorAppendBenchmark {
+
+    private static final String TOPIC = "topic";
+
+    @Param(value = {"1", "4"})
+    private int maxOpenBatchesPerPartition = 1;
+
+    @Param(value = {"1", "16"})
+    private int partitionCount = 1;
+
+    @Param(value = {"NONE", "LZ4"})
+    private CompressionType compressionType = CompressionType.NONE;
+
+    @Param(value = {"100"})
+    private int valueSize = 100;
+
+    private Metrics metrics;
+    private RecordAccumulator accumulator;
+    private TopicPartition[] partitions;
+    private byte[] value;
+    private Thread drainer;
+    private volatile boolean running;
+
+    @State(Scope.Thread)
+    public static class AppenderState {
+        int next = 0;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        metrics = new Metrics();
+        accumulator = new RecordAccumulator(16 * 1024, 32 * 1024 * 1024L, compressionType, CompressionOptions.DEFAULT,
+                0L, 100L, maxOpenBatchesPerPartition, null, metrics, Time.SYSTEM, new ApiVersions(), null);
+
+        final Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitionInfos = new ArrayList<>();
+        partitions = new TopicPartition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new TopicPartition(TOPIC, i);
+            partitionInfos.add(new PartitionInfo(TOPIC, i, node, new Node[] {node}, new Node[] {node}));
+        }
+        final Cluster cluster = new Cluster(null, Collections.singletonList(node), partitionInfos,
+                Collections.<String>emptySet(), Collections.<String>emptySet());
+
+        value = new byte[valueSize];
+        new Random(0).nextBytes(value);
+
+        running = true;
+        drainer = new Thread("benchmark-drainer") {
+            @Override
+            public void run() {
+                while (running) {
+                    long now = Time.SYSTEM.milliseconds();
+                    Set<Node> ready = accumulator.ready(cluster, now).readyNodes;
+                    Map<Integer, List<ProducerBatch>> drained = accumulator.drain(cluster, ready, Integer.MAX_VALUE, now);
+                    for (List<ProducerBatch> batches : drained.values()) {
+                        for (ProducerBatch batch : batches) {
+                            batch.done(0L, now, null);
+                            accumulator.deallocate(batch);
+                        }
+                    }
+                }
+            }
+        };
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        drainer.join();
+        metrics.close();
+    }
+
+    @Benchmark
+    public RecordAccumulator.RecordAppendResult append(AppenderState state) throws InterruptedException {
+        TopicPartition partition = partitions[state.next++ % partitions.length];
+        return accumulator.append(partition, 0L, null, value, Record.EMPTY_HEADERS, null, Long.MAX_VALUE);
+    }
+}